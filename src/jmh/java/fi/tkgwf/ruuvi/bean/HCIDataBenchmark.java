@@ -0,0 +1,48 @@
+package fi.tkgwf.ruuvi.bean;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.utils.HCIParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up the advertisement data of a parsed data format 5 packet: the manufacturer specific data that is found, and
+ * the Eddystone data that is looked up for every packet without manufacturer specific data.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HCIDataBenchmark {
+    private final HCIData hciData;
+
+    public HCIDataBenchmark() {
+        final HCIParser parser = new HCIParser();
+        HCIData parsed = null;
+        for (String line : TestFixture.getDataFormat5Lines()) {
+            parsed = parser.readLine(line);
+        }
+        hciData = parsed;
+    }
+
+    @Benchmark
+    public HCIData.Report.AdvertisementData findManufacturerData() {
+        return hciData.findAdvertisementDataByType(0xFF);
+    }
+
+    @Benchmark
+    public HCIData.Report.AdvertisementData findMissing() {
+        return hciData.findAdvertisementDataByType(0x16);
+    }
+}
@@ -0,0 +1,51 @@
+package fi.tkgwf.ruuvi.handler;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.utils.HCIParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes a parsed packet of each data format into a measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BeaconHandlerBenchmark {
+    @Param({ "3", "5" })
+    private int dataFormat;
+
+    private final BeaconHandler handler = new BeaconHandler();
+    private HCIData hciData;
+
+    @Setup
+    public void setUp() {
+        final HCIParser parser = new HCIParser();
+        final String[] lines = dataFormat == 3 ? new String[] { TestFixture.getDataFormat3Message() } : TestFixture.getDataFormat5Lines();
+        for (String line : lines) {
+            hciData = parser.readLine(line);
+        }
+    }
+
+    @Benchmark
+    public Optional<EnhancedRuuviMeasurement> handle() {
+        return handler.handle(hciData);
+    }
+}
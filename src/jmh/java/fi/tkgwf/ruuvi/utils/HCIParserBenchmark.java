@@ -0,0 +1,62 @@
+package fi.tkgwf.ruuvi.utils;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.bean.HCIData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a whole packet per operation: a data format 3 packet on a single line, and a data format 5 packet on three
+ * lines as hcidump prints it, both from strings and from the byte ranges the adapters are read into.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HCIParserBenchmark {
+    private final HCIParser parser = new HCIParser();
+    private final String singleLine = TestFixture.getDataFormat3Message();
+    private final String[] multiLine = TestFixture.getDataFormat5Lines();
+    private final byte[][] multiLineBytes = new byte[multiLine.length][];
+
+    public HCIParserBenchmark() {
+        for (int i = 0; i < multiLine.length; i++) {
+            multiLineBytes[i] = multiLine[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    @Benchmark
+    public HCIData singleLine() {
+        return parser.readLine(singleLine);
+    }
+
+    @Benchmark
+    public HCIData multiLine() {
+        HCIData hciData = null;
+        for (String line : multiLine) {
+            hciData = parser.readLine(line);
+        }
+        return hciData;
+    }
+
+    @Benchmark
+    public HCIData multiLineBytes() {
+        HCIData hciData = null;
+        for (byte[] line : multiLineBytes) {
+            hciData = parser.readLine(line, 0, line.length);
+        }
+        return hciData;
+    }
+}
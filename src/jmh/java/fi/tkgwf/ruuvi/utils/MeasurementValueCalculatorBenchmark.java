@@ -0,0 +1,45 @@
+package fi.tkgwf.ruuvi.utils;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.handler.BeaconHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calculates the derived values of a data format 5 measurement. The calculation overwrites the derived values, so the
+ * same measurement is reused for every operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MeasurementValueCalculatorBenchmark {
+    private final EnhancedRuuviMeasurement measurement;
+
+    public MeasurementValueCalculatorBenchmark() {
+        final HCIParser parser = new HCIParser();
+        HCIData hciData = null;
+        for (String line : TestFixture.getDataFormat5Lines()) {
+            hciData = parser.readLine(line);
+        }
+        measurement = new BeaconHandler().handle(hciData).orElseThrow();
+    }
+
+    @Benchmark
+    public EnhancedRuuviMeasurement calculateAllValues() {
+        return MeasurementValueCalculator.calculateAllValues(measurement);
+    }
+}
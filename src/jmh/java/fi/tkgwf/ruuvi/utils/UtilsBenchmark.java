@@ -0,0 +1,47 @@
+package fi.tkgwf.ruuvi.utils;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hex and MAC address helpers applied to every line of hcidump output.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UtilsBenchmark {
+    private final String line = TestFixture.getDataFormat5Lines()[0];
+    private final byte[] lineBytes = line.getBytes(StandardCharsets.US_ASCII);
+    /** The manufacturer specific data of a data format 5 packet */
+    private final String hex = "99 " + TestFixture.getDataFormat5Lines()[1].substring(2) + " "
+            + TestFixture.getDataFormat5Lines()[2].substring(2, 16);
+
+    @Benchmark
+    public byte[] hexToBytes() {
+        return Utils.hexToBytes(hex);
+    }
+
+    @Benchmark
+    public String getMacFromLine() {
+        return Utils.getMacFromLine(line);
+    }
+
+    @Benchmark
+    public String getMacFromLineBytes() {
+        return Utils.getMacFromLine(lineBytes, 0, lineBytes.length);
+    }
+}
@@ -0,0 +1,54 @@
+package troinine.ruuvi.mqtt;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.handler.BeaconHandler;
+import fi.tkgwf.ruuvi.utils.HCIParser;
+import fi.tkgwf.ruuvi.utils.MeasurementValueCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes a data format 5 measurement with all the derived values into the MQTT payload with the mapper of
+ * {@link MqttPublisher}, the same way as it is published, and straight into bytes for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonSerializationBenchmark {
+    private final EnhancedRuuviMeasurement measurement;
+
+    public JsonSerializationBenchmark() {
+        final HCIParser parser = new HCIParser();
+        HCIData hciData = null;
+        for (String line : TestFixture.getDataFormat5Lines()) {
+            hciData = parser.readLine(line);
+        }
+        measurement = MeasurementValueCalculator.calculateAllValues(new BeaconHandler().handle(hciData).orElseThrow());
+    }
+
+    @Benchmark
+    public byte[] publishedPayload() throws JsonProcessingException {
+        return MqttPublisher.Json.MAPPER.writeValueAsString(measurement).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] writeValueAsBytes() throws JsonProcessingException {
+        return MqttPublisher.Json.MAPPER.writeValueAsBytes(measurement);
+    }
+}
@@ -0,0 +1,122 @@
+package troinine.ruuvi.store;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Appends an hour of measurements of a tag at one second intervals to the {@link TimeSeriesStore}, which seals them
+ * into a block file, and queries a column of a day of them from the memory mapped blocks. The times are per sample.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimeSeriesStoreBenchmark {
+    private static final String MAC = "AABBCCDDEEFF";
+    private static final int HOUR_SAMPLES = 3600;
+    private static final int DAY_SAMPLES = 24 * HOUR_SAMPLES;
+    private static final long HOUR = 3_600_000;
+
+    private final EnhancedRuuviMeasurement[] hour = new EnhancedRuuviMeasurement[HOUR_SAMPLES];
+    private Path directory;
+    private TimeSeriesStore appended;
+    private TimeSeriesStore queried;
+    private long time = 1_700_000_000_000L;
+    private double sum;
+
+    @Setup
+    public void setUp() throws IOException {
+        final Random random = new Random(7);
+        double temperature = 21.5;
+        double humidity = 45.0;
+        double pressure = 101325;
+        for (int i = 0; i < HOUR_SAMPLES; i++) {
+            // Drifting slowly in the resolution of data format 5
+            temperature += (random.nextInt(3) - 1) * 0.005;
+            humidity += (random.nextInt(3) - 1) * 0.0025;
+            pressure += random.nextInt(3) - 1;
+            final EnhancedRuuviMeasurement measurement = new EnhancedRuuviMeasurement();
+            measurement.setMac(MAC);
+            measurement.setTemperature(Math.round(temperature * 200) / 200.0);
+            measurement.setHumidity(Math.round(humidity * 400) / 400.0);
+            measurement.setPressure(pressure);
+            measurement.setAccelerationX(0.004 + random.nextInt(3) * 0.004);
+            measurement.setAccelerationY(-0.032);
+            measurement.setAccelerationZ(1.036 - random.nextInt(2) * 0.004);
+            measurement.setBatteryVoltage(2.977);
+            measurement.setTxPower(4);
+            measurement.setMovementCounter(i / 100);
+            measurement.setMeasurementSequenceNumber(i);
+            measurement.setRssi(-70 - random.nextInt(8));
+            hour[i] = measurement;
+        }
+
+        directory = Files.createTempDirectory("ruuvi-store-benchmark");
+        // The old blocks are purged as new ones are sealed, so that the disk does not fill up
+        appended = new TimeSeriesStore(directory.resolve("appended"), HOUR, 2 * HOUR, () -> time);
+        appended.open();
+
+        final Path queriedDirectory = directory.resolve("queried");
+        final TimeSeriesStore filled = new TimeSeriesStore(queriedDirectory, HOUR, 0, () -> time);
+        filled.open();
+        for (int i = 0; i < DAY_SAMPLES / HOUR_SAMPLES; i++) {
+            appendHour(filled);
+        }
+        filled.close();
+        queried = new TimeSeriesStore(queriedDirectory, HOUR, 0, () -> time);
+        queried.open();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        appended.close();
+        queried.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(HOUR_SAMPLES)
+    public long append() {
+        appendHour(appended);
+        return time;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DAY_SAMPLES)
+    public double query() {
+        sum = 0;
+        queried.query(MAC, Column.TEMPERATURE, Long.MIN_VALUE, Long.MAX_VALUE, (timestamp, value) -> sum += value);
+        return sum;
+    }
+
+    private void appendHour(TimeSeriesStore store) {
+        for (EnhancedRuuviMeasurement measurement : hour) {
+            measurement.setTime(time);
+            store.append(measurement);
+            time += 1000;
+        }
+    }
+}
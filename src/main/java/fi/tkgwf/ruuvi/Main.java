@@ -1,31 +1,99 @@
 package fi.tkgwf.ruuvi;
 
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
 import fi.tkgwf.ruuvi.bean.HCIData;
 import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigWatcher;
 import fi.tkgwf.ruuvi.handler.BeaconHandler;
-import fi.tkgwf.ruuvi.utils.HCIParser;
+import fi.tkgwf.ruuvi.strategy.LimitingStrategy;
+import fi.tkgwf.ruuvi.strategy.ScheduledLimitingStrategy;
 import fi.tkgwf.ruuvi.utils.MeasurementValueCalculator;
-import fi.tkgwf.ruuvi.utils.Utils;
-import java.io.BufferedReader;
+import io.prometheus.client.exporter.HTTPServer;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.*;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import troinine.ruuvi.hci.HciProcessHandler;
+import troinine.ruuvi.benchmark.Benchmark;
+import troinine.ruuvi.gateway.GatewayForwarder;
+import troinine.ruuvi.gateway.GatewayHttpServer;
+import troinine.ruuvi.gateway.GatewayServer;
+import troinine.ruuvi.hci.AdvertisementDeduplicator;
+import troinine.ruuvi.hci.HciAdapterReader;
+import troinine.ruuvi.hci.NonRuuviCache;
+import troinine.ruuvi.hci.ScanScheduler;
+import troinine.ruuvi.store.TimeSeriesStore;
+import troinine.ruuvi.jfr.LimitEvent;
+import troinine.ruuvi.metrics.Metrics;
 import troinine.ruuvi.mqtt.MqttPublisher;
+import troinine.ruuvi.mqtt.StatusPublisher;
 
 public class Main {
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final long POLL_TIMEOUT_MILLIS = 1000;
+    private static final int DROPPED_PACKETS_LOG_INTERVAL = 1000;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
 
     private final BeaconHandler beaconHandler = new BeaconHandler();
     private final MqttPublisher mqttPublisher = new MqttPublisher();
-    private final HciProcessHandler hciProcessHandler = new HciProcessHandler();
+    private final StatusPublisher statusPublisher = new StatusPublisher(Metrics.TAGS, mqttPublisher);
+    private final Benchmark benchmark = Config.isBenchmark() ? new Benchmark() : null;
+    private final boolean nullSink = Config.isBenchmark() && Config.isBenchmarkNullSink();
+    private final Predicate<EnhancedRuuviMeasurement> sink = nullSink ? Benchmark::discard : mqttPublisher::publish;
+    private final TimeSeriesStore store = Config.isStoreEnabled() ? new TimeSeriesStore() : null;
 
+    private final List<HciAdapterReader> readers = new CopyOnWriteArrayList<>();
+    private final List<GatewayForwarder> forwarders = new CopyOnWriteArrayList<>();
+    private final GatewayServer gatewayServer = new GatewayServer(this::enqueue);
+    private final GatewayHttpServer gatewayHttpServer = new GatewayHttpServer(this::enqueue);
+    private final BlockingQueue<HCIData> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong droppedPackets = new AtomicLong();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final ScanScheduler scanScheduler = new ScanScheduler();
+    private final ConfigWatcher configWatcher = new ConfigWatcher(this::configReloaded);
+    private final Set<ScheduledLimitingStrategy> startedStrategies = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final AdvertisementDeduplicator deduplicator = new AdvertisementDeduplicator(
+            Config.getHciAdapters().length > 1 || Config.isGatewayServerEnabled() || Config.isGatewayHttpEnabled()
+                    ? Config.getDeduplicationWindowMillis() : 0);
+    private boolean firstPublished;
+    private volatile HTTPServer metricsServer;
+    private volatile Benchmark.Result benchmarkResult;
+
+    /**
+     * @param args optionally "--replay &lt;file&gt;" to process captured "hcidump --raw" output instead of scanning,
+     * for example to train the class data sharing archive, or "--benchmark" to measure the collector with synthetic
+     * advertisements
+     */
     public static void main(String[] args) {
+        if (args.length == 2 && "--replay".equals(args[0])) {
+            logger.info("Replaying {}", args[1]);
+            Config.useReplayFile(args[1]);
+        } else if (args.length == 1 && "--benchmark".equals(args[0])) {
+            Config.useBenchmark();
+        } else if (args.length > 0) {
+            logger.error("Unknown arguments, usage: [--replay <file> | --benchmark]");
+            System.exit(2);
+        }
+
         Main m = new Main();
 
         if (!m.run()) {
@@ -34,6 +102,7 @@ public class Main {
         }
 
         logger.info("Clean exit");
+        System.exit(0); // The MQTT client threads would keep the JVM running
     }
 
     /**
@@ -43,106 +112,315 @@ public class Main {
      */
     public boolean run() {
         Runtime.getRuntime().addShutdownHook(new Thread(this::cleanup));
+        try {
+            return runUntilStopped();
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private boolean runUntilStopped() {
+        // The readers block on the process pipes, so each of them runs in its own virtual thread. Closing the
+        // executor waits for all of them to finish, so no reader outlives this method.
+        try (ExecutorService readerExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("hci-reader-", 0).factory())) {
+            if (StringUtils.isNotBlank(Config.getGatewayForwardHost())) {
+                // Closing the executor waits for the forwarders until they are stopped by the shutdown hook
+                return startForwarders(readerExecutor);
+            }
+            try {
+                if (store != null && !store.open()) {
+                    return false;
+                }
+                // Start reading right away, the rest is initialized while hcidump starts up
+                final boolean hciStarted = Config.isHciEnabled() && startHciListeners(readerExecutor);
+                final boolean gatewayServerStarted = Config.isGatewayServerEnabled() && startGatewayServer();
+                final boolean gatewayHttpServerStarted = Config.isGatewayHttpEnabled() && startGatewayHttpServer();
+                final boolean benchmarkStarted = benchmark != null;
+                if (benchmarkStarted) {
+                    benchmark.start(readerExecutor, this::enqueue);
+                }
+                if (!hciStarted && !gatewayServerStarted && !gatewayHttpServerStarted && !benchmarkStarted) {
+                    return false;
+                }
+                startScheduledStrategies();
+                configWatcher.start();
+                if (!nullSink) {
+                    mqttPublisher.connectInBackground();
+                    statusPublisher.start();
+                }
+                registerGauges();
+                metricsServer = Metrics.startServer();
+
+                if (hciStarted) {
+                    logger.info("BLE listener started successfully, waiting for data...");
+                    logger.info("If you don't get any data, check that you are able to run 'hcitool lescan' and 'hcidump --raw' without issues");
+                }
+
+                final boolean success = read();
+                if (benchmarkStarted) {
+                    benchmarkResult = benchmark.report(System.out);
+                    // Unlike the readers, the benchmark ends by itself, so the connection must not outlive the run
+                    statusPublisher.stop();
+                    mqttPublisher.disconnect();
+                }
+                return success;
+            } finally {
+                configWatcher.stop();
+                readers.forEach(HciAdapterReader::stop);
+                gatewayServer.stop();
+                gatewayHttpServer.stop();
+                // Only after the queue has been drained, so that the measurements still in it are stored
+                if (store != null) {
+                    store.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the results of the benchmark once the run has ended, or null if no benchmark was run
+     */
+    Benchmark.Result getBenchmarkResult() {
+        return benchmarkResult;
+    }
 
+    private void cleanup() {
+        configWatcher.stop();
+        scheduledStrategies().forEach(ScheduledLimitingStrategy::stop);
+        statusPublisher.stop();
+        mqttPublisher.disconnect();
+        readers.forEach(HciAdapterReader::stop);
+        gatewayServer.stop();
+        gatewayHttpServer.stop();
+        forwarders.forEach(GatewayForwarder::stop);
+        // The JVM exits when the hooks return, so wait for the run to drain the queue and to close the store
         try {
-            startHciListeners();
+            if (!stopped.await(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Timed out waiting for the measurements to be handled");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
+    }
 
-            logger.info("BLE listener started successfully, waiting for data...");
-            logger.info("If you don't get any data, check that you are able to run 'hcitool lescan' and 'hcidump --raw' without issues");
+    private synchronized void startScheduledStrategies() {
+        scheduledStrategies().forEach(s -> {
+            s.start(this::publishToBroker);
+            startedStrategies.add(s);
+        });
+    }
 
-            return read();
+    /**
+     * Stops the scheduled strategies that are no longer used after the configuration has been reloaded, and starts
+     * the new ones. The strategies that are still used keep running along with their state.
+     */
+    private synchronized void configReloaded() {
+        final Set<ScheduledLimitingStrategy> used = scheduledStrategies()
+                .collect(Collectors.toCollection(() -> Collections.newSetFromMap(new IdentityHashMap<>())));
+        startedStrategies.removeIf(s -> {
+            if (!used.contains(s)) {
+                s.stop();
+                return true;
+            }
+            return false;
+        });
+        startScheduledStrategies();
+    }
+
+    private static Stream<ScheduledLimitingStrategy> scheduledStrategies() {
+        return Config.getAllLimitingStrategies().stream()
+                .filter(ScheduledLimitingStrategy.class::isInstance)
+                .map(ScheduledLimitingStrategy.class::cast);
+    }
+
+    /**
+     * Starts reading each configured adapter in its own thread, or the default adapter if none have been configured.
+     *
+     * @param readerExecutor runs the reading task of each adapter
+     * @return true if at least one of the adapters could be started
+     */
+    private boolean startHciListeners(ExecutorService readerExecutor) {
+        final String[] adapters = Config.getHciAdapters().length > 0 ? Config.getHciAdapters() : new String[] { null };
+        for (String adapter : adapters) {
+            final HciAdapterReader reader = new HciAdapterReader(adapter, scanScheduler, this::enqueue);
+            try {
+                reader.start(readerExecutor);
+                readers.add(reader);
+                final String name = adapter != null ? adapter : "default";
+                Metrics.gauge(Metrics.PROCESS_RESTARTS, () -> reader.getProcessHandler().getScanStatistics().getRestarts(), name, "scan");
+                Metrics.gauge(Metrics.PROCESS_RESTARTS, () -> reader.getProcessHandler().getDumpStatistics().getRestarts(), name, "dump");
+            } catch (RuntimeException ex) {
+                logger.error("Failed to start hci processes" + (adapter != null ? " of " + adapter : ""), ex);
+            }
+        }
+        return !readers.isEmpty();
+    }
+
+    private boolean startGatewayServer() {
+        try {
+            gatewayServer.start();
+            return true;
         } catch (IOException ex) {
-            logger.error("Failed to start hci processes", ex);
+            logger.error("Failed to start the gateway server on port " + Config.getGatewayServerPort(), ex);
             return false;
         }
     }
 
-    private void cleanup() {
-        mqttPublisher.disconnect();
-        hciProcessHandler.stop();
+    private boolean startGatewayHttpServer() {
+        try {
+            gatewayHttpServer.start();
+            return true;
+        } catch (IOException ex) {
+            logger.error("Failed to start the Ruuvi Gateway HTTP server on port " + Config.getGatewayHttpPort(), ex);
+            return false;
+        }
     }
 
-    private void startHciListeners() throws IOException {
-        hciProcessHandler.start();
+    /**
+     * Forwards the hcidump output of each configured adapter to the central collector instead of handling it here.
+     *
+     * @param forwarderExecutor runs the forwarding task of each adapter
+     * @return true if at least one of the adapters could be started
+     */
+    private boolean startForwarders(ExecutorService forwarderExecutor) {
+        final String[] adapters = Config.getHciAdapters().length > 0 ? Config.getHciAdapters() : new String[] { null };
+        for (String adapter : adapters) {
+            final GatewayForwarder forwarder = new GatewayForwarder(adapter);
+            try {
+                forwarder.start(forwarderExecutor);
+                forwarders.add(forwarder);
+            } catch (RuntimeException ex) {
+                logger.error("Failed to start hci processes" + (adapter != null ? " of " + adapter : ""), ex);
+            }
+        }
+        return !forwarders.isEmpty();
     }
 
+    /**
+     * Consumes the packets of all the adapters and gateways until the readers, the gateway servers and the benchmark
+     * have been stopped. The readers restart their processes by themselves, so a failing adapter does not end the
+     * reading.
+     *
+     * @return true if the reading ended because the readers were stopped, false in case of errors
+     */
     boolean read() {
-        HCIParser parser = new HCIParser();
-        Map<String, Instant> lastUpdates = new HashMap<>();
-        boolean dataReceived = false;
-        boolean healthy = false;
         try {
-            String line, latestMAC = null;
-            while ((line = hciProcessHandler.readLine()) != null) {
-                if (line.contains("device: disconnected")) {
-                    logger.error(line + ": Either the bluetooth device was externally disabled or physically disconnected");
-                    healthy = false;
-                }
-                if (line.contains("No such device")) {
-                    logger.error(line + ": Check that your bluetooth adapter is enabled and working properly");
-                    healthy = false;
-                }
-                if (!dataReceived) {
-                    if (line.startsWith("> ")) {
-                        logger.info("Successfully reading data from hcidump");
-                        dataReceived = true;
-                        healthy = true;
-                    } else {
-                        continue; // skip the unnecessary garbage at beginning containing hcidump version and other junk print
-                    }
-                }
-                try {
-                    //Read in MAC address from first line
-                    if (Utils.hasMacAddress(line)) {
-                        latestMAC = Utils.getMacFromLine(line);
-                    }
-                    //Apply Mac Address Filtering
-                    if (Config.isAllowedMAC(latestMAC)) {
-                        HCIData hciData = parser.readLine(line);
-                        if (hciData != null) {
-                            if (shouldUpdate(hciData, lastUpdates)) {
-                                beaconHandler.handle(hciData)
-                                        .map(MeasurementValueCalculator::calculateAllValues)
-                                        .ifPresent(mqttPublisher::publish);
-                            }
-                            latestMAC = null; // "reset" the mac to null to avoid misleading MAC addresses when an error happens *after* successfully reading a full packet
-                            healthy = true;
-                        }
-                    }
-                } catch (Exception ex) {
-                    if (latestMAC != null) {
-                        logger.warn("Uncaught exception while handling measurements from MAC address \"" + latestMAC + "\", if this repeats and this is not a Ruuvitag, try blacklisting it", ex);
-                    } else {
-                        logger.warn("Uncaught exception while handling measurements, this is an unexpected event. Please report this to https://github.com/Scrin/RuuviCollector/issues and include this log", ex);
-                    }
-                    logger.debug("Offending line: " + line);
+            while (readers.stream().anyMatch(HciAdapterReader::isRunning) || gatewayServer.isRunning()
+                    || gatewayHttpServer.isRunning() || benchmark != null && benchmark.isRunning() || !queue.isEmpty()) {
+                final long timeout = Math.min(POLL_TIMEOUT_MILLIS, Math.max(0, deduplicator.getNextDeadline() - currentMillis()));
+                final HCIData hciData = queue.poll(timeout, TimeUnit.MILLISECONDS);
+                final long now = currentMillis();
+                deduplicator.flush(now, this::handle);
+                if (hciData != null) {
+                    deduplicator.add(hciData, now, this::handle);
                 }
             }
-        } catch (IOException ex) {
-            logger.error("Uncaught exception while reading measurements", ex);
+            deduplicator.flushAll(this::handle);
+        } catch (InterruptedException ex) {
+            logger.error("Interrupted while reading measurements", ex);
+            Thread.currentThread().interrupt();
             return false;
         }
-        return healthy;
+        return true;
     }
 
-    private boolean shouldUpdate(HCIData hciData, Map<String, Instant> lastUpdates) {
-        String mac = hciData.mac;
-        Duration updateInterval = Config.getUpdateInterval(mac);
-        Instant lastUpdated = lastUpdates.get(mac);
-        Instant now = Instant.now();
+    private void enqueue(HCIData hciData) {
+        Metrics.RECEPTION.heard(hciData);
+        if (!queue.offer(hciData)) {
+            Metrics.DROPPED_PACKETS.inc();
+            if (droppedPackets.incrementAndGet() % DROPPED_PACKETS_LOG_INTERVAL == 1) {
+                logger.warn("Processing can not keep up with the adapters, {} packets dropped so far", droppedPackets.get());
+            }
+        }
+    }
 
-        if (lastUpdated == null) {
-            lastUpdates.put(mac, now);
-            return true;
+    private void registerGauges() {
+        Metrics.gauge(Metrics.QUEUE_DEPTH, queue::size, "packets");
+        Metrics.gauge(Metrics.QUEUE_DEPTH, deduplicator::size, "deduplication");
+        Metrics.gauge(Metrics.MQTT_CONNECTED_BROKERS, () -> mqttPublisher.isConnected() ? 1 : 0);
+        Metrics.gauge(Metrics.GATEWAY_CONNECTIONS, () -> gatewayServer.isRunning() ? gatewayServer.getConnectionCount() : 0);
+        Metrics.gauge(Metrics.KNOWN_TAGS, scanScheduler::size);
+        Metrics.gauge(Metrics.NON_RUUVI_DEVICES, NonRuuviCache.SHARED::skippedDevices);
+    }
+
+    private void handle(HCIData hciData) {
+        try {
+            long start = System.nanoTime();
+            if (hciData.parsedNanos != 0) {
+                Metrics.record(Metrics.Stage.QUEUE, start - hciData.parsedNanos);
+            }
+            final Optional<EnhancedRuuviMeasurement> decoded = beaconHandler.handle(hciData);
+            start = Metrics.observe(Metrics.Stage.DECODE, start);
+            if (decoded.isEmpty()) {
+                Metrics.NON_RUUVI_PACKETS.inc();
+                NonRuuviCache.SHARED.nonRuuvi(hciData);
+                return;
+            }
+            NonRuuviCache.SHARED.ruuvi(hciData.mac);
+            Metrics.TAGS.heard(decoded.get());
+            Metrics.RECEPTION.handled(decoded.get().getMac(), decoded.get().getMeasurementSequenceNumber());
+            final EnhancedRuuviMeasurement measurement = MeasurementValueCalculator.calculateAllValues(decoded.get());
+            start = Metrics.observe(Metrics.Stage.CALCULATE, start);
+            final LimitingStrategy strategy = Config.getEffectiveLimitingStrategy(measurement.getMac());
+            final LimitEvent limitEvent = new LimitEvent();
+            limitEvent.begin();
+            final Optional<EnhancedRuuviMeasurement> limited = strategy.apply(measurement);
+            Metrics.observe(Metrics.Stage.LIMIT, start);
+            if (limitEvent.shouldCommit()) {
+                limitEvent.mac = measurement.getMac();
+                limitEvent.strategy = strategy.getClass();
+                limitEvent.passed = limited.isPresent();
+                limitEvent.commit();
+            }
+            if (limited.isEmpty()) {
+                if (strategy.isDiscarding()) {
+                    Metrics.RATE_LIMITED.inc();
+                    Metrics.TAGS.dropped(measurement.getMac());
+                }
+                return;
+            }
+            publish(limited.get());
+        } catch (Exception ex) {
+            Metrics.DECODE_ERRORS.inc();
+            logger.warn("Uncaught exception while handling measurements from MAC address \"" + hciData.mac + "\", if this repeats and this is not a Ruuvitag, try blacklisting it", ex);
         }
+    }
 
-        Duration diff = Duration.between(lastUpdated, now);
+    private void publish(EnhancedRuuviMeasurement measurement) {
+        final boolean published = publishToBroker(measurement);
+        scanScheduler.published(measurement.getMac());
+        if (!firstPublished) {
+            firstPublished = true;
+            logFirstPublish(published);
+        }
+    }
 
-        boolean shouldUpdate = updateInterval.minus(diff).isNegative();
-        if (shouldUpdate) {
-            lastUpdates.put(mac, now);
+    /**
+     * Publishes a measurement of a limiting strategy, either in response to a packet or on the schedule of the strategy.
+     *
+     * @return true if the measurement was published
+     */
+    private boolean publishToBroker(EnhancedRuuviMeasurement measurement) {
+        if (store != null) {
+            // Regardless of the broker, so that the history covers its outages
+            store.append(measurement);
+        }
+        final boolean published = sink.test(measurement);
+        if (published) {
+            Metrics.TAGS.published(measurement.getMac());
         }
+        return published;
+    }
+
+    private static void logFirstPublish(boolean published) {
+        ProcessHandle.current().info().startInstant().ifPresent(start -> logger.info("First measurement {} {} ms after the JVM was started",
+                published ? "published" : "failed to publish", Duration.between(start, Instant.now()).toMillis()));
+    }
 
-        return shouldUpdate;
+    private static long currentMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
     }
 }
@@ -1,6 +1,8 @@
 package fi.tkgwf.ruuvi.bean;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import fi.tkgwf.ruuvi.common.bean.RuuviMeasurement;
+import java.util.Map;
 
 /**
  * This class contains all the possible fields/data acquirable from a RuuviTag
@@ -45,6 +47,15 @@ public class EnhancedRuuviMeasurement extends RuuviMeasurement {
      * The RSSI at the receiver
      */
     private Integer rssi;
+    /**
+     * The bluetooth adapter that received the measurement with the strongest signal, only populated when the
+     * adapters have been configured explicitly
+     */
+    private String adapter;
+    /**
+     * {@link System#nanoTime()} when the packet was read, for tracing the latency, not published
+     */
+    private long readNanos;
     /**
      * Total acceleration
      */
@@ -77,6 +88,16 @@ public class EnhancedRuuviMeasurement extends RuuviMeasurement {
      * Density of air
      */
     private Double airDensity;
+    /**
+     * Number of received measurements this measurement was aggregated from, only populated by aggregating
+     * limiting strategies
+     */
+    private Integer sampleCount;
+    /**
+     * Per field statistics over the aggregation window keyed by field name, only populated by aggregating
+     * limiting strategies
+     */
+    private Map<String, FieldStatistics> statistics;
     
     public Long getTime() {
         return time;
@@ -110,6 +131,23 @@ public class EnhancedRuuviMeasurement extends RuuviMeasurement {
         this.rssi = rssi;
     }
     
+    public String getAdapter() {
+        return adapter;
+    }
+    
+    public void setAdapter(String adapter) {
+        this.adapter = adapter;
+    }
+
+    @JsonIgnore
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    public void setReadNanos(long readNanos) {
+        this.readNanos = readNanos;
+    }
+    
     public Double getAccelerationTotal() {
         return accelerationTotal;
     }
@@ -173,6 +211,22 @@ public class EnhancedRuuviMeasurement extends RuuviMeasurement {
     public void setAirDensity(Double airDensity) {
         this.airDensity = airDensity;
     }
+    
+    public Integer getSampleCount() {
+        return sampleCount;
+    }
+    
+    public void setSampleCount(Integer sampleCount) {
+        this.sampleCount = sampleCount;
+    }
+    
+    public Map<String, FieldStatistics> getStatistics() {
+        return statistics;
+    }
+    
+    public void setStatistics(Map<String, FieldStatistics> statistics) {
+        this.statistics = statistics;
+    }
 
     @Override
     public String toString() {
@@ -181,6 +235,7 @@ public class EnhancedRuuviMeasurement extends RuuviMeasurement {
                 + ", name=" + name 
                 + ", mac=" + mac 
                 + ", rssi=" + rssi 
+                + ", adapter=" + adapter 
                 + ", accelerationTotal=" + accelerationTotal 
                 + ", accelerationAngleFromX=" + accelerationAngleFromX 
                 + ", accelerationAngleFromY=" + accelerationAngleFromY 
@@ -189,6 +244,8 @@ public class EnhancedRuuviMeasurement extends RuuviMeasurement {
                 + ", dewPoint=" + dewPoint 
                 + ", equilibriumVaporPressure=" + equilibriumVaporPressure 
                 + ", airDensity=" + airDensity 
+                + ", sampleCount=" + sampleCount 
+                + ", statistics=" + statistics 
                 + ", super=" + super.toString()
                 + '}';
     }
@@ -0,0 +1,79 @@
+package fi.tkgwf.ruuvi.bean;
+
+/**
+ * Statistics of a single measurement field over an aggregation window
+ */
+public class FieldStatistics {
+
+    /**
+     * Smallest value within the window
+     */
+    private Double min;
+    /**
+     * Largest value within the window
+     */
+    private Double max;
+    /**
+     * Arithmetic mean of the values within the window
+     */
+    private Double mean;
+    /**
+     * The latest value within the window
+     */
+    private Double last;
+    /**
+     * Sample standard deviation of the values within the window, only populated if enabled
+     */
+    private Double stdDev;
+
+    public Double getMin() {
+        return min;
+    }
+
+    public void setMin(Double min) {
+        this.min = min;
+    }
+
+    public Double getMax() {
+        return max;
+    }
+
+    public void setMax(Double max) {
+        this.max = max;
+    }
+
+    public Double getMean() {
+        return mean;
+    }
+
+    public void setMean(Double mean) {
+        this.mean = mean;
+    }
+
+    public Double getLast() {
+        return last;
+    }
+
+    public void setLast(Double last) {
+        this.last = last;
+    }
+
+    public Double getStdDev() {
+        return stdDev;
+    }
+
+    public void setStdDev(Double stdDev) {
+        this.stdDev = stdDev;
+    }
+
+    @Override
+    public String toString() {
+        return "FieldStatistics{"
+                + "min=" + min
+                + ", max=" + max
+                + ", mean=" + mean
+                + ", last=" + last
+                + ", stdDev=" + stdDev
+                + '}';
+    }
+}
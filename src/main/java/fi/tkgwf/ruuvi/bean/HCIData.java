@@ -18,6 +18,15 @@ public class HCIData {
     public String mac;
     public List<Report> reports;
     public Integer rssi;
+    public String adapter;
+    /**
+     * {@link System#nanoTime()} when the first line of the packet was read, 0 if unknown
+     */
+    public long readNanos;
+    /**
+     * {@link System#nanoTime()} when the whole packet had been parsed, 0 if unknown
+     */
+    public long parsedNanos;
 
     public Report.AdvertisementData findAdvertisementDataByType(int type) {
         if (reports == null) {
@@ -34,7 +43,7 @@ public class HCIData {
 
     @Override
     public String toString() {
-        return "HCIData{" + "packetType=" + packetType + ", eventCode=" + eventCode + ", packetLength=" + packetLength + ", subEvent=" + subEvent + ", numberOfReports=" + numberOfReports + ", eventType=" + eventType + ", peerAddressType=" + peerAddressType + ", mac=" + mac + ", reports=" + reports + ", rssi=" + rssi + '}';
+        return "HCIData{" + "packetType=" + packetType + ", eventCode=" + eventCode + ", packetLength=" + packetLength + ", subEvent=" + subEvent + ", numberOfReports=" + numberOfReports + ", eventType=" + eventType + ", peerAddressType=" + peerAddressType + ", mac=" + mac + ", reports=" + reports + ", rssi=" + rssi + ", adapter=" + adapter + '}';
     }
 
     public static class Report {
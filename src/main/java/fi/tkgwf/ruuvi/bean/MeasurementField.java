@@ -0,0 +1,88 @@
+package fi.tkgwf.ruuvi.bean;
+
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The numeric fields of a {@link EnhancedRuuviMeasurement} as received from a tag. Values are accessed as
+ * primitive doubles, a missing value being represented as {@link Double#NaN}.
+ */
+public enum MeasurementField {
+    TEMPERATURE("temperature", true,
+            m -> toDouble(m.getTemperature()), (m, v) -> m.setTemperature(toDouble(v))),
+    HUMIDITY("humidity", true,
+            m -> toDouble(m.getHumidity()), (m, v) -> m.setHumidity(toDouble(v))),
+    PRESSURE("pressure", true,
+            m -> toDouble(m.getPressure()), (m, v) -> m.setPressure(toDouble(v))),
+    ACCELERATION_X("accelerationX", true,
+            m -> toDouble(m.getAccelerationX()), (m, v) -> m.setAccelerationX(toDouble(v))),
+    ACCELERATION_Y("accelerationY", true,
+            m -> toDouble(m.getAccelerationY()), (m, v) -> m.setAccelerationY(toDouble(v))),
+    ACCELERATION_Z("accelerationZ", true,
+            m -> toDouble(m.getAccelerationZ()), (m, v) -> m.setAccelerationZ(toDouble(v))),
+    BATTERY_VOLTAGE("batteryVoltage", true,
+            m -> toDouble(m.getBatteryVoltage()), (m, v) -> m.setBatteryVoltage(toDouble(v))),
+    RSSI("rssi", true,
+            m -> toDouble(m.getRssi()), (m, v) -> m.setRssi(toInteger(v))),
+    TX_POWER("txPower", false,
+            m -> toDouble(m.getTxPower()), (m, v) -> m.setTxPower(toInteger(v))),
+    MOVEMENT_COUNTER("movementCounter", false,
+            m -> toDouble(m.getMovementCounter()), (m, v) -> m.setMovementCounter(toInteger(v))),
+    MEASUREMENT_SEQUENCE_NUMBER("measurementSequenceNumber", false,
+            m -> toDouble(m.getMeasurementSequenceNumber()), (m, v) -> m.setMeasurementSequenceNumber(toInteger(v)));
+
+    private final String fieldName;
+    private final boolean continuous;
+    private final ToDoubleFunction<EnhancedRuuviMeasurement> getter;
+    private final ObjDoubleConsumer<EnhancedRuuviMeasurement> setter;
+
+    MeasurementField(String fieldName, boolean continuous, ToDoubleFunction<EnhancedRuuviMeasurement> getter,
+                     ObjDoubleConsumer<EnhancedRuuviMeasurement> setter) {
+        this.fieldName = fieldName;
+        this.continuous = continuous;
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    /**
+     * @return the name of the field as it appears in the published measurements
+     */
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    /**
+     * @return true if the field is a continuous quantity that can be averaged, false for counters and settings
+     */
+    public boolean isContinuous() {
+        return continuous;
+    }
+
+    /**
+     * @param measurement the measurement to read
+     * @return the value of this field, or {@link Double#NaN} if the value is not present
+     */
+    public double get(EnhancedRuuviMeasurement measurement) {
+        return getter.applyAsDouble(measurement);
+    }
+
+    /**
+     * @param measurement the measurement to modify
+     * @param value the new value, {@link Double#NaN} clears the field
+     */
+    public void set(EnhancedRuuviMeasurement measurement, double value) {
+        setter.accept(measurement, value);
+    }
+
+    private static double toDouble(Number value) {
+        return value == null ? Double.NaN : value.doubleValue();
+    }
+
+    private static Double toDouble(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+
+    private static Integer toInteger(double value) {
+        return Double.isNaN(value) ? null : (int) Math.round(value);
+    }
+}
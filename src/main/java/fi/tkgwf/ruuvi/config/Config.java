@@ -3,6 +3,8 @@ package fi.tkgwf.ruuvi.config;
 import fi.tkgwf.ruuvi.strategy.LimitingStrategy;
 import fi.tkgwf.ruuvi.strategy.impl.DefaultDiscardingWithMotionSensitivityStrategy;
 import fi.tkgwf.ruuvi.strategy.impl.DiscardUntilEnoughTimeHasElapsedStrategy;
+import fi.tkgwf.ruuvi.strategy.impl.WallClockAlignedStrategy;
+import fi.tkgwf.ruuvi.strategy.impl.WindowedAggregationStrategy;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
@@ -18,6 +20,7 @@ import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toMap;
 import static java.util.stream.Collectors.toSet;
@@ -36,27 +39,87 @@ public abstract class Config {
 
     private static final int DEFAULT_SCAN_RESTART_DELAY_SECS = 30;
     private static final int DEFAULT_SCAN_RESTART_IF_NO_DATA = 60;
+    private static final int DEFAULT_DUMP_RESTART_DELAY_SECS = 1;
+    private static final int DEFAULT_PROCESS_RESTART_MAX_DELAY_SECS = 300;
+    private static final String DEFAULT_SCAN_STOP_COMMAND = "hcitool cmd 0x08 0x000C 00 00";
+    private static final int DEFAULT_GATEWAY_PORT = 7575;
 
-    private static long measurementUpdateLimit;
+    /** The properties that are swapped in when the configuration files change, the rest need a restart */
+    private static final Set<String> RELOADABLE_PROPERTIES = Set.of("measurementUpdateLimit", "filter.mode", "filter.macs",
+            "limitingStrategy", "updateInterval");
+
+    private static volatile TagConfig tagConfig;
+    private static Properties loadedProperties;
     private static String storageMethod;
     private static String storageValues;
-    private static Predicate<String> filterMode;
-    private static final Set<String> FILTER_MACS = new HashSet<>();
-    private static final Map<String, String> TAG_NAMES = new HashMap<>();
     private static String[] scanCommand;
     private static String[] dumpCommand;
+    private static String[] hciAdapters;
+    private static long deduplicationWindowMillis;
+    private static boolean nonRuuviCache;
+    private static Duration nonRuuviCacheTtl;
+    private static int nonRuuviCacheMaxMacs;
+    private static int nonRuuviCacheMinMisses;
+    private static boolean hciEnabled;
+    private static boolean gatewayServer;
+    private static String gatewayServerBindAddress;
+    private static int gatewayServerPort;
+    private static int gatewayServerIdleTimeoutSecs;
+    private static String gatewayForwardHost;
+    private static int gatewayForwardPort;
+    private static String gatewayId;
+    private static boolean gatewayHttp;
+    private static String gatewayHttpBindAddress;
+    private static int gatewayHttpPort;
+    private static String gatewayHttpPath;
+    private static long gatewayHttpMaxBodyBytes;
+    private static int gatewayHttpMaxConcurrentRequests;
+    private static boolean metrics;
+    private static String metricsBindAddress;
+    private static int metricsPort;
+    private static int scanRestartDelaySecs;
+    private static long scanRestartIfNoData;
+    private static int dumpRestartDelaySecs;
+    private static boolean dumpRestart;
+    private static int processRestartMaxDelaySecs;
+    private static String[] scanStopCommand;
+    private static boolean scanDutyCycle;
+    private static long scanDutyCycleLeadMillis;
+    private static int scanDutyCycleMaxWindowSecs;
     private static Supplier<Long> timestampProvider;
-    private static LimitingStrategy limitingStrategy;
     private static Double defaultWithMotionSensitivityStrategyThreshold;
     private static int defaultWithMotionSensitivityStrategyNumberOfPreviousMeasurementsToKeep;
-    private static Map<String, TagProperties> tagProperties;
+    private static boolean aggregateStrategyStatistics;
+    private static long historyMaxBytesPerTag;
+    private static int stateMaxTags;
+    private static Duration stateTtl;
+    private static long alignedStrategyTickMillis;
+    private static boolean alignedStrategyAggregate;
+    private static boolean alignedStrategyNoDataMarkers;
+    private static int alignedStrategyMaxSilentSlots;
+    private static WallClockAlignedStrategy alignedStrategy;
+    private static boolean aggregateStrategyStdDev;
     private static Function<String, File> configFileFinder;
     private static String[] mqttBrokerUrls;
     private static String mqttUsername;
     private static String mqttPassword;
     private static String mqttClientId;
     private static String mqttTopic;
-    private static Duration updateInterval;
+    private static String mqttStatusTopic;
+    private static int mqttStatusIntervalSecs;
+    private static boolean benchmark;
+    private static int benchmarkTags;
+    private static long benchmarkIntervalMillis;
+    private static double benchmarkDataFormat3Share;
+    private static double benchmarkNoiseShare;
+    private static int benchmarkWarmupSecs;
+    private static int benchmarkDurationSecs;
+    private static String benchmarkSink;
+    private static boolean configWatch;
+    private static boolean store;
+    private static String storeDirectory;
+    private static Duration storeBlockSpan;
+    private static Duration storeRetention;
 
     static {
         reload();
@@ -69,63 +132,257 @@ public abstract class Config {
     public static void reload(final Function<String, File> configFileFinder) {
         Config.configFileFinder = configFileFinder;
         loadDefaults();
-        readTagNames();
+        tagConfig = tagConfig.withTagNames(readTagNames());
         readConfig();
     }
 
+    /**
+     * Reads the configuration files again and swaps in the new settings of the tags at once: the names, the filter,
+     * the update limits and the limiting strategies. The strategy of a tag is kept along with its state if the
+     * settings of the tag and the global strategy have not changed. The other settings are only read at startup, so
+     * changes to them are logged and take effect after a restart. If the files can not be read, the previous settings
+     * are kept.
+     *
+     * @return true if the settings were reloaded
+     */
+    public static synchronized boolean reloadTagConfig() {
+        final TagConfig running = tagConfig;
+        try {
+            final Properties props = Optional.ofNullable(readProperties(RUUVI_COLLECTOR_PROPERTIES)).orElseGet(Properties::new);
+            final TagConfig defaults = TagConfig.defaults(running.getLimitingStrategy()).withTagNames(readTagNames());
+            tagConfig = parseTagConfig(props, defaults, running);
+            final Set<String> restartRequired = new TreeSet<>();
+            for (String key : union(props.stringPropertyNames(), loadedProperties.stringPropertyNames())) {
+                if (!RELOADABLE_PROPERTIES.contains(key) && !key.startsWith("tag.")
+                        && !Objects.equals(props.getProperty(key), loadedProperties.getProperty(key))) {
+                    restartRequired.add(key);
+                }
+            }
+            if (!restartRequired.isEmpty()) {
+                logger.warn("Changes to {} take effect after a restart", restartRequired);
+            }
+            logger.info("Reloaded the configuration, {} tag names, {} tags with their own settings",
+                    tagConfig.getTagNames().size(), tagConfig.getTagProperties().size());
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            logger.warn("Failed to reload the configuration, keeping the previous settings", ex);
+            return false;
+        }
+    }
+
+    /**
+     * @return the configuration files that exist, which are also the files that are reloaded
+     */
+    static List<File> getConfigFiles() {
+        return Stream.of(RUUVI_COLLECTOR_PROPERTIES, RUUVI_NAMES_PROPERTIES)
+                .map(configFileFinder)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the names of the configuration files
+     */
+    static Set<String> getConfigFileNames() {
+        return Set.of(RUUVI_COLLECTOR_PROPERTIES, RUUVI_NAMES_PROPERTIES);
+    }
+
     private static void loadDefaults() {
-        measurementUpdateLimit = 9900;
+        loadedProperties = new Properties();
         storageMethod = "influxdb";
         storageValues = "extended";
-        filterMode = (s) -> true;
-        FILTER_MACS.clear();
-        TAG_NAMES.clear();
         scanCommand = DEFAULT_SCAN_COMMAND.split(" ");
         dumpCommand = DEFAULT_DUMP_COMMAND.split(" ");
+        hciAdapters = new String[0];
+        deduplicationWindowMillis = 200;
+        nonRuuviCache = true;
+        nonRuuviCacheTtl = Duration.ofMinutes(10);
+        nonRuuviCacheMaxMacs = 4096;
+        nonRuuviCacheMinMisses = 3;
+        hciEnabled = true;
+        gatewayServer = false;
+        gatewayServerBindAddress = "";
+        gatewayServerPort = DEFAULT_GATEWAY_PORT;
+        gatewayServerIdleTimeoutSecs = 300;
+        gatewayForwardHost = "";
+        gatewayForwardPort = DEFAULT_GATEWAY_PORT;
+        gatewayId = "";
+        gatewayHttp = false;
+        gatewayHttpBindAddress = "";
+        gatewayHttpPort = 8080;
+        gatewayHttpPath = "/";
+        gatewayHttpMaxBodyBytes = 1024 * 1024;
+        gatewayHttpMaxConcurrentRequests = 256;
+        metrics = false;
+        metricsBindAddress = "";
+        metricsPort = 9464;
+        scanRestartDelaySecs = DEFAULT_SCAN_RESTART_DELAY_SECS;
+        scanRestartIfNoData = DEFAULT_SCAN_RESTART_IF_NO_DATA;
+        dumpRestartDelaySecs = DEFAULT_DUMP_RESTART_DELAY_SECS;
+        dumpRestart = true;
+        processRestartMaxDelaySecs = DEFAULT_PROCESS_RESTART_MAX_DELAY_SECS;
+        scanStopCommand = DEFAULT_SCAN_STOP_COMMAND.split(" ");
+        scanDutyCycle = false;
+        scanDutyCycleLeadMillis = 5000;
+        scanDutyCycleMaxWindowSecs = 30;
         timestampProvider = System::currentTimeMillis;
-        limitingStrategy = new DiscardUntilEnoughTimeHasElapsedStrategy();
+        stateMaxTags = 10000;
+        stateTtl = Duration.ofHours(1);
         defaultWithMotionSensitivityStrategyThreshold = 0.05;
         defaultWithMotionSensitivityStrategyNumberOfPreviousMeasurementsToKeep = 3;
-        tagProperties = new HashMap<>();
+        aggregateStrategyStatistics = true;
+        aggregateStrategyStdDev = false;
+        historyMaxBytesPerTag = 4096;
+        alignedStrategyTickMillis = 1000;
+        alignedStrategyAggregate = false;
+        alignedStrategyNoDataMarkers = true;
+        alignedStrategyMaxSilentSlots = 60;
+        alignedStrategy = null;
+        tagConfig = TagConfig.defaults(new DiscardUntilEnoughTimeHasElapsedStrategy());
         mqttBrokerUrls = DEFAULT_BROKER_URLS;
         mqttTopic = DEFAULT_MQTT_TOPIC;
+        mqttClientId = UUID.randomUUID().toString();
         mqttUsername = "";
         mqttPassword = "";
-        updateInterval = Duration.ZERO;
+        mqttStatusTopic = "";
+        mqttStatusIntervalSecs = 60;
+        configWatch = true;
+        store = false;
+        storeDirectory = "history";
+        storeBlockSpan = Duration.ofHours(2);
+        storeRetention = Duration.ofDays(30);
+        benchmark = false;
+        benchmarkTags = 100;
+        benchmarkIntervalMillis = 1000;
+        benchmarkDataFormat3Share = 0.1;
+        benchmarkNoiseShare = 0.5;
+        benchmarkWarmupSecs = 10;
+        benchmarkDurationSecs = 60;
+        benchmarkSink = "null";
     }
 
     private static void readConfig() {
         try {
-            final File configFile = configFileFinder.apply(RUUVI_COLLECTOR_PROPERTIES);
-            if (configFile != null) {
-                logger.debug("Config: " + configFile);
-                Properties props = new Properties();
-                props.load(new FileInputStream(configFile));
+            final Properties props = readProperties(RUUVI_COLLECTOR_PROPERTIES);
+            if (props != null) {
                 readConfigFromProperties(props);
+                loadedProperties = props;
             }
         } catch (IOException ex) {
             logger.warn("Failed to read configuration, using default values...", ex);
         }
     }
 
+    private static Properties readProperties(String propertiesFileName) throws IOException {
+        final File configFile = configFileFinder.apply(propertiesFileName);
+        if (configFile == null) {
+            return null;
+        }
+        logger.debug("Config: " + configFile);
+        final Properties props = new Properties();
+        try (FileInputStream in = new FileInputStream(configFile)) {
+            props.load(in);
+        }
+        return props;
+    }
+
     public static void readConfigFromProperties(final Properties props) {
-        measurementUpdateLimit = parseLong(props, "measurementUpdateLimit", measurementUpdateLimit);
         storageMethod = props.getProperty("storage.method", storageMethod);
         storageValues = props.getProperty("storage.values", storageValues);
-        filterMode = parseFilterMode(props);
-        FILTER_MACS.addAll(parseFilterMacs(props));
         scanCommand = props.getProperty("command.scan", DEFAULT_SCAN_COMMAND).split(" ");
         dumpCommand = props.getProperty("command.dump", DEFAULT_DUMP_COMMAND).split(" ");
-        limitingStrategy = parseLimitingStrategy(props);
+        hciAdapters = parseStringArray(props, "hci.adapters", hciAdapters);
+        deduplicationWindowMillis = parseLong(props, "hci.deduplicationWindowMillis", deduplicationWindowMillis);
+        nonRuuviCache = parseBoolean(props, "hci.nonRuuviCache", nonRuuviCache);
+        nonRuuviCacheTtl = parseDuration(props, "hci.nonRuuviCache.ttl", nonRuuviCacheTtl);
+        nonRuuviCacheMaxMacs = parseInteger(props, "hci.nonRuuviCache.maxMacs", nonRuuviCacheMaxMacs);
+        nonRuuviCacheMinMisses = parseInteger(props, "hci.nonRuuviCache.minMisses", nonRuuviCacheMinMisses);
+        hciEnabled = parseBoolean(props, "hci.enabled", hciEnabled);
+        gatewayServer = parseBoolean(props, "gateway.server", gatewayServer);
+        gatewayServerBindAddress = props.getProperty("gateway.server.bindAddress", gatewayServerBindAddress).trim();
+        gatewayServerPort = parseInteger(props, "gateway.server.port", gatewayServerPort);
+        gatewayServerIdleTimeoutSecs = parseInteger(props, "gateway.server.idleTimeoutSecs", gatewayServerIdleTimeoutSecs);
+        gatewayForwardHost = props.getProperty("gateway.forward.host", gatewayForwardHost).trim();
+        gatewayForwardPort = parseInteger(props, "gateway.forward.port", gatewayForwardPort);
+        gatewayId = props.getProperty("gateway.id", gatewayId).trim();
+        gatewayHttp = parseBoolean(props, "gateway.http", gatewayHttp);
+        gatewayHttpBindAddress = props.getProperty("gateway.http.bindAddress", gatewayHttpBindAddress).trim();
+        gatewayHttpPort = parseInteger(props, "gateway.http.port", gatewayHttpPort);
+        gatewayHttpPath = props.getProperty("gateway.http.path", gatewayHttpPath).trim();
+        gatewayHttpMaxBodyBytes = parseLong(props, "gateway.http.maxBodyBytes", gatewayHttpMaxBodyBytes);
+        gatewayHttpMaxConcurrentRequests = parseInteger(props, "gateway.http.maxConcurrentRequests", gatewayHttpMaxConcurrentRequests);
+        metrics = parseBoolean(props, "metrics.enabled", metrics);
+        metricsBindAddress = props.getProperty("metrics.bindAddress", metricsBindAddress).trim();
+        metricsPort = parseInteger(props, "metrics.port", metricsPort);
+        scanRestartDelaySecs = parseInteger(props, "command.scan.restartDelaySecs", scanRestartDelaySecs);
+        scanRestartIfNoData = parseLong(props, "command.scan.restartIfNoDataSecs", scanRestartIfNoData);
+        dumpRestartDelaySecs = parseInteger(props, "command.dump.restartDelaySecs", dumpRestartDelaySecs);
+        dumpRestart = parseBoolean(props, "command.dump.restart", dumpRestart);
+        processRestartMaxDelaySecs = parseInteger(props, "command.restartMaxDelaySecs", processRestartMaxDelaySecs);
+        scanStopCommand = props.getProperty("command.scan.stop", DEFAULT_SCAN_STOP_COMMAND).split(" ");
+        scanDutyCycle = parseBoolean(props, "command.scan.dutyCycle", scanDutyCycle);
+        scanDutyCycleLeadMillis = parseLong(props, "command.scan.dutyCycle.leadMillis", scanDutyCycleLeadMillis);
+        scanDutyCycleMaxWindowSecs = parseInteger(props, "command.scan.dutyCycle.maxWindowSecs", scanDutyCycleMaxWindowSecs);
+        stateMaxTags = parseInteger(props, "state.maxTags", stateMaxTags);
+        stateTtl = parseDuration(props, "state.ttl", stateTtl);
+        alignedStrategyTickMillis = parseLong(props, "limitingStrategy.aligned.tickMillis", alignedStrategyTickMillis);
+        alignedStrategyAggregate = "aggregate".equals(props.getProperty("limitingStrategy.aligned.mode", alignedStrategyAggregate ? "aggregate" : "latest"));
+        alignedStrategyNoDataMarkers = parseBoolean(props, "limitingStrategy.aligned.noDataMarkers", alignedStrategyNoDataMarkers);
+        alignedStrategyMaxSilentSlots = parseInteger(props, "limitingStrategy.aligned.maxSilentSlots", alignedStrategyMaxSilentSlots);
         defaultWithMotionSensitivityStrategyThreshold = parseDouble(props, "limitingStrategy.defaultWithMotionSensitivity.threshold", defaultWithMotionSensitivityStrategyThreshold);
         defaultWithMotionSensitivityStrategyNumberOfPreviousMeasurementsToKeep = parseInteger(props, "limitingStrategy.defaultWithMotionSensitivity.numberOfMeasurementsToKeep", defaultWithMotionSensitivityStrategyNumberOfPreviousMeasurementsToKeep);
-        tagProperties = parseTagProperties(props);
+        aggregateStrategyStatistics = parseBoolean(props, "limitingStrategy.aggregate.statistics", aggregateStrategyStatistics);
+        aggregateStrategyStdDev = parseBoolean(props, "limitingStrategy.aggregate.stdDev", aggregateStrategyStdDev);
+        historyMaxBytesPerTag = parseLong(props, "history.maxBytesPerTag", historyMaxBytesPerTag);
         mqttBrokerUrls = parseStringArray(props, "mqtt.brokerUrls", mqttBrokerUrls);
         mqttClientId = props.getProperty("mqtt.clientId", UUID.randomUUID().toString());
         mqttUsername = props.getProperty("mqtt.username", mqttUsername);
         mqttPassword = props.getProperty("mqtt.password", mqttPassword);
         mqttTopic = props.getProperty("mqtt.topic", mqttTopic);
-        updateInterval = parseDuration(props, "updateInterval", updateInterval);
+        mqttStatusTopic = props.getProperty("mqtt.status.topic", mqttStatusTopic).trim();
+        mqttStatusIntervalSecs = parseInteger(props, "mqtt.status.intervalSecs", mqttStatusIntervalSecs);
+        configWatch = parseBoolean(props, "config.watch", configWatch);
+        store = parseBoolean(props, "store.enabled", store);
+        storeDirectory = props.getProperty("store.directory", storeDirectory).trim();
+        storeBlockSpan = parseDuration(props, "store.blockSpan", storeBlockSpan);
+        storeRetention = parseDuration(props, "store.retention", storeRetention);
+        benchmarkTags = parseInteger(props, "benchmark.tags", benchmarkTags);
+        benchmarkIntervalMillis = parseLong(props, "benchmark.intervalMillis", benchmarkIntervalMillis);
+        benchmarkDataFormat3Share = parseDouble(props, "benchmark.dataFormat3Share", benchmarkDataFormat3Share);
+        benchmarkNoiseShare = parseDouble(props, "benchmark.noiseShare", benchmarkNoiseShare);
+        benchmarkWarmupSecs = parseInteger(props, "benchmark.warmupSecs", benchmarkWarmupSecs);
+        benchmarkDurationSecs = parseInteger(props, "benchmark.durationSecs", benchmarkDurationSecs);
+        benchmarkSink = props.getProperty("benchmark.sink", benchmarkSink).trim();
+        // Last, so that the strategies are created with the settings above
+        tagConfig = parseTagConfig(props, tagConfig, null);
+    }
+
+    /**
+     * Parses the settings of the tags on top of the previous ones.
+     *
+     * @param props the properties to parse
+     * @param previous the settings used for the properties that are not set
+     * @param running the settings in use whose limiting strategies may be kept, or null to create new strategies
+     * @return the new settings
+     */
+    private static TagConfig parseTagConfig(final Properties props, final TagConfig previous, final TagConfig running) {
+        final Set<String> filterMacs = union(previous.getFilterMacs(), parseFilterMacs(props));
+        final String filterModeName = props.getProperty("filter.mode", previous.getFilterModeName());
+        final String strategyName = props.getProperty("limitingStrategy");
+        final LimitingStrategy strategy = running != null && Objects.equals(strategyName, running.getLimitingStrategyName())
+                ? running.getLimitingStrategy()
+                : parseLimitingStrategy(strategyName);
+        return new TagConfig(previous.getTagNames(), filterModeName, filterMacs,
+                parseFilterMode(filterModeName, filterMacs, previous),
+                parseLong(props, "measurementUpdateLimit", previous.getMeasurementUpdateLimit()),
+                parseDuration(props, "updateInterval", previous.getUpdateInterval()),
+                strategyName, strategy, parseTagProperties(props, strategy, running));
+    }
+
+    private static <T> Set<T> union(final Collection<? extends T> a, final Collection<? extends T> b) {
+        final Set<T> union = new HashSet<>(a);
+        union.addAll(b);
+        return union;
     }
 
     private static Duration parseDuration(Properties props, String key, Duration defaultInterval) {
@@ -140,16 +397,23 @@ public abstract class Config {
                 .orElse(defaults);
     }
 
-    private static Map<String, TagProperties> parseTagProperties(final Properties props) {
+    private static Map<String, TagProperties> parseTagProperties(final Properties props, final LimitingStrategy defaultStrategy,
+                                                                 final TagConfig running) {
         final Map<String, Map<String, String>> tagProps = props.entrySet().stream()
             .map(e -> Pair.of(String.valueOf(e.getKey()), String.valueOf(e.getValue())))
             .filter(p -> p.getLeft().startsWith("tag."))
             .collect(Collectors.groupingBy(extractMacAddressFromTagPropertyName(),
                 toMap(extractKeyFromTagPropertyName(), Pair::getRight)));
         return tagProps.entrySet().stream().map(e -> {
+            final TagProperties previous = running != null ? running.getTagProperties().get(e.getKey()) : null;
+            // The previous strategy keeps its state, unless the tag falls back to a global strategy that was replaced
+            if (previous != null && previous.getSettings().equals(e.getValue())
+                    && (previous.getLimitingStrategy() != running.getLimitingStrategy() || running.getLimitingStrategy() == defaultStrategy)) {
+                return previous;
+            }
             final TagProperties.Builder builder = TagProperties.builder(e.getKey());
             e.getValue().forEach(builder::add);
-            return builder.build();
+            return builder.build(defaultStrategy);
         }).collect(Collectors.toMap(TagProperties::getMac, t -> t));
     }
 
@@ -161,12 +425,17 @@ public abstract class Config {
         return p -> p.getLeft().substring(4, 16);
     }
 
-    private static LimitingStrategy parseLimitingStrategy(final Properties props) {
-        final String strategy = props.getProperty("limitingStrategy");
+    private static LimitingStrategy parseLimitingStrategy(final String strategy) {
         if (strategy != null) {
             if ("defaultWithMotionSensitivity".equals(strategy)) {
                 return new DefaultDiscardingWithMotionSensitivityStrategy();
             }
+            if ("aggregate".equals(strategy)) {
+                return new WindowedAggregationStrategy();
+            }
+            if ("aligned".equals(strategy)) {
+                return getAlignedStrategy();
+            }
         }
         return new DiscardUntilEnoughTimeHasElapsedStrategy();
     }
@@ -180,24 +449,23 @@ public abstract class Config {
             .orElse(Collections.emptySet());
     }
 
-    private static Predicate<String> parseFilterMode(final Properties props) {
-        final String filter = props.getProperty("filter.mode");
-        if (filter != null) {
-            switch (filter) {
-                case "blacklist":
-                    return (s) -> !FILTER_MACS.contains(s);
-                case "whitelist":
-                    return FILTER_MACS::contains;
-                case "named":
-                    if (TAG_NAMES.isEmpty()) {
-                        throw new IllegalStateException(
-                        "You have set filter.mode=named but left ruuvi-names.properties empty. " +
-                        "Please select a different filter.mode value or populate ruuvi-names.properties.");
-                    }
-                    return TAG_NAMES.keySet()::contains;
-            }
+    private static Predicate<String> parseFilterMode(final String filter, final Set<String> filterMacs, final TagConfig previous) {
+        switch (filter) {
+            case "none":
+                return (s) -> true;
+            case "blacklist":
+                return (s) -> !filterMacs.contains(s);
+            case "whitelist":
+                return filterMacs::contains;
+            case "named":
+                if (previous.getTagNames().isEmpty()) {
+                    throw new IllegalStateException(
+                    "You have set filter.mode=named but left ruuvi-names.properties empty. " +
+                    "Please select a different filter.mode value or populate ruuvi-names.properties.");
+                }
+                return previous.getTagNames().keySet()::contains;
         }
-        return filterMode;
+        return previous.getFilter();
     }
 
     private static long parseLong(final Properties props, final String key, final long defaultValue) {
@@ -250,33 +518,82 @@ public abstract class Config {
             .map(configFiles -> configFiles[0]);
     }
 
-    private static void readTagNames() {
+    private static Map<String, String> readTagNames() {
+        final Map<String, String> tagNames = new HashMap<>();
         try {
-            final File configFile = configFileFinder.apply(RUUVI_NAMES_PROPERTIES);
-            if (configFile != null) {
-                logger.debug("Tag names: " + configFile);
-                Properties props = new Properties();
-                props.load(new FileInputStream(configFile));
+            final Properties props = readProperties(RUUVI_NAMES_PROPERTIES);
+            if (props != null) {
                 Enumeration<?> e = props.propertyNames();
                 while (e.hasMoreElements()) {
                     String key = StringUtils.trimToEmpty((String) e.nextElement()).toUpperCase();
                     String value = StringUtils.trimToEmpty(props.getProperty(key));
                     if (key.length() == 12 && value.length() > 0) {
-                        TAG_NAMES.put(key, value);
+                        tagNames.put(key, value);
                     }
                 }
             }
         } catch (IOException ex) {
             logger.warn("Failed to read tag names", ex);
         }
+        return tagNames;
     }
 
     public static long getMeasurementUpdateLimit() {
-        return measurementUpdateLimit;
+        return tagConfig.getMeasurementUpdateLimit();
+    }
+
+    /**
+     * Resolves the minimum interval between published measurements of a tag. The tag specific or the global
+     * {@code updateInterval} takes precedence when it has been configured, otherwise the
+     * {@code measurementUpdateLimit} is used.
+     *
+     * @param mac the MAC address of the tag
+     * @return the minimum interval in milliseconds
+     */
+    public static long getMeasurementUpdateLimit(String mac) {
+        return tagConfig.getContext(mac).getMeasurementUpdateLimit();
     }
 
     public static boolean isAllowedMAC(String mac) {
-        return mac != null && filterMode.test(mac);
+        return mac != null && tagConfig.getContext(mac).isAllowed();
+    }
+
+    /**
+     * Resolves all the settings of a tag at once. The result is cached until the configuration is reloaded, so this
+     * is cheaper than querying the settings one by one when handling a packet.
+     *
+     * @param mac the MAC address of the tag
+     * @return the settings of the tag
+     */
+    public static TagContext getTagContext(String mac) {
+        return tagConfig.getContext(mac);
+    }
+
+    static TagContext resolveTagContext(TagConfig config, String mac) {
+        final String name = mac != null ? config.getTagNames().get(mac) : null;
+        final TagProperties properties = mac != null ? config.getTagProperties().get(mac) : null;
+        final Duration interval = getUpdateInterval(config, mac);
+        return new TagContext(mac, name,
+                mac != null && config.getFilter().test(mac),
+                properties != null ? properties.getLimitingStrategy() : config.getLimitingStrategy(),
+                interval.isZero() ? config.getMeasurementUpdateLimit() : interval.toMillis(),
+                StringUtils.isNotBlank(name) ? mqttTopic + "/" + name : mqttTopic);
+    }
+
+    /**
+     * @return the MAC addresses of all the tags that may be received when they are known in advance, that is with
+     * the whitelist and named filter modes, otherwise an empty set
+     */
+    public static Set<String> getExpectedMacs() {
+        final TagConfig config = tagConfig;
+        switch (config.getFilterModeName()) {
+            case "whitelist":
+                return config.getFilterMacs();
+            case "named":
+                return config.getTagNames().keySet();
+            default:
+                return Collections.emptySet();
+        }
     }
 
     public static String[] getScanCommand() {
@@ -287,8 +604,212 @@ public abstract class Config {
         return dumpCommand;
     }
 
+    /**
+     * @param adapter the bluetooth adapter, for example "hci1", or null for the default adapter
+     * @return the scan command targeting the given adapter
+     */
+    public static String[] getScanCommand(String adapter) {
+        return withAdapter(scanCommand, adapter);
+    }
+
+    /**
+     * @param adapter the bluetooth adapter, for example "hci1", or null for the default adapter
+     * @return the dump command targeting the given adapter
+     */
+    public static String[] getDumpCommand(String adapter) {
+        return withAdapter(dumpCommand, adapter);
+    }
+
+    private static String[] withAdapter(String[] command, String adapter) {
+        if (StringUtils.isBlank(adapter) || command.length == 0 || StringUtils.isBlank(command[0])) {
+            return command;
+        }
+        // Both hcitool and hcidump take the device as the first option
+        final String[] result = new String[command.length + 2];
+        result[0] = command[0];
+        result[1] = "-i";
+        result[2] = adapter;
+        System.arraycopy(command, 1, result, 3, command.length - 1);
+        return result;
+    }
+
+    /**
+     * @param adapter the bluetooth adapter, for example "hci1", or null for the default adapter
+     * @return the command that stops the scanning of the adapter after the scan command has been terminated
+     */
+    public static String[] getScanStopCommand(String adapter) {
+        return withAdapter(scanStopCommand, adapter);
+    }
+
+    public static boolean isScanDutyCycleEnabled() {
+        return scanDutyCycle;
+    }
+
+    /**
+     * @return how long before a tag is due the scanning is resumed, in milliseconds
+     */
+    public static long getScanDutyCycleLeadMillis() {
+        return scanDutyCycleLeadMillis;
+    }
+
+    /**
+     * @return how long the scanning is kept on waiting for a due tag before it is considered missed, in seconds
+     */
+    public static int getScanDutyCycleMaxWindowSecs() {
+        return scanDutyCycleMaxWindowSecs;
+    }
+
+    /**
+     * @return the configured bluetooth adapters, an empty array meaning only the default adapter is used
+     */
+    public static String[] getHciAdapters() {
+        return hciAdapters;
+    }
+
+    public static long getDeduplicationWindowMillis() {
+        return deduplicationWindowMillis;
+    }
+
+    /**
+     * @return true if the packets of devices that have been learned not to be RuuviTags are skipped before parsing
+     */
+    public static boolean isNonRuuviCacheEnabled() {
+        return nonRuuviCache;
+    }
+
+    /**
+     * @return how long the packets of a device learned not to be a RuuviTag are skipped before it is probed again
+     */
+    public static Duration getNonRuuviCacheTtl() {
+        return nonRuuviCacheTtl;
+    }
+
+    /**
+     * @return the maximum number of devices remembered by the cache of devices that are not RuuviTags
+     */
+    public static int getNonRuuviCacheMaxMacs() {
+        return nonRuuviCacheMaxMacs;
+    }
+
+    /**
+     * @return the number of packets without RuuviTag data after which a device is learned not to be a RuuviTag
+     */
+    public static int getNonRuuviCacheMinMisses() {
+        return nonRuuviCacheMinMisses;
+    }
+
+    /**
+     * @return true if the local bluetooth adapters are read, false if the measurements only come from remote gateways
+     */
+    public static boolean isHciEnabled() {
+        return hciEnabled;
+    }
+
+    /**
+     * @return true if the hcidump output of remote gateways is accepted over TCP
+     */
+    public static boolean isGatewayServerEnabled() {
+        return gatewayServer;
+    }
+
+    /**
+     * @return the address to accept the gateway connections on, blank for all addresses
+     */
+    public static String getGatewayServerBindAddress() {
+        return gatewayServerBindAddress;
+    }
+
+    /**
+     * @return the port to accept the gateway connections on, 0 for any free port
+     */
+    public static int getGatewayServerPort() {
+        return gatewayServerPort;
+    }
+
+    /**
+     * @return the time after which a gateway connection without any data is closed, in seconds
+     */
+    public static int getGatewayServerIdleTimeoutSecs() {
+        return gatewayServerIdleTimeoutSecs;
+    }
+
+    /**
+     * @return the host of the central collector to forward the hcidump output to, blank if this is not a forwarder
+     */
+    public static String getGatewayForwardHost() {
+        return gatewayForwardHost;
+    }
+
+    public static int getGatewayForwardPort() {
+        return gatewayForwardPort;
+    }
+
+    /**
+     * @return the identifier this forwarder reports to the central collector, blank for the host name
+     */
+    public static String getGatewayId() {
+        return gatewayId;
+    }
+
+    /**
+     * @return true if the measurements posted by Ruuvi Gateways over HTTP are accepted
+     */
+    public static boolean isGatewayHttpEnabled() {
+        return gatewayHttp;
+    }
+
+    /**
+     * @return the address to accept the Ruuvi Gateway posts on, blank for all addresses
+     */
+    public static String getGatewayHttpBindAddress() {
+        return gatewayHttpBindAddress;
+    }
+
+    /**
+     * @return the port to accept the Ruuvi Gateway posts on, 0 for any free port
+     */
+    public static int getGatewayHttpPort() {
+        return gatewayHttpPort;
+    }
+
+    public static String getGatewayHttpPath() {
+        return gatewayHttpPath;
+    }
+
+    /**
+     * @return the largest accepted Ruuvi Gateway post, in bytes
+     */
+    public static long getGatewayHttpMaxBodyBytes() {
+        return gatewayHttpMaxBodyBytes;
+    }
+
+    /**
+     * @return how many Ruuvi Gateway posts are handled at the same time before the rest are rejected
+     */
+    public static int getGatewayHttpMaxConcurrentRequests() {
+        return gatewayHttpMaxConcurrentRequests;
+    }
+
+    /**
+     * @return true if the Prometheus metrics are served over HTTP
+     */
+    public static boolean isMetricsEnabled() {
+        return metrics;
+    }
+
+    /**
+     * @return the address to serve the metrics on, blank for all addresses
+     */
+    public static String getMetricsBindAddress() {
+        return metricsBindAddress;
+    }
+
+    public static int getMetricsPort() {
+        return metricsPort;
+    }
+
     public static String getTagName(String mac) {
-        return TAG_NAMES.get(mac);
+        return tagConfig.getContext(mac).getName();
     }
 
     public static Supplier<Long> getTimestampProvider() {
@@ -296,13 +817,44 @@ public abstract class Config {
     }
 
     public static LimitingStrategy getLimitingStrategy() {
-        return limitingStrategy;
+        return tagConfig.getLimitingStrategy();
+    }
+
+    /**
+     * @return the global limiting strategy and all the tag specific limiting strategies, without duplicates
+     */
+    public static Collection<LimitingStrategy> getAllLimitingStrategies() {
+        final TagConfig config = tagConfig;
+        final Set<LimitingStrategy> strategies = Collections.newSetFromMap(new IdentityHashMap<>());
+        strategies.add(config.getLimitingStrategy());
+        config.getTagProperties().values().forEach(t -> strategies.add(t.getLimitingStrategy()));
+        return strategies;
+    }
+
+    /**
+     * The wall clock aligned strategy is shared by all the tags using it, so that all the slots are kept in a
+     * single timing wheel.
+     *
+     * @return the wall clock aligned limiting strategy
+     */
+    static WallClockAlignedStrategy getAlignedStrategy() {
+        if (alignedStrategy == null) {
+            alignedStrategy = new WallClockAlignedStrategy();
+        }
+        return alignedStrategy;
     }
 
     public static LimitingStrategy getLimitingStrategy(String mac) {
-        return Optional.ofNullable(tagProperties.get(mac))
-            .map(TagProperties::getLimitingStrategy)
-            .orElse(null);
+        final TagProperties properties = tagConfig.getTagProperties().get(mac);
+        return properties != null ? properties.getLimitingStrategy() : null;
+    }
+
+    /**
+     * @param mac the MAC address of the tag
+     * @return the limiting strategy configured for the tag, or the global limiting strategy if there is none
+     */
+    public static LimitingStrategy getEffectiveLimitingStrategy(String mac) {
+        return tagConfig.getContext(mac).getLimitingStrategy();
     }
 
     public static Double getDefaultWithMotionSensitivityStrategyThreshold() {
@@ -313,6 +865,42 @@ public abstract class Config {
         return defaultWithMotionSensitivityStrategyNumberOfPreviousMeasurementsToKeep;
     }
 
+    public static boolean isAggregateStrategyStatisticsEnabled() {
+        return aggregateStrategyStatistics;
+    }
+
+    public static boolean isAggregateStrategyStdDevEnabled() {
+        return aggregateStrategyStdDev;
+    }
+
+    public static long getAlignedStrategyTickMillis() {
+        return alignedStrategyTickMillis;
+    }
+
+    public static boolean isAlignedStrategyAggregate() {
+        return alignedStrategyAggregate;
+    }
+
+    public static boolean isAlignedStrategyNoDataMarkers() {
+        return alignedStrategyNoDataMarkers;
+    }
+
+    public static int getAlignedStrategyMaxSilentSlots() {
+        return alignedStrategyMaxSilentSlots;
+    }
+
+    public static int getStateMaxTags() {
+        return stateMaxTags;
+    }
+
+    public static Duration getStateTtl() {
+        return stateTtl;
+    }
+
+    public static long getHistoryMaxBytesPerTag() {
+        return historyMaxBytesPerTag;
+    }
+
     public static String[] getMqttBrokerUrls() {
         return mqttBrokerUrls;
     }
@@ -333,21 +921,163 @@ public abstract class Config {
         return mqttTopic;
     }
 
+    /**
+     * @return the topic to publish the statistics of the tags to, blank if they are not published
+     */
+    public static String getMqttStatusTopic() {
+        return mqttStatusTopic;
+    }
+
+    /**
+     * @return the interval of publishing the statistics of the tags in seconds
+     */
+    public static int getMqttStatusIntervalSecs() {
+        return mqttStatusIntervalSecs;
+    }
+
     public static List<String> getTagNames() {
-        return new ArrayList<>(TAG_NAMES.values());
+        return new ArrayList<>(tagConfig.getTagNames().values());
     }
 
     public static Duration getUpdateInterval(String mac) {
-        return Optional.ofNullable(tagProperties.get(mac))
-                .map(TagProperties::getUpdateInterval)
-                .orElse(updateInterval);
+        return getUpdateInterval(tagConfig, mac);
+    }
+
+    private static Duration getUpdateInterval(TagConfig config, String mac) {
+        final TagProperties properties = mac != null ? config.getTagProperties().get(mac) : null;
+        return properties != null && properties.getUpdateInterval() != null ? properties.getUpdateInterval() : config.getUpdateInterval();
+    }
+
+    /**
+     * @return true if the configuration files are watched and the settings of the tags are reloaded when they change
+     */
+    public static boolean isConfigWatchEnabled() {
+        return configWatch;
+    }
+
+    /**
+     * @return true if the history of the measurements is kept on the local disk
+     */
+    public static boolean isStoreEnabled() {
+        return store;
+    }
+
+    /**
+     * @return the directory of the local history of the measurements
+     */
+    public static String getStoreDirectory() {
+        return storeDirectory;
+    }
+
+    /**
+     * @return the time span of the samples of a tag written to the disk as one block
+     */
+    public static Duration getStoreBlockSpan() {
+        return storeBlockSpan;
+    }
+
+    /**
+     * @return how long the local history of the measurements is kept, zero to keep it forever
+     */
+    public static Duration getStoreRetention() {
+        return storeRetention;
     }
 
     public static int getScanRestartDelaySecs() {
-        return DEFAULT_SCAN_RESTART_DELAY_SECS;
+        return scanRestartDelaySecs;
     }
 
     public static long getScanRestartIfNoData() {
-        return DEFAULT_SCAN_RESTART_IF_NO_DATA;
+        return scanRestartIfNoData;
+    }
+
+    public static int getDumpRestartDelaySecs() {
+        return dumpRestartDelaySecs;
+    }
+
+    public static boolean isDumpRestartEnabled() {
+        return dumpRestart;
+    }
+
+    /**
+     * Replaces the scanning with a replay of previously captured hcidump output. The dump is not restarted, so the
+     * collector finishes once the whole capture has been read.
+     *
+     * @param captureFile file containing the output of "hcidump --raw"
+     */
+    public static void useReplayFile(String captureFile) {
+        scanCommand = new String[] { "" };
+        dumpCommand = new String[] { "cat", captureFile };
+        hciAdapters = new String[0];
+        dumpRestart = false;
+    }
+
+    /**
+     * Replaces the scanning and the gateways with synthetic advertisements generated within the collector, see
+     * {@code troinine.ruuvi.benchmark.Benchmark}. The collector finishes once the benchmark has ended.
+     */
+    public static void useBenchmark() {
+        benchmark = true;
+        hciEnabled = false;
+        gatewayServer = false;
+        gatewayHttp = false;
+        gatewayForwardHost = "";
+    }
+
+    /**
+     * @return true if the collector runs the benchmark instead of collecting measurements
+     */
+    public static boolean isBenchmark() {
+        return benchmark;
+    }
+
+    /**
+     * @return the number of virtual tags generated by the benchmark
+     */
+    public static int getBenchmarkTags() {
+        return benchmarkTags;
+    }
+
+    /**
+     * @return the advertising interval of each virtual tag, 0 or less to generate packets as fast as they are read
+     */
+    public static long getBenchmarkIntervalMillis() {
+        return benchmarkIntervalMillis;
+    }
+
+    /**
+     * @return the share of the virtual tags sending data format 3 instead of data format 5
+     */
+    public static double getBenchmarkDataFormat3Share() {
+        return benchmarkDataFormat3Share;
+    }
+
+    /**
+     * @return the share of the generated packets sent by other devices than RuuviTags
+     */
+    public static double getBenchmarkNoiseShare() {
+        return benchmarkNoiseShare;
+    }
+
+    public static int getBenchmarkWarmupSecs() {
+        return benchmarkWarmupSecs;
+    }
+
+    public static int getBenchmarkDurationSecs() {
+        return benchmarkDurationSecs;
+    }
+
+    /**
+     * @return true if the benchmark discards the measurements instead of publishing them to the MQTT brokers
+     */
+    public static boolean isBenchmarkNullSink() {
+        return !"mqtt".equals(benchmarkSink);
+    }
+
+    /**
+     * @return the upper limit for the backoff delay when restarting the scan and dump processes
+     */
+    public static int getProcessRestartMaxDelaySecs() {
+        return processRestartMaxDelaySecs;
     }
 }
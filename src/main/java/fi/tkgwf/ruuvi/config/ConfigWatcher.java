@@ -0,0 +1,118 @@
+package fi.tkgwf.ruuvi.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the configuration files and {@link Config#reloadTagConfig() reloads} the settings of the tags when the files
+ * change, so that tags can be named, filtered and limited without restarting the collector and losing the scanning
+ * and the MQTT connection. The directories of the files are watched rather than the files, because editors usually
+ * replace a file instead of writing it in place. The events are collected until the directory has been quiet for a
+ * moment, so that a file is read once it has been written completely.
+ */
+public class ConfigWatcher {
+    private static final Logger logger = LoggerFactory.getLogger(ConfigWatcher.class);
+    private static final long SETTLE_MILLIS = 200;
+
+    private final Runnable onReload;
+    private WatchService watchService;
+
+    /**
+     * @param onReload called after the settings have been reloaded, from the watching thread
+     */
+    public ConfigWatcher(Runnable onReload) {
+        this.onReload = onReload;
+    }
+
+    /**
+     * Starts watching the configuration files that exist, if watching has not been disabled.
+     *
+     * @return true if the files are watched
+     */
+    public synchronized boolean start() {
+        if (!Config.isConfigWatchEnabled() || watchService != null) {
+            return false;
+        }
+        final Set<Path> directories = new TreeSet<>();
+        for (File file : Config.getConfigFiles()) {
+            directories.add(file.getAbsoluteFile().getParentFile().toPath());
+        }
+        if (directories.isEmpty()) {
+            return false;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            for (Path directory : directories) {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to watch the configuration files, changes take effect after a restart", e);
+            stop();
+            return false;
+        }
+        final WatchService service = watchService;
+        Thread.ofVirtual().name("config-watcher").start(() -> watch(service));
+        logger.info("Watching the configuration files in {}", directories);
+        return true;
+    }
+
+    public synchronized void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // Intentionally ignored, stopping anyway
+            }
+            watchService = null;
+        }
+    }
+
+    private void watch(WatchService service) {
+        try {
+            while (true) {
+                boolean changed = collect(service.take());
+                // Wait for the writing to settle
+                WatchKey key;
+                while ((key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= collect(key);
+                }
+                if (changed && Config.reloadTagConfig()) {
+                    onReload.run();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.error("Stopped watching the configuration files", e);
+        }
+    }
+
+    /**
+     * @return true if one of the configuration files changed
+     */
+    private static boolean collect(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path path && Config.getConfigFileNames().contains(path.getFileName().toString())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+}
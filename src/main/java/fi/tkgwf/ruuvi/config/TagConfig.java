@@ -0,0 +1,120 @@
+package fi.tkgwf.ruuvi.config;
+
+import fi.tkgwf.ruuvi.strategy.LimitingStrategy;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * An immutable snapshot of the settings that apply to each tag: the names, the MAC address filter, the update limits
+ * and the limiting strategies. The snapshot is read for every packet, so {@link Config} replaces it as a whole when
+ * the configuration is reloaded, and the readers see either the old or the new settings but never a mix of them.
+ * <p>
+ * The settings resolved for each tag are cached in the snapshot as {@link TagContext}s. The cache is direct mapped by
+ * the MAC address: a tag whose slot is taken by another tag replaces it, so the cache never grows even when phones
+ * rotating random MAC addresses are heard, and the tags of a typical installation rarely share a slot.
+ */
+final class TagConfig {
+    private static final int CONTEXT_SLOT_BITS = 12;
+
+    private final Map<String, String> tagNames;
+    private final String filterModeName;
+    private final Set<String> filterMacs;
+    private final Predicate<String> filter;
+    private final long measurementUpdateLimit;
+    private final Duration updateInterval;
+    private final String limitingStrategyName;
+    private final LimitingStrategy limitingStrategy;
+    private final Map<String, TagProperties> tagProperties;
+    /** Written without synchronization, which is safe because the fields of the contexts are final */
+    private final TagContext[] contexts = new TagContext[1 << CONTEXT_SLOT_BITS];
+
+    TagConfig(Map<String, String> tagNames, String filterModeName, Set<String> filterMacs, Predicate<String> filter,
+              long measurementUpdateLimit, Duration updateInterval, String limitingStrategyName,
+              LimitingStrategy limitingStrategy, Map<String, TagProperties> tagProperties) {
+        this.tagNames = Collections.unmodifiableMap(tagNames);
+        this.filterModeName = filterModeName;
+        this.filterMacs = Collections.unmodifiableSet(filterMacs);
+        this.filter = filter;
+        this.measurementUpdateLimit = measurementUpdateLimit;
+        this.updateInterval = updateInterval;
+        this.limitingStrategyName = limitingStrategyName;
+        this.limitingStrategy = limitingStrategy;
+        this.tagProperties = Collections.unmodifiableMap(tagProperties);
+    }
+
+    /**
+     * @param limitingStrategy the default global limiting strategy
+     * @return the settings used when nothing has been configured
+     */
+    static TagConfig defaults(LimitingStrategy limitingStrategy) {
+        return new TagConfig(Collections.emptyMap(), "none", Collections.emptySet(), s -> true, 9900, Duration.ZERO,
+                null, limitingStrategy, Collections.emptyMap());
+    }
+
+    TagConfig withTagNames(Map<String, String> names) {
+        return new TagConfig(names, filterModeName, filterMacs, filter, measurementUpdateLimit, updateInterval,
+                limitingStrategyName, limitingStrategy, tagProperties);
+    }
+
+    Map<String, String> getTagNames() {
+        return tagNames;
+    }
+
+    String getFilterModeName() {
+        return filterModeName;
+    }
+
+    Set<String> getFilterMacs() {
+        return filterMacs;
+    }
+
+    Predicate<String> getFilter() {
+        return filter;
+    }
+
+    long getMeasurementUpdateLimit() {
+        return measurementUpdateLimit;
+    }
+
+    Duration getUpdateInterval() {
+        return updateInterval;
+    }
+
+    /**
+     * @return the configured name of the global limiting strategy, or null for the default strategy
+     */
+    String getLimitingStrategyName() {
+        return limitingStrategyName;
+    }
+
+    LimitingStrategy getLimitingStrategy() {
+        return limitingStrategy;
+    }
+
+    Map<String, TagProperties> getTagProperties() {
+        return tagProperties;
+    }
+
+    /**
+     * @param mac the MAC address of the tag
+     * @return the settings of the tag, resolved on the first call and cached for the addresses in the form hcidump
+     * prints them
+     */
+    TagContext getContext(String mac) {
+        final long bits = TagContext.parseMac(mac);
+        if (bits < 0) {
+            return Config.resolveTagContext(this, mac);
+        }
+        final int slot = ((int) (bits ^ bits >>> 24) * 0x9E3779B9) >>> (Integer.SIZE - CONTEXT_SLOT_BITS);
+        TagContext context = contexts[slot];
+        if (context == null || context.getMacBits() != bits) {
+            context = Config.resolveTagContext(this, mac);
+            contexts[slot] = context;
+        }
+        return context;
+    }
+}
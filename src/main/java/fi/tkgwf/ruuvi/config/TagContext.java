@@ -0,0 +1,111 @@
+package fi.tkgwf.ruuvi.config;
+
+import fi.tkgwf.ruuvi.strategy.LimitingStrategy;
+
+/**
+ * The settings of a single tag resolved from a {@link TagConfig} snapshot: the name, whether the filter lets the tag
+ * through, the effective limiting strategy, the minimum interval between published measurements and the MQTT topic.
+ * The contexts are created when a tag is first seen and cached in the snapshot, so that handling a packet costs a
+ * single lookup instead of several map lookups for each setting, and a reload of the configuration discards them
+ * along with the snapshot.
+ * <p>
+ * All the fields are final, so a context can be shared between threads without synchronization.
+ */
+public final class TagContext {
+    private final String mac;
+    private final long macBits;
+    private final String name;
+    private final boolean allowed;
+    private final LimitingStrategy limitingStrategy;
+    private final long measurementUpdateLimit;
+    private final String topic;
+
+    TagContext(String mac, String name, boolean allowed, LimitingStrategy limitingStrategy,
+               long measurementUpdateLimit, String topic) {
+        this.mac = mac;
+        this.macBits = parseMac(mac);
+        this.name = name;
+        this.allowed = allowed;
+        this.limitingStrategy = limitingStrategy;
+        this.measurementUpdateLimit = measurementUpdateLimit;
+        this.topic = topic;
+    }
+
+    public String getMac() {
+        return mac;
+    }
+
+    long getMacBits() {
+        return macBits;
+    }
+
+    /**
+     * @return the name of the tag, or null if it has not been named
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if the MAC address filter lets the measurements of the tag through
+     */
+    public boolean isAllowed() {
+        return allowed;
+    }
+
+    /**
+     * @return the limiting strategy configured for the tag, or the global limiting strategy if there is none
+     */
+    public LimitingStrategy getLimitingStrategy() {
+        return limitingStrategy;
+    }
+
+    /**
+     * @return the minimum interval between published measurements in milliseconds, see
+     * {@link Config#getMeasurementUpdateLimit(String)}
+     */
+    public long getMeasurementUpdateLimit() {
+        return measurementUpdateLimit;
+    }
+
+    /**
+     * @return the MQTT topic the measurements of the tag are published to
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * Converts a MAC address in the form hcidump prints it, 12 upper case hexadecimal digits, to a number, so that the
+     * contexts can be looked up without hashing the string.
+     *
+     * @param mac the MAC address
+     * @return the 48 bits of the address, or -1 if the address is not in the expected form
+     */
+    static long parseMac(String mac) {
+        if (mac == null || mac.length() != 12) {
+            return -1;
+        }
+        long bits = 0;
+        for (int i = 0; i < 12; i++) {
+            final char c = mac.charAt(i);
+            final int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else {
+                return -1;
+            }
+            bits = bits << 4 | digit;
+        }
+        return bits;
+    }
+
+    @Override
+    public String toString() {
+        return "TagContext{" + "mac=" + mac + ", name=" + name + ", allowed=" + allowed
+                + ", limitingStrategy=" + limitingStrategy + ", measurementUpdateLimit=" + measurementUpdateLimit
+                + ", topic=" + topic + '}';
+    }
+}
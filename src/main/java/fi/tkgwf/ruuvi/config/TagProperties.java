@@ -2,26 +2,33 @@ package fi.tkgwf.ruuvi.config;
 
 import fi.tkgwf.ruuvi.strategy.LimitingStrategy;
 import fi.tkgwf.ruuvi.strategy.impl.DefaultDiscardingWithMotionSensitivityStrategy;
+import fi.tkgwf.ruuvi.strategy.impl.WindowedAggregationStrategy;
 
 import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 public class TagProperties {
     private final String mac;
     private final LimitingStrategy limitingStrategy;
     private final Duration updateInterval;
+    private final Map<String, String> settings;
 
-    private TagProperties(final String mac, final LimitingStrategy limitingStrategy, Duration updateInterval) {
+    private TagProperties(final String mac, final LimitingStrategy limitingStrategy, Duration updateInterval,
+                          final LimitingStrategy defaultStrategy, final Map<String, String> settings) {
         this.mac = mac;
         this.updateInterval = updateInterval;
         this.limitingStrategy = Optional.ofNullable(limitingStrategy)
-            .orElse(Config.getLimitingStrategy());
+            .orElse(defaultStrategy);
+        this.settings = settings;
     }
 
     public static TagProperties defaultValues() {
         return new TagProperties(null,
                 Config.getLimitingStrategy(),
-                null);
+                null, null, Collections.emptyMap());
     }
 
     public String getMac() {
@@ -36,6 +43,13 @@ public class TagProperties {
         return updateInterval;
     }
 
+    /**
+     * @return the properties of the tag as they were configured, without the "tag.&lt;MAC&gt;." prefix
+     */
+    Map<String, String> getSettings() {
+        return settings;
+    }
+
     public static Builder builder(final String mac) {
         return new Builder(mac);
     }
@@ -45,16 +59,24 @@ public class TagProperties {
         private String mac;
         private LimitingStrategy limitingStrategy;
         private Duration updateInterval;
+        private final Map<String, String> settings = new HashMap<>();
 
         public Builder(final String mac) {
             this.mac = mac;
         }
 
         public Builder add(final String key, final String value) {
+            settings.put(key, value);
             if ("limitingStrategy".equals(key)) {
                 if ("onMovement".equals(value)) {
                     this.limitingStrategy = new DefaultDiscardingWithMotionSensitivityStrategy();
                 }
+                if ("aggregate".equals(value)) {
+                    this.limitingStrategy = new WindowedAggregationStrategy();
+                }
+                if ("aligned".equals(value)) {
+                    this.limitingStrategy = Config.getAlignedStrategy();
+                }
             }
 
             if ("updateInterval".equals(key)) {
@@ -64,8 +86,12 @@ public class TagProperties {
             return this;
         }
 
-        public TagProperties build() {
-            return new TagProperties(mac, limitingStrategy, updateInterval);
+        /**
+         * @param defaultStrategy the strategy of the tag unless it has a strategy of its own
+         * @return the properties of the tag
+         */
+        public TagProperties build(final LimitingStrategy defaultStrategy) {
+            return new TagProperties(mac, limitingStrategy, updateInterval, defaultStrategy, Collections.unmodifiableMap(settings));
         }
     }
 }
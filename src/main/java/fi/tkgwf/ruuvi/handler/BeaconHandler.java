@@ -7,6 +7,7 @@ import fi.tkgwf.ruuvi.common.parser.DataFormatParser;
 import fi.tkgwf.ruuvi.common.parser.impl.AnyDataFormatParser;
 import fi.tkgwf.ruuvi.config.Config;
 import java.util.Optional;
+import troinine.ruuvi.jfr.DecodeEvent;
 
 /**
  * Creates {@link RuuviMeasurement} instances from raw dumps from hcidump.
@@ -24,6 +25,18 @@ public class BeaconHandler {
      * parse the packet
      */
     public Optional<EnhancedRuuviMeasurement> handle(HCIData hciData) {
+        final DecodeEvent event = new DecodeEvent();
+        event.begin();
+        final Optional<EnhancedRuuviMeasurement> measurement = decode(hciData);
+        if (event.shouldCommit()) {
+            event.mac = hciData.mac;
+            event.dataFormat = measurement.map(m -> m.getDataFormat() != null ? m.getDataFormat() : -1).orElse(-1);
+            event.commit();
+        }
+        return measurement;
+    }
+
+    private Optional<EnhancedRuuviMeasurement> decode(HCIData hciData) {
         HCIData.Report.AdvertisementData adData = hciData.findAdvertisementDataByType(0xFF); // Manufacturer-specific data, raw dataformats
         if (adData == null) {
             adData = hciData.findAdvertisementDataByType(0x16); // Eddystone url
@@ -38,6 +51,8 @@ public class BeaconHandler {
         EnhancedRuuviMeasurement enhancedMeasurement = new EnhancedRuuviMeasurement(measurement);
         enhancedMeasurement.setMac(hciData.mac);
         enhancedMeasurement.setRssi(hciData.rssi);
+        enhancedMeasurement.setAdapter(hciData.adapter);
+        enhancedMeasurement.setReadNanos(hciData.readNanos);
         enhancedMeasurement.setName(Config.getTagName(hciData.mac));
         return Optional.of(enhancedMeasurement);
     }
@@ -0,0 +1,62 @@
+package fi.tkgwf.ruuvi.history;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.utils.TagStateMap;
+
+/**
+ * Keeps a {@link MeasurementHistory} per tag. The capacity of each history is limited by
+ * {@link Config#getHistoryMaxBytesPerTag()} so that the memory used per tag has a hard upper bound, and the
+ * histories of tags that have not been heard for a while are evicted, see {@link TagStateMap}.
+ */
+public class HistoryStore {
+
+    private final TagStateMap<MeasurementHistory> historiesPerMac = new TagStateMap<>();
+    private final int capacity;
+
+    /**
+     * @param requestedCapacity number of samples to keep per tag, limited by the memory budget per tag
+     */
+    public HistoryStore(int requestedCapacity) {
+        this.capacity = capacityWithinBudget(requestedCapacity, Config.getHistoryMaxBytesPerTag());
+    }
+
+    static int capacityWithinBudget(int requestedCapacity, long maxBytesPerTag) {
+        final long maxCapacity = Math.max(1, maxBytesPerTag / MeasurementHistory.bytesFor(1));
+        return (int) Math.max(1, Math.min(requestedCapacity, maxCapacity));
+    }
+
+    /**
+     * Adds a measurement to the history of its tag, timestamped with {@link Config#getTimestampProvider()}
+     *
+     * @param measurement the measurement
+     * @return the history of the tag
+     */
+    public MeasurementHistory add(EnhancedRuuviMeasurement measurement) {
+        final MeasurementHistory history = get(measurement.getMac());
+        history.add(Config.getTimestampProvider().get(), measurement);
+        return history;
+    }
+
+    /**
+     * @param mac the MAC address of the tag
+     * @return the history of the tag, created if it did not exist yet
+     */
+    public MeasurementHistory get(String mac) {
+        return historiesPerMac.computeIfAbsent(mac, k -> new MeasurementHistory(capacity));
+    }
+
+    /**
+     * @return the number of samples kept per tag
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of tags that have a history
+     */
+    public int size() {
+        return historiesPerMac.size();
+    }
+}
@@ -0,0 +1,169 @@
+package fi.tkgwf.ruuvi.history;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.bean.MeasurementField;
+
+/**
+ * A fixed size history of the measurements of a single tag. The values are stored in preallocated primitive
+ * ring buffers, one column per {@link MeasurementField} plus one for the timestamps, so adding a measurement
+ * never allocates and the memory used never grows beyond the initial capacity. Once full, the oldest values
+ * are overwritten. Missing values are stored as {@link Double#NaN}.
+ * <p>
+ * Samples are addressed by their age: age 0 is the latest sample, age 1 the one before it and so on.
+ */
+public class MeasurementHistory {
+
+    private static final MeasurementField[] FIELDS = MeasurementField.values();
+
+    private final long[] timestamps;
+    private final double[][] columns;
+    private int head; // index of the next write
+    private int size;
+
+    public MeasurementHistory(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.timestamps = new long[capacity];
+        this.columns = new double[FIELDS.length][capacity];
+    }
+
+    /**
+     * @param capacity number of samples
+     * @return the number of bytes the buffers of a history of the given capacity take
+     */
+    public static long bytesFor(int capacity) {
+        return (long) capacity * Long.BYTES * (FIELDS.length + 1);
+    }
+
+    /**
+     * Adds a sample to the history, overwriting the oldest sample if the history is full
+     *
+     * @param timestamp timestamp of the measurement in milliseconds
+     * @param measurement the measurement
+     */
+    public synchronized void add(long timestamp, EnhancedRuuviMeasurement measurement) {
+        timestamps[head] = timestamp;
+        for (int i = 0; i < FIELDS.length; i++) {
+            columns[i][head] = FIELDS[i].get(measurement);
+        }
+        head = (head + 1) % timestamps.length;
+        if (size < timestamps.length) {
+            size++;
+        }
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @param age age of the sample, 0 being the latest
+     * @return the timestamp of the sample
+     * @throws IndexOutOfBoundsException if there is no sample of the given age
+     */
+    public synchronized long getTimestamp(int age) {
+        return timestamps[indexOf(age)];
+    }
+
+    /**
+     * @param field the field
+     * @param age age of the sample, 0 being the latest
+     * @return the value of the field in the sample, or {@link Double#NaN} if the value was missing
+     * @throws IndexOutOfBoundsException if there is no sample of the given age
+     */
+    public synchronized double get(MeasurementField field, int age) {
+        return columns[field.ordinal()][indexOf(age)];
+    }
+
+    /**
+     * @param field the field
+     * @return the change of the field between the previous and the latest sample, or {@link Double#NaN} if
+     * either of the values is not available
+     */
+    public double delta(MeasurementField field) {
+        return delta(field, 1);
+    }
+
+    /**
+     * @param field the field
+     * @param age age of the sample to compare the latest sample to
+     * @return the change of the field between the sample of the given age and the latest sample, or
+     * {@link Double#NaN} if either of the values is not available
+     */
+    public synchronized double delta(MeasurementField field, int age) {
+        if (age >= size) {
+            return Double.NaN;
+        }
+        final double[] column = columns[field.ordinal()];
+        return column[indexOf(0)] - column[indexOf(age)];
+    }
+
+    /**
+     * Copies the latest samples of a field, oldest first, into the given arrays
+     *
+     * @param field the field
+     * @param n maximum number of samples to copy
+     * @param timestampsOut destination for the timestamps, may be null
+     * @param valuesOut destination for the values
+     * @return the number of samples copied
+     */
+    public synchronized int last(MeasurementField field, int n, long[] timestampsOut, double[] valuesOut) {
+        final int count = Math.min(Math.min(n, size), valuesOut.length);
+        final double[] column = columns[field.ordinal()];
+        for (int i = 0; i < count; i++) {
+            final int index = indexOf(count - 1 - i);
+            if (timestampsOut != null) {
+                timestampsOut[i] = timestamps[index];
+            }
+            valuesOut[i] = column[index];
+        }
+        return count;
+    }
+
+    /**
+     * Copies the samples of a field within the given time range, oldest first, into the given arrays
+     *
+     * @param field the field
+     * @param from start of the range in milliseconds, inclusive
+     * @param to end of the range in milliseconds, exclusive
+     * @param timestampsOut destination for the timestamps, may be null
+     * @param valuesOut destination for the values
+     * @return the number of samples copied
+     */
+    public synchronized int range(MeasurementField field, long from, long to, long[] timestampsOut, double[] valuesOut) {
+        final double[] column = columns[field.ordinal()];
+        int count = 0;
+        for (int age = size - 1; age >= 0 && count < valuesOut.length; age--) {
+            final int index = indexOf(age);
+            final long timestamp = timestamps[index];
+            if (timestamp >= from && timestamp < to) {
+                if (timestampsOut != null) {
+                    timestampsOut[count] = timestamp;
+                }
+                valuesOut[count++] = column[index];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Removes all samples from the history
+     */
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private int indexOf(int age) {
+        if (age < 0 || age >= size) {
+            throw new IndexOutOfBoundsException("No sample of age " + age + ", history size is " + size);
+        }
+        final int index = head - 1 - age;
+        return index < 0 ? index + timestamps.length : index;
+    }
+}
@@ -20,4 +20,12 @@ public interface LimitingStrategy extends Function<EnhancedRuuviMeasurement, Opt
      */
     @Override
     Optional<EnhancedRuuviMeasurement> apply(EnhancedRuuviMeasurement measurement);
+
+    /**
+     * @return true if the measurements for which {@link #apply(EnhancedRuuviMeasurement)} returns an empty
+     * {@link Optional} are discarded, false if they are kept for a later publication, such as an aggregate
+     */
+    default boolean isDiscarding() {
+        return true;
+    }
 }
@@ -0,0 +1,24 @@
+package fi.tkgwf.ruuvi.strategy;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+
+import java.util.function.Consumer;
+
+/**
+ * A {@link LimitingStrategy} that publishes measurements on its own schedule rather than (only) as a response
+ * to incoming measurements. The strategy must be started before it publishes anything.
+ */
+public interface ScheduledLimitingStrategy extends LimitingStrategy {
+
+    /**
+     * Starts publishing the scheduled measurements
+     *
+     * @param publisher consumer of the measurements published by the strategy
+     */
+    void start(Consumer<EnhancedRuuviMeasurement> publisher);
+
+    /**
+     * Stops publishing the scheduled measurements
+     */
+    void stop();
+}
@@ -1,72 +1,83 @@
 package fi.tkgwf.ruuvi.strategy.impl;
 
 import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.bean.MeasurementField;
 import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.history.HistoryStore;
+import fi.tkgwf.ruuvi.history.MeasurementHistory;
 import fi.tkgwf.ruuvi.strategy.LimitingStrategy;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import fi.tkgwf.ruuvi.utils.TagStateMap;
+
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <p>
  * Normally discard measurements that are coming in too fast, except when a sudden acceleration change
  * takes place -- in that case the measurement is always saved.
  * </p><p>
- * The time limit is defined as {@link Config#getMeasurementUpdateLimit()}.
+ * The time limit is defined as {@link Config#getMeasurementUpdateLimit(String)}.
  * The acceleration bounds are defined as values compared to the previous measurement
  * with {@link Config#getDefaultWithMotionSensitivityStrategyThreshold()}.
  * </p><p>
  * The limit is applied separately to all the different devices sending data, i.e. per MAC address.
+ * The previous measurements of each device are kept in its own {@link MeasurementHistory}, so measurements
+ * of different devices can be handled concurrently.
  * </p>
  */
 public class DefaultDiscardingWithMotionSensitivityStrategy implements LimitingStrategy {
     private final DiscardUntilEnoughTimeHasElapsedStrategy defaultStrategy = new DiscardUntilEnoughTimeHasElapsedStrategy();
 
     private final Double threshold = Config.getDefaultWithMotionSensitivityStrategyThreshold();
-    private final Map<String, List<EnhancedRuuviMeasurement>> previousMeasurementsPerMac = new HashMap<>();
-    private final Map<String, Boolean> previousOutsideOfRangePerMac = new HashMap<>();
+    private final HistoryStore historyStore;
+    private final TagStateMap<AtomicBoolean> previousOutsideOfRangePerMac = new TagStateMap<>();
+
+    public DefaultDiscardingWithMotionSensitivityStrategy() {
+        this(new HistoryStore(Config.getDefaultWithMotionSensitivityStrategyNumberOfPreviousMeasurementsToKeep()));
+    }
+
+    /**
+     * @param historyStore the store to keep the previous measurements of each tag in, it must keep at least two
+     * measurements per tag
+     */
+    public DefaultDiscardingWithMotionSensitivityStrategy(final HistoryStore historyStore) {
+        this.historyStore = historyStore;
+    }
 
     @Override
     public Optional<EnhancedRuuviMeasurement> apply(final EnhancedRuuviMeasurement measurement) {
-        final List<EnhancedRuuviMeasurement> previousMeasurements = previousMeasurementsPerMac.getOrDefault(measurement.getMac(), new LinkedList<>());
-        previousMeasurements.add(measurement);
-        if (previousMeasurements.size() > Config.getDefaultWithMotionSensitivityStrategyNumberOfPreviousMeasurementsToKeep()) {
-            previousMeasurements.remove(0);
-        }
-        previousMeasurementsPerMac.put(measurement.getMac(), previousMeasurements);
+        final String key = measurement.getMac() == null ? "" : measurement.getMac();
+        final MeasurementHistory history = historyStore.get(key);
 
-        // Always apply the default strategy to keep the timestamps updated there:
-        Optional<EnhancedRuuviMeasurement> result = defaultStrategy.apply(measurement);
+        final AtomicBoolean previousOutsideOfRange = previousOutsideOfRangePerMac.computeIfAbsent(key, k -> new AtomicBoolean());
 
-        // Apply the motion sensing strategy only if the base strategy says "no":
-        if (!result.isPresent() && previousMeasurements.size() > 1) {
-            final EnhancedRuuviMeasurement previous = previousMeasurements.get(previousMeasurements.size() - 2);
-            if (isOutsideThreshold(measurement.getAccelerationX(), previous.getAccelerationX())
-                || isOutsideThreshold(measurement.getAccelerationY(), previous.getAccelerationY())
-                || isOutsideThreshold(measurement.getAccelerationZ(), previous.getAccelerationZ())) {
-                result = Optional.of(measurement);
-                previousOutsideOfRangePerMac.put(measurement.getMac(), true);
-            } else if (previousOutsideOfRangePerMac.getOrDefault(measurement.getMac(), false)) {
-                // Reset the measurements: store one more event after the values have returned to within the threshold
-                result = Optional.of(measurement);
-                previousOutsideOfRangePerMac.put(measurement.getMac(), false);
-            }
-        }
+        synchronized (history) {
+            history.add(Config.getTimestampProvider().get(), measurement);
 
-        return result;
-    }
+            // Always apply the default strategy to keep the timestamps updated there:
+            Optional<EnhancedRuuviMeasurement> result = defaultStrategy.apply(measurement);
+
+            // Apply the motion sensing strategy only if the base strategy says "no":
+            if (!result.isPresent() && history.size() > 1) {
+                if (isOutsideThreshold(history.delta(MeasurementField.ACCELERATION_X))
+                    || isOutsideThreshold(history.delta(MeasurementField.ACCELERATION_Y))
+                    || isOutsideThreshold(history.delta(MeasurementField.ACCELERATION_Z))) {
+                    result = Optional.of(measurement);
+                    previousOutsideOfRange.set(true);
+                } else if (previousOutsideOfRange.get()) {
+                    // Reset the measurements: store one more event after the values have returned to within the threshold
+                    result = Optional.of(measurement);
+                    previousOutsideOfRange.set(false);
+                }
+            }
 
-    private boolean isOutsideThreshold(final Double current, final Double previous) {
-        if (current == null || previous == null) {
-            return false;
+            return result;
         }
-        final double upperBound = previous + threshold;
-        final double lowerBound = previous - threshold;
-        return current > upperBound || current < lowerBound;
     }
 
-
+    private boolean isOutsideThreshold(final double delta) {
+        // NaN if either of the values is missing, and never outside the threshold
+        return Math.abs(delta) > threshold;
+    }
 }
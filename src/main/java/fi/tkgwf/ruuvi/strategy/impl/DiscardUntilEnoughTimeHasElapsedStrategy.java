@@ -4,21 +4,22 @@ import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
 import fi.tkgwf.ruuvi.config.Config;
 import fi.tkgwf.ruuvi.strategy.LimitingStrategy;
 
-import java.util.HashMap;
-import java.util.Map;
+import fi.tkgwf.ruuvi.utils.TagStateMap;
+
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The default limiting strategy: discard measurements that are coming in too fast.
- * The time limit is defined as {@link Config#getMeasurementUpdateLimit()}.
+ * The time limit is defined as {@link Config#getMeasurementUpdateLimit(String)}.
  * The limit is applied separately to all the different devices sending data, i.e. per MAC address.
+ * This strategy is safe to use from multiple threads, and the state it keeps is bounded by a {@link TagStateMap}.
  */
 public class DiscardUntilEnoughTimeHasElapsedStrategy implements LimitingStrategy {
     /**
      * Contains the MAC address as key, and the timestamp of last sent update as value
      */
-    private final Map<String, Long> updatedMacs = new HashMap<>();
-    private final long updateLimit = Config.getMeasurementUpdateLimit();
+    private final TagStateMap<AtomicLong> updatedMacs = new TagStateMap<>();
 
     @Override
     public Optional<EnhancedRuuviMeasurement> apply(final EnhancedRuuviMeasurement measurement) {
@@ -29,12 +30,17 @@ public class DiscardUntilEnoughTimeHasElapsedStrategy implements LimitingStrateg
     }
 
     private boolean shouldUpdate(final String mac) {
-        final Long lastUpdate = updatedMacs.get(mac);
+        final long updateLimit = Config.getMeasurementUpdateLimit(mac);
         final long currentTime = Config.getTimestampProvider().get();
-        if (lastUpdate == null || lastUpdate + updateLimit < currentTime) {
-            updatedMacs.put(mac, currentTime);
-            return true;
+        final AtomicLong updated = updatedMacs.computeIfAbsent(mac, k -> new AtomicLong(Long.MIN_VALUE));
+        while (true) {
+            final long lastUpdate = updated.get();
+            if (lastUpdate != Long.MIN_VALUE && lastUpdate + updateLimit >= currentTime) {
+                return false;
+            }
+            if (updated.compareAndSet(lastUpdate, currentTime)) {
+                return true;
+            }
         }
-        return false;
     }
 }
@@ -0,0 +1,219 @@
+package fi.tkgwf.ruuvi.strategy.impl;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.strategy.ScheduledLimitingStrategy;
+import fi.tkgwf.ruuvi.utils.MeasurementAccumulator;
+import fi.tkgwf.ruuvi.utils.TagStateMap;
+import fi.tkgwf.ruuvi.utils.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Publishes the measurements of each tag at wall clock aligned slots: with an update limit of 10 seconds a
+ * measurement is published at :00, :10, :20 and so on, see {@link Config#getMeasurementUpdateLimit(String)}. The
+ * limit is rounded to the nearest multiple of {@link Config#getAlignedStrategyTickMillis()}, so that the slots end
+ * exactly at the ticks, and the default of 9900 ms makes slots of 10 seconds.
+ * The published measurement is either the latest measurement received during the slot or an aggregate of all
+ * of them (see {@link Config#isAlignedStrategyAggregate()}), timestamped with the slot boundary. Incoming
+ * measurements are never published directly.
+ * </p><p>
+ * If a tag was not heard during a slot, a "no data" marker containing only the MAC address, the name, the time
+ * and a sample count of zero is published instead. A tag that stays silent for
+ * {@link Config#getAlignedStrategyMaxSilentSlots()} slots is forgotten until it is heard again.
+ * </p><p>
+ * The slots of all tags are kept in a single {@link TimingWheel}, so the cost of a tick does not depend on the
+ * number of tags.
+ * </p>
+ */
+public class WallClockAlignedStrategy implements ScheduledLimitingStrategy {
+    private static final Logger logger = LoggerFactory.getLogger(WallClockAlignedStrategy.class);
+    private static final int WHEEL_SIZE = 64;
+
+    private final TagStateMap<Slot> slotsPerMac = new TagStateMap<>(WallClockAlignedStrategy::evicted);
+    private final long tickMillis = Config.getAlignedStrategyTickMillis();
+    private TimingWheel<Slot> wheel;
+    private ScheduledExecutorService timer;
+    private volatile Consumer<EnhancedRuuviMeasurement> publisher;
+
+    @Override
+    public Optional<EnhancedRuuviMeasurement> apply(final EnhancedRuuviMeasurement measurement) {
+        final String key = measurement.getMac() == null ? "" : measurement.getMac();
+        while (true) {
+            final Slot slot = slotsPerMac.computeIfAbsent(key, Slot::new);
+            if (!slot.scheduled) {
+                scheduleFirst(slot, Config.getTimestampProvider().get());
+            }
+            synchronized (slot) {
+                if (!slot.removed) {
+                    slot.accumulator.add(measurement);
+                    return Optional.empty();
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isDiscarding() {
+        return false;
+    }
+
+    @Override
+    public synchronized void start(final Consumer<EnhancedRuuviMeasurement> publisher) {
+        start(publisher, true);
+    }
+
+    synchronized void start(final Consumer<EnhancedRuuviMeasurement> publisher, final boolean startTimer) {
+        this.publisher = publisher;
+        if (startTimer && timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "aligned-strategy-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.scheduleAtFixedRate(() -> {
+                try {
+                    advance(Config.getTimestampProvider().get());
+                } catch (Exception e) {
+                    logger.warn("Failed to publish the aligned measurements", e);
+                }
+            }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+        publisher = null;
+    }
+
+    /**
+     * Publishes the measurements of all the slots that have ended by the given time
+     *
+     * @param now the current time in milliseconds
+     */
+    void advance(final long now) {
+        final List<EnhancedRuuviMeasurement> due = new ArrayList<>();
+        synchronized (this) {
+            if (wheel == null) {
+                return;
+            }
+            wheel.advanceTo(now, slot -> endSlot(slot, due));
+        }
+        // Outside of the lock, so that new tags are not scheduled only after the broker has acknowledged these
+        final Consumer<EnhancedRuuviMeasurement> publisher = this.publisher;
+        if (publisher != null) {
+            due.forEach(publisher);
+        }
+    }
+
+    /**
+     * Collects the measurement of a slot that has ended, if any, and schedules the next slot of the tag
+     */
+    private void endSlot(final Slot slot, final List<EnhancedRuuviMeasurement> due) {
+        final EnhancedRuuviMeasurement measurement;
+        synchronized (slot) {
+            if (slot.removed) {
+                return;
+            }
+            if (slot.accumulator.getSampleCount() == 0) {
+                slot.silentSlots++;
+                if (slot.silentSlots > Config.getAlignedStrategyMaxSilentSlots()) {
+                    slot.removed = true;
+                    slotsPerMac.remove(slot.mac, slot);
+                    return;
+                }
+                measurement = Config.isAlignedStrategyNoDataMarkers() ? noDataMarker(slot) : null;
+            } else {
+                slot.silentSlots = 0;
+                slot.name = slot.accumulator.getLatest().getName();
+                measurement = Config.isAlignedStrategyAggregate()
+                        ? slot.accumulator.toMeasurement(Config.isAggregateStrategyStatisticsEnabled(), Config.isAggregateStrategyStdDevEnabled())
+                        : slot.accumulator.getLatest();
+                measurement.setSampleCount(slot.accumulator.getSampleCount());
+                slot.accumulator.reset();
+            }
+            if (measurement != null) {
+                measurement.setTime(slot.deadline);
+            }
+        }
+        schedule(slot, slot.deadline);
+        if (measurement != null) {
+            due.add(measurement);
+        }
+    }
+
+    private synchronized void scheduleFirst(final Slot slot, final long now) {
+        if (!slot.scheduled) {
+            slot.scheduled = true;
+            schedule(slot, now);
+        }
+    }
+
+    /**
+     * Schedules the slot to end at the first aligned boundary after the given time that has not passed yet
+     */
+    private synchronized void schedule(final Slot slot, final long after) {
+        if (wheel == null) {
+            wheel = new TimingWheel<>(tickMillis, WHEEL_SIZE, after);
+        }
+        final long interval = interval(Config.getMeasurementUpdateLimit(slot.mac));
+        long deadline = nextBoundary(after, interval);
+        while (!wheel.schedule(deadline, slot)) {
+            deadline += interval;
+        }
+        slot.deadline = deadline;
+    }
+
+    /**
+     * @return the update limit rounded to the nearest multiple of the tick, at least one tick, as the wheel ends a
+     * slot at the start of the tick its deadline falls into
+     */
+    long interval(final long updateLimit) {
+        return Math.max(1, Math.round(updateLimit / (double) tickMillis)) * tickMillis;
+    }
+
+    private static long nextBoundary(final long time, final long interval) {
+        return time - Math.floorMod(time, interval) + interval;
+    }
+
+    private static void evicted(final String mac, final Slot slot) {
+        synchronized (slot) {
+            slot.removed = true;
+        }
+    }
+
+    private static EnhancedRuuviMeasurement noDataMarker(final Slot slot) {
+        final EnhancedRuuviMeasurement marker = new EnhancedRuuviMeasurement();
+        marker.setMac(slot.mac.isEmpty() ? null : slot.mac);
+        marker.setName(slot.name);
+        marker.setSampleCount(0);
+        return marker;
+    }
+
+    private static final class Slot {
+        private final String mac;
+        private final MeasurementAccumulator accumulator = new MeasurementAccumulator();
+        private String name;
+        private long deadline;
+        private int silentSlots;
+        private boolean removed;
+        private volatile boolean scheduled;
+
+        private Slot(final String mac) {
+            this.mac = mac;
+        }
+    }
+}
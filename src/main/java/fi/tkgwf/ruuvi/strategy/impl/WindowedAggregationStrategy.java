@@ -0,0 +1,61 @@
+package fi.tkgwf.ruuvi.strategy.impl;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.strategy.LimitingStrategy;
+import fi.tkgwf.ruuvi.utils.MeasurementAccumulator;
+import fi.tkgwf.ruuvi.utils.TagStateMap;
+
+import java.util.Optional;
+
+/**
+ * <p>
+ * Aggregates the measurements of each tag over tumbling windows instead of discarding them. A window starts
+ * with the first measurement received after the previous window was closed and lasts for
+ * {@link Config#getMeasurementUpdateLimit(String)}. The first measurement that arrives after the window has
+ * elapsed closes it: a single aggregated measurement of the window is published and a new window is started
+ * with the arriving measurement.
+ * </p><p>
+ * The aggregated measurement contains the mean values of continuous fields and the latest values of the other
+ * fields, optionally with per field statistics, see {@link MeasurementAccumulator}. The memory used per tag is
+ * fixed no matter how often the tag advertises.
+ * </p>
+ */
+public class WindowedAggregationStrategy implements LimitingStrategy {
+
+    private final TagStateMap<Window> windowsPerMac = new TagStateMap<>();
+
+    @Override
+    public Optional<EnhancedRuuviMeasurement> apply(final EnhancedRuuviMeasurement measurement) {
+        final long windowLength = Config.getMeasurementUpdateLimit(measurement.getMac());
+        if (windowLength <= 0) {
+            return Optional.of(measurement);
+        }
+        final Window window = windowsPerMac.computeIfAbsent(measurement.getMac(), k -> new Window());
+        final long currentTime = Config.getTimestampProvider().get();
+
+        synchronized (window) {
+            EnhancedRuuviMeasurement result = null;
+            if (window.accumulator.getSampleCount() > 0 && window.start + windowLength <= currentTime) {
+                result = window.accumulator.toMeasurement(Config.isAggregateStrategyStatisticsEnabled(),
+                        Config.isAggregateStrategyStdDevEnabled());
+                window.accumulator.reset();
+            }
+            if (window.accumulator.getSampleCount() == 0) {
+                window.start = currentTime;
+            }
+            window.accumulator.add(measurement);
+            return Optional.ofNullable(result);
+        }
+    }
+
+    @Override
+    public boolean isDiscarding() {
+        return false;
+    }
+
+    private static final class Window {
+        private final MeasurementAccumulator accumulator = new MeasurementAccumulator();
+        private long start;
+    }
+}
@@ -1,6 +1,7 @@
 package fi.tkgwf.ruuvi.utils;
 
 import fi.tkgwf.ruuvi.bean.HCIData;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import org.apache.commons.lang3.StringUtils;
 
@@ -37,21 +38,62 @@ public class HCIParser {
         if (StringUtils.isBlank(line)) {
             return null; // ignore blank lines
         }
-        line = line.trim();
-        if (line.charAt(0) == '>') { // new incoming packet begins
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        return readLine(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Reads an ASCII line of hcidump raw output directly from a byte buffer,
+     * see {@link #readLine(String)}.
+     *
+     * @param line buffer containing the raw line from hcidump --raw output
+     * @param offset start of the line in the buffer
+     * @param length length of the line
+     * @return An instance of HCIData containing the parsed data from this line
+     * and the previous ones
+     */
+    public HCIData readLine(byte[] line, int offset, int length) {
+        int start = offset;
+        int end = offset + length;
+        while (start < end && line[start] <= ' ') {
+            start++;
+        }
+        while (end > start && line[end - 1] <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return null; // ignore blank lines
+        }
+        if (line[start] == '>') { // new incoming packet begins
             reset();
-            line = line.substring(1).trim(); // discard the > char
+            start++; // discard the > char
+            while (start < end && line[start] <= ' ') {
+                start++;
+            }
+            if (start == end) {
+                return null;
+            }
         }
-        if (line.charAt(0) == '<') { // new outgoing packet begins
+        if (line[start] == '<') { // new outgoing packet begins
             sendingData = true;
         }
         if (sendingData) {
             return null; // currently reading a packet that is being sent rather than received, ignore it
         }
-        byte[] lineData = Utils.hexToBytes(line);
-        int i = 0;
-        for (; i < lineData.length; i++, indexInPacket++) {
-            handleByte(lineData[i]);
+        boolean highNibble = true;
+        int high = 0;
+        for (int i = start; i < end; i++) {
+            if (line[i] == ' ') {
+                continue;
+            }
+            int digit = Character.digit((char) (line[i] & 0xFF), 16);
+            if (highNibble) {
+                high = digit;
+            } else {
+                handleByte((byte) ((high << 4) + digit));
+                indexInPacket++;
+            }
+            highNibble = !highNibble;
         }
         // the packet length is actually the length AFTER the length byte, which is the 3rd byte
         if (data.packetLength != null && indexInPacket >= data.packetLength + 3) {
@@ -0,0 +1,126 @@
+package fi.tkgwf.ruuvi.utils;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.bean.FieldStatistics;
+import fi.tkgwf.ruuvi.bean.MeasurementField;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Incrementally accumulates the measurements of a single tag: count, min, max, mean, last and variance (using
+ * Welford's online algorithm) for every {@link MeasurementField}. Adding a measurement is O(1) and the memory
+ * used is fixed regardless of how many measurements are added. This class is not thread safe.
+ */
+public class MeasurementAccumulator {
+
+    private static final MeasurementField[] FIELDS = MeasurementField.values();
+
+    private final int[] counts = new int[FIELDS.length];
+    private final double[] means = new double[FIELDS.length];
+    private final double[] m2s = new double[FIELDS.length];
+    private final double[] mins = new double[FIELDS.length];
+    private final double[] maxs = new double[FIELDS.length];
+    private final double[] lasts = new double[FIELDS.length];
+    private int sampleCount;
+    private EnhancedRuuviMeasurement latest;
+
+    public MeasurementAccumulator() {
+        reset();
+    }
+
+    /**
+     * Adds a measurement to the accumulated values
+     *
+     * @param measurement the measurement to add
+     */
+    public void add(EnhancedRuuviMeasurement measurement) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            final double value = FIELDS[i].get(measurement);
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            final int count = ++counts[i];
+            final double delta = value - means[i];
+            means[i] += delta / count;
+            m2s[i] += delta * (value - means[i]);
+            mins[i] = Math.min(mins[i], value);
+            maxs[i] = Math.max(maxs[i], value);
+            lasts[i] = value;
+        }
+        sampleCount++;
+        latest = measurement;
+    }
+
+    /**
+     * @return the number of measurements added since the last reset
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return the latest added measurement, or null if nothing has been added since the last reset
+     */
+    public EnhancedRuuviMeasurement getLatest() {
+        return latest;
+    }
+
+    /**
+     * Creates a measurement out of the accumulated values. Continuous fields are set to their mean values and
+     * other fields to their latest values, the extended values are calculated from these.
+     *
+     * @param includeStatistics whether to populate the per field statistics
+     * @param includeStdDev whether to include the standard deviation in the statistics
+     * @return the aggregated measurement, or null if nothing has been added since the last reset
+     */
+    public EnhancedRuuviMeasurement toMeasurement(boolean includeStatistics, boolean includeStdDev) {
+        if (latest == null) {
+            return null;
+        }
+        final EnhancedRuuviMeasurement result = new EnhancedRuuviMeasurement(latest);
+        result.setTime(latest.getTime());
+        result.setMac(latest.getMac());
+        result.setName(latest.getName());
+        result.setRssi(latest.getRssi());
+        result.setAdapter(latest.getAdapter());
+        result.setReadNanos(latest.getReadNanos());
+        final Map<String, FieldStatistics> statistics = includeStatistics ? new LinkedHashMap<>() : null;
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            FIELDS[i].set(result, FIELDS[i].isContinuous() ? means[i] : lasts[i]);
+            if (statistics != null) {
+                final FieldStatistics fieldStatistics = new FieldStatistics();
+                fieldStatistics.setMin(mins[i]);
+                fieldStatistics.setMax(maxs[i]);
+                fieldStatistics.setMean(means[i]);
+                fieldStatistics.setLast(lasts[i]);
+                if (includeStdDev) {
+                    fieldStatistics.setStdDev(counts[i] > 1 ? Math.sqrt(m2s[i] / (counts[i] - 1)) : 0d);
+                }
+                statistics.put(FIELDS[i].getFieldName(), fieldStatistics);
+            }
+        }
+        result.setSampleCount(sampleCount);
+        result.setStatistics(statistics);
+        return MeasurementValueCalculator.calculateAllValues(result);
+    }
+
+    /**
+     * Clears all the accumulated values
+     */
+    public final void reset() {
+        for (int i = 0; i < FIELDS.length; i++) {
+            counts[i] = 0;
+            means[i] = 0;
+            m2s[i] = 0;
+            mins[i] = Double.POSITIVE_INFINITY;
+            maxs[i] = Double.NEGATIVE_INFINITY;
+            lasts[i] = Double.NaN;
+        }
+        sampleCount = 0;
+        latest = null;
+    }
+}
@@ -0,0 +1,301 @@
+package fi.tkgwf.ruuvi.utils;
+
+import fi.tkgwf.ruuvi.config.Config;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded map for per tag state, keyed by MAC address. Entries that have not been accessed within the time to
+ * live are evicted, and when the map is full the least recently used entry is evicted. This keeps the memory
+ * used constant in environments where devices come and go, such as phones rotating random MAC addresses.
+ * <p>
+ * The map is split into shards that each have their own lock, so concurrent access to different tags rarely
+ * contends. The number of evictions is tracked both per map and in total over all the maps. The eviction listener is
+ * called after the lock of the shard has been released, so it may lock the evicted state and access the map.
+ *
+ * @param <V> type of the state
+ */
+public class TagStateMap<V> {
+
+    private static final int SHARDS = 16;
+    private static final LongAdder TOTAL_TTL_EVICTIONS = new LongAdder();
+    private static final LongAdder TOTAL_SIZE_EVICTIONS = new LongAdder();
+
+    private final Shard[] shards;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final BiConsumer<String, V> evictionListener;
+    private final LongAdder ttlEvictions = new LongAdder();
+    private final LongAdder sizeEvictions = new LongAdder();
+
+    /**
+     * Creates a map limited by {@link Config#getStateMaxTags()} and {@link Config#getStateTtl()}
+     */
+    public TagStateMap() {
+        this(null);
+    }
+
+    /**
+     * Creates a map limited by {@link Config#getStateMaxTags()} and {@link Config#getStateTtl()}
+     *
+     * @param evictionListener called with the key and the value of every evicted entry, may be null
+     */
+    public TagStateMap(BiConsumer<String, V> evictionListener) {
+        this(Config.getStateMaxTags(), Config.getStateTtl().toMillis(), () -> Config.getTimestampProvider().get(), evictionListener);
+    }
+
+    /**
+     * @param maxSize maximum number of entries
+     * @param ttlMillis time to live of entries since their last access in milliseconds, 0 or less for no limit
+     * @param clock source of the current time in milliseconds
+     * @param evictionListener called with the key and the value of every evicted entry, may be null
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TagStateMap(int maxSize, long ttlMillis, LongSupplier clock, BiConsumer<String, V> evictionListener) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive: " + maxSize);
+        }
+        final int shardCount = Math.min(SHARDS, maxSize);
+        final int maxShardSize = (maxSize + shardCount - 1) / shardCount;
+        this.shards = new TagStateMap.Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(maxShardSize);
+        }
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * @param key MAC address of the tag, null is allowed
+     * @return the state of the tag, or null if there is no (live) state
+     */
+    public V get(String key) {
+        final String k = normalize(key);
+        final Shard shard = shardOf(k);
+        final long now = clock.getAsLong();
+        final List<Node<V>> evicted;
+        synchronized (shard) {
+            final Node<V> node = shard.map.get(k);
+            if (node == null) {
+                return null;
+            }
+            if (!isExpired(node, now)) {
+                node.lastAccess = now;
+                return node.value;
+            }
+            shard.map.remove(k);
+            evicted = evicted(null, node, ttlEvictions, TOTAL_TTL_EVICTIONS);
+        }
+        notifyEvicted(evicted);
+        return null;
+    }
+
+    /**
+     * @param key MAC address of the tag, null is allowed
+     * @param factory creates the state if there is no (live) state for the tag
+     * @return the current state of the tag
+     */
+    public V computeIfAbsent(String key, Function<String, V> factory) {
+        final String k = normalize(key);
+        final Shard shard = shardOf(k);
+        final long now = clock.getAsLong();
+        List<Node<V>> evicted = null;
+        final V value;
+        synchronized (shard) {
+            Node<V> node = shard.map.get(k);
+            if (node != null && isExpired(node, now)) {
+                shard.map.remove(k);
+                evicted = evicted(evicted, node, ttlEvictions, TOTAL_TTL_EVICTIONS);
+                node = null;
+            }
+            if (node == null) {
+                evicted = purgeExpired(shard, now, evicted);
+                node = new Node<>(k, factory.apply(k));
+                shard.map.put(k, node);
+                if (shard.map.size() > shard.maxSize) {
+                    final Iterator<Node<V>> eldest = shard.map.values().iterator();
+                    final Node<V> lru = eldest.next();
+                    eldest.remove();
+                    evicted = evicted(evicted, lru, sizeEvictions, TOTAL_SIZE_EVICTIONS);
+                }
+            }
+            node.lastAccess = now;
+            value = node.value;
+        }
+        notifyEvicted(evicted);
+        return value;
+    }
+
+    /**
+     * Removes the state of a tag if it is the given value
+     *
+     * @param key MAC address of the tag, null is allowed
+     * @param value the expected current state
+     * @return true if the state was removed
+     */
+    public boolean remove(String key, V value) {
+        final String k = normalize(key);
+        final Shard shard = shardOf(k);
+        synchronized (shard) {
+            final Node<V> node = shard.map.get(k);
+            if (node != null && node.value == value) {
+                shard.map.remove(k);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Calls the action for every live entry without counting it as an access. The shard being iterated is locked
+     * while the action runs, so the action must not access this map.
+     *
+     * @param action called with the key and the state of each entry
+     */
+    public void forEach(BiConsumer<String, V> action) {
+        final long now = clock.getAsLong();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (Map.Entry<String, Node<V>> entry : shard.map.entrySet()) {
+                    if (!isExpired(entry.getValue(), now)) {
+                        action.accept(entry.getKey(), entry.getValue().value);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts all the entries whose time to live has passed
+     */
+    public void purgeExpired() {
+        final long now = clock.getAsLong();
+        for (Shard shard : shards) {
+            final List<Node<V>> evicted;
+            synchronized (shard) {
+                evicted = purgeExpired(shard, now, null);
+            }
+            notifyEvicted(evicted);
+        }
+    }
+
+    /**
+     * @return the number of entries, including expired entries that have not been evicted yet
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.map.size();
+            }
+        }
+        return size;
+    }
+
+    public long getTtlEvictions() {
+        return ttlEvictions.sum();
+    }
+
+    public long getSizeEvictions() {
+        return sizeEvictions.sum();
+    }
+
+    /**
+     * @return the number of entries evicted due to their time to live over all the maps
+     */
+    public static long getTotalTtlEvictions() {
+        return TOTAL_TTL_EVICTIONS.sum();
+    }
+
+    /**
+     * @return the number of entries evicted due to the maps being full over all the maps
+     */
+    public static long getTotalSizeEvictions() {
+        return TOTAL_SIZE_EVICTIONS.sum();
+    }
+
+    /**
+     * @param evicted the entries evicted so far, or null if none
+     * @return the entries evicted so far including the expired ones, or null if none
+     */
+    private List<Node<V>> purgeExpired(Shard shard, long now, List<Node<V>> evicted) {
+        if (ttlMillis <= 0) {
+            return evicted;
+        }
+        // The map is in access order, so the expired entries are at the beginning
+        final Iterator<Node<V>> it = shard.map.values().iterator();
+        while (it.hasNext()) {
+            final Node<V> node = it.next();
+            if (!isExpired(node, now)) {
+                break;
+            }
+            it.remove();
+            evicted = evicted(evicted, node, ttlEvictions, TOTAL_TTL_EVICTIONS);
+        }
+        return evicted;
+    }
+
+    private boolean isExpired(Node<V> node, long now) {
+        return ttlMillis > 0 && now - node.lastAccess > ttlMillis;
+    }
+
+    /**
+     * Counts an evicted entry and collects it for the listener, which is called once the lock of the shard has been
+     * released, see {@link #notifyEvicted(List)}. The list is only created when there is a listener.
+     */
+    private List<Node<V>> evicted(List<Node<V>> evicted, Node<V> node, LongAdder counter, LongAdder totalCounter) {
+        counter.increment();
+        totalCounter.increment();
+        if (evictionListener == null) {
+            return evicted;
+        }
+        final List<Node<V>> list = evicted != null ? evicted : new ArrayList<>(1);
+        list.add(node);
+        return list;
+    }
+
+    private void notifyEvicted(List<Node<V>> evicted) {
+        if (evicted != null) {
+            evicted.forEach(node -> evictionListener.accept(node.key, node.value));
+        }
+    }
+
+    private Shard shardOf(String key) {
+        final int h = key.hashCode();
+        return shards[((h ^ (h >>> 16)) & 0x7FFFFFFF) % shards.length];
+    }
+
+    private static String normalize(String key) {
+        return key == null ? "" : key;
+    }
+
+    private final class Shard {
+        private final int maxSize;
+        private final LinkedHashMap<String, Node<V>> map;
+
+        private Shard(int maxSize) {
+            this.maxSize = maxSize;
+            this.map = new LinkedHashMap<>(16, 0.75f, true);
+        }
+    }
+
+    private static final class Node<V> {
+        private final String key;
+        private final V value;
+        private long lastAccess;
+
+        private Node(String key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
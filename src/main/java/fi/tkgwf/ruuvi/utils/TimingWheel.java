@@ -0,0 +1,141 @@
+package fi.tkgwf.ruuvi.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel. Scheduling a task and advancing the wheel by one tick are O(1) regardless of the
+ * number of scheduled tasks; tasks further in the future than the span of a wheel are kept in a coarser overflow
+ * wheel and cascaded down as their time approaches. The resolution is one tick: a task is due at the start of
+ * the tick its deadline falls into. This class is not thread safe.
+ *
+ * @param <T> type of the scheduled tasks
+ */
+public class TimingWheel<T> {
+
+    private final long tickMillis;
+    private final int wheelSize;
+    private final long span;
+    private final List<List<Entry<T>>> buckets;
+    private long currentTime;
+    private int size;
+    private TimingWheel<T> overflowWheel;
+
+    /**
+     * @param tickMillis length of a tick in milliseconds
+     * @param wheelSize number of ticks in a wheel
+     * @param startTime the current time in milliseconds
+     */
+    public TimingWheel(long tickMillis, int wheelSize, long startTime) {
+        if (tickMillis < 1 || wheelSize < 2) {
+            throw new IllegalArgumentException("Invalid timing wheel: tick " + tickMillis + " ms, size " + wheelSize);
+        }
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.span = tickMillis * wheelSize;
+        this.currentTime = startTime - Math.floorMod(startTime, tickMillis);
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Schedules a task
+     *
+     * @param deadline time in milliseconds at which the task is due
+     * @param task the task
+     * @return true if the task was scheduled, false if it is already due
+     */
+    public boolean schedule(long deadline, T task) {
+        return add(new Entry<>(deadline, task));
+    }
+
+    /**
+     * Advances the wheel up to the given time, handing every task that became due to the given consumer
+     *
+     * @param time the current time in milliseconds
+     * @param expired consumer of the due tasks
+     */
+    public void advanceTo(long time, Consumer<T> expired) {
+        advance(time, e -> expired.accept(e.task));
+    }
+
+    /**
+     * @return the start of the current tick in milliseconds
+     */
+    public long getCurrentTime() {
+        return currentTime;
+    }
+
+    /**
+     * @return the number of scheduled tasks
+     */
+    public int size() {
+        return size + (overflowWheel != null ? overflowWheel.size() : 0);
+    }
+
+    private void advance(long time, Consumer<Entry<T>> expired) {
+        if (size() == 0) {
+            // Nothing to expire, skip the idle ticks
+            final long target = time - Math.floorMod(time, tickMillis);
+            if (target > currentTime) {
+                currentTime = target;
+            }
+            if (overflowWheel != null) {
+                overflowWheel.advance(currentTime, expired);
+            }
+            return;
+        }
+        while (currentTime + tickMillis <= time) {
+            currentTime += tickMillis;
+            if (overflowWheel != null) {
+                overflowWheel.advance(currentTime, cascaded -> {
+                    if (!add(cascaded)) {
+                        expired.accept(cascaded);
+                    }
+                });
+            }
+            final List<Entry<T>> bucket = buckets.get(bucketIndex(currentTime));
+            if (!bucket.isEmpty()) {
+                // Tasks rescheduled by the consumer are always at least a tick ahead, never in this bucket
+                size -= bucket.size();
+                for (int i = 0; i < bucket.size(); i++) {
+                    expired.accept(bucket.get(i));
+                }
+                bucket.clear();
+            }
+        }
+    }
+
+    private boolean add(Entry<T> entry) {
+        if (entry.deadline < currentTime + tickMillis) {
+            return false;
+        }
+        if (entry.deadline < currentTime + span) {
+            buckets.get(bucketIndex(entry.deadline)).add(entry);
+            size++;
+        } else {
+            if (overflowWheel == null) {
+                overflowWheel = new TimingWheel<>(span, wheelSize, currentTime);
+            }
+            overflowWheel.add(entry);
+        }
+        return true;
+    }
+
+    private int bucketIndex(long time) {
+        return (int) Math.floorMod(Math.floorDiv(time, tickMillis), (long) wheelSize);
+    }
+
+    private static final class Entry<T> {
+        private final long deadline;
+        private final T task;
+
+        private Entry(long deadline, T task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+    }
+}
@@ -48,6 +48,25 @@ public abstract class Utils {
             && line.trim().length() > 37; //
     }
 
+    /**
+     * Byte based equivalent of {@link #hasMacAddress(String)} for an ASCII line
+     *
+     * @param line buffer containing the line
+     * @param offset start of the line in the buffer
+     * @param length length of the line
+     * @return true if Mac address should be found, false if Mac address should not be present
+     */
+    public static boolean hasMacAddress(byte[] line, int offset, int length) {
+        if (length < 2 || line[offset] != '>' || line[offset + 1] != ' ') {
+            return false;
+        }
+        int end = offset + length;
+        while (end > offset && line[end - 1] <= ' ') {
+            end--;
+        }
+        return end - offset > 37;
+    }
+
     /**
      * Gets a MAC address from a space-separated hex string
      * 
@@ -68,6 +87,29 @@ public abstract class Utils {
         return sb.toString();
     }
 
+    /**
+     * Byte based equivalent of {@link #getMacFromLine(String)} for an ASCII line
+     *
+     * @param line buffer containing the line, the line is checked by {@link #hasMacAddress(byte[], int, int)}
+     * @param offset start of the line in the buffer
+     * @param length length of the line
+     * @return the MAC address, without spaces
+     */
+    public static String getMacFromLine(byte[] line, int offset, int length) {
+        if (!hasMacAddress(line, offset, length)) {
+            return null;
+        }
+
+        // The line is "> " followed by two hex digits and a space per byte, the MAC being the bytes 7-12
+        final char[] mac = new char[12];
+        for (int i = 13, j = 0; i >= 8; i--, j += 2) {
+            final int position = offset + 2 + (i - 1) * 3;
+            mac[j] = (char) line[position];
+            mac[j + 1] = (char) line[position + 1];
+        }
+        return new String(mac);
+    }
+
     /**
      * Convenience method for checking whether the supplied byte is the max
      * signed byte. (Java doesn't natively have unsigned primitives)
@@ -0,0 +1,344 @@
+package troinine.ruuvi.benchmark;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.config.Config;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import troinine.ruuvi.hci.AsciiLine;
+import troinine.ruuvi.hci.AsciiLineReader;
+import troinine.ruuvi.hci.HciStreamParser;
+import troinine.ruuvi.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Measures the collector with synthetic advertisements of virtual tags. A generator thread prints the output of a
+ * {@link SyntheticHcidump} at the configured rate, and the output is read and parsed the same way as the output of a
+ * real hcidump process, and handed over to the consumer of the collector. The measurements can be discarded instead
+ * of publishing them, so that the collector itself is measured without a broker.
+ * <p>
+ * The packets generated during the warm-up are handled but not measured. After that, the report covers the packets
+ * handled per second, the CPU time and the memory allocated per packet, and the latency percentiles of the pipeline
+ * stages. The generator runs on a platform thread of its own, so that its CPU time and allocations can be left out.
+ */
+public class Benchmark {
+    private static final Logger logger = LoggerFactory.getLogger(Benchmark.class);
+    private static final String ADAPTER = "benchmark";
+    private static final long SEED = 42;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNKS = 16;
+    private static final byte[] END = new byte[0];
+
+    private final SyntheticHcidump hcidump;
+    private final double packetsPerSecond;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNKS);
+    private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final com.sun.management.OperatingSystemMXBean os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private volatile boolean running;
+    private volatile long generated;
+    private volatile Snapshot start;
+    private volatile long generatorCpuNanos;
+    private volatile long generatorAllocatedBytes;
+    private volatile long endNanos;
+
+    /**
+     * Creates a benchmark as configured with the benchmark properties.
+     */
+    public Benchmark() {
+        this(new SyntheticHcidump(Config.getBenchmarkTags(), Config.getBenchmarkDataFormat3Share(), Config.getBenchmarkNoiseShare(), SEED),
+                Config.getBenchmarkIntervalMillis() > 0
+                        ? Config.getBenchmarkTags() * 1000.0 / Config.getBenchmarkIntervalMillis() / (1 - Config.getBenchmarkNoiseShare())
+                        : 0,
+                TimeUnit.SECONDS.toNanos(Config.getBenchmarkWarmupSecs()), TimeUnit.SECONDS.toNanos(Config.getBenchmarkDurationSecs()));
+    }
+
+    /**
+     * @param hcidump generates the packets
+     * @param packetsPerSecond the rate of the packets, 0 or less to generate them as fast as they are read
+     * @param warmupNanos the time to run before measuring
+     * @param durationNanos the time to measure
+     */
+    Benchmark(SyntheticHcidump hcidump, double packetsPerSecond, long warmupNanos, long durationNanos) {
+        this.hcidump = hcidump;
+        this.packetsPerSecond = packetsPerSecond;
+        this.warmupNanos = warmupNanos;
+        this.durationNanos = durationNanos;
+    }
+
+    /**
+     * Starts generating packets and reads them in a task run by the executor, until the benchmark has ended.
+     *
+     * @param executor runs the reading task
+     * @param consumer receives the parsed packets, called from the reading task
+     */
+    public void start(Executor executor, Consumer<HCIData> consumer) {
+        running = true;
+        Thread.ofPlatform().name("benchmark-generator").daemon().start(this::generate);
+        executor.execute(() -> read(consumer));
+        logger.info("Benchmark started, {} packets per second", packetsPerSecond > 0 ? String.format("%.0f", packetsPerSecond) : "as many");
+    }
+
+    /**
+     * @return true until all the generated packets have been read
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * The null sink: discards a measurement as if a broker had acknowledged it right away.
+     *
+     * @param measurement the measurement to publish
+     * @return true
+     */
+    public static boolean discard(EnhancedRuuviMeasurement measurement) {
+        Metrics.PUBLISHES.inc();
+        if (measurement.getReadNanos() != 0) {
+            Metrics.recordTotal(measurement.getMac(), measurement.getReadNanos());
+        }
+        return true;
+    }
+
+    /**
+     * Prints the results, call this once all the generated packets have been handled.
+     *
+     * @param out the stream to print to
+     * @return the results, or null if the benchmark ended before the warm-up
+     */
+    public Result report(PrintStream out) {
+        final Snapshot from = start;
+        if (from == null) {
+            out.println("The benchmark ended before the warm-up");
+            return null;
+        }
+        final Snapshot to = snapshot(generatorCpuNanos, generatorAllocatedBytes);
+        final Map<Metrics.Stage, Latency> latencies = new EnumMap<>(Metrics.Stage.class);
+        for (Metrics.Stage stage : Metrics.Stage.values()) {
+            final String label = stage.name().toLowerCase();
+            if (to.has("ruuvi_latency_seconds", label, "0.5")) {
+                latencies.put(stage, new Latency(to.value("ruuvi_latency_seconds", label, "0.5"),
+                        to.value("ruuvi_latency_seconds", label, "0.99"), to.value("ruuvi_latency_seconds", label, "0.999")));
+            }
+        }
+        // The packets of the devices learned not to be RuuviTags are handled by skipping them before they are parsed
+        final long skipped = (long) (to.value("ruuvi_non_ruuvi_cache_lookups_total", "hit") - from.value("ruuvi_non_ruuvi_cache_lookups_total", "hit"));
+        final long handled = (long) (to.value("ruuvi_stage_duration_seconds_count", "decode") - from.value("ruuvi_stage_duration_seconds_count", "decode")) + skipped;
+        final double cpuNanos = (to.cpuNanos - from.cpuNanos) - (to.generatorCpuNanos - from.generatorCpuNanos);
+        final double allocatedBytes = (to.allocatedBytes - from.allocatedBytes) - (to.generatorAllocatedBytes - from.generatorAllocatedBytes);
+        // The packets still queued when the reading ended are handled by now, but the time waiting for the reading to
+        // be noticed as ended is left out
+        final Result result = new Result((endNanos - from.nanos) / 1e9, to.generated - from.generated, handled,
+                (long) to.delta(from, "ruuvi_dropped_packets_total"), (long) to.delta(from, "ruuvi_non_ruuvi_packets_total") + skipped,
+                skipped, (long) to.delta(from, "ruuvi_publishes_total"), cpuNanos / handled, allocatedBytes / handled, latencies);
+
+        out.printf("Benchmark: %d tags, %s, %.0f %% data format 3, %.0f %% other devices, %s sink%n",
+                Config.getBenchmarkTags(),
+                packetsPerSecond > 0 ? String.format("%.0f packets/s", packetsPerSecond) : "unthrottled",
+                Config.getBenchmarkDataFormat3Share() * 100, Config.getBenchmarkNoiseShare() * 100,
+                Config.isBenchmarkNullSink() ? "null" : "MQTT");
+        out.printf("Measured:   %.1f s after a %d s warm-up%n", result.seconds(), Config.getBenchmarkWarmupSecs());
+        out.printf("Packets:    %,d generated, %,d handled, %,d dropped, %,d not from RuuviTags (%,d skipped unparsed), %,d published%n",
+                result.generated(), result.handled(), result.dropped(), result.notFromRuuviTags(), result.skipped(), result.published());
+        out.printf("Throughput: %,.0f packets/s%s%n", result.throughput(),
+                result.dropped() > 0 ? ", the collector could not keep up" : "");
+        out.printf("CPU:        %,.1f us per packet, %.1f %% of one core%n", result.cpuNanosPerPacket() / 1e3,
+                cpuNanos / 1e9 / result.seconds() * 100);
+        out.printf("Allocation: %,.0f bytes per packet, %,.1f MB/s%n", result.allocatedBytesPerPacket(),
+                allocatedBytes / 1e6 / result.seconds());
+        out.printf("Latency:    %-10s %10s %10s %10s%n", "stage", "p50 us", "p99 us", "p99.9 us");
+        latencies.forEach((stage, latency) -> out.printf("            %-10s %,10.0f %,10.0f %,10.0f%n",
+                stage.name().toLowerCase(), latency.p50() * 1e6, latency.p99() * 1e6, latency.p999() * 1e6));
+        return result;
+    }
+
+    private void generate() {
+        final long begin = System.nanoTime();
+        final long warmupEnd = begin + warmupNanos;
+        final long end = warmupEnd + durationNanos;
+        try {
+            chunks.put(SyntheticHcidump.HEADER);
+            final byte[] buffer = new byte[CHUNK_SIZE];
+            int length = 0;
+            long packets = 0;
+            while (true) {
+                final long now = System.nanoTime();
+                if (start == null && now >= warmupEnd) {
+                    generated = packets;
+                    // Also starts the intervals of the latency percentiles over
+                    start = snapshot(threads.getCurrentThreadCpuTime(), threads.getCurrentThreadAllocatedBytes());
+                }
+                if (now >= end) {
+                    break;
+                }
+                final long due = packetsPerSecond > 0 ? begin + (long) (packets * 1e9 / packetsPerSecond) : now;
+                if (due > now) {
+                    if (length > 0) {
+                        chunks.put(Arrays.copyOf(buffer, length));
+                        length = 0;
+                    }
+                    TimeUnit.NANOSECONDS.sleep(Math.min(due, start == null ? warmupEnd : end) - now);
+                    continue;
+                }
+                length = hcidump.next(buffer, length);
+                packets++;
+                if (length > CHUNK_SIZE - SyntheticHcidump.MAX_PACKET_LENGTH) {
+                    chunks.put(Arrays.copyOf(buffer, length));
+                    length = 0;
+                }
+            }
+            chunks.put(Arrays.copyOf(buffer, length));
+            generated = packets;
+            recordGenerator();
+            chunks.put(END);
+        } catch (InterruptedException ex) {
+            logger.warn("Interrupted while generating packets", ex);
+            recordGenerator();
+            chunks.clear();
+            chunks.offer(END);
+        }
+    }
+
+    private void recordGenerator() {
+        generatorCpuNanos = threads.getCurrentThreadCpuTime();
+        generatorAllocatedBytes = threads.getCurrentThreadAllocatedBytes();
+    }
+
+    private void read(Consumer<HCIData> consumer) {
+        final HciStreamParser parser = new HciStreamParser(ADAPTER);
+        final AsciiLine line = new AsciiLine();
+        try (AsciiLineReader reader = new AsciiLineReader(new ChunkInputStream())) {
+            while (reader.readLine(line)) {
+                Metrics.HCI_LINES_READ.inc();
+                final HCIData hciData = parser.parse(line);
+                if (hciData != null) {
+                    Metrics.HCI_FRAMES_PARSED.inc();
+                    hciData.adapter = ADAPTER;
+                    consumer.accept(hciData);
+                }
+            }
+        } catch (IOException ex) {
+            logger.error("Uncaught exception while reading the generated packets", ex);
+        } finally {
+            parser.flush();
+            endNanos = System.nanoTime();
+            running = false;
+        }
+    }
+
+    /**
+     * Takes the counters and the latency percentiles since the previous snapshot. Scraping the metrics during the
+     * benchmark starts the intervals of the percentiles over too.
+     */
+    private Snapshot snapshot(long generatorCpuNanos, long generatorAllocatedBytes) {
+        return new Snapshot(System.nanoTime(), os.getProcessCpuTime(), threads.getTotalThreadAllocatedBytes(),
+                generatorCpuNanos, generatorAllocatedBytes, generated,
+                Collections.list(CollectorRegistry.defaultRegistry.metricFamilySamples()));
+    }
+
+    private record Snapshot(long nanos, long cpuNanos, long allocatedBytes, long generatorCpuNanos,
+                            long generatorAllocatedBytes, long generated, List<Collector.MetricFamilySamples> families) {
+
+        private double delta(Snapshot from, String name) {
+            return value(name) - from.value(name);
+        }
+
+        private double value(String name, String... labelValues) {
+            return sample(name, labelValues).map(s -> s.value).orElse(0.0);
+        }
+
+        private boolean has(String name, String... labelValues) {
+            return sample(name, labelValues).isPresent();
+        }
+
+        private Optional<Collector.MetricFamilySamples.Sample> sample(String name, String... labelValues) {
+            return families.stream().flatMap(f -> f.samples.stream())
+                    .filter(s -> s.name.equals(name) && s.labelValues.equals(Arrays.asList(labelValues)))
+                    .findFirst();
+        }
+    }
+
+    /**
+     * The results of a benchmark, counted from the end of the warm-up.
+     *
+     * @param seconds the time measured
+     * @param generated the packets generated
+     * @param handled the packets handled by the collector, including the ones not from RuuviTags
+     * @param dropped the packets dropped because the queue of the collector was full
+     * @param notFromRuuviTags the packets of other devices
+     * @param skipped the packets of other devices skipped before parsing, see {@link troinine.ruuvi.hci.NonRuuviCache}
+     * @param published the measurements published
+     * @param cpuNanosPerPacket the CPU time of the process per handled packet, without the generator
+     * @param allocatedBytesPerPacket the memory allocated by the process per handled packet, without the generator
+     * @param latencies the latency percentiles of the stages that were measured
+     */
+    public record Result(double seconds, long generated, long handled, long dropped, long notFromRuuviTags, long skipped,
+                         long published, double cpuNanosPerPacket, double allocatedBytesPerPacket, Map<Metrics.Stage, Latency> latencies) {
+
+        /**
+         * @return the packets handled per second
+         */
+        public double throughput() {
+            return handled / seconds;
+        }
+    }
+
+    /**
+     * The latency percentiles of a stage, in seconds.
+     */
+    public record Latency(double p50, double p99, double p999) {
+    }
+
+    /**
+     * The generated output as a stream, like the pipe of a dump process.
+     */
+    private final class ChunkInputStream extends InputStream {
+        private byte[] chunk = new byte[0];
+        private int position;
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (position == chunk.length) {
+                if (chunk == END) {
+                    return -1;
+                }
+                try {
+                    chunk = chunks.take();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for generated packets");
+                }
+                position = 0;
+            }
+            final int n = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package troinine.ruuvi.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Generates "hcidump --raw" output of virtual RuuviTags and of other bluetooth devices. Each packet is built as the
+ * binary HCI LE advertising report event first, and then printed as hex the way hcidump prints it, 20 bytes per line.
+ * The tags send data format 5 (RAWv2) or 3 (RAWv1) with slowly changing values, and the data format 5 tags increment
+ * their measurement sequence number for every packet. The other devices send Apple manufacturer data, like the phones
+ * and watches around a real collector do.
+ * <p>
+ * The packets of the tags are generated round-robin, so every tag is heard equally often. Not thread safe.
+ */
+public class SyntheticHcidump {
+    static final byte[] HEADER = "HCI sniffer - Bluetooth packet analyzer ver 5.50\n".getBytes(StandardCharsets.US_ASCII);
+    /** Upper limit of the printed length of a packet */
+    static final int MAX_PACKET_LENGTH = 256;
+    private static final int BYTES_PER_LINE = 20;
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    /** Sequence numbers run from 0 to 65534, 65535 means not available */
+    private static final int SEQUENCE_RANGE = 0xFFFF;
+
+    private final Tag[] tags;
+    private final int noiseDevices;
+    private final double noiseShare;
+    private final SplittableRandom random;
+    private final byte[] event = new byte[64];
+    private int nextTag;
+
+    /**
+     * @param tags the number of virtual tags, at least one
+     * @param dataFormat3Share the share of the tags sending data format 3 instead of data format 5
+     * @param noiseShare the share of the packets sent by other devices, from 0 to less than 1
+     * @param seed the seed of the random values, the same seed generates the same output
+     */
+    public SyntheticHcidump(int tags, double dataFormat3Share, double noiseShare, long seed) {
+        if (tags < 1 || noiseShare < 0 || noiseShare >= 1) {
+            throw new IllegalArgumentException("Invalid benchmark: " + tags + " tags, noise share " + noiseShare);
+        }
+        this.random = new SplittableRandom(seed);
+        this.tags = new Tag[tags];
+        final int dataFormat3Tags = (int) Math.round(tags * dataFormat3Share);
+        for (int i = 0; i < tags; i++) {
+            this.tags[i] = new Tag(mac(0xD0, i), i < dataFormat3Tags, random.nextInt(SEQUENCE_RANGE), 15 + random.nextDouble(10));
+        }
+        this.noiseDevices = tags;
+        this.noiseShare = noiseShare;
+    }
+
+    /**
+     * @param tag the index of a virtual tag
+     * @return the MAC address of the tag, as printed by the collector
+     */
+    public static String tagMac(int tag) {
+        return String.format("D0%010X", tag);
+    }
+
+    /**
+     * Prints the next packet.
+     *
+     * @param buffer the buffer to print into, with at least {@link #MAX_PACKET_LENGTH} bytes from the offset
+     * @param offset the position to print at
+     * @return the position after the packet
+     */
+    public int next(byte[] buffer, int offset) {
+        final int length;
+        if (noiseShare > 0 && random.nextDouble() < noiseShare) {
+            length = noise(mac(0x5A, random.nextInt(noiseDevices)));
+        } else {
+            final Tag tag = tags[nextTag];
+            nextTag = (nextTag + 1) % tags.length;
+            length = tag.dataFormat3 ? dataFormat3(tag) : dataFormat5(tag);
+        }
+        return print(length, buffer, offset);
+    }
+
+    private int dataFormat5(Tag tag) {
+        final int sequence = tag.sequence;
+        tag.sequence = (sequence + 1) % SEQUENCE_RANGE;
+        int i = header(0x2B, 0x00, tag.mac, 0x1F);
+        i = put(event, i, 0x02, 0x01, 0x06, 0x1B, 0xFF, 0x99, 0x04, 0x05);
+        i = putShort(event, i, (int) Math.round(temperature(tag, sequence) / 0.005));
+        i = putShort(event, i, (int) Math.round(humidity(sequence) / 0.0025));
+        i = putShort(event, i, pressure(sequence) - 50000);
+        i = putShort(event, i, acceleration(sequence, 0));
+        i = putShort(event, i, acceleration(sequence, 1));
+        i = putShort(event, i, 1000 + acceleration(sequence, 2));
+        i = putShort(event, i, (3000 - 1600) << 5 | (4 + 40) / 2);
+        event[i++] = (byte) (sequence / 100);
+        i = putShort(event, i, sequence);
+        System.arraycopy(tag.mac, 0, event, i, tag.mac.length);
+        i += tag.mac.length;
+        event[i++] = rssi();
+        return i;
+    }
+
+    private int dataFormat3(Tag tag) {
+        final int sequence = tag.sequence++;
+        final double temperature = temperature(tag, sequence);
+        final int hundredths = (int) Math.round(Math.abs(temperature) * 100);
+        int i = header(0x21, 0x03, tag.mac, 0x15);
+        i = put(event, i, 0x02, 0x01, 0x06, 0x11, 0xFF, 0x99, 0x04, 0x03);
+        event[i++] = (byte) Math.round(humidity(sequence) * 2);
+        event[i++] = (byte) (hundredths / 100 | (temperature < 0 ? 0x80 : 0));
+        event[i++] = (byte) (hundredths % 100);
+        i = putShort(event, i, pressure(sequence) - 50000);
+        i = putShort(event, i, acceleration(sequence, 0));
+        i = putShort(event, i, acceleration(sequence, 1));
+        i = putShort(event, i, 1000 + acceleration(sequence, 2));
+        i = putShort(event, i, 3000);
+        event[i++] = rssi();
+        return i;
+    }
+
+    private int noise(byte[] mac) {
+        int i = header(0x1B, 0x00, mac, 0x0F);
+        i = put(event, i, 0x02, 0x01, 0x1A, 0x0B, 0xFF, 0x4C, 0x00, 0x10, 0x06);
+        for (int end = i + 6; i < end; i++) {
+            event[i] = (byte) random.nextInt(256);
+        }
+        event[i++] = rssi();
+        return i;
+    }
+
+    /**
+     * Puts the header of an LE advertising report event with a single report.
+     *
+     * @return the position after the header
+     */
+    private int header(int eventLength, int eventType, byte[] mac, int dataLength) {
+        int i = put(event, 0, 0x04, 0x3E, eventLength, 0x02, 0x01, eventType, 0x01);
+        for (int b = mac.length - 1; b >= 0; b--) {
+            event[i++] = mac[b];
+        }
+        event[i++] = (byte) dataLength;
+        return i;
+    }
+
+    private byte rssi() {
+        return (byte) -(60 + random.nextInt(30));
+    }
+
+    private static double temperature(Tag tag, int sequence) {
+        return tag.temperature + Math.sin(sequence / 600.0);
+    }
+
+    private static double humidity(int sequence) {
+        return 40 + 10 * Math.sin(sequence / 1000.0);
+    }
+
+    private static int pressure(int sequence) {
+        return 100000 + sequence % 500;
+    }
+
+    private static int acceleration(int sequence, int axis) {
+        return (sequence + axis) % 7 - 3;
+    }
+
+    private int print(int length, byte[] buffer, int offset) {
+        int i = offset;
+        for (int b = 0; b < length; b++) {
+            if (b % BYTES_PER_LINE == 0) {
+                if (b > 0) {
+                    buffer[i++] = '\n';
+                }
+                buffer[i++] = b == 0 ? (byte) '>' : (byte) ' ';
+            }
+            buffer[i++] = ' ';
+            buffer[i++] = HEX[event[b] >> 4 & 0xF];
+            buffer[i++] = HEX[event[b] & 0xF];
+        }
+        buffer[i++] = '\n';
+        return i;
+    }
+
+    private static int put(byte[] bytes, int offset, int... values) {
+        for (int value : values) {
+            bytes[offset++] = (byte) value;
+        }
+        return offset;
+    }
+
+    private static int putShort(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >> 8);
+        bytes[offset + 1] = (byte) value;
+        return offset + 2;
+    }
+
+    private static byte[] mac(int prefix, int index) {
+        return new byte[] { (byte) prefix, 0, (byte) (index >> 24), (byte) (index >> 16), (byte) (index >> 8), (byte) index };
+    }
+
+    private static final class Tag {
+        private final byte[] mac;
+        private final boolean dataFormat3;
+        private final double temperature;
+        private int sequence;
+
+        private Tag(byte[] mac, boolean dataFormat3, int sequence, double temperature) {
+            this.mac = mac;
+            this.dataFormat3 = dataFormat3;
+            this.sequence = sequence;
+            this.temperature = temperature;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package troinine.ruuvi.gateway;
+
+import fi.tkgwf.ruuvi.config.Config;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import troinine.ruuvi.hci.AsciiLine;
+import troinine.ruuvi.hci.Backoff;
+import troinine.ruuvi.hci.HciProcessHandler;
+import troinine.ruuvi.jfr.ConnectEvent;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the scan and dump processes of a bluetooth adapter on a gateway node and forwards the raw hcidump output to a
+ * {@link GatewayServer} on the central collector, without parsing it. The connection is reopened with an exponential
+ * backoff when it fails, and the output read while disconnected is dropped, as the tags will advertise again soon.
+ */
+public class GatewayForwarder {
+    private static final Logger logger = LoggerFactory.getLogger(GatewayForwarder.class);
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long INITIAL_RECONNECT_DELAY_MILLIS = 1000;
+
+    private final HciProcessHandler hciProcessHandler;
+    private final String gatewayId;
+    private final Backoff backoff = new Backoff(INITIAL_RECONNECT_DELAY_MILLIS,
+            TimeUnit.SECONDS.toMillis(Config.getProcessRestartMaxDelaySecs()));
+    private Socket socket;
+    private OutputStream out;
+    private long nextConnectNanos = System.nanoTime();
+    private volatile boolean running;
+    private volatile long forwardedLines;
+    private volatile long droppedLines;
+
+    /**
+     * @param adapter the bluetooth adapter to forward, for example "hci1", or null for the default adapter
+     */
+    public GatewayForwarder(String adapter) {
+        this.hciProcessHandler = new HciProcessHandler(adapter);
+        final String id = StringUtils.isNotBlank(Config.getGatewayId()) ? Config.getGatewayId() : hostName();
+        this.gatewayId = StringUtils.isNotBlank(adapter) ? id + "/" + adapter : id;
+    }
+
+    /**
+     * Starts the processes of the adapter and forwards their output in a task run by the executor. The task blocks on
+     * the process pipe until the forwarder is stopped, so the executor should run each task in its own (virtual)
+     * thread.
+     *
+     * @param executor runs the forwarding task
+     */
+    public void start(Executor executor) {
+        hciProcessHandler.start();
+        running = true;
+        executor.execute(this::run);
+    }
+
+    public void stop() {
+        hciProcessHandler.stop();
+    }
+
+    /**
+     * @return true until the forwarder has been stopped
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    public String getGatewayId() {
+        return gatewayId;
+    }
+
+    public long getForwardedLines() {
+        return forwardedLines;
+    }
+
+    /**
+     * @return the number of lines dropped while not connected to the collector
+     */
+    public long getDroppedLines() {
+        return droppedLines;
+    }
+
+    private void run() {
+        try {
+            do {
+                try {
+                    forward();
+                } catch (IOException ex) {
+                    if (hciProcessHandler.isRunning()) {
+                        logger.error("Uncaught exception while forwarding " + gatewayId, ex);
+                    }
+                }
+            } while (hciProcessHandler.restartDump());
+        } catch (InterruptedException ex) {
+            logger.warn("Interrupted while restarting the dump of " + gatewayId, ex);
+        } finally {
+            disconnect();
+            running = false;
+        }
+    }
+
+    private void forward() throws IOException {
+        final AsciiLine line = new AsciiLine();
+        while (hciProcessHandler.readLine(line)) {
+            if (out == null && !connect()) {
+                droppedLines++;
+                continue;
+            }
+            try {
+                out.write(line.buffer(), line.offset(), line.length());
+                out.write('\n');
+                out.flush();
+                forwardedLines++;
+            } catch (IOException e) {
+                logger.warn("Lost the connection to {}:{}: {}", Config.getGatewayForwardHost(), Config.getGatewayForwardPort(), e.getMessage());
+                disconnect();
+                scheduleReconnect();
+                droppedLines++;
+            }
+        }
+    }
+
+    /**
+     * @return true if connected, false if the connection failed or the next attempt is not due yet
+     */
+    private boolean connect() {
+        if (System.nanoTime() - nextConnectNanos < 0) {
+            return false;
+        }
+        final ConnectEvent event = new ConnectEvent();
+        event.begin();
+        final Socket s = new Socket();
+        try {
+            s.connect(new InetSocketAddress(Config.getGatewayForwardHost(), Config.getGatewayForwardPort()), CONNECT_TIMEOUT_MILLIS);
+            out = new BufferedOutputStream(s.getOutputStream());
+            out.write((GatewayServer.HELLO + gatewayId + "\n").getBytes(StandardCharsets.US_ASCII));
+            socket = s;
+            backoff.reset();
+            logger.info("Forwarding {} to {}:{}", gatewayId, Config.getGatewayForwardHost(), Config.getGatewayForwardPort());
+            commit(event, true);
+            return true;
+        } catch (IOException e) {
+            logger.warn("Failed to connect to {}:{}: {}", Config.getGatewayForwardHost(), Config.getGatewayForwardPort(), e.getMessage());
+            try {
+                s.close();
+            } catch (IOException ex) {
+                // Intentionally ignored
+            }
+            out = null;
+            scheduleReconnect();
+            commit(event, false);
+            return false;
+        }
+    }
+
+    private static void commit(ConnectEvent event, boolean succeeded) {
+        if (event.shouldCommit()) {
+            event.target = ConnectEvent.GATEWAY;
+            event.address = Config.getGatewayForwardHost() + ":" + Config.getGatewayForwardPort();
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    private void scheduleReconnect() {
+        final long delay = backoff.nextDelayMillis();
+        nextConnectNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        logger.info("Reconnecting {} in {} ms", gatewayId, delay);
+    }
+
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Intentionally ignored
+            }
+        }
+        socket = null;
+        out = null;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "gateway";
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package troinine.ruuvi.gateway;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.config.Config;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import troinine.ruuvi.metrics.Metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Accepts the measurements posted by Ruuvi Gateways over HTTP, so that they can be published without a separate
+ * bridge. A gateway posts a batch of raw advertisements as JSON:
+ * <pre>
+ * {"data": {"gw_mac": "AA:BB:CC:DD:EE:FF", "tags": {"C8:25:2D:8E:9C:2C": {"rssi": -52, "data": "0201061BFF9904..."}}}}
+ * </pre>
+ * The body is parsed as a stream, and once the whole post has been read the advertisements are handed over to the
+ * consumer shared with the local adapters, tagged with the MAC address of the gateway in {@link HCIData#adapter}. A
+ * post that is rejected as malformed or too large is not ingested at all, so the gateway can send it again without
+ * publishing any of it twice. The requests are handled in virtual threads, the memory used is bounded by limiting the
+ * size of the body and the number of requests handled at the same time. Requests over the limit are rejected with
+ * 503, so that the gateway tries again later.
+ */
+public class GatewayHttpServer {
+    private static final Logger logger = LoggerFactory.getLogger(GatewayHttpServer.class);
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final int BACKLOG = 1024;
+
+    private final Consumer<HCIData> consumer;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    private final AtomicLong packets = new AtomicLong();
+    private Semaphore permits;
+    private HttpServer server;
+    private ExecutorService executor;
+    private volatile boolean running;
+
+    /**
+     * @param consumer receives the parsed packets, called concurrently from the request threads
+     */
+    public GatewayHttpServer(Consumer<HCIData> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Starts accepting requests on the configured address, port and path.
+     *
+     * @throws IOException if the port can not be bound
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException();
+        }
+        final String bindAddress = Config.getGatewayHttpBindAddress();
+        server = HttpServer.create(StringUtils.isBlank(bindAddress)
+                ? new InetSocketAddress(Config.getGatewayHttpPort())
+                : new InetSocketAddress(bindAddress, Config.getGatewayHttpPort()), BACKLOG);
+        permits = new Semaphore(Config.getGatewayHttpMaxConcurrentRequests());
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("gateway-http-", 0).factory());
+        server.setExecutor(executor);
+        server.createContext(Config.getGatewayHttpPath(), this::handle);
+        server.start();
+        running = true;
+
+        logger.info("Accepting Ruuvi Gateway posts on port {} at {}", getPort(), Config.getGatewayHttpPath());
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return true until the server has been stopped
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the port the server accepts requests on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests rejected because too many requests were being handled at the same time
+     */
+    public long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+
+    /**
+     * @return the number of packets received from all the gateways
+     */
+    public long getPackets() {
+        return packets.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().add("Allow", "POST");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (!permits.tryAcquire()) {
+                rejectedRequests.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            try {
+                requests.incrementAndGet();
+                final String fallbackId = exchange.getRemoteAddress().getAddress().getHostAddress();
+                exchange.sendResponseHeaders(read(exchange.getRequestBody(), fallbackId), -1);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * @return the status code of the response
+     */
+    private int read(InputStream body, String fallbackId) throws IOException {
+        final long readNanos = System.nanoTime();
+        final LimitedInputStream in = new LimitedInputStream(body, Config.getGatewayHttpMaxBodyBytes());
+        final List<HCIData> parsed;
+        try (JsonParser parser = JSON.createParser(in)) {
+            parsed = parse(parser, fallbackId);
+        } catch (JsonParseException e) {
+            if (in.isLimitExceeded()) {
+                return 413;
+            }
+            logger.debug("Malformed gateway post from {}: {}", fallbackId, e.getMessage());
+            Metrics.DECODE_ERRORS.inc();
+            return 400;
+        }
+        for (HCIData hciData : parsed) {
+            hciData.readNanos = readNanos;
+            hciData.parsedNanos = Metrics.observe(Metrics.Stage.PARSE, readNanos);
+            accept(hciData);
+        }
+        packets.addAndGet(parsed.size());
+        return 200;
+    }
+
+    private void accept(HCIData hciData) {
+        if (Config.isAllowedMAC(hciData.mac)) {
+            Metrics.HTTP_FRAMES_PARSED.inc();
+            consumer.accept(hciData);
+        } else {
+            Metrics.FILTERED_MACS.inc();
+        }
+    }
+
+    /**
+     * Parses a whole gateway post. The size of the post is limited, so its advertisements can be kept until the end.
+     *
+     * @param parser positioned before the root object
+     * @param fallbackId the gateway ID used if the post does not contain the MAC address of the gateway
+     * @return the advertisements in the post, tagged with the gateway ID
+     * @throws IOException if the post is malformed
+     */
+    static List<HCIData> parse(JsonParser parser, String fallbackId) throws IOException {
+        expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+        String gatewayId = null;
+        final List<HCIData> parsed = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            if (!"data".equals(parser.currentName())) {
+                parser.nextToken();
+                parser.skipChildren();
+                continue;
+            }
+            expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.currentName();
+                parser.nextToken();
+                if ("gw_mac".equals(field) && parser.currentToken() == JsonToken.VALUE_STRING) {
+                    gatewayId = parser.getText();
+                } else if ("tags".equals(field)) {
+                    expect(parser.currentToken(), JsonToken.START_OBJECT, parser);
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final HCIData hciData = parseTag(parser);
+                        if (hciData != null) {
+                            parsed.add(hciData);
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        // The MAC address of the gateway may come after the tags
+        final String adapter = gatewayId != null ? gatewayId : fallbackId;
+        for (HCIData hciData : parsed) {
+            hciData.adapter = adapter;
+        }
+        return parsed;
+    }
+
+    /**
+     * @param parser positioned at the MAC address of the tag
+     * @return the advertisement of the tag, or null if it does not contain any data
+     * @throws JsonParseException if the key of the tag is not a MAC address
+     */
+    private static HCIData parseTag(JsonParser parser) throws IOException {
+        final String mac = normalizeMac(parser.currentName(), parser);
+        expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+        Integer rssi = null;
+        byte[] data = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.currentName();
+            final JsonToken value = parser.nextToken();
+            if ("rssi".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                rssi = parser.getIntValue();
+            } else if ("data".equals(field) && value == JsonToken.VALUE_STRING) {
+                data = hexToBytes(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return data != null ? toHciData(mac, rssi, data) : null;
+    }
+
+    /**
+     * Creates a packet from the advertisement data structures, as if it had been read from hcidump.
+     *
+     * @param mac the MAC address of the tag, in upper case without separators
+     * @param rssi the signal strength, or null if unknown
+     * @param advertisement the advertisement data structures, each consisting of length, type and data
+     * @return the packet
+     */
+    static HCIData toHciData(String mac, Integer rssi, byte[] advertisement) {
+        final HCIData hciData = new HCIData();
+        hciData.mac = mac;
+        hciData.rssi = rssi;
+        hciData.numberOfReports = 1;
+        final HCIData.Report report = new HCIData.Report();
+        report.length = advertisement.length;
+        report.advertisements = new ArrayList<>();
+        int i = 0;
+        while (i < advertisement.length) {
+            final int length = advertisement[i] & 0xFF;
+            if (length == 0 || i + length >= advertisement.length) {
+                break; // Padding or truncated structure
+            }
+            final HCIData.Report.AdvertisementData adData = new HCIData.Report.AdvertisementData();
+            adData.length = length;
+            adData.type = advertisement[i + 1] & 0xFF;
+            adData.data = new ArrayList<>(length - 1);
+            for (int j = i + 2; j <= i + length; j++) {
+                adData.data.add(advertisement[j]);
+            }
+            report.advertisements.add(adData);
+            i += length + 1;
+        }
+        hciData.reports = List.of(report);
+        return hciData;
+    }
+
+    /**
+     * The keys of the tags are used as MAC addresses downstream, in metric labels and in the paths of the local
+     * history, so anything but six bytes in hex is rejected.
+     *
+     * @param mac the MAC address as "AA:BB:CC:DD:EE:FF" or "AABBCCDDEEFF", in either case
+     * @return the MAC address in upper case without separators
+     * @throws JsonParseException if the MAC address is in neither form
+     */
+    private static String normalizeMac(String mac, JsonParser parser) throws JsonParseException {
+        final boolean separated = mac.length() == 17;
+        if (!separated && mac.length() != 12) {
+            throw new JsonParseException(parser, "Invalid MAC address");
+        }
+        final char[] normalized = new char[12];
+        int length = 0;
+        for (int i = 0; i < mac.length(); i++) {
+            final char c = mac.charAt(i);
+            if (separated && i % 3 == 2) {
+                if (c != ':') {
+                    throw new JsonParseException(parser, "Invalid MAC address");
+                }
+            } else if (c >= '0' && c <= '9' || c >= 'A' && c <= 'F') {
+                normalized[length++] = c;
+            } else if (c >= 'a' && c <= 'f') {
+                normalized[length++] = Character.toUpperCase(c);
+            } else {
+                throw new JsonParseException(parser, "Invalid MAC address");
+            }
+        }
+        return new String(normalized);
+    }
+
+    private static byte[] hexToBytes(char[] hex, int offset, int length) throws JsonParseException {
+        final byte[] bytes = new byte[length / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            final int high = Character.digit(hex[offset + 2 * i], 16);
+            final int low = Character.digit(hex[offset + 2 * i + 1], 16);
+            if (high < 0 || low < 0) {
+                throw new JsonParseException(null, "Invalid hex data");
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected, JsonParser parser) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but got " + actual);
+        }
+    }
+
+    /**
+     * Fails the parsing once more than the given number of bytes has been read.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+        private boolean limitExceeded;
+
+        private LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = super.read(b, off, (int) Math.min(len, remaining + 1));
+            if (read > 0) {
+                remaining -= read;
+                if (remaining < 0) {
+                    limitExceeded = true;
+                    throw new JsonParseException(null, "Request body too large");
+                }
+            }
+            return read;
+        }
+
+        private boolean isLimitExceeded() {
+            return limitExceeded;
+        }
+    }
+}
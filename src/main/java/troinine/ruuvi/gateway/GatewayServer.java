@@ -0,0 +1,177 @@
+package troinine.ruuvi.gateway;
+
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.config.Config;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import troinine.ruuvi.hci.AsciiLine;
+import troinine.ruuvi.hci.AsciiLineReader;
+import troinine.ruuvi.hci.HciStreamParser;
+import troinine.ruuvi.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Accepts the "hcidump --raw" output of remote gateways over TCP, so that a single collector can publish the
+ * measurements of tags heard by many nodes. Each connection is read in its own virtual thread with its own parser
+ * state, and the packets are handed over to a consumer shared with the local adapters, tagged with the gateway ID in
+ * {@link HCIData#adapter}.
+ * <p>
+ * A {@link GatewayForwarder} identifies itself with a "GATEWAY &lt;id&gt;" line before the dump output. Without that
+ * line the address of the gateway is used as its ID, so plain "hcidump --raw | nc collector 7575" works too.
+ */
+public class GatewayServer {
+    private static final Logger logger = LoggerFactory.getLogger(GatewayServer.class);
+    static final String HELLO = "GATEWAY ";
+
+    private final Consumer<HCIData> consumer;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong packets = new AtomicLong();
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running;
+
+    /**
+     * @param consumer receives the parsed packets, called concurrently from the connection threads
+     */
+    public GatewayServer(Consumer<HCIData> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Starts accepting connections on the configured address and port.
+     *
+     * @throws IOException if the port can not be bound
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException();
+        }
+        final ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        final String bindAddress = Config.getGatewayServerBindAddress();
+        socket.bind(StringUtils.isBlank(bindAddress)
+                ? new InetSocketAddress(Config.getGatewayServerPort())
+                : new InetSocketAddress(bindAddress, Config.getGatewayServerPort()));
+        serverSocket = socket;
+        running = true;
+        Thread.ofVirtual().name("gateway-server").start(this::accept);
+
+        logger.info("Accepting gateway connections on port {}", getPort());
+    }
+
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        closeQuietly(serverSocket);
+        connections.forEach(GatewayServer::closeQuietly);
+    }
+
+    /**
+     * @return true until the server has been stopped
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the port the server accepts connections on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the number of currently connected gateways
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return the number of packets received from all the gateways
+     */
+    public long getPackets() {
+        return packets.get();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                final Socket socket = serverSocket.accept();
+                socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(Config.getGatewayServerIdleTimeoutSecs()));
+                connections.add(socket);
+                Thread.ofVirtual().name("gateway-" + socket.getInetAddress().getHostAddress()).start(() -> serve(socket));
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("Failed to accept a gateway connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        String gatewayId = socket.getInetAddress().getHostAddress();
+        try (AsciiLineReader reader = new AsciiLineReader(socket.getInputStream())) {
+            final AsciiLine line = new AsciiLine();
+            if (!reader.readLine(line)) {
+                return;
+            }
+            final boolean hello = line.startsWith(HELLO);
+            if (hello) {
+                gatewayId = line.toString().substring(HELLO.length()).trim();
+            }
+            logger.info("Gateway {} connected from {}", gatewayId, socket.getRemoteSocketAddress());
+
+            final HciStreamParser parser = new HciStreamParser("gateway " + gatewayId);
+            if (!hello) {
+                Metrics.GATEWAY_LINES_READ.inc();
+                handle(parser, line, gatewayId);
+            }
+            while (reader.readLine(line)) {
+                Metrics.GATEWAY_LINES_READ.inc();
+                handle(parser, line, gatewayId);
+            }
+            parser.flush();
+            logger.info("Gateway {} disconnected", gatewayId);
+        } catch (SocketTimeoutException e) {
+            logger.warn("No data from gateway {} in {} seconds, closing the connection", gatewayId, Config.getGatewayServerIdleTimeoutSecs());
+        } catch (IOException e) {
+            if (running) {
+                logger.warn("Connection to gateway " + gatewayId + " failed", e);
+            }
+        } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private void handle(HciStreamParser parser, AsciiLine line, String gatewayId) {
+        final HCIData hciData = parser.parse(line);
+        if (hciData != null) {
+            hciData.adapter = gatewayId;
+            packets.incrementAndGet();
+            Metrics.GATEWAY_FRAMES_PARSED.inc();
+            consumer.accept(hciData);
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Intentionally ignored
+        }
+    }
+}
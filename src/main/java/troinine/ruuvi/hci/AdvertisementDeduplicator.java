@@ -0,0 +1,173 @@
+package troinine.ruuvi.hci;
+
+import fi.tkgwf.ruuvi.bean.HCIData;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Merges the copies of an advertisement heard by several bluetooth adapters. Advertisements are identified by the MAC
+ * address and the advertised payload. The first copy opens a window, and when the window has elapsed the copy with
+ * the strongest RSSI is emitted, tagged with the adapter that heard it. This implementation is not thread safe.
+ */
+public class AdvertisementDeduplicator {
+    private final long windowMillis;
+    private final Map<Key, Pending> pending = new HashMap<>();
+    private final ArrayDeque<Pending> byDeadline = new ArrayDeque<>();
+    private long duplicates;
+
+    /**
+     * @param windowMillis how long to wait for copies of an advertisement, zero or less disables the deduplication
+     */
+    public AdvertisementDeduplicator(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Adds a received advertisement. Call {@link #flush(long, Consumer)} before this, so that copies arriving after
+     * the window has elapsed are treated as a new advertisement.
+     *
+     * @param data the received advertisement
+     * @param now the current time in milliseconds
+     * @param consumer receives the advertisement right away if deduplication is disabled
+     */
+    public void add(HCIData data, long now, Consumer<HCIData> consumer) {
+        if (windowMillis <= 0) {
+            consumer.accept(data);
+            return;
+        }
+        final Key key = new Key(data);
+        final Pending existing = pending.get(key);
+        if (existing == null) {
+            final Pending created = new Pending(key, data, now + windowMillis);
+            pending.put(key, created);
+            byDeadline.addLast(created);
+        } else {
+            duplicates++;
+            if (isStronger(data, existing.best)) {
+                existing.best = data;
+            }
+        }
+    }
+
+    /**
+     * Emits the advertisements whose window has elapsed.
+     *
+     * @param now the current time in milliseconds
+     * @param consumer receives the strongest copy of each advertisement
+     */
+    public void flush(long now, Consumer<HCIData> consumer) {
+        // The window is constant, so the deadlines are in the order the advertisements were first heard
+        while (!byDeadline.isEmpty() && byDeadline.peekFirst().deadline <= now) {
+            emit(byDeadline.pollFirst(), consumer);
+        }
+    }
+
+    /**
+     * Emits all the pending advertisements regardless of their windows.
+     *
+     * @param consumer receives the strongest copy of each advertisement
+     */
+    public void flushAll(Consumer<HCIData> consumer) {
+        while (!byDeadline.isEmpty()) {
+            emit(byDeadline.pollFirst(), consumer);
+        }
+    }
+
+    /**
+     * @return the time in milliseconds when the next window elapses, or {@link Long#MAX_VALUE} if nothing is pending
+     */
+    public long getNextDeadline() {
+        return byDeadline.isEmpty() ? Long.MAX_VALUE : byDeadline.peekFirst().deadline;
+    }
+
+    /**
+     * @return the number of advertisements waiting for their window to elapse
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * @return the total number of copies merged into an earlier advertisement
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    private void emit(Pending p, Consumer<HCIData> consumer) {
+        pending.remove(p.key);
+        consumer.accept(p.best);
+    }
+
+    private static boolean isStronger(HCIData candidate, HCIData current) {
+        if (candidate.rssi == null) {
+            return false;
+        }
+        return current.rssi == null || candidate.rssi > current.rssi;
+    }
+
+    private static final class Pending {
+        private final Key key;
+        private final long deadline;
+        private HCIData best;
+
+        private Pending(Key key, HCIData best, long deadline) {
+            this.key = key;
+            this.best = best;
+            this.deadline = deadline;
+        }
+    }
+
+    private static final class Key {
+        private final String mac;
+        private final byte[] payload;
+        private final int hash;
+
+        private Key(HCIData data) {
+            this.mac = data.mac;
+            this.payload = payloadOf(data);
+            this.hash = 31 * Objects.hashCode(mac) + Arrays.hashCode(payload);
+        }
+
+        private static byte[] payloadOf(HCIData data) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+            if (data.reports != null) {
+                for (HCIData.Report report : data.reports) {
+                    if (report.advertisements == null) {
+                        continue;
+                    }
+                    for (HCIData.Report.AdvertisementData ad : report.advertisements) {
+                        out.write(ad.type != null ? ad.type : -1);
+                        if (ad.data != null) {
+                            ad.data.forEach(out::write);
+                        }
+                    }
+                }
+            }
+            return out.toByteArray();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return hash == other.hash && Objects.equals(mac, other.mac) && Arrays.equals(payload, other.payload);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package troinine.ruuvi.hci;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable view of a single ASCII line within a byte buffer, without the line terminator. The contents are only
+ * valid until the next line is read into it.
+ */
+public final class AsciiLine {
+    private byte[] buffer = new byte[0];
+    private int offset;
+    private int length;
+
+    void set(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @param prefix ASCII prefix
+     * @return true if the line starts with the given prefix
+     */
+    public boolean startsWith(String prefix) {
+        return prefix.length() <= length && regionMatches(offset, prefix);
+    }
+
+    /**
+     * @param text ASCII text
+     * @return true if the line contains the given text
+     */
+    public boolean contains(String text) {
+        final int last = offset + length - text.length();
+        for (int i = offset; i <= last; i++) {
+            if (regionMatches(i, text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean regionMatches(int start, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (buffer[start + i] != (byte) text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, offset, length, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,131 @@
+package troinine.ruuvi.hci;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads ASCII lines from a stream, such as the output of hcidump. Data is read in large chunks into a single
+ * reusable buffer and the lines are handed out as {@link AsciiLine} views into that buffer, so reading a line
+ * involves no charset decoding and no allocation. Both "\n" and "\r\n" line terminators are accepted. This class
+ * is not thread safe.
+ */
+public class AsciiLineReader implements Closeable {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    private int lineStart;
+    private int scanPosition;
+    private boolean endOfStream;
+
+    public AsciiLineReader(InputStream in) {
+        this(new StreamChannel(in), DEFAULT_BUFFER_SIZE);
+    }
+
+    public AsciiLineReader(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.flip(); // Nothing to read yet
+    }
+
+    /**
+     * Reads the next line into the given view
+     *
+     * @param line the view to point at the line
+     * @return false if the end of the stream has been reached, true otherwise
+     * @throws IOException if reading fails
+     */
+    public boolean readLine(AsciiLine line) throws IOException {
+        while (true) {
+            final byte[] array = buffer.array();
+            final int limit = buffer.limit();
+            for (int i = scanPosition; i < limit; i++) {
+                if (array[i] == '\n') {
+                    final int end = i > lineStart && array[i - 1] == '\r' ? i - 1 : i;
+                    line.set(array, lineStart, end - lineStart);
+                    lineStart = i + 1;
+                    scanPosition = lineStart;
+                    return true;
+                }
+            }
+            scanPosition = limit;
+            if (endOfStream) {
+                if (lineStart < limit) {
+                    line.set(array, lineStart, limit - lineStart);
+                    lineStart = limit;
+                    return true;
+                }
+                return false;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Moves the unfinished line to the beginning of the buffer, growing the buffer if the line fills it, and
+     * reads more data after it
+     */
+    private void fill() throws IOException {
+        final int remaining = buffer.limit() - lineStart;
+        if (lineStart == 0 && remaining == buffer.capacity()) {
+            final ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+            grown.put(buffer.array(), 0, remaining);
+            buffer = grown;
+        } else {
+            System.arraycopy(buffer.array(), lineStart, buffer.array(), 0, remaining);
+            buffer.clear();
+            buffer.position(remaining);
+        }
+        lineStart = 0;
+        scanPosition = remaining;
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        if (read < 0) {
+            endOfStream = true;
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads a stream straight into the heap buffer. Unlike {@link java.nio.channels.Channels#newChannel(InputStream)},
+     * does not read while holding a monitor, which would pin the carrier of a virtual thread blocked on a socket.
+     */
+    private static final class StreamChannel implements ReadableByteChannel {
+        private final InputStream in;
+        private boolean open = true;
+
+        private StreamChannel(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            final int read = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package troinine.ruuvi.hci;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Exponential backoff with jitter for restarting failing processes. The delay doubles after each attempt up to the
+ * maximum, and the actual delay is picked randomly between the half and the full delay so that several adapters
+ * failing at the same time do not restart in lockstep.
+ */
+public class Backoff {
+    private static final int MAX_DOUBLINGS = 30;
+
+    private final long initialMillis;
+    private final long maxMillis;
+    private final DoubleSupplier random;
+    private int attempts;
+
+    public Backoff(long initialMillis, long maxMillis) {
+        this(initialMillis, maxMillis, () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * @param initialMillis the delay before the first attempt
+     * @param maxMillis the upper limit for the delay
+     * @param random supplies random numbers between 0 (inclusive) and 1 (exclusive) for the jitter
+     */
+    Backoff(long initialMillis, long maxMillis, DoubleSupplier random) {
+        this.initialMillis = Math.max(0, initialMillis);
+        this.maxMillis = Math.max(this.initialMillis, maxMillis);
+        this.random = random;
+    }
+
+    /**
+     * @return the delay in milliseconds before the next attempt
+     */
+    public synchronized long nextDelayMillis() {
+        final long delay = Math.min(maxMillis, initialMillis << Math.min(attempts, MAX_DOUBLINGS));
+        attempts++;
+        final long half = delay / 2;
+        return half + (long) (random.getAsDouble() * (delay - half));
+    }
+
+    /**
+     * Starts over from the initial delay, call this once the restarted process is working properly.
+     */
+    public synchronized void reset() {
+        attempts = 0;
+    }
+
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+}
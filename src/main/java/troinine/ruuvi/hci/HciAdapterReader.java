@@ -0,0 +1,131 @@
+package troinine.ruuvi.hci;
+
+import fi.tkgwf.ruuvi.bean.HCIData;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import troinine.ruuvi.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Reads and parses the hcidump output of a single bluetooth adapter in its own virtual thread and hands the received packets
+ * over to a consumer shared by all the adapters. Each adapter has its own processes, so a failing adapter does not
+ * affect the others. The dump process is restarted whenever its output ends, until the reader is stopped.
+ */
+public class HciAdapterReader {
+    private static final Logger logger = LoggerFactory.getLogger(HciAdapterReader.class);
+
+    private final HciProcessHandler hciProcessHandler;
+    private final Consumer<HCIData> consumer;
+    private volatile boolean running;
+    private volatile boolean healthy;
+
+    /**
+     * @param adapter the bluetooth adapter to read, for example "hci1", or null for the default adapter
+     * @param consumer receives the parsed packets, called from the reader thread
+     */
+    public HciAdapterReader(String adapter, Consumer<HCIData> consumer) {
+        this(adapter, null, consumer);
+    }
+
+    /**
+     * @param adapter the bluetooth adapter to read, for example "hci1", or null for the default adapter
+     * @param scanScheduler decides when the scanning can be paused, null for continuous scanning
+     * @param consumer receives the parsed packets, called from the reader thread
+     */
+    public HciAdapterReader(String adapter, ScanScheduler scanScheduler, Consumer<HCIData> consumer) {
+        this.hciProcessHandler = new HciProcessHandler(adapter, scanScheduler);
+        this.consumer = consumer;
+    }
+
+    /**
+     * Starts the processes of the adapter and a virtual thread reading their output.
+     */
+    public void start() {
+        start(task -> Thread.ofVirtual().name("hci-reader-" + describe()).start(task));
+    }
+
+    /**
+     * Starts the processes of the adapter and reads their output in a task run by the executor. The task blocks on
+     * the process pipe until the reader is stopped, so the executor should run each task in its own (virtual) thread.
+     *
+     * @param executor runs the reading task
+     */
+    public void start(Executor executor) {
+        hciProcessHandler.start();
+        running = true;
+        executor.execute(this::run);
+    }
+
+    public void stop() {
+        hciProcessHandler.stop();
+    }
+
+    /**
+     * @return true until the reader has been stopped
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return true if the adapter was working properly when last heard of
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public String getAdapter() {
+        return hciProcessHandler.getAdapter();
+    }
+
+    public HciProcessHandler getProcessHandler() {
+        return hciProcessHandler;
+    }
+
+    private void run() {
+        try {
+            do {
+                try {
+                    read();
+                } catch (IOException ex) {
+                    if (hciProcessHandler.isRunning()) {
+                        logger.error("Uncaught exception while reading measurements from " + describe(), ex);
+                    }
+                }
+                healthy = false;
+            } while (hciProcessHandler.restartDump());
+        } catch (InterruptedException ex) {
+            logger.warn("Interrupted while restarting the dump of " + describe(), ex);
+        } finally {
+            running = false;
+        }
+    }
+
+    private void read() throws IOException {
+        final HciStreamParser parser = new HciStreamParser(describe());
+        final String adapter = getAdapter();
+        AsciiLine line = new AsciiLine();
+        while (hciProcessHandler.readLine(line)) {
+            Metrics.HCI_LINES_READ.inc();
+            final HCIData hciData = parser.parse(line);
+            healthy = parser.isHealthy();
+            if (hciData != null) {
+                Metrics.HCI_FRAMES_PARSED.inc();
+                hciData.adapter = adapter;
+                consumer.accept(hciData);
+            }
+        }
+        parser.flush();
+        if (hciProcessHandler.isRunning()) {
+            logger.warn("The hcidump output of {} has ended", describe());
+        }
+    }
+
+    private String describe() {
+        return StringUtils.isNotBlank(getAdapter()) ? getAdapter() : "default adapter";
+    }
+}
@@ -4,26 +4,80 @@ import fi.tkgwf.ruuvi.config.Config;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import troinine.ruuvi.jfr.ProcessRestartEvent;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.time.Instant;
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Runs and supervises the scan and dump processes of a bluetooth adapter. Both processes are restarted in place with
+ * an exponential backoff when they fail, without disturbing the rest of the application. The scan process is
+ * supervised by a shared scheduler thread that never sleeps, the dump process is restarted by the thread reading it.
+ * <p>
+ * When a {@link ScanScheduler} is given and duty cycling is enabled, the scanning is paused while no tag is due.
+ */
 public class HciProcessHandler {
     private static final Logger logger = LoggerFactory.getLogger(HciProcessHandler.class);
     private static final long CHECK_DATA_DELAY = 5000L;
+    private static final long DUTY_CYCLE_CHECK_DELAY = 1000L;
+    private static final ScheduledExecutorService SUPERVISOR = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofVirtual().name("hci-supervisor").factory());
+    private final String adapter;
+    private final ScanScheduler scanScheduler;
+    private final Backoff scanBackoff;
+    private final Backoff dumpBackoff;
+    private final ProcessStatistics scanStatistics = new ProcessStatistics();
+    private final ProcessStatistics dumpStatistics = new ProcessStatistics();
+    private final ProcessStatistics scanPauseStatistics = new ProcessStatistics();
+    private final CountDownLatch stopped = new CountDownLatch(1);
     private Process hciScanProcess;
     private Process hciDumpProcess;
-    private BufferedReader reader;
-    private Instant lastLineRead = Instant.now();
-
-    private Thread processMonitor;
+    private volatile AsciiLineReader reader;
+    private volatile long lastLineReadNanos = System.nanoTime();
+    private volatile long scanStartedNanos;
+    private volatile long dumpStartedNanos;
+
+    private ScheduledFuture<?> processMonitor;
+    private ScheduledFuture<?> scanRestart;
+    private long scanRestartDelay;
+    private boolean scanPaused;
     private final AtomicBoolean running = new AtomicBoolean(false);
 
-    public void start() {
+    public HciProcessHandler() {
+        this(null);
+    }
+
+    /**
+     * @param adapter the bluetooth adapter to use, for example "hci1", or null for the default adapter
+     */
+    public HciProcessHandler(String adapter) {
+        this(adapter, null);
+    }
+
+    /**
+     * @param adapter the bluetooth adapter to use, for example "hci1", or null for the default adapter
+     * @param scanScheduler decides when the scanning can be paused, null for continuous scanning
+     */
+    public HciProcessHandler(String adapter, ScanScheduler scanScheduler) {
+        this.adapter = adapter;
+        this.scanScheduler = scanScheduler;
+        this.scanBackoff = new Backoff(TimeUnit.SECONDS.toMillis(Config.getScanRestartDelaySecs()),
+                TimeUnit.SECONDS.toMillis(Config.getProcessRestartMaxDelaySecs()));
+        this.dumpBackoff = new Backoff(TimeUnit.SECONDS.toMillis(Config.getDumpRestartDelaySecs()),
+                TimeUnit.SECONDS.toMillis(Config.getProcessRestartMaxDelaySecs()));
+    }
+
+    public String getAdapter() {
+        return adapter;
+    }
+
+    public synchronized void start() {
         if (running.getAndSet(true)) {
             throw new IllegalStateException();
         }
@@ -42,43 +96,117 @@ public class HciProcessHandler {
 
             throw new RuntimeException("Failed to start hci processes", e);
         }
-
-        reader = new BufferedReader(new InputStreamReader(hciDumpProcess.getInputStream()));
     }
 
     private void startProcessMonitor() {
-        processMonitor = new Thread(() -> {
-            try {
-                while (true) {
-                    Thread.sleep(CHECK_DATA_DELAY);
-
-                    if (!isRunning()) {
-                        return;
-                    }
+        final long delay = scanScheduler != null && Config.isScanDutyCycleEnabled() ? DUTY_CYCLE_CHECK_DELAY : CHECK_DATA_DELAY;
+        processMonitor = SUPERVISOR.scheduleWithFixedDelay(this::checkScanning, delay, delay, TimeUnit.MILLISECONDS);
+    }
 
-                    if (lastLineRead.isBefore(Instant.now().minusSeconds(Config.getScanRestartIfNoData()))) {
-                        logger.info("No BLE data received in {} seconds", Config.getScanRestartIfNoData());
+    private synchronized void checkScanning() {
+        if (!isRunning() || scanRestart != null) {
+            return;
+        }
 
-                        restartScanning();
-                    }
-                }
-            } catch (InterruptedException e) {
-                logger.warn("Interrupted while waiting the next check", e);
+        final boolean scanningNeeded = scanScheduler == null || scanScheduler.isScanningNeeded();
+        if (scanPaused) {
+            if (scanningNeeded) {
+                resumeScanning();
             }
-        });
+            return;
+        }
+        if (!scanningNeeded) {
+            pauseScanning();
+            return;
+        }
+
+        final long now = System.nanoTime();
+        final long noDataLimit = TimeUnit.SECONDS.toNanos(Config.getScanRestartIfNoData());
+        if (!hciScanProcess.isAlive()) {
+            logger.info("Scan process of {} has ended with exit code {}", describe(), hciScanProcess.exitValue());
 
-        processMonitor.start();
+            restartScanning();
+        } else if (now - Math.max(lastLineReadNanos, scanStartedNanos) > noDataLimit) {
+            logger.info("No BLE data received by {} in {} seconds", describe(), Config.getScanRestartIfNoData());
+
+            restartScanning();
+        } else if (now - scanStartedNanos > noDataLimit) {
+            // The scanning has been producing data long enough after the last restart
+            scanBackoff.reset();
+        }
     }
 
-    public String readLine() throws IOException {
-        if (!running.get()) {
+    /**
+     * Reads the next line of the dump output
+     *
+     * @param line the view to point at the line, valid until the next line is read
+     * @return false if the dump output has ended or the handler has been stopped, true otherwise
+     * @throws IOException if reading fails
+     */
+    public boolean readLine(AsciiLine line) throws IOException {
+        final AsciiLineReader current = reader;
+        if (current == null) {
+            if (isRunning()) {
+                return false;
+            }
             throw new IllegalStateException();
         }
 
-        String line = reader.readLine();
-        lastLineRead = Instant.now();
+        boolean read = current.readLine(line);
+        lastLineReadNanos = System.nanoTime();
 
-        return line;
+        return read;
+    }
+
+    /**
+     * Restarts the dump process after its output has ended. Blocks the calling thread for the backoff delay and
+     * retries until the process has been started or the handler is stopped.
+     *
+     * @return true if the dump process was restarted, false if the handler was stopped or restarting is disabled
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public boolean restartDump() throws InterruptedException {
+        synchronized (this) {
+            if (!isRunning()) {
+                return false;
+            }
+            if (!Config.isDumpRestartEnabled()) {
+                logger.info("The dump of {} has ended and restarting it is disabled", describe());
+                return false;
+            }
+            dumpStatistics.markDown();
+            if (System.nanoTime() - dumpStartedNanos > TimeUnit.SECONDS.toNanos(Config.getProcessRestartMaxDelaySecs())) {
+                // The previous dump process was running properly for a good while
+                dumpBackoff.reset();
+            }
+            stopDumping();
+        }
+
+        while (true) {
+            final long delay = dumpBackoff.nextDelayMillis();
+            logger.info("Restarting dump of {} in {} ms", describe(), delay);
+
+            if (stopped.await(delay, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+
+            synchronized (this) {
+                if (!isRunning()) {
+                    return false;
+                }
+                try {
+                    startDumpping();
+                    dumpStatistics.markUp();
+                    logger.info("Dump process of {} restarted, {} in total", describe(), dumpStatistics);
+                    recordRestart("dump", delay, true, dumpStatistics);
+
+                    return true;
+                } catch (IOException e) {
+                    logger.warn("Failed to restart dump process of " + describe(), e);
+                    recordRestart("dump", delay, false, dumpStatistics);
+                }
+            }
+        }
     }
 
     public void stop() {
@@ -86,17 +214,30 @@ public class HciProcessHandler {
             return;
         }
 
-        if (processMonitor != null) {
-            processMonitor.interrupt();
-            processMonitor = null;
-        }
+        stopped.countDown();
+
+        synchronized (this) {
+            if (processMonitor != null) {
+                processMonitor.cancel(false);
+                processMonitor = null;
+            }
 
-        if (hciScanProcess != null) {
-            logger.info("Stopping scan process...");
-            hciScanProcess.destroy();
-            hciScanProcess = null;
+            if (scanRestart != null) {
+                scanRestart.cancel(false);
+                scanRestart = null;
+            }
+
+            if (hciScanProcess != null) {
+                logger.info("Stopping scan process of {}...", describe());
+                hciScanProcess.destroy();
+                hciScanProcess = null;
+            }
+
+            stopDumping();
         }
+    }
 
+    private void stopDumping() {
         if (reader != null) {
             try {
                 reader.close();
@@ -108,56 +249,151 @@ public class HciProcessHandler {
         }
 
         if (hciDumpProcess != null) {
-            logger.info("Stopping dump process...");
+            logger.info("Stopping dump process of {}...", describe());
             hciDumpProcess.destroy();
             hciDumpProcess = null;
         }
     }
 
     private void startDumpping() throws IOException {
-        logger.debug("Starting dump with: " + Arrays.toString(Config.getDumpCommand()));
+        logger.debug("Starting dump with: " + Arrays.toString(Config.getDumpCommand(adapter)));
 
-        hciDumpProcess = new ProcessBuilder(Config.getDumpCommand()).start();
+        hciDumpProcess = new ProcessBuilder(Config.getDumpCommand(adapter)).start();
+        reader = new AsciiLineReader(hciDumpProcess.getInputStream());
+        dumpStartedNanos = System.nanoTime();
 
-        logger.info("Started dump process");
+        logger.info("Started dump process of {}", describe());
     }
 
     private void startScanning() throws IOException {
-        logger.debug("Starting scan with: " + Arrays.toString(Config.getScanCommand()));
+        logger.debug("Starting scan with: " + Arrays.toString(Config.getScanCommand(adapter)));
 
-        hciScanProcess = new ProcessBuilder(Config.getScanCommand()).start();
+        hciScanProcess = new ProcessBuilder(Config.getScanCommand(adapter)).start();
+        scanStartedNanos = System.nanoTime();
 
-        logger.info("Started scan process");
+        logger.info("Started scan process of {}", describe());
     }
 
-    private void restartScanning() {
+    private void pauseScanning() {
+        logger.debug("Pausing scanning of {}, no tag is due", describe());
+
+        terminateScanning();
+        scanPaused = true;
+        scanPauseStatistics.markDown();
+    }
+
+    private void resumeScanning() {
+        scanPaused = false;
+        scanPauseStatistics.markUp();
+        try {
+            startScanning();
+            logger.debug("Resumed scanning of {}, paused {} in total", describe(), scanPauseStatistics);
+        } catch (IOException e) {
+            logger.warn("Failed to resume scan process of " + describe(), e);
+
+            scanStatistics.markDown();
+            scheduleScanRestart();
+        }
+    }
+
+    /**
+     * Terminates the scan process and makes sure that the adapter stops scanning, as the scan process only disables
+     * the scanning when it is interrupted rather than terminated.
+     */
+    private void terminateScanning() {
         try {
             if (hciScanProcess != null) {
                 hciScanProcess.destroy();
-                hciScanProcess = null;
             }
         } catch (Exception e) {
             // Intentionally ignored.
         }
 
-        logger.info("Restarting scanning in {} secs", Config.getScanRestartDelaySecs());
+        final String[] stopCommand = Config.getScanStopCommand(adapter);
+        if (stopCommand.length > 0 && StringUtils.isNotBlank(stopCommand[0])) {
+            try {
+                logger.debug("Stopping scan with: " + Arrays.toString(stopCommand));
 
-        try {
-            Thread.sleep(Config.getScanRestartDelaySecs() * 1000L);
+                new ProcessBuilder(stopCommand).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+            } catch (IOException e) {
+                logger.warn("Failed to stop scanning of " + describe(), e);
+            }
+        }
+    }
+
+    private void restartScanning() {
+        terminateScanning();
 
+        scanStatistics.markDown();
+        scheduleScanRestart();
+    }
+
+    private void scheduleScanRestart() {
+        final long delay = scanBackoff.nextDelayMillis();
+        logger.info("Restarting scanning of {} in {} ms", describe(), delay);
+
+        scanRestartDelay = delay;
+        scanRestart = SUPERVISOR.schedule(this::completeScanRestart, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void completeScanRestart() {
+        scanRestart = null;
+        if (!isRunning()) {
+            return;
+        }
+
+        try {
             startScanning();
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException("Failed to restart scanning", e);
+            scanStatistics.markUp();
+            logger.info("Scan process of {} restarted, {} in total", describe(), scanStatistics);
+            recordRestart("scan", scanRestartDelay, true, scanStatistics);
+        } catch (IOException e) {
+            logger.warn("Failed to restart scan process of " + describe(), e);
+            recordRestart("scan", scanRestartDelay, false, scanStatistics);
+
+            scheduleScanRestart();
         }
     }
 
+    private void recordRestart(String process, long delay, boolean succeeded, ProcessStatistics statistics) {
+        final ProcessRestartEvent event = new ProcessRestartEvent();
+        if (event.shouldCommit()) {
+            event.adapter = describe();
+            event.process = process;
+            event.delay = delay;
+            event.succeeded = succeeded;
+            event.restarts = statistics.getRestarts();
+            event.commit();
+        }
+    }
+
+    private String describe() {
+        return StringUtils.isNotBlank(adapter) ? adapter : "default adapter";
+    }
+
     private boolean shouldScan() {
         String[] scan = Config.getScanCommand();
 
         return scan.length > 0 && StringUtils.isNotBlank(scan[0]);
     }
 
-    private boolean isRunning() {
+    public boolean isRunning() {
         return running.get();
     }
+
+    public ProcessStatistics getScanStatistics() {
+        return scanStatistics;
+    }
+
+    public ProcessStatistics getDumpStatistics() {
+        return dumpStatistics;
+    }
+
+    /**
+     * @return the number of times the scanning has been resumed after a duty cycle pause, and the total time spent
+     * paused
+     */
+    public ProcessStatistics getScanPauseStatistics() {
+        return scanPauseStatistics;
+    }
 }
@@ -0,0 +1,151 @@
+package troinine.ruuvi.hci;
+
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.utils.HCIParser;
+import fi.tkgwf.ruuvi.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import troinine.ruuvi.jfr.ParseBatchEvent;
+import troinine.ruuvi.metrics.Metrics;
+
+/**
+ * Parses the lines of a single "hcidump --raw" output stream into packets, skipping the header printed by hcidump, the
+ * packets of MAC addresses that are not allowed and the packets of devices learned not to be RuuviTags, see
+ * {@link NonRuuviCache}. The underlying {@link HCIParser} is a state machine collecting
+ * packets spanning several lines, so each stream needs its own instance, used by one thread at a time.
+ * <p>
+ * The parsed lines are recorded in batches as {@link ParseBatchEvent}s when the event is enabled.
+ */
+public class HciStreamParser {
+    private static final Logger logger = LoggerFactory.getLogger(HciStreamParser.class);
+
+    private final String source;
+    private final NonRuuviCache nonRuuviCache;
+    private final HCIParser parser = new HCIParser();
+    private boolean dataReceived;
+    private boolean healthy;
+    private String latestMAC;
+    /** Whether the packet of {@link #latestMAC} is parsed, resolved from its first line */
+    private boolean latestAllowed;
+    private long packetReadNanos;
+    private ParseBatchEvent batch;
+    private long batchStartNanos;
+
+    /**
+     * @param source describes the stream in the log, for example the adapter
+     */
+    public HciStreamParser(String source) {
+        this(source, NonRuuviCache.SHARED);
+    }
+
+    /**
+     * @param source describes the stream in the log, for example the adapter
+     * @param nonRuuviCache the devices whose packets are skipped
+     */
+    HciStreamParser(String source, NonRuuviCache nonRuuviCache) {
+        this.source = source;
+        this.nonRuuviCache = nonRuuviCache;
+    }
+
+    /**
+     * @param line the next line of the stream
+     * @return the packet completed by the line, or null if the line did not complete an allowed packet
+     */
+    public HCIData parse(AsciiLine line) {
+        if (batch == null) {
+            batch = new ParseBatchEvent();
+            batch.begin();
+            batchStartNanos = System.nanoTime();
+        }
+        final HCIData hciData = parseLine(line);
+        batch.lines++;
+        if (hciData != null) {
+            batch.packets++;
+        }
+        if (batch.lines >= ParseBatchEvent.MAX_LINES
+                || hciData != null && hciData.readNanos - batchStartNanos >= ParseBatchEvent.MAX_NANOS) {
+            flush();
+        }
+        return hciData;
+    }
+
+    /**
+     * Records the batch of lines parsed so far, call this when the stream has ended.
+     */
+    public void flush() {
+        if (batch != null) {
+            if (batch.shouldCommit()) {
+                batch.source = source;
+                batch.commit();
+            }
+            batch = null;
+        }
+    }
+
+    private HCIData parseLine(AsciiLine line) {
+        if (line.length() > 0 && line.buffer()[line.offset()] == '>') {
+            packetReadNanos = System.nanoTime();
+        }
+        if (line.length() > 0 && line.buffer()[line.offset()] != '>' && line.buffer()[line.offset()] != ' ') {
+            // Not packet data, check for errors reported by hcidump
+            if (line.contains("device: disconnected")) {
+                logger.error(source + ": " + line + ": Either the bluetooth device was externally disabled or physically disconnected");
+                healthy = false;
+            }
+            if (line.contains("No such device")) {
+                logger.error(source + ": " + line + ": Check that your bluetooth adapter is enabled and working properly");
+                healthy = false;
+            }
+        }
+        if (!dataReceived) {
+            if (line.startsWith("> ")) {
+                logger.info("Successfully reading data from hcidump of {}", source);
+                dataReceived = true;
+                healthy = true;
+            } else {
+                return null; // skip the unnecessary garbage at beginning containing hcidump version and other junk print
+            }
+        }
+        try {
+            //Read in MAC address from first line
+            if (Utils.hasMacAddress(line.buffer(), line.offset(), line.length())) {
+                latestMAC = Utils.getMacFromLine(line.buffer(), line.offset(), line.length());
+                latestAllowed = Config.isAllowedMAC(latestMAC);
+                if (!latestAllowed) {
+                    Metrics.FILTERED_MACS.inc();
+                } else if (nonRuuviCache.isSkipped(latestMAC)) {
+                    latestAllowed = false;
+                }
+            }
+            //Apply Mac Address Filtering
+            if (latestMAC != null && latestAllowed) {
+                HCIData hciData = parser.readLine(line.buffer(), line.offset(), line.length());
+                if (hciData != null) {
+                    hciData.readNanos = packetReadNanos;
+                    hciData.parsedNanos = Metrics.observe(Metrics.Stage.PARSE, packetReadNanos);
+                    latestMAC = null; // "reset" the mac to null to avoid misleading MAC addresses when an error happens *after* successfully reading a full packet
+                    healthy = true;
+                    return hciData;
+                }
+            }
+        } catch (Exception ex) {
+            Metrics.DECODE_ERRORS.inc();
+            batch.errors++;
+            if (latestMAC != null) {
+                logger.warn("Uncaught exception while handling measurements from MAC address \"" + latestMAC + "\", if this repeats and this is not a Ruuvitag, try blacklisting it", ex);
+            } else {
+                logger.warn("Uncaught exception while handling measurements, this is an unexpected event. Please report this to https://github.com/Scrin/RuuviCollector/issues and include this log", ex);
+            }
+            logger.debug("Offending line: " + line);
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the stream was working properly when last heard of
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+}
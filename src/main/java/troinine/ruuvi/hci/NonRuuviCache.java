@@ -0,0 +1,154 @@
+package troinine.ruuvi.hci;
+
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.utils.TagStateMap;
+import troinine.ruuvi.metrics.Metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Learns the MAC addresses of the devices that are not RuuviTags, such as phones, headphones and other beacons, so
+ * that their packets can be skipped when the MAC address has been read from the first line, instead of parsing the
+ * whole packet only to find out that it does not contain RuuviTag data.
+ * <p>
+ * A device is learned after {@link Config#getNonRuuviCacheMinMisses()} packets without RuuviTag data, or after a
+ * single packet with the manufacturer specific data of another manufacturer, which a RuuviTag never sends. A device
+ * that has sent RuuviTag data is never learned, as RuuviTags also answer active scans with packets that only contain
+ * their name. The packets of a learned device are skipped for {@link Config#getNonRuuviCacheTtl()}, after which the
+ * device is probed again. The devices are kept in a {@link TagStateMap}, so the memory stays bounded when the devices
+ * rotate random MAC addresses.
+ * <p>
+ * The cache is shared by the readers of all the adapters and the thread handling the packets, so it is thread safe.
+ */
+public class NonRuuviCache {
+    public static final NonRuuviCache SHARED = new NonRuuviCache();
+
+    private static final int RUUVI_MANUFACTURER_ID = 0x0499;
+    private static final int MANUFACTURER_SPECIFIC_DATA = 0xFF;
+    private static final int SERVICE_DATA = 0x16;
+
+    private final TagStateMap<Device> devices;
+    private final long ttlMillis;
+    private final int minMisses;
+    private final LongSupplier clock;
+
+    /**
+     * Creates a cache limited by {@link Config#getNonRuuviCacheMaxMacs()} and {@link Config#getNonRuuviCacheTtl()}
+     */
+    private NonRuuviCache() {
+        this(Config.getNonRuuviCacheMaxMacs(), Config.getNonRuuviCacheTtl().toMillis(),
+                Config.getNonRuuviCacheMinMisses(), () -> Config.getTimestampProvider().get());
+    }
+
+    /**
+     * @param maxMacs maximum number of devices remembered
+     * @param ttlMillis how long the packets of a learned device are skipped, in milliseconds
+     * @param minMisses the number of packets without RuuviTag data after which a device is learned
+     * @param clock source of the current time in milliseconds
+     */
+    NonRuuviCache(int maxMacs, long ttlMillis, int minMisses, LongSupplier clock) {
+        // A device that has not been heard for a while is forgotten, whether it was learned or not
+        this.devices = new TagStateMap<>(maxMacs, ttlMillis, clock, null);
+        this.ttlMillis = ttlMillis;
+        this.minMisses = Math.max(1, minMisses);
+        this.clock = clock;
+    }
+
+    /**
+     * Decides whether the packet starting with a line of the given MAC address is skipped. Called for every packet,
+     * so the lookups are counted as hits and misses.
+     *
+     * @param mac the MAC address read from the first line of a packet
+     * @return true if the device has been learned not to be a RuuviTag and the packet can be skipped
+     */
+    public boolean isSkipped(String mac) {
+        if (!Config.isNonRuuviCacheEnabled()) {
+            return false;
+        }
+        final Device device = devices.get(mac);
+        if (device == null || device.skippedUntil == 0) {
+            Metrics.NON_RUUVI_CACHE_MISSES.inc();
+            return false;
+        }
+        if (clock.getAsLong() >= device.skippedUntil) {
+            // Probe the device again, it is learned again quickly if it still is not a RuuviTag
+            device.misses.set(0);
+            device.skippedUntil = 0;
+            Metrics.NON_RUUVI_CACHE_MISSES.inc();
+            return false;
+        }
+        Metrics.NON_RUUVI_CACHE_HITS.inc();
+        return true;
+    }
+
+    /**
+     * Records a packet that contained RuuviTag data, so that the device is never learned. The device is remembered
+     * even if it has not sent any other packets yet, as the scan responses usually follow the first advertisement.
+     *
+     * @param mac the MAC address of the packet
+     */
+    public void ruuvi(String mac) {
+        if (!Config.isNonRuuviCacheEnabled() || mac == null) {
+            return;
+        }
+        final Device device = devices.computeIfAbsent(mac, k -> new Device());
+        device.ruuvi = true;
+        device.skippedUntil = 0;
+    }
+
+    /**
+     * Records a packet that did not contain RuuviTag data, and learns the device if it has sent enough of them.
+     *
+     * @param hciData the packet
+     */
+    public void nonRuuvi(HCIData hciData) {
+        if (!Config.isNonRuuviCacheEnabled() || hciData.mac == null) {
+            return;
+        }
+        final Device device = devices.computeIfAbsent(hciData.mac, k -> new Device());
+        if (device.ruuvi) {
+            return;
+        }
+        final int misses = device.misses.addAndGet(isOtherManufacturer(hciData) ? minMisses : 1);
+        if (misses >= minMisses && device.skippedUntil == 0) {
+            device.skippedUntil = clock.getAsLong() + ttlMillis;
+        }
+    }
+
+    /**
+     * @return the number of devices whose packets are currently skipped
+     */
+    public int skippedDevices() {
+        final long now = clock.getAsLong();
+        final AtomicInteger skipped = new AtomicInteger();
+        devices.forEach((mac, device) -> {
+            if (device.skippedUntil > now) {
+                skipped.incrementAndGet();
+            }
+        });
+        return skipped.get();
+    }
+
+    /**
+     * @return true if the packet has manufacturer specific data of another manufacturer than Ruuvi, and no service
+     * data that could be an Eddystone URL of the older data formats
+     */
+    private static boolean isOtherManufacturer(HCIData hciData) {
+        final HCIData.Report.AdvertisementData manufacturerData = hciData.findAdvertisementDataByType(MANUFACTURER_SPECIFIC_DATA);
+        if (manufacturerData == null || manufacturerData.data == null || manufacturerData.data.size() < 2
+                || hciData.findAdvertisementDataByType(SERVICE_DATA) != null) {
+            return false;
+        }
+        final int manufacturerId = (manufacturerData.data.get(0) & 0xFF) | (manufacturerData.data.get(1) & 0xFF) << 8;
+        return manufacturerId != RUUVI_MANUFACTURER_ID;
+    }
+
+    private static final class Device {
+        private final AtomicInteger misses = new AtomicInteger();
+        private volatile boolean ruuvi;
+        /** The time in milliseconds until which the packets are skipped, 0 if the device has not been learned */
+        private volatile long skippedUntil;
+    }
+}
@@ -0,0 +1,55 @@
+package troinine.ruuvi.hci;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restart count and total downtime of a supervised process.
+ */
+public class ProcessStatistics {
+    private long restarts;
+    private long downtimeNanos;
+    private long downSinceNanos;
+    private boolean down;
+
+    /**
+     * Marks the process as stopped, the downtime accumulates until {@link #markUp()} is called.
+     */
+    public synchronized void markDown() {
+        if (!down) {
+            down = true;
+            downSinceNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Marks the process as restarted.
+     */
+    public synchronized void markUp() {
+        if (down) {
+            down = false;
+            restarts++;
+            downtimeNanos += System.nanoTime() - downSinceNanos;
+        }
+    }
+
+    public synchronized boolean isDown() {
+        return down;
+    }
+
+    public synchronized long getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * @return the total downtime in milliseconds, including the ongoing downtime if the process is currently down
+     */
+    public synchronized long getDowntimeMillis() {
+        final long total = down ? downtimeNanos + System.nanoTime() - downSinceNanos : downtimeNanos;
+        return TimeUnit.NANOSECONDS.toMillis(total);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getRestarts() + " restarts and " + TimeUnit.MILLISECONDS.toSeconds(getDowntimeMillis()) + " s of downtime";
+    }
+}
@@ -0,0 +1,94 @@
+package troinine.ruuvi.hci;
+
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.strategy.impl.DiscardUntilEnoughTimeHasElapsedStrategy;
+import fi.tkgwf.ruuvi.utils.TagStateMap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Works out when scanning is needed for the tags to be published at their configured intervals. Each tag is due
+ * {@link Config#getMeasurementUpdateLimit(String)} after its previous publication, and the scanning is needed from
+ * {@link Config#getScanDutyCycleLeadMillis()} before the earliest due time until the due tags have been published.
+ * A tag that is not heard within {@link Config#getScanDutyCycleMaxWindowSecs()} is considered missed and is expected
+ * again one interval later.
+ * <p>
+ * The scanning is continuous when duty cycling is disabled, when any of the limiting strategies is not purely time
+ * based, such as the motion sensitive strategy, and when an expected tag has not been published yet.
+ */
+public class ScanScheduler {
+    private final TagStateMap<Tag> tags = new TagStateMap<>();
+
+    /**
+     * Records that a measurement of a tag has been published.
+     *
+     * @param mac the MAC address of the tag
+     */
+    public void published(String mac) {
+        final long now = now();
+        final Tag tag = tags.computeIfAbsent(mac, k -> new Tag());
+        synchronized (tag) {
+            tag.nextDue = now + Config.getMeasurementUpdateLimit(mac);
+            tag.windowOpened = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * @return the number of tags published within the state time to live
+     */
+    public int size() {
+        return tags.size();
+    }
+
+    /**
+     * @return true if scanning is needed now
+     */
+    public boolean isScanningNeeded() {
+        if (!Config.isScanDutyCycleEnabled() || !isDutyCyclingPossible()) {
+            return true;
+        }
+        for (String mac : Config.getExpectedMacs()) {
+            if (tags.get(mac) == null) {
+                return true;
+            }
+        }
+        if (tags.size() == 0) {
+            return true;
+        }
+        final long now = now();
+        final long lead = Config.getScanDutyCycleLeadMillis();
+        final long maxWindow = TimeUnit.SECONDS.toMillis(Config.getScanDutyCycleMaxWindowSecs());
+        final boolean[] needed = { false };
+        tags.forEach((mac, tag) -> needed[0] |= tag.isDue(mac, now, lead, maxWindow));
+        return needed[0];
+    }
+
+    private static boolean isDutyCyclingPossible() {
+        return Config.getAllLimitingStrategies().stream()
+                .allMatch(s -> s instanceof DiscardUntilEnoughTimeHasElapsedStrategy);
+    }
+
+    private static long now() {
+        return Config.getTimestampProvider().get();
+    }
+
+    private static final class Tag {
+        private long nextDue;
+        private long windowOpened = Long.MIN_VALUE;
+
+        private synchronized boolean isDue(String mac, long now, long lead, long maxWindow) {
+            if (now < nextDue - lead) {
+                return false;
+            }
+            if (windowOpened == Long.MIN_VALUE) {
+                windowOpened = now;
+            } else if (now - windowOpened > maxWindow) {
+                // Not heard, perhaps out of range, try again on the next interval
+                nextDue = now + Config.getMeasurementUpdateLimit(mac);
+                windowOpened = Long.MIN_VALUE;
+                return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package troinine.ruuvi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A connection attempt to the MQTT broker or, on a gateway node, to the central collector. Automatic reconnects of
+ * the MQTT client are recorded once they are complete.
+ */
+@Name("ruuvi.Connect")
+@Label("Connect")
+@Description("A connection attempt to the MQTT broker or the central collector")
+@Category({ "Ruuvi", "Publish" })
+@Enabled(false)
+@StackTrace(false)
+public class ConnectEvent extends Event {
+    public static final String MQTT = "mqtt";
+    public static final String GATEWAY = "gateway";
+
+    @Label("Target")
+    @Description("Either mqtt or gateway")
+    public String target;
+
+    @Label("Address")
+    public String address;
+
+    @Label("Reconnect")
+    @Description("True if the connection was reopened automatically by the MQTT client")
+    public boolean reconnect;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
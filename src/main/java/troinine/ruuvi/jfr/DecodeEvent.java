@@ -0,0 +1,27 @@
+package troinine.ruuvi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A packet decoded into a measurement, recorded per packet so the bundled profile only keeps the slow ones.
+ */
+@Name("ruuvi.Decode")
+@Label("Decode")
+@Description("A packet decoded into a Ruuvi measurement")
+@Category({ "Ruuvi", "Decode" })
+@Enabled(false)
+@StackTrace(false)
+public class DecodeEvent extends Event {
+    @Label("MAC Address")
+    public String mac;
+
+    @Label("Data Format")
+    @Description("The data format of the measurement, or -1 if the packet was not from a Ruuvi tag")
+    public int dataFormat;
+}
@@ -0,0 +1,30 @@
+package troinine.ruuvi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A measurement passed through the limiting strategy of its tag.
+ */
+@Name("ruuvi.Limit")
+@Label("Limit")
+@Description("A measurement passed through a limiting strategy")
+@Category({ "Ruuvi", "Strategy" })
+@Enabled(false)
+@StackTrace(false)
+public class LimitEvent extends Event {
+    @Label("MAC Address")
+    public String mac;
+
+    @Label("Strategy")
+    public Class<?> strategy;
+
+    @Label("Passed")
+    @Description("True if the strategy let a measurement through to be published")
+    public boolean passed;
+}
@@ -0,0 +1,39 @@
+package troinine.ruuvi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A batch of hcidump lines parsed into packets. A batch is committed after {@link #MAX_LINES} lines or once it has
+ * spanned {@link #MAX_NANOS}, so that the parsing of a busy stream can be correlated with the CPU samples without
+ * recording an event per line.
+ */
+@Name("ruuvi.ParseBatch")
+@Label("Parse Batch")
+@Description("Lines of an hcidump stream parsed into packets")
+@Category({ "Ruuvi", "Ingestion" })
+@Enabled(false)
+@StackTrace(false)
+public class ParseBatchEvent extends Event {
+    public static final int MAX_LINES = 1024;
+    public static final long MAX_NANOS = 1_000_000_000L;
+
+    @Label("Source")
+    @Description("The adapter or gateway the stream is read from")
+    public String source;
+
+    @Label("Lines")
+    public int lines;
+
+    @Label("Packets")
+    @Description("The packets completed by the lines, after the MAC address filtering")
+    public int packets;
+
+    @Label("Errors")
+    public int errors;
+}
@@ -0,0 +1,40 @@
+package troinine.ruuvi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * An attempt to restart the scan or dump process of an adapter after it failed.
+ */
+@Name("ruuvi.ProcessRestart")
+@Label("Process Restart")
+@Description("An attempt to restart a failed hcitool or hcidump process")
+@Category({ "Ruuvi", "Supervision" })
+@Enabled(false)
+@StackTrace(false)
+public class ProcessRestartEvent extends Event {
+    @Label("Adapter")
+    public String adapter;
+
+    @Label("Process")
+    @Description("Either scan or dump")
+    public String process;
+
+    @Label("Delay")
+    @Description("The backoff delay before the attempt")
+    @Timespan(Timespan.MILLISECONDS)
+    public long delay;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+
+    @Label("Restarts")
+    @Description("The successful restarts of the process in total")
+    public long restarts;
+}
@@ -0,0 +1,34 @@
+package troinine.ruuvi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A measurement published to the MQTT broker, spanning the serialization and the delivery.
+ */
+@Name("ruuvi.Publish")
+@Label("Publish")
+@Description("A measurement published to the MQTT broker")
+@Category({ "Ruuvi", "Publish" })
+@Enabled(false)
+@StackTrace(false)
+public class PublishEvent extends Event {
+    @Label("Topic")
+    public String topic;
+
+    @Label("MAC Address")
+    public String mac;
+
+    @Label("Bytes")
+    @DataAmount
+    public int bytes;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
@@ -0,0 +1,88 @@
+package troinine.ruuvi.metrics;
+
+import fi.tkgwf.ruuvi.utils.TagStateMap;
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the latencies of the pipeline stages and the end-to-end latency of each tag into HdrHistogram recorders, and
+ * reports their percentiles when scraped. Recording is wait-free and does not allocate, so it can be done for every
+ * packet. The percentiles cover the values recorded since the previous scrape, a stage or a tag without any new values
+ * is left out.
+ */
+public class LatencyTracker extends Collector {
+    static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private final IntervalRecorder[] stages = new IntervalRecorder[Metrics.Stage.values().length];
+    private final TagStateMap<IntervalRecorder> tags = new TagStateMap<>();
+
+    public LatencyTracker() {
+        Arrays.setAll(stages, i -> new IntervalRecorder(new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS)));
+    }
+
+    /**
+     * @param stage the stage
+     * @param nanos the time spent in the stage
+     */
+    public void record(Metrics.Stage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * @param mac the MAC address of the tag
+     * @param nanos the time from reading the packet to the broker acknowledging the measurement
+     */
+    public void recordTag(String mac, long nanos) {
+        // Packed and auto-resizing, as most of the range stays empty for a single tag
+        tags.computeIfAbsent(mac, k -> new IntervalRecorder(new Recorder(SIGNIFICANT_DIGITS, true))).record(nanos);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        final GaugeMetricFamily stageLatency = new GaugeMetricFamily("ruuvi_latency_seconds",
+                "Latency percentiles of the pipeline stages since the previous scrape", Arrays.asList("stage", "quantile"));
+        for (Metrics.Stage stage : Metrics.Stage.values()) {
+            stages[stage.ordinal()].addSamples(stageLatency, stage.label());
+        }
+        final GaugeMetricFamily tagLatency = new GaugeMetricFamily("ruuvi_tag_latency_seconds",
+                "End-to-end latency percentiles of each tag since the previous scrape", Arrays.asList("mac", "quantile"));
+        tags.forEach((mac, recorder) -> recorder.addSamples(tagLatency, mac));
+        final List<MetricFamilySamples> samples = new ArrayList<>();
+        samples.add(stageLatency);
+        samples.add(tagLatency);
+        return samples;
+    }
+
+    private static final class IntervalRecorder {
+        private final Recorder recorder;
+        private Histogram interval;
+
+        private IntervalRecorder(Recorder recorder) {
+            this.recorder = recorder;
+        }
+
+        private void record(long nanos) {
+            recorder.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos))));
+        }
+
+        private synchronized void addSamples(GaugeMetricFamily family, String label) {
+            interval = recorder.getIntervalHistogram(interval);
+            if (interval.getTotalCount() == 0) {
+                return;
+            }
+            for (double quantile : QUANTILES) {
+                family.addMetric(Arrays.asList(label, Double.toString(quantile)),
+                        interval.getValueAtPercentile(quantile * 100) / 1e6);
+            }
+        }
+    }
+}
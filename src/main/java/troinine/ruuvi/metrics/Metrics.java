@@ -0,0 +1,178 @@
+package troinine.ruuvi.metrics;
+
+import fi.tkgwf.ruuvi.config.Config;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.exporter.HTTPServer;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.function.DoubleSupplier;
+
+/**
+ * The Prometheus metrics of the collector, served over HTTP when enabled. The labeled children are resolved once here,
+ * so updating a metric on the hot path is a single striped adder update without any lookup or allocation. Gauges are
+ * read from the owning components only when scraped.
+ */
+public final class Metrics {
+    private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+    private static final double[] STAGE_BUCKETS = { 0.000_01, 0.000_05, 0.000_1, 0.000_5, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5 };
+
+    private static final Counter LINES_READ = Counter.build().name("ruuvi_lines_read")
+            .help("Lines of hcidump output read").labelNames("source").withoutExemplars().register();
+    public static final Counter.Child HCI_LINES_READ = LINES_READ.labels("hci");
+    public static final Counter.Child GATEWAY_LINES_READ = LINES_READ.labels("gateway");
+
+    private static final Counter FRAMES_PARSED = Counter.build().name("ruuvi_frames_parsed")
+            .help("Advertisement frames parsed from the allowed MAC addresses").labelNames("source").withoutExemplars().register();
+    public static final Counter.Child HCI_FRAMES_PARSED = FRAMES_PARSED.labels("hci");
+    public static final Counter.Child GATEWAY_FRAMES_PARSED = FRAMES_PARSED.labels("gateway");
+    public static final Counter.Child HTTP_FRAMES_PARSED = FRAMES_PARSED.labels("http");
+
+    public static final Counter FILTERED_MACS = Counter.build().name("ruuvi_filtered_macs")
+            .help("Advertisements skipped because of the MAC address filter").withoutExemplars().register();
+    public static final Counter DECODE_ERRORS = Counter.build().name("ruuvi_decode_errors")
+            .help("Lines, advertisements and posts that could not be decoded").withoutExemplars().register();
+    public static final Counter DROPPED_PACKETS = Counter.build().name("ruuvi_dropped_packets")
+            .help("Packets dropped because the processing could not keep up").withoutExemplars().register();
+    public static final Counter NON_RUUVI_PACKETS = Counter.build().name("ruuvi_non_ruuvi_packets")
+            .help("Packets that did not contain RuuviTag data").withoutExemplars().register();
+    private static final Counter NON_RUUVI_CACHE = Counter.build().name("ruuvi_non_ruuvi_cache_lookups")
+            .help("Lookups of the devices learned not to be RuuviTags, a hit skips the packet before parsing")
+            .labelNames("result").withoutExemplars().register();
+    public static final Counter.Child NON_RUUVI_CACHE_HITS = NON_RUUVI_CACHE.labels("hit");
+    public static final Counter.Child NON_RUUVI_CACHE_MISSES = NON_RUUVI_CACHE.labels("miss");
+    public static final Counter RATE_LIMITED = Counter.build().name("ruuvi_rate_limited")
+            .help("Measurements discarded by the limiting strategies").withoutExemplars().register();
+    public static final Counter PUBLISHES = Counter.build().name("ruuvi_publishes")
+            .help("Measurements published").withoutExemplars().register();
+    public static final Counter PUBLISH_FAILURES = Counter.build().name("ruuvi_publish_failures")
+            .help("Measurements that could not be published").withoutExemplars().register();
+
+    private static final Histogram STAGE_DURATION = Histogram.build().name("ruuvi_stage_duration_seconds")
+            .help("Time spent in each stage of handling a packet").labelNames("stage").buckets(STAGE_BUCKETS)
+            .withoutExemplars().register();
+    // Resolved here rather than in the enum, so that the enum can be initialized before this class
+    private static final Histogram.Child[] STAGE_HISTOGRAMS = Arrays.stream(Stage.values())
+            .map(stage -> STAGE_DURATION.labels(stage.label())).toArray(Histogram.Child[]::new);
+    private static final LatencyTracker LATENCY = new LatencyTracker().register();
+    public static final TagStatistics TAGS = new TagStatistics().register();
+    public static final ReceptionTracker RECEPTION = new ReceptionTracker().register();
+
+    public static final Gauge QUEUE_DEPTH = Gauge.build().name("ruuvi_queue_depth")
+            .help("Packets waiting to be handled").labelNames("queue").register();
+    public static final Gauge MQTT_CONNECTED_BROKERS = Gauge.build().name("ruuvi_mqtt_connected_brokers")
+            .help("MQTT brokers currently connected").register();
+    public static final Gauge GATEWAY_CONNECTIONS = Gauge.build().name("ruuvi_gateway_connections")
+            .help("Remote gateways currently connected").register();
+    public static final Gauge KNOWN_TAGS = Gauge.build().name("ruuvi_known_tags")
+            .help("Tags published within the state time to live").register();
+    public static final Gauge NON_RUUVI_DEVICES = Gauge.build().name("ruuvi_non_ruuvi_devices")
+            .help("Devices learned not to be RuuviTags whose packets are currently skipped").register();
+    public static final Gauge PROCESS_RESTARTS = Gauge.build().name("ruuvi_process_restarts")
+            .help("Restarts of the scan and dump processes").labelNames("adapter", "process").register();
+
+    /**
+     * The stages of a packet from reading it to the broker acknowledging the measurement.
+     */
+    public enum Stage {
+        /** From reading the first line of a packet to having parsed all of it */
+        PARSE,
+        /** From having parsed a packet to starting to handle it, including the deduplication window */
+        QUEUE,
+        DECODE,
+        CALCULATE,
+        LIMIT,
+        /** From sending a measurement to the broker acknowledging it */
+        PUBLISH,
+        /** From reading the first line of a packet to the broker acknowledging the measurement */
+        TOTAL;
+
+        private final String label = name().toLowerCase();
+
+        String label() {
+            return label;
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Makes a gauge report the value of the supplier when scraped.
+     *
+     * @param gauge the gauge
+     * @param supplier supplies the value, called from the scraping thread
+     * @param labelValues the label values of the gauge, if any
+     */
+    public static void gauge(Gauge gauge, DoubleSupplier supplier, String... labelValues) {
+        gauge.setChild(new Gauge.Child() {
+            @Override
+            public double get() {
+                return supplier.getAsDouble();
+            }
+        }, labelValues);
+    }
+
+    /**
+     * @param stage the stage that ended now
+     * @param startNanos the {@link System#nanoTime()} at the start of the stage
+     * @return the {@link System#nanoTime()} now, to be used as the start of the next stage
+     */
+    public static long observe(Stage stage, long startNanos) {
+        final long now = System.nanoTime();
+        record(stage, now - startNanos);
+        return now;
+    }
+
+    /**
+     * @param stage the stage
+     * @param nanos the time spent in the stage
+     */
+    public static void record(Stage stage, long nanos) {
+        STAGE_HISTOGRAMS[stage.ordinal()].observe(nanos / 1e9);
+        LATENCY.record(stage, nanos);
+    }
+
+    /**
+     * Records the end-to-end latency of a measurement.
+     *
+     * @param mac the MAC address of the tag
+     * @param readNanos the {@link System#nanoTime()} when the first line of the packet was read
+     */
+    public static void recordTotal(String mac, long readNanos) {
+        final long nanos = System.nanoTime() - readNanos;
+        record(Stage.TOTAL, nanos);
+        LATENCY.recordTag(mac, nanos);
+    }
+
+    /**
+     * Starts serving the metrics on the configured address and port in daemon threads.
+     *
+     * @return the server, or null if the metrics are disabled or the server could not be started
+     */
+    public static HTTPServer startServer() {
+        if (!Config.isMetricsEnabled()) {
+            return null;
+        }
+        final String bindAddress = Config.getMetricsBindAddress();
+        try {
+            final HTTPServer server = new HTTPServer.Builder()
+                    .withInetSocketAddress(StringUtils.isBlank(bindAddress)
+                            ? new InetSocketAddress(Config.getMetricsPort())
+                            : new InetSocketAddress(bindAddress, Config.getMetricsPort()))
+                    .withDaemonThreads(true)
+                    .build();
+            logger.info("Serving metrics on port {}", server.getPort());
+            return server;
+        } catch (IOException e) {
+            logger.error("Failed to start the metrics server on port " + Config.getMetricsPort(), e);
+            return null;
+        }
+    }
+}
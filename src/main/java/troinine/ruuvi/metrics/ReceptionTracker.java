@@ -0,0 +1,276 @@
+package troinine.ruuvi.metrics;
+
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.utils.TagStateMap;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Detects lost packets from the measurement sequence numbers of the tags sending data format 5 (RAWv2), and reports
+ * the reception ratio of each tag and each adapter. The tags increment the sequence number for every measurement, so a
+ * missing number is a measurement that was not received.
+ * <p>
+ * The sequence numbers heard by each adapter are tracked before the packets are queued, and the sequence numbers of
+ * each tag after the packets of all the adapters have been deduplicated. A tag ratio below the ratio of its best
+ * adapter therefore means that the collector itself dropped packets, for example because it did not get enough CPU.
+ */
+public class ReceptionTracker extends Collector {
+    static final String DEFAULT_ADAPTER = "default";
+    private static final int RAW_V2_LENGTH = 26;
+    private static final int SEQUENCE_OFFSET = 18;
+    private static final int INVALID_SEQUENCE = 0xFFFF;
+
+    private final TagStateMap<Tag> tags;
+    private final TagStateMap<Totals> adapters;
+
+    /**
+     * Creates a tracker limited by {@link Config#getStateMaxTags()} and {@link Config#getStateTtl()}
+     */
+    public ReceptionTracker() {
+        this(Config.getStateMaxTags(), Config.getStateTtl().toMillis(), () -> Config.getTimestampProvider().get());
+    }
+
+    /**
+     * @param maxTags maximum number of tags, and of adapters
+     * @param ttlMillis time to live of a tag or an adapter since it was last heard, 0 or less for no limit
+     * @param clock source of the current time in milliseconds
+     */
+    ReceptionTracker(int maxTags, long ttlMillis, LongSupplier clock) {
+        this.tags = new TagStateMap<>(maxTags, ttlMillis, clock, null);
+        this.adapters = new TagStateMap<>(maxTags, ttlMillis, clock, null);
+    }
+
+    /**
+     * Records a packet heard by an adapter, before it is queued. Packets without a valid sequence number are ignored.
+     *
+     * @param hciData the packet
+     */
+    public void heard(HCIData hciData) {
+        final int sequence = sequenceNumber(hciData);
+        if (sequence < 0) {
+            return;
+        }
+        final String adapter = hciData.adapter != null ? hciData.adapter : DEFAULT_ADAPTER;
+        final Tag tag = tags.computeIfAbsent(hciData.mac, k -> new Tag());
+        final long received;
+        final long lost;
+        synchronized (tag) {
+            final SequenceWindow window = tag.adapters.computeIfAbsent(adapter, k -> new SequenceWindow());
+            final long receivedBefore = window.received;
+            final long lostBefore = window.lost;
+            window.record(sequence);
+            received = window.received - receivedBefore;
+            lost = window.lost - lostBefore;
+        }
+        if (received != 0 || lost != 0) {
+            final Totals totals = adapters.computeIfAbsent(adapter, k -> new Totals());
+            totals.received.add(received);
+            totals.lost.add(lost);
+        }
+    }
+
+    /**
+     * Records a measurement of a tag, after the packets of all the adapters have been deduplicated.
+     *
+     * @param mac the MAC address of the tag
+     * @param sequence the measurement sequence number, null if the data format does not have one
+     */
+    public void handled(String mac, Integer sequence) {
+        if (sequence == null || sequence < 0 || sequence >= INVALID_SEQUENCE) {
+            return;
+        }
+        final Tag tag = tags.computeIfAbsent(mac, k -> new Tag());
+        synchronized (tag) {
+            tag.handled.record(sequence);
+        }
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        final List<String> macLabel = Collections.singletonList("mac");
+        final List<String> adapterLabel = Collections.singletonList("adapter");
+        final CounterMetricFamily tagReceived = new CounterMetricFamily("ruuvi_tag_sequences_received",
+                "Measurement sequence numbers of each tag received by the collector", macLabel);
+        final CounterMetricFamily tagLost = new CounterMetricFamily("ruuvi_tag_sequences_lost",
+                "Measurement sequence numbers of each tag missed by all the adapters or dropped by the collector", macLabel);
+        final CounterMetricFamily tagResets = new CounterMetricFamily("ruuvi_tag_sequence_resets",
+                "Jumps in the measurement sequence numbers of each tag, such as reboots", macLabel);
+        final GaugeMetricFamily tagRatio = new GaugeMetricFamily("ruuvi_tag_reception_ratio",
+                "Share of the latest measurement sequence numbers of each tag received by the collector", macLabel);
+        final GaugeMetricFamily ratio = new GaugeMetricFamily("ruuvi_reception_ratio",
+                "Share of the latest measurement sequence numbers of each tag heard by each adapter", Arrays.asList("mac", "adapter"));
+        final Map<String, long[]> adapterWindows = new HashMap<>();
+        tags.forEach((mac, tag) -> {
+            synchronized (tag) {
+                final List<String> label = Collections.singletonList(mac);
+                if (tag.handled.span > 0) {
+                    tagReceived.addMetric(label, tag.handled.received);
+                    tagLost.addMetric(label, tag.handled.lost);
+                    tagResets.addMetric(label, tag.handled.resets);
+                    tagRatio.addMetric(label, tag.handled.ratio());
+                }
+                tag.adapters.forEach((adapter, window) -> {
+                    ratio.addMetric(Arrays.asList(mac, adapter), window.ratio());
+                    final long[] sums = adapterWindows.computeIfAbsent(adapter, k -> new long[2]);
+                    sums[0] += window.receivedInWindow();
+                    sums[1] += window.span;
+                });
+            }
+        });
+        final CounterMetricFamily adapterReceived = new CounterMetricFamily("ruuvi_adapter_sequences_received",
+                "Measurement sequence numbers heard by each adapter", adapterLabel);
+        final CounterMetricFamily adapterLost = new CounterMetricFamily("ruuvi_adapter_sequences_lost",
+                "Measurement sequence numbers missed by each adapter", adapterLabel);
+        adapters.forEach((adapter, totals) -> {
+            adapterReceived.addMetric(Collections.singletonList(adapter), totals.received.sum());
+            adapterLost.addMetric(Collections.singletonList(adapter), totals.lost.sum());
+        });
+        final GaugeMetricFamily adapterRatio = new GaugeMetricFamily("ruuvi_adapter_reception_ratio",
+                "Share of the latest measurement sequence numbers of all the tags heard by each adapter", adapterLabel);
+        adapterWindows.forEach((adapter, sums) -> adapterRatio.addMetric(Collections.singletonList(adapter), (double) sums[0] / sums[1]));
+        return new ArrayList<>(Arrays.asList(tagReceived, tagLost, tagResets, tagRatio, ratio, adapterReceived, adapterLost, adapterRatio));
+    }
+
+    /**
+     * @param hciData a packet
+     * @return the measurement sequence number of the packet, or -1 if it is not a data format 5 packet with a valid
+     * sequence number
+     */
+    static int sequenceNumber(HCIData hciData) {
+        if (hciData.reports == null) {
+            return -1;
+        }
+        for (HCIData.Report report : hciData.reports) {
+            if (report.advertisements == null) {
+                continue;
+            }
+            for (HCIData.Report.AdvertisementData advertisement : report.advertisements) {
+                final List<Byte> data = advertisement.data;
+                if (advertisement.type == null || advertisement.type != 0xFF || data == null || data.size() < RAW_V2_LENGTH) {
+                    continue;
+                }
+                if (data.get(0) != (byte) 0x99 || data.get(1) != 0x04 || data.get(2) != 5) {
+                    continue;
+                }
+                final int sequence = (data.get(SEQUENCE_OFFSET) & 0xFF) << 8 | data.get(SEQUENCE_OFFSET + 1) & 0xFF;
+                return sequence != INVALID_SEQUENCE ? sequence : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Tag {
+        private final SequenceWindow handled = new SequenceWindow();
+        private final Map<String, SequenceWindow> adapters = new HashMap<>(4);
+    }
+
+    private static final class Totals {
+        private final LongAdder received = new LongAdder();
+        private final LongAdder lost = new LongAdder();
+    }
+
+    /**
+     * A sliding bitset of the latest {@link #SIZE} sequence numbers of a tag. A sequence number is counted as lost
+     * when it slides out of the window without having been received, so packets arriving late within the window are
+     * not counted as lost. The sequence numbers wrap around after 65534, and a jump of more than {@link #MAX_GAP}
+     * forward or beyond the window backward is taken as a reboot of the tag, or as the tag having been out of range
+     * for so long that counting the gap would be misleading, and starts the window over. A tag that reboots shortly
+     * after starting counts the numbers still in the window again, so two increasing numbers in a row that have
+     * already been received are also taken as a reboot.
+     */
+    static final class SequenceWindow {
+        static final int SIZE = Long.SIZE;
+        static final int MAX_GAP = 1024;
+        private static final int SEQUENCE_RANGE = INVALID_SEQUENCE;
+
+        /** The highest sequence number received, -1 if none */
+        private int highest = -1;
+        /** Bit i is set if the sequence number i steps before the highest has been received */
+        private long bits;
+        /** The number of valid bits */
+        private int span;
+        /** A sequence number within the window received again, possibly the first after a reboot, -1 if none */
+        private int repeated = -1;
+        long received;
+        long lost;
+        long resets;
+
+        void record(int sequence) {
+            if (highest < 0) {
+                start(sequence);
+                return;
+            }
+            final int ahead = Math.floorMod(sequence - highest, SEQUENCE_RANGE);
+            if (ahead == 0) {
+                return; // The same measurement heard again
+            }
+            if (ahead <= MAX_GAP) {
+                final long leaving = ahead >= SIZE ? -1L : -1L << (SIZE - ahead);
+                lost += Long.bitCount(~bits & validBits() & leaving) + Math.max(0, ahead - SIZE);
+                bits = (ahead >= SIZE ? 0 : bits << ahead) | 1;
+                span = Math.min(SIZE, span + ahead);
+                highest = sequence;
+                received++;
+                repeated = -1;
+                return;
+            }
+            final int behind = SEQUENCE_RANGE - ahead;
+            if (behind < span) {
+                // Late, for example from a gateway with a longer delay
+                if ((bits & 1L << behind) == 0) {
+                    bits |= 1L << behind;
+                    received++;
+                    repeated = -1;
+                    return;
+                }
+                final int afterRepeated = Math.floorMod(sequence - repeated, SEQUENCE_RANGE);
+                if (repeated < 0 || afterRepeated == 0 || afterRepeated > MAX_GAP) {
+                    repeated = sequence;
+                    return;
+                }
+                // Counting again from a number before the highest, starting over from the first of them
+                reset(repeated);
+                record(sequence);
+                return;
+            }
+            reset(sequence);
+        }
+
+        private void reset(int sequence) {
+            lost += Long.bitCount(~bits & validBits());
+            resets++;
+            start(sequence);
+        }
+
+        double ratio() {
+            return span > 0 ? (double) receivedInWindow() / span : Double.NaN;
+        }
+
+        int receivedInWindow() {
+            return Long.bitCount(bits & validBits());
+        }
+
+        private long validBits() {
+            return span >= SIZE ? -1L : (1L << span) - 1;
+        }
+
+        private void start(int sequence) {
+            highest = sequence;
+            bits = 1;
+            span = 1;
+            received++;
+            repeated = -1;
+        }
+    }
+}
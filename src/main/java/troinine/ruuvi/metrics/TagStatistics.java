@@ -0,0 +1,304 @@
+package troinine.ruuvi.metrics;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.config.Config;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Live statistics of each tag: the packets heard and dropped by the limiting strategy, the measurements published and
+ * the gaps between them, the moving averages of the RSSI and the battery voltage, and the trend of the battery voltage.
+ * The statistics are updated with atomic operations only, and the statistics of a known tag are looked up without
+ * locking. Only adding a new tag takes a lock, under which the tags least recently heard are evicted in batches when
+ * there are too many, so that the memory stays bounded as tags come and go. The tags not heard within the time to live
+ * are evicted when the statistics are reported, on scrapes, and summarized for the MQTT status topic with
+ * {@link #summarize()}.
+ */
+public class TagStatistics extends Collector {
+    static final double RSSI_SMOOTHING = 0.1;
+    static final double BATTERY_SMOOTHING = 0.05;
+    /** The battery trend is calculated over at least this long, once there is that much history */
+    static final long TREND_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(1);
+    /** The battery trend is not reported before there is this much history */
+    static final long MIN_TREND_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long NAN_BITS = Double.doubleToRawLongBits(Double.NaN);
+    private static final List<String> MAC_LABEL = Collections.singletonList("mac");
+
+    private final Map<String, Tag> tags = new ConcurrentHashMap<>();
+    private final Object insertLock = new Object();
+    private final int maxTags;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    /**
+     * Creates statistics limited by {@link Config#getStateMaxTags()} and {@link Config#getStateTtl()}
+     */
+    public TagStatistics() {
+        this(Config.getStateMaxTags(), Config.getStateTtl().toMillis(), () -> Config.getTimestampProvider().get());
+    }
+
+    /**
+     * @param maxTags maximum number of tags
+     * @param ttlMillis time to live of a tag since it was last heard, 0 or less for no limit
+     * @param clock source of the current time in milliseconds
+     */
+    TagStatistics(int maxTags, long ttlMillis, LongSupplier clock) {
+        this.maxTags = maxTags;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Records a packet decoded from a tag.
+     *
+     * @param measurement the measurement decoded from the packet
+     */
+    public void heard(EnhancedRuuviMeasurement measurement) {
+        final long now = clock.getAsLong();
+        final Tag tag = tag(measurement.getMac());
+        tag.packets.incrementAndGet();
+        tag.lastSeen = now;
+        if (measurement.getRssi() != null) {
+            smooth(tag.rssi, measurement.getRssi(), RSSI_SMOOTHING);
+        }
+        if (measurement.getBatteryVoltage() != null) {
+            final double battery = smooth(tag.battery, measurement.getBatteryVoltage(), BATTERY_SMOOTHING);
+            final BatteryReference newer = tag.newerBattery;
+            if (newer == null) {
+                tag.newerBattery = new BatteryReference(now, battery);
+            } else if (now - newer.time >= TREND_WINDOW_MILLIS) {
+                tag.olderBattery = newer;
+                tag.newerBattery = new BatteryReference(now, battery);
+            }
+        }
+    }
+
+    /**
+     * Records a measurement discarded by the limiting strategy of a tag.
+     *
+     * @param mac the MAC address of the tag
+     */
+    public void dropped(String mac) {
+        tag(mac).dropped.incrementAndGet();
+    }
+
+    /**
+     * Records a measurement published successfully.
+     *
+     * @param mac the MAC address of the tag
+     */
+    public void published(String mac) {
+        final long now = clock.getAsLong();
+        final Tag tag = tag(mac);
+        tag.published.incrementAndGet();
+        final long previous = tag.lastPublished.getAndSet(now);
+        if (previous != 0) {
+            tag.lastPublishGap = now - previous;
+            tag.maxPublishGap.accumulateAndGet(now - previous, Math::max);
+        }
+    }
+
+    /**
+     * @return the number of tags, including expired tags that have not been evicted yet
+     */
+    public int size() {
+        return tags.size();
+    }
+
+    /**
+     * Summarizes the statistics of each tag since the previous summary. The packet rate and the longest publish gap
+     * are calculated over the time since the previous summary, so only one caller should summarize.
+     *
+     * @return the summaries of the tags heard within the state time to live
+     */
+    public List<Summary> summarize() {
+        final long now = clock.getAsLong();
+        evictExpired(now);
+        final List<Summary> summaries = new ArrayList<>();
+        tags.forEach((mac, tag) -> summaries.add(tag.summarize(mac, now)));
+        return summaries;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        final long now = clock.getAsLong();
+        final CounterMetricFamily packets = new CounterMetricFamily("ruuvi_tag_packets",
+                "Packets heard from each tag", MAC_LABEL);
+        final CounterMetricFamily dropped = new CounterMetricFamily("ruuvi_tag_dropped",
+                "Measurements of each tag discarded by the limiting strategy", MAC_LABEL);
+        final CounterMetricFamily published = new CounterMetricFamily("ruuvi_tag_published",
+                "Measurements of each tag published", MAC_LABEL);
+        final GaugeMetricFamily rssi = new GaugeMetricFamily("ruuvi_tag_rssi_dbm",
+                "Moving average of the RSSI of each tag", MAC_LABEL);
+        final GaugeMetricFamily lastSeen = new GaugeMetricFamily("ruuvi_tag_last_seen_seconds",
+                "Time since each tag was last heard", MAC_LABEL);
+        final GaugeMetricFamily publishGap = new GaugeMetricFamily("ruuvi_tag_publish_gap_seconds",
+                "Time between the two latest publications of each tag", MAC_LABEL);
+        final GaugeMetricFamily battery = new GaugeMetricFamily("ruuvi_tag_battery_volts",
+                "Moving average of the battery voltage of each tag", MAC_LABEL);
+        final GaugeMetricFamily batteryTrend = new GaugeMetricFamily("ruuvi_tag_battery_trend_volts_per_day",
+                "Change of the battery voltage of each tag per day", MAC_LABEL);
+        evictExpired(now);
+        tags.forEach((mac, tag) -> {
+            final List<String> label = Collections.singletonList(mac);
+            packets.addMetric(label, tag.packets.get());
+            dropped.addMetric(label, tag.dropped.get());
+            published.addMetric(label, tag.published.get());
+            addIfKnown(rssi, label, Double.longBitsToDouble(tag.rssi.get()));
+            lastSeen.addMetric(label, (now - tag.lastSeen) / 1e3);
+            if (tag.lastPublishGap != 0) {
+                publishGap.addMetric(label, tag.lastPublishGap / 1e3);
+            }
+            addIfKnown(battery, label, Double.longBitsToDouble(tag.battery.get()));
+            addIfKnown(batteryTrend, label, tag.batteryTrend(now));
+        });
+        final List<MetricFamilySamples> samples = new ArrayList<>();
+        samples.add(packets);
+        samples.add(dropped);
+        samples.add(published);
+        samples.add(rssi);
+        samples.add(lastSeen);
+        samples.add(publishGap);
+        samples.add(battery);
+        samples.add(batteryTrend);
+        return samples;
+    }
+
+    private Tag tag(String mac) {
+        final String key = mac == null ? "" : mac;
+        final Tag tag = tags.get(key);
+        return tag != null ? tag : add(key);
+    }
+
+    private Tag add(String mac) {
+        synchronized (insertLock) {
+            final Tag existing = tags.get(mac);
+            if (existing != null) {
+                return existing;
+            }
+            if (tags.size() >= maxTags) {
+                // Evicts an eighth at a time, so that a flood of new MAC addresses does not sort the tags every time
+                final int evicted = Math.max(1, maxTags / 8);
+                tags.entrySet().stream()
+                        .sorted(Comparator.comparingLong(e -> e.getValue().lastSeen))
+                        .limit(tags.size() - maxTags + evicted)
+                        .toList()
+                        .forEach(e -> tags.remove(e.getKey(), e.getValue()));
+            }
+            final Tag tag = new Tag(clock.getAsLong());
+            tags.put(mac, tag);
+            return tag;
+        }
+    }
+
+    private void evictExpired(long now) {
+        if (ttlMillis > 0) {
+            tags.values().removeIf(tag -> now - tag.lastSeen > ttlMillis);
+        }
+    }
+
+    private static void addIfKnown(GaugeMetricFamily family, List<String> label, double value) {
+        if (!Double.isNaN(value)) {
+            family.addMetric(label, value);
+        }
+    }
+
+    /**
+     * Updates an exponential moving average stored as the bits of a double.
+     *
+     * @return the new average
+     */
+    private static double smooth(AtomicLong average, double value, double smoothing) {
+        long previous;
+        double next;
+        do {
+            previous = average.get();
+            final double current = Double.longBitsToDouble(previous);
+            next = Double.isNaN(current) ? value : current + smoothing * (value - current);
+        } while (!average.compareAndSet(previous, Double.doubleToRawLongBits(next)));
+        return next;
+    }
+
+    private static Double round(double value, double scale) {
+        return Double.isNaN(value) ? null : Math.round(value * scale) / scale;
+    }
+
+    /**
+     * The statistics of a tag since the previous summary, as published to the MQTT status topic. Values that are not
+     * known yet are null and left out of the JSON.
+     *
+     * @param mac the MAC address of the tag
+     * @param name the configured name of the tag, if any
+     * @param packetsPerSecond the packets heard per second
+     * @param dropped the measurements discarded by the limiting strategy in total
+     * @param published the measurements published in total
+     * @param rssi the moving average of the RSSI
+     * @param lastSeenSecs the time since the tag was last heard
+     * @param maxPublishGapSecs the longest time between publications, including the time since the latest one
+     * @param battery the moving average of the battery voltage
+     * @param batteryTrendPerDay the change of the battery voltage per day
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Summary(String mac, String name, double packetsPerSecond, long dropped, long published, Double rssi,
+                          double lastSeenSecs, Double maxPublishGapSecs, Double battery, Double batteryTrendPerDay) {
+    }
+
+    private record BatteryReference(long time, double volts) {
+    }
+
+    private static final class Tag {
+        private final AtomicLong packets = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong published = new AtomicLong();
+        private final AtomicLong rssi = new AtomicLong(NAN_BITS);
+        private final AtomicLong battery = new AtomicLong(NAN_BITS);
+        private final AtomicLong lastPublished = new AtomicLong();
+        private final AtomicLong maxPublishGap = new AtomicLong();
+        private volatile long lastSeen;
+        private volatile long lastPublishGap;
+        private volatile BatteryReference olderBattery;
+        private volatile BatteryReference newerBattery;
+        // Guarded by summarize
+        private long summarizedPackets;
+        private long summarizedAt;
+
+        private Tag(long now) {
+            this.lastSeen = now;
+            this.summarizedAt = now;
+        }
+
+        private double batteryTrend(long now) {
+            final BatteryReference reference = olderBattery != null ? olderBattery : newerBattery;
+            if (reference == null || now - reference.time < MIN_TREND_MILLIS) {
+                return Double.NaN;
+            }
+            final double current = Double.longBitsToDouble(battery.get());
+            return (current - reference.volts) * TimeUnit.DAYS.toMillis(1) / (now - reference.time);
+        }
+
+        private synchronized Summary summarize(String mac, long now) {
+            final long packetCount = packets.get();
+            final double packetsPerSecond = now > summarizedAt ? (packetCount - summarizedPackets) * 1e3 / (now - summarizedAt) : 0;
+            summarizedPackets = packetCount;
+            summarizedAt = now;
+            final long latest = lastPublished.get();
+            final long gap = Math.max(maxPublishGap.getAndSet(0), latest != 0 ? now - latest : 0);
+            return new Summary(mac, Config.getTagName(mac), Math.round(packetsPerSecond * 100) / 100.0,
+                    dropped.get(), published.get(), round(Double.longBitsToDouble(rssi.get()), 10),
+                    (now - lastSeen) / 1e3, gap != 0 ? gap / 1e3 : null,
+                    round(Double.longBitsToDouble(battery.get()), 1e3), round(batteryTrend(now), 1e4));
+        }
+    }
+}
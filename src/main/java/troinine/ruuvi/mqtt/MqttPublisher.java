@@ -3,34 +3,38 @@ package troinine.ruuvi.mqtt;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
 import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.TagContext;
 import org.apache.commons.lang3.StringUtils;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import troinine.ruuvi.jfr.ConnectEvent;
+import troinine.ruuvi.jfr.PublishEvent;
+import troinine.ruuvi.metrics.Metrics;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Objects;
 
+/**
+ * Publishes the measurements to the MQTT broker as JSON. The JSON mapper and the connection are initialized on first
+ * use, or in the background with {@link #connectInBackground()}, so that they do not delay the startup.
+ */
 public class MqttPublisher {
     private static final Logger logger = LoggerFactory.getLogger(MqttPublisher.class);
 
     private static final String DUMMY_URL = "tcp://URL_OVERRIDDEN_BY_OPTIONS";
+    /** The brokers do not answer a disconnect, so the client would wait for the default of 10 seconds */
+    private static final long DISCONNECT_TIMEOUT_MILLIS = 1000;
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private final MqttConnectOptions connectionOptions;
-    private MqttClient mqttClient;
+    private volatile MqttClient mqttClient;
 
     public MqttPublisher() {
-        connectionOptions = new MqttConnectOptions();
-
-        connectionOptions.setServerURIs(Config.getMqttBrokerUrls());
-        connectionOptions.setUserName(Config.getMqttUsername());
-        connectionOptions.setPassword(Config.getMqttPassword().toCharArray());
-        connectionOptions.setAutomaticReconnect(true);
-
         logger.info("Broker URLs: {}", Arrays.toString(Config.getMqttBrokerUrls()));
         logger.info("Topics are:");
 
@@ -42,30 +46,123 @@ public class MqttPublisher {
         }
     }
 
-    public void publish(EnhancedRuuviMeasurement measurement) {
+    /**
+     * Connects to the broker and prepares the JSON mapper in a background thread. A platform thread, as Paho blocks
+     * on the socket while the monitor of this publisher is held, which would pin the carrier of a virtual thread.
+     */
+    public void connectInBackground() {
+        Thread.ofPlatform().name("mqtt-connect").daemon().start(() -> {
+            try {
+                Json.MAPPER.writeValueAsString(new EnhancedRuuviMeasurement());
+            } catch (Exception e) {
+                // Intentionally ignored, only warming up
+            }
+            synchronized (this) {
+                if (mqttClient == null) {
+                    connect();
+                }
+            }
+        });
+    }
+
+    /**
+     * @param measurement the measurement to publish
+     * @return true if the measurement was published, false if it failed
+     */
+    public boolean publish(EnhancedRuuviMeasurement measurement) {
+        final long start = System.nanoTime();
+        final boolean published = send(measurement);
+        if (published) {
+            // The message is sent with the default QoS 1, so the client returns once the delivery is complete
+            Metrics.observe(Metrics.Stage.PUBLISH, start);
+            Metrics.PUBLISHES.inc();
+            if (measurement.getReadNanos() != 0) {
+                Metrics.recordTotal(measurement.getMac(), measurement.getReadNanos());
+            }
+        } else {
+            Metrics.PUBLISH_FAILURES.inc();
+        }
+        return published;
+    }
+
+    /**
+     * Publishes any value as JSON, for example a status summary.
+     *
+     * @param topic the topic to publish to
+     * @param value the value to publish
+     * @return true if the value was published, false if it failed
+     */
+    public boolean publishJson(String topic, Object value) {
+        synchronized (this) {
+            if (mqttClient == null && !connect()) {
+                return false;
+            }
+        }
+
+        try {
+            mqttClient.publish(topic, new MqttMessage(Json.MAPPER.writeValueAsBytes(value)));
+
+            return true;
+        } catch (Exception e) {
+            logger.warn("Failed to publish MQTT message to " + topic, e);
+
+            return false;
+        }
+    }
+
+    /**
+     * @return true if connected to a broker
+     */
+    public boolean isConnected() {
+        final MqttClient client = mqttClient;
+        return client != null && client.isConnected();
+    }
+
+    private boolean send(EnhancedRuuviMeasurement measurement) {
         synchronized (this) {
             if (mqttClient == null && !connect()) {
-                return;
+                return false;
             }
         }
 
+        final PublishEvent event = new PublishEvent();
+        event.begin();
+        final String topic = resolveTopic(measurement);
         try {
             if (logger.isDebugEnabled()) {
-                String pretty = objectMapper.writerWithDefaultPrettyPrinter()
+                String pretty = Json.MAPPER.writerWithDefaultPrettyPrinter()
                         .writeValueAsString(measurement);
 
                 logger.debug("Sending MQTT message to topic {}:\n{}", Config.getMqttTopic(), pretty);
             }
 
-            String messageJson = objectMapper.writeValueAsString(measurement);
+            String messageJson = Json.MAPPER.writeValueAsString(measurement);
             MqttMessage message = new MqttMessage(messageJson.getBytes(StandardCharsets.UTF_8));
+            event.bytes = message.getPayload().length;
+
+            mqttClient.publish(topic, message);
+            event.succeeded = true;
 
-            mqttClient.publish(resolveTopic(measurement.getName()), message);
+            return true;
         } catch (Exception e) {
             logger.warn("Failed to publish MQTT message", e);
+
+            return false;
+        } finally {
+            if (event.shouldCommit()) {
+                event.topic = topic;
+                event.mac = measurement.getMac();
+                event.commit();
+            }
         }
     }
 
+    private String resolveTopic(EnhancedRuuviMeasurement measurement) {
+        final TagContext context = Config.getTagContext(measurement.getMac());
+        // The name was resolved when the packet was decoded, and the tag may have been renamed since
+        return Objects.equals(context.getName(), measurement.getName()) ? context.getTopic() : resolveTopic(measurement.getName());
+    }
+
     private String resolveTopic(String name) {
         String topic = Config.getMqttTopic();
 
@@ -79,7 +176,8 @@ public class MqttPublisher {
     public synchronized void disconnect() {
         if (mqttClient != null) {
             try {
-                mqttClient.disconnectForcibly();
+                // The messages are published synchronously, so there is no work in progress to wait for
+                mqttClient.disconnectForcibly(0, DISCONNECT_TIMEOUT_MILLIS);
             } catch (MqttException mqttException) {
                 // Intentionally ignored.
             } finally {
@@ -91,22 +189,83 @@ public class MqttPublisher {
     private boolean connect() {
         logger.info("Connecting to MQTT broker...");
 
+        final ConnectEvent event = new ConnectEvent();
+        event.begin();
         try {
             mqttClient = new MqttClient(
                     DUMMY_URL,
                     Config.getMqttClientId(),
                     null);
 
-            mqttClient.connect(connectionOptions);
+            mqttClient.setCallback(new ReconnectListener());
+            mqttClient.connect(createConnectionOptions());
         } catch (MqttException e) {
             logger.warn("Failed to connect to MQTT Broker", e);
             mqttClient = null;
+            commit(event, String.join(",", Config.getMqttBrokerUrls()), false, false);
 
             return false;
         }
 
         logger.info("Successfully connected to MQTT Broker");
+        commit(event, mqttClient.getCurrentServerURI(), false, true);
 
         return true;
     }
+
+    private static void commit(ConnectEvent event, String address, boolean reconnect, boolean succeeded) {
+        if (event.shouldCommit()) {
+            event.target = ConnectEvent.MQTT;
+            event.address = address;
+            event.reconnect = reconnect;
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    private static MqttConnectOptions createConnectionOptions() {
+        MqttConnectOptions connectionOptions = new MqttConnectOptions();
+
+        connectionOptions.setServerURIs(Config.getMqttBrokerUrls());
+        connectionOptions.setUserName(Config.getMqttUsername());
+        connectionOptions.setPassword(Config.getMqttPassword().toCharArray());
+        connectionOptions.setAutomaticReconnect(true);
+
+        return connectionOptions;
+    }
+
+    /**
+     * Records the automatic reconnects of the client, which retries in its own threads after the connection is lost
+     */
+    private static final class ReconnectListener implements MqttCallbackExtended {
+        @Override
+        public void connectComplete(boolean reconnect, String serverURI) {
+            if (reconnect) {
+                logger.info("Reconnected to MQTT Broker {}", serverURI);
+                commit(new ConnectEvent(), serverURI, true, true);
+            }
+        }
+
+        @Override
+        public void connectionLost(Throwable cause) {
+            logger.warn("Lost the connection to MQTT Broker: {}", cause.getMessage());
+        }
+
+        @Override
+        public void messageArrived(String topic, MqttMessage message) {
+            // Not subscribed to anything
+        }
+
+        @Override
+        public void deliveryComplete(IMqttDeliveryToken token) {
+            // The messages are published synchronously
+        }
+    }
+
+    /**
+     * Holds the JSON mapper so that it is created on first use, package-private for the serialization benchmark
+     */
+    static final class Json {
+        static final ObjectMapper MAPPER = new ObjectMapper();
+    }
 }
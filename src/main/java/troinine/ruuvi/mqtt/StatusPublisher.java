@@ -0,0 +1,81 @@
+package troinine.ruuvi.mqtt;
+
+import fi.tkgwf.ruuvi.config.Config;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import troinine.ruuvi.metrics.TagStatistics;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes a summary of the statistics of each tag to the {@link Config#getMqttStatusTopic() status topic} every
+ * {@link Config#getMqttStatusIntervalSecs() interval}, for example
+ * <pre>
+ * {"timestamp":1700000000000,"tags":[{"mac":"AABBCCDDEEFF","name":"Sauna","packetsPerSecond":0.98,"dropped":586,
+ * "published":6,"rssi":-71.4,"lastSeenSecs":0.4,"maxPublishGapSecs":10.0,"battery":2.951,"batteryTrendPerDay":-0.0012}]}
+ * </pre>
+ */
+public class StatusPublisher {
+    private static final Logger logger = LoggerFactory.getLogger(StatusPublisher.class);
+
+    private final TagStatistics statistics;
+    private final MqttPublisher publisher;
+    private ScheduledExecutorService timer;
+
+    /**
+     * @param statistics the statistics to summarize
+     * @param publisher publishes the summaries
+     */
+    public StatusPublisher(TagStatistics statistics, MqttPublisher publisher) {
+        this.statistics = statistics;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Starts publishing the summaries if the status topic has been configured.
+     */
+    public synchronized void start() {
+        if (StringUtils.isBlank(Config.getMqttStatusTopic()) || timer != null) {
+            return;
+        }
+        final long interval = Math.max(1, Config.getMqttStatusIntervalSecs());
+        logger.info("Publishing the statistics of the tags to {} every {} s", Config.getMqttStatusTopic(), interval);
+        // A platform thread, as publishing may connect and wait for the broker with the monitor of the publisher held
+        timer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("mqtt-status").daemon().factory());
+        timer.scheduleAtFixedRate(this::publish, interval, interval, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /**
+     * Summarizes the statistics and publishes the summary.
+     *
+     * @return true if the summary was published
+     */
+    boolean publish() {
+        try {
+            final Status status = new Status(Config.getTimestampProvider().get(), statistics.summarize());
+            return publisher.publishJson(Config.getMqttStatusTopic(), status);
+        } catch (RuntimeException e) {
+            // An exception would cancel the schedule
+            logger.warn("Failed to publish the statistics of the tags", e);
+            return false;
+        }
+    }
+
+    /**
+     * @param timestamp the time of the summary in milliseconds since the epoch
+     * @param tags the summaries of the tags heard within the state time to live
+     */
+    record Status(long timestamp, List<TagStatistics.Summary> tags) {
+    }
+}
@@ -0,0 +1,51 @@
+package troinine.ruuvi.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the bits written by a {@link BitWriter} from a buffer, which may be memory mapped. The buffer is read with
+ * absolute gets only, so several readers can share it. This implementation is not thread safe.
+ */
+final class BitReader {
+    private final ByteBuffer buffer;
+    private final int offset;
+    private long position;
+
+    /**
+     * @param buffer the buffer to read
+     * @param offset the index of the first byte of the bits in the buffer
+     */
+    BitReader(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+    }
+
+    boolean readBit() {
+        return readBits(1) != 0;
+    }
+
+    /**
+     * @param count the number of bits to read, from 1 to 64
+     * @return the bits in the lowest bits of the result
+     */
+    long readBits(int count) {
+        final int index = offset + (int) (position >>> 3);
+        final int skip = (int) (position & 7);
+        if (skip + count <= Long.SIZE && index + Long.BYTES <= buffer.limit()) {
+            position += count;
+            return buffer.getLong(index) << skip >>> (Long.SIZE - count);
+        }
+        // Near the end of the buffer or spanning nine bytes, read byte by byte
+        long result = 0;
+        int remaining = count;
+        while (remaining > 0) {
+            final int available = 8 - (int) (position & 7);
+            final int take = Math.min(available, remaining);
+            final int b = buffer.get(offset + (int) (position >>> 3)) & 0xFF;
+            result = result << take | (b >>> (available - take)) & ((1 << take) - 1);
+            remaining -= take;
+            position += take;
+        }
+        return result;
+    }
+}
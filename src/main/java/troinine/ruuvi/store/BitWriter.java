@@ -0,0 +1,53 @@
+package troinine.ruuvi.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Appends bits to a growing buffer, the most significant bit first. This implementation is not thread safe.
+ */
+final class BitWriter {
+    private long[] words = new long[16];
+    private long bits;
+
+    /**
+     * @param value the bits to write, in the lowest bits of the value
+     * @param count the number of bits to write, from 1 to 64
+     */
+    void writeBits(long value, int count) {
+        if (count < Long.SIZE) {
+            value &= (1L << count) - 1;
+        }
+        final int index = (int) (bits >>> 6);
+        final int free = Long.SIZE - (int) (bits & 63);
+        if (index + 1 >= words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        if (count <= free) {
+            words[index] |= value << (free - count);
+        } else {
+            words[index] |= value >>> (count - free);
+            words[index + 1] |= value << (Long.SIZE - (count - free));
+        }
+        bits += count;
+    }
+
+    /**
+     * @return the number of bytes needed for the bits written so far
+     */
+    int byteLength() {
+        return (int) ((bits + 7) >>> 3);
+    }
+
+    /**
+     * Writes the bits written so far, padded with zeros to a whole byte.
+     *
+     * @param out the buffer to write to, at its position
+     */
+    void writeTo(ByteBuffer out) {
+        final int length = byteLength();
+        for (int i = 0; i < length; i++) {
+            out.put((byte) (words[i >>> 3] >>> (56 - ((i & 7) << 3))));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package troinine.ruuvi.store;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The samples of a tag over a span of time, stored column by column so that a query of one value only decodes the
+ * timestamps and that column. A block is either being written, see {@link Writer}, or sealed and read only, in which
+ * case its buffer is normally memory mapped from a file.
+ * <p>
+ * The layout of a sealed block is a header of the magic number, the version, the number of columns, the number of
+ * samples, the earliest and the latest timestamp and the length of each compressed stream in bytes, followed by the
+ * timestamps compressed with {@link DeltaOfDeltaCodec} and the values of each {@link Column} compressed with
+ * {@link XorCodec}.
+ */
+final class Block {
+    private static final int MAGIC = 0x52545342; // "RTSB"
+    private static final byte VERSION = 1;
+    private static final Column[] COLUMN_VALUES = Column.values();
+    private static final int COLUMNS = COLUMN_VALUES.length;
+    private static final int HEADER_BYTES = Integer.BYTES + 2 + Integer.BYTES + 2 * Long.BYTES + (COLUMNS + 1) * Integer.BYTES;
+
+    private final ByteBuffer buffer;
+    private final int samples;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    /** The offset of the timestamps, followed by the offsets of the columns */
+    private final int[] offsets = new int[COLUMNS + 1];
+
+    /**
+     * @param buffer a sealed block, from its position to its limit
+     * @throws IOException if the buffer does not contain a block of this version
+     */
+    Block(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.slice();
+        if (this.buffer.remaining() < HEADER_BYTES || this.buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a block");
+        }
+        if (this.buffer.get(4) != VERSION || this.buffer.get(5) != COLUMNS) {
+            throw new IOException("Unsupported block version " + this.buffer.get(4) + " with " + this.buffer.get(5) + " columns");
+        }
+        this.samples = this.buffer.getInt(6);
+        this.minTimestamp = this.buffer.getLong(10);
+        this.maxTimestamp = this.buffer.getLong(18);
+        int offset = HEADER_BYTES;
+        for (int i = 0; i <= COLUMNS; i++) {
+            offsets[i] = offset;
+            offset += this.buffer.getInt(26 + i * Integer.BYTES);
+        }
+        if (offset > this.buffer.limit()) {
+            throw new IOException("Truncated block");
+        }
+    }
+
+    int getSamples() {
+        return samples;
+    }
+
+    long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * @return the size of the block in bytes
+     */
+    int getBytes() {
+        return buffer.limit();
+    }
+
+    /**
+     * Passes the values of a column within a time range to the visitor, in the order they were added. Missing values
+     * are skipped.
+     */
+    void read(Column column, long from, long to, TimeSeriesStore.Visitor visitor) {
+        final DeltaOfDeltaCodec.Decoder timestamps = new DeltaOfDeltaCodec.Decoder(new BitReader(buffer, offsets[0]));
+        final XorCodec.Decoder values = new XorCodec.Decoder(new BitReader(buffer, offsets[column.ordinal() + 1]));
+        for (int i = 0; i < samples; i++) {
+            final long timestamp = timestamps.next();
+            final double value = values.next();
+            if (timestamp >= from && timestamp <= to && !Double.isNaN(value)) {
+                visitor.sample(timestamp, value);
+            }
+        }
+    }
+
+    /**
+     * Compresses the samples of a tag as they are added. This implementation is not thread safe.
+     */
+    static final class Writer {
+        private final BitWriter[] streams = new BitWriter[COLUMNS + 1];
+        private final DeltaOfDeltaCodec.Encoder timestamps;
+        private final XorCodec.Encoder[] values = new XorCodec.Encoder[COLUMNS];
+        private int samples;
+        private long firstTimestamp;
+        // The clock may be set back, so the timestamps are not necessarily in order
+        private long minTimestamp = Long.MAX_VALUE;
+        private long maxTimestamp = Long.MIN_VALUE;
+
+        Writer() {
+            for (int i = 0; i <= COLUMNS; i++) {
+                streams[i] = new BitWriter();
+            }
+            timestamps = new DeltaOfDeltaCodec.Encoder(streams[0]);
+            for (int i = 0; i < COLUMNS; i++) {
+                values[i] = new XorCodec.Encoder(streams[i + 1]);
+            }
+        }
+
+        void add(long timestamp, EnhancedRuuviMeasurement measurement) {
+            if (samples == 0) {
+                firstTimestamp = timestamp;
+            }
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+            samples++;
+            timestamps.add(timestamp);
+            for (Column column : COLUMN_VALUES) {
+                values[column.ordinal()].add(column.valueOf(measurement));
+            }
+        }
+
+        int getSamples() {
+            return samples;
+        }
+
+        /**
+         * @return the timestamp of the first sample added
+         */
+        long getFirstTimestamp() {
+            return firstTimestamp;
+        }
+
+        long getMinTimestamp() {
+            return minTimestamp;
+        }
+
+        /**
+         * @return the samples added so far as a sealed block, on the heap
+         */
+        ByteBuffer seal() {
+            int bytes = HEADER_BYTES;
+            for (BitWriter stream : streams) {
+                bytes += stream.byteLength();
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(bytes);
+            buffer.putInt(MAGIC).put(VERSION).put((byte) COLUMNS).putInt(samples).putLong(minTimestamp).putLong(maxTimestamp);
+            for (BitWriter stream : streams) {
+                buffer.putInt(stream.byteLength());
+            }
+            for (BitWriter stream : streams) {
+                stream.writeTo(buffer);
+            }
+            return buffer.flip();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package troinine.ruuvi.store;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+
+import java.util.function.Function;
+
+/**
+ * The measured values kept by the {@link TimeSeriesStore}, each in a column of its own. The derived values are left
+ * out, as they can be calculated from these. The order of the constants is the order of the columns in the blocks, so
+ * new columns must be added last.
+ */
+public enum Column {
+    TEMPERATURE(EnhancedRuuviMeasurement::getTemperature),
+    HUMIDITY(EnhancedRuuviMeasurement::getHumidity),
+    PRESSURE(EnhancedRuuviMeasurement::getPressure),
+    ACCELERATION_X(EnhancedRuuviMeasurement::getAccelerationX),
+    ACCELERATION_Y(EnhancedRuuviMeasurement::getAccelerationY),
+    ACCELERATION_Z(EnhancedRuuviMeasurement::getAccelerationZ),
+    BATTERY_VOLTAGE(EnhancedRuuviMeasurement::getBatteryVoltage),
+    TX_POWER(EnhancedRuuviMeasurement::getTxPower),
+    MOVEMENT_COUNTER(EnhancedRuuviMeasurement::getMovementCounter),
+    MEASUREMENT_SEQUENCE_NUMBER(EnhancedRuuviMeasurement::getMeasurementSequenceNumber),
+    RSSI(EnhancedRuuviMeasurement::getRssi);
+
+    private final Function<EnhancedRuuviMeasurement, Number> getter;
+
+    Column(Function<EnhancedRuuviMeasurement, Number> getter) {
+        this.getter = getter;
+    }
+
+    /**
+     * @param measurement the measurement
+     * @return the value of this column in the measurement, or NaN if the measurement does not have it
+     */
+    double valueOf(EnhancedRuuviMeasurement measurement) {
+        final Number value = getter.apply(measurement);
+        return value != null ? value.doubleValue() : Double.NaN;
+    }
+}
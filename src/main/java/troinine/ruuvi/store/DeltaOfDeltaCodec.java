@@ -0,0 +1,85 @@
+package troinine.ruuvi.store;
+
+/**
+ * Compresses timestamps as in Facebook's Gorilla: the first timestamp is written as is, and each following one as the
+ * difference of its delta from the previous delta. The tags advertise at a steady interval, so the difference is
+ * mostly zero or a few milliseconds of jitter, and takes one to twelve bits with a prefix telling the length.
+ * <p>
+ * The differences are zigzag encoded, so that small negative values are small too: 0 is written as '0', up to 7 bits
+ * as '10', up to 9 bits as '110', up to 12 bits as '1110' and anything larger as '1111' followed by all 64 bits.
+ */
+final class DeltaOfDeltaCodec {
+
+    private DeltaOfDeltaCodec() {
+    }
+
+    static final class Encoder {
+        private final BitWriter out;
+        private boolean first = true;
+        private long previous;
+        private long previousDelta;
+
+        Encoder(BitWriter out) {
+            this.out = out;
+        }
+
+        void add(long timestamp) {
+            if (first) {
+                out.writeBits(timestamp, Long.SIZE);
+                first = false;
+            } else {
+                final long delta = timestamp - previous;
+                final long deltaOfDelta = delta - previousDelta;
+                final long zigzag = deltaOfDelta << 1 ^ deltaOfDelta >> 63;
+                if (zigzag == 0) {
+                    out.writeBits(0b0, 1);
+                } else if (zigzag >>> 7 == 0) {
+                    out.writeBits(0b10L << 7 | zigzag, 2 + 7);
+                } else if (zigzag >>> 9 == 0) {
+                    out.writeBits(0b110L << 9 | zigzag, 3 + 9);
+                } else if (zigzag >>> 12 == 0) {
+                    out.writeBits(0b1110L << 12 | zigzag, 4 + 12);
+                } else {
+                    out.writeBits(0b1111, 4);
+                    out.writeBits(zigzag, Long.SIZE);
+                }
+                previousDelta = delta;
+            }
+            previous = timestamp;
+        }
+    }
+
+    static final class Decoder {
+        private final BitReader in;
+        private boolean first = true;
+        private long previous;
+        private long previousDelta;
+
+        Decoder(BitReader in) {
+            this.in = in;
+        }
+
+        long next() {
+            if (first) {
+                previous = in.readBits(Long.SIZE);
+                first = false;
+                return previous;
+            }
+            final long zigzag;
+            if (!in.readBit()) {
+                zigzag = 0;
+            } else if (!in.readBit()) {
+                zigzag = in.readBits(7);
+            } else if (!in.readBit()) {
+                zigzag = in.readBits(9);
+            } else if (!in.readBit()) {
+                zigzag = in.readBits(12);
+            } else {
+                zigzag = in.readBits(Long.SIZE);
+            }
+            previousDelta += zigzag >>> 1 ^ -(zigzag & 1);
+            previous += previousDelta;
+            return previous;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package troinine.ruuvi.store;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the history of the measured values of each tag on the local disk, so that it survives outages of the broker
+ * and can be analysed without one. The samples of a tag are appended to an in-memory block that compresses the
+ * timestamps with {@link DeltaOfDeltaCodec} and each {@link Column} with {@link XorCodec}, as in Facebook's Gorilla.
+ * When the block spans {@link Config#getStoreBlockSpan()} or is full, it is sealed: written to a file of its own and
+ * memory mapped for reading. The files are written by a thread of their own, so appending never waits for the disk,
+ * and the files older than {@link Config#getStoreRetention()} are deleted after each write. Unlike the recent
+ * samples kept in memory for the limiting strategies by {@link fi.tkgwf.ruuvi.history.HistoryStore}, this history is
+ * not bounded by count and survives restarts.
+ * <p>
+ * The directory has a subdirectory for each tag, named by its MAC address, with a file for each sealed block. The
+ * samples still in memory are sealed when the store is closed, and the sealed blocks are read back when it is opened
+ * again. If the collector exits without closing the store, the samples not yet sealed, up to the block span of each
+ * tag, are lost.
+ * <p>
+ * The store is thread safe. Appending to a tag and querying it are serialized per tag, and the sealed blocks are read
+ * without locking.
+ */
+public class TimeSeriesStore {
+    private static final Logger logger = LoggerFactory.getLogger(TimeSeriesStore.class);
+    private static final String BLOCK_SUFFIX = ".block";
+    private static final int MAX_BLOCK_SAMPLES = 1 << 16;
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private final Path directory;
+    private final long blockSpanMillis;
+    private final long retentionMillis;
+    private final LongSupplier clock;
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+    private volatile ExecutorService writer;
+    private volatile boolean open;
+
+    /**
+     * Receives the samples of a query.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * @param timestamp the time of the sample in milliseconds
+         * @param value the value of the queried column
+         */
+        void sample(long timestamp, double value);
+    }
+
+    /**
+     * Creates a store in {@link Config#getStoreDirectory()}
+     */
+    public TimeSeriesStore() {
+        this(Path.of(Config.getStoreDirectory()), Config.getStoreBlockSpan().toMillis(), Config.getStoreRetention().toMillis(),
+                () -> Config.getTimestampProvider().get());
+    }
+
+    /**
+     * @param directory the directory of the files
+     * @param blockSpanMillis the time span of a block in milliseconds before it is sealed
+     * @param retentionMillis how long the sealed blocks are kept in milliseconds, 0 or less to keep them forever
+     * @param clock source of the current time in milliseconds, used for the measurements without a time
+     */
+    TimeSeriesStore(Path directory, long blockSpanMillis, long retentionMillis, LongSupplier clock) {
+        this.directory = directory;
+        this.blockSpanMillis = blockSpanMillis;
+        this.retentionMillis = retentionMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Creates the directory if needed, and reads the sealed blocks in it. Blocks that can not be read are skipped.
+     *
+     * @return true if the store is ready for appending
+     */
+    public boolean open() {
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> tags = Files.newDirectoryStream(directory,
+                    d -> Files.isDirectory(d) && isMac(d.getFileName().toString()))) {
+                for (Path tag : tags) {
+                    load(tag);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to open the time series store in " + directory.toAbsolutePath(), e);
+            return false;
+        }
+        writer = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("store-writer").daemon().factory());
+        open = true;
+        purge();
+        logger.info("Storing the measurements in {}, {} tags with history", directory.toAbsolutePath(), series.size());
+        return true;
+    }
+
+    private void load(Path tagDirectory) throws IOException {
+        final Series tag = series.computeIfAbsent(tagDirectory.getFileName().toString(), Series::new);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tagDirectory, "*" + BLOCK_SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    tag.sealed.add(new SealedBlock(file, new Block(map(file))));
+                } catch (IOException e) {
+                    logger.warn("Skipping the unreadable block {}: {}", file, e.getMessage());
+                }
+            }
+        }
+        tag.sealed.sort(Comparator.comparingLong(b -> b.block.getMinTimestamp()));
+    }
+
+    /**
+     * Appends the values of a measurement to the history of its tag, timestamped with its time or the current time.
+     * Ignored once the store has been closed, and for the measurements whose MAC address is not twelve upper case hex
+     * digits, as it names the directory of the tag.
+     *
+     * @param measurement the measurement
+     */
+    public void append(EnhancedRuuviMeasurement measurement) {
+        if (!open || !isMac(measurement.getMac())) {
+            return;
+        }
+        final long timestamp = measurement.getTime() != null ? measurement.getTime() : clock.getAsLong();
+        final Series tag = series.computeIfAbsent(measurement.getMac(), Series::new);
+        synchronized (tag) {
+            // Checked again under the lock, as closing seals the head of each tag under its lock
+            if (!open) {
+                return;
+            }
+            if (tag.head.getSamples() > 0 && (tag.head.getSamples() >= MAX_BLOCK_SAMPLES
+                    || timestamp - tag.head.getFirstTimestamp() >= blockSpanMillis)) {
+                seal(tag);
+            }
+            tag.head.add(timestamp, measurement);
+        }
+    }
+
+    /**
+     * Passes the values of a column of a tag within a time range to the visitor, block by block in the order of
+     * time. Missing values are skipped.
+     *
+     * @param mac the MAC address of the tag
+     * @param column the column
+     * @param from the start of the range in milliseconds, inclusive
+     * @param to the end of the range in milliseconds, inclusive
+     * @param visitor receives the samples
+     */
+    public void query(String mac, Column column, long from, long to, Visitor visitor) {
+        final Series tag = series.get(mac);
+        if (tag == null) {
+            return;
+        }
+        final List<Block> blocks = new ArrayList<>();
+        synchronized (tag) {
+            for (SealedBlock sealed : tag.sealed) {
+                if (sealed.block.getMaxTimestamp() >= from && sealed.block.getMinTimestamp() <= to) {
+                    blocks.add(sealed.block);
+                }
+            }
+            if (tag.head.getSamples() > 0) {
+                blocks.add(readable(tag.head));
+            }
+        }
+        for (Block block : blocks) {
+            block.read(column, from, to, visitor);
+        }
+    }
+
+    /**
+     * Deletes the sealed blocks whose latest sample is older than the retention.
+     *
+     * @return the number of blocks deleted
+     */
+    public int purge() {
+        if (retentionMillis <= 0) {
+            return 0;
+        }
+        final long oldest = clock.getAsLong() - retentionMillis;
+        int purged = 0;
+        for (Series tag : series.values()) {
+            final List<SealedBlock> expired = new ArrayList<>();
+            synchronized (tag) {
+                for (SealedBlock sealed : tag.sealed) {
+                    if (sealed.block.getMaxTimestamp() < oldest) {
+                        expired.add(sealed);
+                    }
+                }
+                tag.sealed.removeAll(expired);
+            }
+            for (SealedBlock sealed : expired) {
+                try {
+                    if (sealed.file != null) {
+                        Files.deleteIfExists(sealed.file);
+                    }
+                    purged++;
+                } catch (IOException e) {
+                    logger.warn("Failed to delete the expired block " + sealed.file, e);
+                }
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * Seals the samples in memory and waits for the blocks to be written, so that they are read back when the store
+     * is opened again. The measurements appended after closing are ignored.
+     */
+    public void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        for (Series tag : series.values()) {
+            synchronized (tag) {
+                if (tag.head.getSamples() > 0) {
+                    seal(tag);
+                }
+            }
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Timed out writing the blocks of the time series store");
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while writing the blocks of the time series store");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the blocks sealed so far to be written.
+     */
+    void awaitWritten() throws InterruptedException, ExecutionException {
+        writer.submit(() -> { }).get();
+    }
+
+    /**
+     * @return the number of samples stored, each with all the columns
+     */
+    public long getSamples() {
+        long samples = 0;
+        for (Series tag : series.values()) {
+            synchronized (tag) {
+                samples += tag.head.getSamples();
+                for (SealedBlock sealed : tag.sealed) {
+                    samples += sealed.block.getSamples();
+                }
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * @return the size of the sealed blocks in bytes
+     */
+    public long getSealedBytes() {
+        long bytes = 0;
+        for (Series tag : series.values()) {
+            synchronized (tag) {
+                for (SealedBlock sealed : tag.sealed) {
+                    bytes += sealed.block.getBytes();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Replaces the head block of a tag with an empty one, and has it written to a file. Until it has been written, the
+     * block is read from memory. If the file can not be written, the block is kept in memory until the store is
+     * closed. Called with the lock of the tag held.
+     */
+    private void seal(Series tag) {
+        final Block.Writer head = tag.head;
+        tag.head = new Block.Writer();
+        final ByteBuffer sealed = head.seal();
+        final SealedBlock pending = new SealedBlock(null, readable(sealed));
+        tag.sealed.add(pending);
+        writer.execute(() -> {
+            try {
+                final Path file = write(tag.mac, head.getMinTimestamp(), sealed.duplicate());
+                final Block block = new Block(map(file));
+                boolean expired;
+                synchronized (tag) {
+                    final int index = tag.sealed.indexOf(pending);
+                    expired = index < 0;
+                    if (!expired) {
+                        tag.sealed.set(index, new SealedBlock(file, block));
+                    }
+                }
+                if (expired) {
+                    // Purged while it was being written
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to write a block of " + tag.mac + ", keeping it in memory", e);
+            }
+            // Outside of the lock of the tag, as purging locks the other tags
+            purge();
+        });
+    }
+
+    private Path write(String mac, long minTimestamp, ByteBuffer sealed) throws IOException {
+        final Path tagDirectory = Files.createDirectories(directory.resolve(mac));
+        final Path temporary = Files.createTempFile(tagDirectory, "sealing", ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            while (sealed.hasRemaining()) {
+                channel.write(sealed);
+            }
+            channel.force(true);
+        }
+        Path file = tagDirectory.resolve(minTimestamp + BLOCK_SUFFIX);
+        for (int i = 1; Files.exists(file); i++) {
+            file = tagDirectory.resolve(minTimestamp + "-" + i + BLOCK_SUFFIX);
+        }
+        return Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean isMac(String mac) {
+        if (mac == null || mac.length() != 12) {
+            return false;
+        }
+        for (int i = 0; i < mac.length(); i++) {
+            final char c = mac.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'A' && c <= 'F')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel has been closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static Block readable(Block.Writer head) {
+        return readable(head.seal());
+    }
+
+    private static Block readable(ByteBuffer sealed) {
+        try {
+            return new Block(sealed);
+        } catch (IOException e) {
+            // Sealed by this version
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Series {
+        private final String mac;
+        private final List<SealedBlock> sealed = new ArrayList<>();
+        private Block.Writer head = new Block.Writer();
+
+        private Series(String mac) {
+            this.mac = mac;
+        }
+    }
+
+    /**
+     * @param file the file of the block, or null if it has not been written
+     */
+    private record SealedBlock(Path file, Block block) {
+    }
+}
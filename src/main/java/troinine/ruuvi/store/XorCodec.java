@@ -0,0 +1,82 @@
+package troinine.ruuvi.store;
+
+/**
+ * Compresses doubles as in Facebook's Gorilla: each value is XORed with the previous one, so that a repeated value
+ * takes a single '0' bit and a slowly changing value only the bits that changed. A changed value is written as '10'
+ * followed by the changed bits when they fit within the window of leading and trailing zeros of the previous changed
+ * value, otherwise as '11', the number of leading zeros in 5 bits, the number of changed bits less one in 6 bits and
+ * the changed bits.
+ * <p>
+ * Missing values are written as NaN, which repeats as cheaply as any other value.
+ */
+final class XorCodec {
+    private static final int MAX_LEADING_ZEROS = 31;
+
+    private XorCodec() {
+    }
+
+    static final class Encoder {
+        private final BitWriter out;
+        private boolean first = true;
+        private long previous;
+        private int previousLeading = -1;
+        private int previousTrailing;
+
+        Encoder(BitWriter out) {
+            this.out = out;
+        }
+
+        void add(double value) {
+            final long bits = Double.doubleToRawLongBits(value);
+            if (first) {
+                out.writeBits(bits, Long.SIZE);
+                first = false;
+            } else {
+                final long xor = bits ^ previous;
+                if (xor == 0) {
+                    out.writeBits(0b0, 1);
+                } else {
+                    final int leading = Math.min(Long.numberOfLeadingZeros(xor), MAX_LEADING_ZEROS);
+                    final int trailing = Long.numberOfTrailingZeros(xor);
+                    if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                        out.writeBits(0b10, 2);
+                        out.writeBits(xor >>> previousTrailing, Long.SIZE - previousLeading - previousTrailing);
+                    } else {
+                        final int meaningful = Long.SIZE - leading - trailing;
+                        out.writeBits(0b11L << 11 | (long) leading << 6 | meaningful - 1, 2 + 5 + 6);
+                        out.writeBits(xor >>> trailing, meaningful);
+                        previousLeading = leading;
+                        previousTrailing = trailing;
+                    }
+                }
+            }
+            previous = bits;
+        }
+    }
+
+    static final class Decoder {
+        private final BitReader in;
+        private boolean first = true;
+        private long previous;
+        private int leading;
+        private int trailing;
+
+        Decoder(BitReader in) {
+            this.in = in;
+        }
+
+        double next() {
+            if (first) {
+                previous = in.readBits(Long.SIZE);
+                first = false;
+            } else if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.readBits(5);
+                    trailing = Long.SIZE - leading - ((int) in.readBits(6) + 1);
+                }
+                previous ^= in.readBits(Long.SIZE - leading - trailing) << trailing;
+            }
+            return Double.longBitsToDouble(previous);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package fi.tkgwf.ruuvi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigTest;
+import io.moquette.broker.Server;
+import io.moquette.broker.config.MemoryConfig;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import troinine.ruuvi.benchmark.Benchmark;
+import troinine.ruuvi.benchmark.SyntheticHcidump;
+import troinine.ruuvi.metrics.Metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the whole collector with the synthetic advertisements of the benchmark as the input, and fails if the
+ * completeness of the published messages, the throughput, the latency or the memory allocated per packet regress.
+ * <p>
+ * The collector publishes to an in-process MQTT broker at a steady rate that a cold JVM keeps up with, and every
+ * measurement has to reach the subscriber in order. The tests tagged {@value #PERFORMANCE} also gate on the budgets
+ * measured on the reference machine, see the constants, so they only run in the performance profile, on comparable
+ * hardware. One of them measures the capacity of the collector itself: the packets are generated as fast as they are
+ * read and the measurements are discarded, so the throughput is bounded by parsing, decoding and limiting rather than
+ * by the round trips to the broker, and a slowdown of any of them fails the test.
+ */
+class PipelineRegressionTest {
+    static final String PERFORMANCE = "performance";
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelineRegressionTest.class);
+    private static final int TAGS = 50;
+    private static final long INTERVAL_MILLIS = 1000;
+    private static final double NOISE_SHARE = 0.3;
+    private static final double PACKETS_PER_SECOND = TAGS * 1000.0 / INTERVAL_MILLIS / (1 - NOISE_SHARE);
+    /** The share of the offered packets per second that has to be handled */
+    private static final double MIN_THROUGHPUT_SHARE = 0.9;
+    /** Measured 12 to 33 ms, mostly waiting for the acknowledgements of the broker */
+    private static final double MAX_TOTAL_P99_SECONDS = 0.1;
+    /** Allocated by the thread handling the packets, from decoding to publishing. Measured 9,800 to 13,900 bytes. */
+    private static final double MAX_ALLOCATED_BYTES_PER_PACKET = 15000;
+    /** Measured 88,000 to 154,000 packets per second */
+    private static final double MIN_CAPACITY_PACKETS_PER_SECOND = 25000;
+    /** Allocated by the thread handling the packets without publishing them. Measured 1,570 to 1,680 bytes. */
+    private static final double MAX_CAPACITY_ALLOCATED_BYTES_PER_PACKET = 1800;
+    private static final int SEQUENCE_RANGE = 0xFFFF;
+
+    private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, List<Integer>> sequences = new ConcurrentHashMap<>();
+    private final AtomicLong received = new AtomicLong();
+    private Server broker;
+    private MqttClient subscriber;
+    private int port;
+
+    @BeforeEach
+    void startBroker() throws IOException, MqttException {
+        // The broker binds in the background, so it may not know its port yet if it picks one itself
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        final Properties brokerProperties = new Properties();
+        brokerProperties.put("host", "127.0.0.1");
+        brokerProperties.put("port", String.valueOf(port));
+        brokerProperties.put("persistence_enabled", "false");
+        brokerProperties.put("telemetry_enabled", "false");
+        brokerProperties.put("allow_anonymous", "true");
+        broker = new Server();
+        broker.startServer(new MemoryConfig(brokerProperties));
+
+        Config.reload(ConfigTest.configTestFileFinder());
+        subscriber = new MqttClient("tcp://127.0.0.1:" + port, "regression-test", new MemoryPersistence());
+        subscriber.connect();
+        subscriber.subscribe(Config.getMqttTopic() + "/#", 1, (topic, message) -> {
+            final JsonNode json = mapper.readTree(message.getPayload());
+            if (json.get("dataFormat").asInt() == 5) {
+                sequences.computeIfAbsent(json.get("mac").asText(), mac -> new ArrayList<>())
+                        .add(json.get("measurementSequenceNumber").asInt());
+            }
+            received.incrementAndGet();
+        });
+    }
+
+    @AfterEach
+    void stopBroker() throws MqttException {
+        subscriber.disconnect();
+        subscriber.close();
+        broker.stopServer();
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @Test
+    void testPipelineAgainstBroker() throws InterruptedException {
+        final BrokerRun run = runAgainstBroker();
+
+        // Every packet of a tag is published, and every measurement reaches the subscriber in order
+        assertEquals(0, run.result().dropped());
+        assertEquals(run.packets() - run.nonRuuvi(), run.published());
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (received.get() < run.published() && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertEquals(run.published(), received.get());
+        assertEquals(Math.round(TAGS * (1 - Config.getBenchmarkDataFormat3Share())), sequences.size());
+        sequences.forEach((mac, tagSequences) -> {
+            assertTrue(mac.startsWith(SyntheticHcidump.tagMac(0).substring(0, 2)), mac);
+            for (int i = 1; i < tagSequences.size(); i++) {
+                assertEquals((tagSequences.get(i - 1) + 1) % SEQUENCE_RANGE, (int) tagSequences.get(i), "Sequence of " + mac);
+            }
+        });
+    }
+
+    @Test
+    @Tag(PERFORMANCE)
+    void testLatencyAgainstBroker() {
+        final BrokerRun run = runAgainstBroker();
+        final Benchmark.Result result = run.result();
+
+        assertTrue(result.throughput() >= PACKETS_PER_SECOND * MIN_THROUGHPUT_SHARE,
+                () -> String.format("Throughput %.0f packets/s, offered %.0f", result.throughput(), PACKETS_PER_SECOND));
+        assertTrue(result.latencies().get(Metrics.Stage.TOTAL).p99() <= MAX_TOTAL_P99_SECONDS,
+                () -> String.format("Total p99 latency %.1f ms", result.latencies().get(Metrics.Stage.TOTAL).p99() * 1e3));
+        assertTrue(run.allocatedPerPacket() <= MAX_ALLOCATED_BYTES_PER_PACKET,
+                () -> String.format("%,.0f bytes allocated per packet", run.allocatedPerPacket()));
+    }
+
+    @Test
+    @Tag(PERFORMANCE)
+    void testCapacity() {
+        // As fast as the packets are read, so the queue fills up and some packets are dropped
+        configure(0, "null");
+        final double packetsBefore = Metrics.HCI_FRAMES_PARSED.get();
+        final long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+
+        final Benchmark.Result result = run();
+
+        final long packets = (long) (Metrics.HCI_FRAMES_PARSED.get() - packetsBefore);
+        final double allocatedPerPacket = (threads.getCurrentThreadAllocatedBytes() - allocatedBefore) / (double) packets;
+        logger.info("Pipeline capacity: {} packets/s, {} bytes per packet",
+                String.format("%,.0f", result.throughput()), String.format("%,.0f", allocatedPerPacket));
+
+        assertTrue(result.throughput() >= MIN_CAPACITY_PACKETS_PER_SECOND,
+                () -> String.format("Capacity %.0f packets/s", result.throughput()));
+        assertTrue(allocatedPerPacket <= MAX_CAPACITY_ALLOCATED_BYTES_PER_PACKET,
+                () -> String.format("%,.0f bytes allocated per packet", allocatedPerPacket));
+    }
+
+    /**
+     * Publishes the measurements to the broker at the steady rate, and logs the performance of the collector.
+     */
+    private BrokerRun runAgainstBroker() {
+        configure(INTERVAL_MILLIS, "mqtt");
+        final double packetsBefore = Metrics.HCI_FRAMES_PARSED.get();
+        final double nonRuuviBefore = Metrics.NON_RUUVI_PACKETS.get();
+        final double publishesBefore = Metrics.PUBLISHES.get();
+        final long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+
+        final Benchmark.Result result = run();
+
+        final long packets = (long) (Metrics.HCI_FRAMES_PARSED.get() - packetsBefore);
+        final double allocatedPerPacket = (threads.getCurrentThreadAllocatedBytes() - allocatedBefore) / (double) packets;
+        logger.info("Pipeline against the broker: {} packets/s, total p99 {} us, {} bytes per packet",
+                String.format("%,.0f", result.throughput()), String.format("%,.0f", result.latencies().get(Metrics.Stage.TOTAL).p99() * 1e6),
+                String.format("%,.0f", allocatedPerPacket));
+        return new BrokerRun(result, packets, (long) (Metrics.NON_RUUVI_PACKETS.get() - nonRuuviBefore),
+                (long) (Metrics.PUBLISHES.get() - publishesBefore), allocatedPerPacket);
+    }
+
+    /**
+     * @param intervalMillis the interval of the packets of each tag, 0 to generate them as fast as they are read
+     * @param sink "mqtt" to publish to the broker, "null" to discard the measurements
+     */
+    private void configure(long intervalMillis, String sink) {
+        final Properties properties = new Properties();
+        properties.put("filter.mode", "none");
+        // Lets every measurement through, even two of a tag within the same millisecond
+        properties.put("measurementUpdateLimit", "-1");
+        properties.put("mqtt.brokerUrls", "tcp://127.0.0.1:" + port);
+        properties.put("benchmark.sink", sink);
+        properties.put("benchmark.tags", String.valueOf(TAGS));
+        properties.put("benchmark.intervalMillis", String.valueOf(intervalMillis));
+        properties.put("benchmark.noiseShare", String.valueOf(NOISE_SHARE));
+        properties.put("benchmark.warmupSecs", "4");
+        properties.put("benchmark.durationSecs", "6");
+        Config.readConfigFromProperties(properties);
+        Config.useBenchmark();
+    }
+
+    /**
+     * Runs the collector until the benchmark ends. The packets are handled by the thread calling this.
+     */
+    private static Benchmark.Result run() {
+        final Main main = new Main();
+        assertTrue(main.run());
+        final Benchmark.Result result = main.getBenchmarkResult();
+        assertNotNull(result);
+        return result;
+    }
+
+    /**
+     * @param packets the packets parsed
+     * @param nonRuuvi the packets without RuuviTag data
+     * @param published the measurements published to the broker
+     * @param allocatedPerPacket the bytes allocated by the thread handling the packets per packet
+     */
+    private record BrokerRun(Benchmark.Result result, long packets, long nonRuuvi, long published, double allocatedPerPacket) {
+    }
+}
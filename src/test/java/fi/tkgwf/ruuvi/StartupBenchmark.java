@@ -0,0 +1,88 @@
+package fi.tkgwf.ruuvi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the time from the JVM start to the first published measurement with and without the class data sharing
+ * archive. Replays the capture used for training the archive, so no bluetooth adapter or MQTT broker is needed. Run
+ * from the project directory, as the archive only matches the relative jar path it was created with:
+ * <pre>
+ * mvn package -Pappcds -DskipTests
+ * java -cp target/test-classes fi.tkgwf.ruuvi.StartupBenchmark target/ruuvi-mqtt-data-publisher-0.1.0-SNAPSHOT.jar
+ * </pre>
+ */
+public class StartupBenchmark {
+    private static final int ROUNDS = 10;
+    private static final String ARCHIVE = "target/ruuvi-collector.jsa";
+    private static final String CAPTURE = "src/appcds/hcidump-capture.txt";
+    private static final Pattern FIRST_MEASUREMENT = Pattern.compile("First measurement .* (\\d+) ms after the JVM was started");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 1) {
+            System.err.println("Usage: StartupBenchmark <jar>");
+            System.exit(2);
+        }
+        if (!Files.exists(Paths.get(ARCHIVE))) {
+            System.err.println(ARCHIVE + " not found, build it with: mvn package -Pappcds");
+            System.exit(2);
+        }
+
+        final List<Long> withoutArchive = new ArrayList<>();
+        final List<Long> withArchive = new ArrayList<>();
+        for (int round = 1; round <= ROUNDS; round++) {
+            final long without = run(args[0], false);
+            final long with = run(args[0], true);
+            withoutArchive.add(without);
+            withArchive.add(with);
+            System.out.printf("Round %2d: without archive %5d ms, with archive %5d ms%n", round, without, with);
+        }
+        System.out.printf("Median:   without archive %5d ms, with archive %5d ms%n", median(withoutArchive), median(withArchive));
+    }
+
+    private static long run(String jar, boolean useArchive) throws IOException, InterruptedException {
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (useArchive) {
+            // Fail rather than silently measure without the archive
+            command.add("-Xshare:on");
+            command.add("-XX:SharedArchiveFile=" + ARCHIVE);
+        }
+        command.add("-jar");
+        command.add(jar);
+        command.add("--replay");
+        command.add(CAPTURE);
+
+        final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        long firstMeasurement = -1;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final Matcher matcher = FIRST_MEASUREMENT.matcher(line);
+                if (firstMeasurement < 0 && matcher.find()) {
+                    firstMeasurement = Long.parseLong(matcher.group(1));
+                }
+            }
+        }
+        final int exitCode = process.waitFor();
+        if (exitCode != 0 || firstMeasurement < 0) {
+            throw new IllegalStateException("Run failed with exit code " + exitCode + ": " + command);
+        }
+        return firstMeasurement;
+    }
+
+    private static long median(List<Long> values) {
+        final List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+}
@@ -28,6 +28,21 @@ public class TestFixture {
         return "> 04 3E 21 02 01 03 01 FF EE DD CC BB AA 15 02 01 06 11 FF 99 04 03 49 16 0E BE F8 00 05 FF EA 03 E1 0B BF B4";
     }
 
+    /**
+     * The valid data format 5 example of the specification, split into lines of 20 bytes like hcidump prints it:
+     * 24.3 C, 53.49 %, 100044 Pa, acceleration 0.004, -0.004 and 1.036 G, 2.977 V, 4 dBm, 66 movements, sequence
+     * number 205 and MAC address CBB8334C884F.
+     *
+     * @return the lines of an example message in data format 5
+     */
+    public static String[] getDataFormat5Lines() {
+        return new String[] {
+                "> 04 3E 2B 02 01 00 01 4F 88 4C 33 B8 CB 1F 02 01 06 1B FF 99",
+                "  04 05 12 FC 53 94 C3 7C 00 04 FF FC 04 0C AC 36 42 00 CD CB",
+                "  B8 33 4C 88 4F " + RSSI_BYTE
+        };
+    }
+
     public static void setClockToMilliseconds(final Supplier<Long> timestampSupplier) {
         try {
             final Field clock = Config.class.getDeclaredField("timestampProvider");
@@ -1,20 +1,29 @@
 package fi.tkgwf.ruuvi.config;
 
 import fi.tkgwf.ruuvi.strategy.impl.DefaultDiscardingWithMotionSensitivityStrategy;
+import fi.tkgwf.ruuvi.strategy.LimitingStrategy;
 import fi.tkgwf.ruuvi.strategy.impl.DiscardUntilEnoughTimeHasElapsedStrategy;
+import fi.tkgwf.ruuvi.strategy.impl.WindowedAggregationStrategy;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.function.Function;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ConfigTest {
@@ -32,6 +41,15 @@ public class ConfigTest {
             .orElse(null);
     }
 
+    /**
+     * @return a finder of the configuration files that exist in the given directory
+     */
+    public static Function<String, File> directoryFileFinder(final Path directory) {
+        return propertiesFileName -> Optional.of(directory.resolve(propertiesFileName).toFile())
+            .filter(File::isFile)
+            .orElse(null);
+    }
+
     @BeforeEach
     void resetConfigBefore() {
         Config.reload(configTestFileFinder());
@@ -77,6 +95,93 @@ public class ConfigTest {
         assertNull(Config.getLimitingStrategy("unknown should get null"));
     }
 
+    @Test
+    void testEffectiveLimitingStrategyFallsBackToGlobalStrategy() {
+        assertTrue(Config.getEffectiveLimitingStrategy("F1E2D3C4B5A6") instanceof DefaultDiscardingWithMotionSensitivityStrategy);
+        assertTrue(Config.getEffectiveLimitingStrategy("123456789012") instanceof DiscardUntilEnoughTimeHasElapsedStrategy);
+    }
+
+    @Test
+    void testMeasurementUpdateLimitPerMac() {
+        assertEquals(9900, Config.getMeasurementUpdateLimit("123456789012"));
+
+        final Properties properties = new Properties();
+        properties.put("updateInterval", "PT1M");
+        properties.put("tag.AB12CD34EF56.updateInterval", "PT5S");
+        Config.readConfigFromProperties(properties);
+        assertEquals(60000, Config.getMeasurementUpdateLimit("123456789012"));
+        assertEquals(5000, Config.getMeasurementUpdateLimit("AB12CD34EF56"));
+    }
+
+    @Test
+    void testAdapterSpecificCommands() {
+        assertEquals(0, Config.getHciAdapters().length);
+        assertArrayEquals(Config.getScanCommand(), Config.getScanCommand(null));
+
+        final Properties properties = new Properties();
+        properties.put("hci.adapters", "hci0, hci1");
+        Config.readConfigFromProperties(properties);
+        assertArrayEquals(new String[] { "hci0", "hci1" }, Config.getHciAdapters());
+        assertArrayEquals(new String[] { "hcitool", "-i", "hci1", "lescan", "--duplicates", "--passive" }, Config.getScanCommand("hci1"));
+        assertArrayEquals(new String[] { "hcidump", "-i", "hci0", "--raw" }, Config.getDumpCommand("hci0"));
+    }
+
+    @Test
+    void testProcessRestartDelays() {
+        assertEquals(30, Config.getScanRestartDelaySecs());
+        assertEquals(60, Config.getScanRestartIfNoData());
+        assertEquals(1, Config.getDumpRestartDelaySecs());
+        assertEquals(300, Config.getProcessRestartMaxDelaySecs());
+
+        final Properties properties = new Properties();
+        properties.put("command.scan.restartDelaySecs", "5");
+        properties.put("command.scan.restartIfNoDataSecs", "120");
+        properties.put("command.dump.restartDelaySecs", "2");
+        properties.put("command.restartMaxDelaySecs", "600");
+        Config.readConfigFromProperties(properties);
+        assertEquals(5, Config.getScanRestartDelaySecs());
+        assertEquals(120, Config.getScanRestartIfNoData());
+        assertEquals(2, Config.getDumpRestartDelaySecs());
+        assertEquals(600, Config.getProcessRestartMaxDelaySecs());
+    }
+
+    @Test
+    void testGatewayConfig() {
+        assertTrue(Config.isHciEnabled());
+        assertFalse(Config.isGatewayServerEnabled());
+        assertEquals(7575, Config.getGatewayServerPort());
+        assertEquals("", Config.getGatewayForwardHost());
+
+        final Properties properties = new Properties();
+        properties.put("hci.enabled", "false");
+        properties.put("gateway.server", "true");
+        properties.put("gateway.server.port", "7000");
+        properties.put("gateway.forward.host", " collector.local ");
+        properties.put("gateway.id", "pi-kitchen");
+        Config.readConfigFromProperties(properties);
+        assertFalse(Config.isHciEnabled());
+        assertTrue(Config.isGatewayServerEnabled());
+        assertEquals(7000, Config.getGatewayServerPort());
+        assertEquals("collector.local", Config.getGatewayForwardHost());
+        assertEquals("pi-kitchen", Config.getGatewayId());
+    }
+
+    @Test
+    void testReplayFile() {
+        assertTrue(Config.isDumpRestartEnabled());
+
+        Config.useReplayFile("capture.txt");
+        assertArrayEquals(new String[] { "cat", "capture.txt" }, Config.getDumpCommand(null));
+        assertEquals("", Config.getScanCommand()[0]);
+        assertEquals(0, Config.getHciAdapters().length);
+        assertFalse(Config.isDumpRestartEnabled());
+
+        final Properties properties = new Properties();
+        properties.put("command.dump.restart", "true");
+        Config.readConfigFromProperties(properties);
+        assertTrue(Config.isDumpRestartEnabled());
+    }
+
     @Test
     void testparseFilterMode() {
 
@@ -94,4 +199,47 @@ public class ConfigTest {
         assertFalse(Config.isAllowedMAC("ABCDEFG"));
         assertFalse(Config.isAllowedMAC(null));
     }
+
+    @Test
+    void testReloadTagConfigKeepsUnchangedStrategies() throws IOException {
+        final Path directory = Files.createTempDirectory("ruuvi-config");
+        final Path config = directory.resolve("ruuvi-collector.properties");
+        final Path names = directory.resolve("ruuvi-names.properties");
+        Files.write(config, ("filter.mode=named\nhci.adapters=hci0\n"
+            + "tag.AAAAAAAAAAAA.limitingStrategy=aggregate\ntag.BBBBBBBBBBBB.limitingStrategy=onMovement\n").getBytes(StandardCharsets.ISO_8859_1));
+        Files.write(names, "AAAAAAAAAAAA=Sauna\nBBBBBBBBBBBB=Freezer\n".getBytes(StandardCharsets.ISO_8859_1));
+        Config.reload(directoryFileFinder(directory));
+        final LimitingStrategy global = Config.getLimitingStrategy();
+        final LimitingStrategy sauna = Config.getLimitingStrategy("AAAAAAAAAAAA");
+        assertTrue(sauna instanceof WindowedAggregationStrategy);
+        assertFalse(Config.isAllowedMAC("CCCCCCCCCCCC"));
+
+        Files.write(config, ("filter.mode=named\nhci.adapters=hci1\nupdateInterval=PT30S\n"
+            + "tag.AAAAAAAAAAAA.limitingStrategy=aggregate\ntag.BBBBBBBBBBBB.limitingStrategy=default\n").getBytes(StandardCharsets.ISO_8859_1));
+        Files.write(names, "AAAAAAAAAAAA=Sauna\nCCCCCCCCCCCC=Garage\n".getBytes(StandardCharsets.ISO_8859_1));
+        assertTrue(Config.reloadTagConfig());
+        assertEquals("Garage", Config.getTagName("CCCCCCCCCCCC"));
+        assertNull(Config.getTagName("BBBBBBBBBBBB"));
+        assertTrue(Config.isAllowedMAC("CCCCCCCCCCCC"));
+        assertFalse(Config.isAllowedMAC("BBBBBBBBBBBB"));
+        assertEquals(30000, Config.getMeasurementUpdateLimit("CCCCCCCCCCCC"));
+        assertSame(global, Config.getLimitingStrategy());
+        assertSame(sauna, Config.getLimitingStrategy("AAAAAAAAAAAA"));
+        assertSame(global, Config.getLimitingStrategy("BBBBBBBBBBBB"));
+        // Only read at startup
+        assertArrayEquals(new String[] { "hci0" }, Config.getHciAdapters());
+
+        // A new global strategy replaces the strategies of the tags falling back to it
+        Files.write(config, ("limitingStrategy=aggregate\n"
+            + "tag.AAAAAAAAAAAA.limitingStrategy=aggregate\ntag.BBBBBBBBBBBB.limitingStrategy=default\n").getBytes(StandardCharsets.ISO_8859_1));
+        assertTrue(Config.reloadTagConfig());
+        assertNotSame(global, Config.getLimitingStrategy());
+        assertSame(sauna, Config.getLimitingStrategy("AAAAAAAAAAAA"));
+        assertSame(Config.getLimitingStrategy(), Config.getLimitingStrategy("BBBBBBBBBBBB"));
+
+        // Invalid settings are not swapped in
+        Files.write(config, "updateInterval=often\n".getBytes(StandardCharsets.ISO_8859_1));
+        assertFalse(Config.reloadTagConfig());
+        assertSame(sauna, Config.getLimitingStrategy("AAAAAAAAAAAA"));
+    }
 }
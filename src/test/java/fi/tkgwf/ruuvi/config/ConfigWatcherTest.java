@@ -0,0 +1,61 @@
+package fi.tkgwf.ruuvi.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConfigWatcherTest {
+    private final Semaphore reloads = new Semaphore(0);
+    private final ConfigWatcher watcher = new ConfigWatcher(reloads::release);
+
+    @AfterEach
+    void resetConfig() {
+        watcher.stop();
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @Test
+    void testChangedNamesAreReloaded() throws IOException, InterruptedException {
+        final Path directory = Files.createTempDirectory("ruuvi-config");
+        final Path names = directory.resolve("ruuvi-names.properties");
+        Files.write(names, "AAAAAAAAAAAA=Sauna\n".getBytes(StandardCharsets.ISO_8859_1));
+        Config.reload(ConfigTest.directoryFileFinder(directory));
+        assertTrue(watcher.start());
+
+        Files.write(names, "AAAAAAAAAAAA=Sauna\nBBBBBBBBBBBB=Freezer\n".getBytes(StandardCharsets.ISO_8859_1));
+        assertTrue(reloads.tryAcquire(10, TimeUnit.SECONDS));
+        assertEquals("Freezer", Config.getTagName("BBBBBBBBBBBB"));
+
+        // Editors usually write a new file and rename it over the old one
+        final Path replacement = directory.resolve("ruuvi-names.properties.tmp");
+        Files.write(replacement, "BBBBBBBBBBBB=Freezer\n".getBytes(StandardCharsets.ISO_8859_1));
+        Files.move(replacement, names, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        assertTrue(reloads.tryAcquire(10, TimeUnit.SECONDS));
+        assertNull(Config.getTagName("AAAAAAAAAAAA"));
+        assertEquals("Freezer", Config.getTagName("BBBBBBBBBBBB"));
+
+        // Other files are ignored
+        Files.write(directory.resolve("notes.txt"), "ignored".getBytes(StandardCharsets.ISO_8859_1));
+        assertFalse(reloads.tryAcquire(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testNothingIsWatchedWhenDisabled() throws IOException {
+        final Path directory = Files.createTempDirectory("ruuvi-config");
+        Files.write(directory.resolve("ruuvi-collector.properties"), "config.watch=false\n".getBytes(StandardCharsets.ISO_8859_1));
+        Config.reload(ConfigTest.directoryFileFinder(directory));
+        assertFalse(watcher.start());
+    }
+}
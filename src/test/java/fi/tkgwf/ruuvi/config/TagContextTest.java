@@ -0,0 +1,88 @@
+package fi.tkgwf.ruuvi.config;
+
+import fi.tkgwf.ruuvi.strategy.impl.DefaultDiscardingWithMotionSensitivityStrategy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TagContextTest {
+
+    @BeforeEach
+    void resetConfigBefore() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @AfterEach
+    void resetConfigAfter() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @Test
+    void testSettingsAreResolved() {
+        final TagContext named = Config.getTagContext("AB12CD34EF56");
+        assertEquals("AB12CD34EF56", named.getMac());
+        assertEquals("Some named tag", named.getName());
+        assertTrue(named.isAllowed());
+        assertSame(Config.getLimitingStrategy(), named.getLimitingStrategy());
+        assertEquals(9900, named.getMeasurementUpdateLimit());
+        assertEquals(Config.getMqttTopic() + "/Some named tag", named.getTopic());
+
+        final TagContext blacklisted = Config.getTagContext("F1E2D3C4B5A6");
+        assertNull(blacklisted.getName());
+        assertFalse(blacklisted.isAllowed());
+        assertTrue(blacklisted.getLimitingStrategy() instanceof DefaultDiscardingWithMotionSensitivityStrategy);
+        assertEquals(Config.getMqttTopic(), blacklisted.getTopic());
+    }
+
+    @Test
+    void testContextIsCachedUntilReload() {
+        final TagContext context = Config.getTagContext("AB12CD34EF56");
+        assertSame(context, Config.getTagContext("AB12CD34EF56"));
+
+        final Properties properties = new Properties();
+        properties.put("mqtt.topic", "home/ruuvi");
+        properties.put("tag.AB12CD34EF56.updateInterval", "PT5S");
+        Config.readConfigFromProperties(properties);
+        final TagContext reloaded = Config.getTagContext("AB12CD34EF56");
+        assertNotSame(context, reloaded);
+        assertEquals(5000, reloaded.getMeasurementUpdateLimit());
+        assertEquals("home/ruuvi/Some named tag", reloaded.getTopic());
+    }
+
+    @Test
+    void testTagsSharingASlotAreResolvedCorrectly() {
+        for (int i = 0; i < 100_000; i++) {
+            final String mac = String.format("%012X", i * 7919L);
+            assertEquals(mac, Config.getTagContext(mac).getMac());
+        }
+        assertEquals("Some named tag", Config.getTagContext("AB12CD34EF56").getName());
+        assertFalse(Config.getTagContext("ABCDEF012345").isAllowed());
+    }
+
+    @Test
+    void testAddressesInOtherFormsAreNotCached() {
+        assertFalse(Config.getTagContext(null).isAllowed());
+        assertNull(Config.getTagContext("ab12cd34ef56").getName());
+        assertNotSame(Config.getTagContext("AB:12:CD:34:EF:56"), Config.getTagContext("AB:12:CD:34:EF:56"));
+    }
+
+    @Test
+    void testParseMac() {
+        assertEquals(0xAB12CD34EF56L, TagContext.parseMac("AB12CD34EF56"));
+        assertEquals(0, TagContext.parseMac("000000000000"));
+        assertEquals(0xFFFFFFFFFFFFL, TagContext.parseMac("FFFFFFFFFFFF"));
+        assertEquals(-1, TagContext.parseMac("ab12cd34ef56"));
+        assertEquals(-1, TagContext.parseMac("AB12CD34EF5G"));
+        assertEquals(-1, TagContext.parseMac("AB12CD34EF5"));
+        assertEquals(-1, TagContext.parseMac(null));
+    }
+}
@@ -0,0 +1,66 @@
+package fi.tkgwf.ruuvi.history;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.bean.MeasurementField;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MeasurementHistoryTest {
+
+    @Test
+    void testRingBufferOverwritesOldestSamples() {
+        final MeasurementHistory history = new MeasurementHistory(3);
+        for (int i = 1; i <= 5; i++) {
+            history.add(i * 1000L, temperature(i));
+        }
+
+        assertEquals(3, history.size());
+        assertEquals(5.0, history.get(MeasurementField.TEMPERATURE, 0));
+        assertEquals(3.0, history.get(MeasurementField.TEMPERATURE, 2));
+        assertEquals(3000L, history.getTimestamp(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> history.get(MeasurementField.TEMPERATURE, 3));
+        assertTrue(Double.isNaN(history.get(MeasurementField.HUMIDITY, 0)));
+    }
+
+    @Test
+    void testQueries() {
+        final MeasurementHistory history = new MeasurementHistory(4);
+        assertTrue(Double.isNaN(history.delta(MeasurementField.TEMPERATURE)));
+        for (int i = 1; i <= 6; i++) {
+            history.add(i * 1000L, temperature(i * i));
+        }
+
+        assertEquals(11.0, history.delta(MeasurementField.TEMPERATURE));
+        assertEquals(20.0, history.delta(MeasurementField.TEMPERATURE, 2));
+        assertTrue(Double.isNaN(history.delta(MeasurementField.TEMPERATURE, 4)));
+
+        final long[] timestamps = new long[10];
+        final double[] values = new double[10];
+        assertEquals(2, history.last(MeasurementField.TEMPERATURE, 2, timestamps, values));
+        assertArrayEquals(new double[]{25.0, 36.0}, new double[]{values[0], values[1]});
+        assertEquals(4, history.last(MeasurementField.TEMPERATURE, 10, null, values));
+        assertEquals(9.0, values[0]);
+
+        assertEquals(2, history.range(MeasurementField.TEMPERATURE, 3500L, 5001L, timestamps, values));
+        assertArrayEquals(new long[]{4000L, 5000L}, new long[]{timestamps[0], timestamps[1]});
+        assertArrayEquals(new double[]{16.0, 25.0}, new double[]{values[0], values[1]});
+    }
+
+    @Test
+    void testCapacityIsLimitedByMemoryBudget() {
+        assertEquals(96, MeasurementHistory.bytesFor(1));
+        assertEquals(10, HistoryStore.capacityWithinBudget(100, 960));
+        assertEquals(3, HistoryStore.capacityWithinBudget(3, 960));
+        assertEquals(1, HistoryStore.capacityWithinBudget(3, 0));
+    }
+
+    private static EnhancedRuuviMeasurement temperature(final double temperature) {
+        final EnhancedRuuviMeasurement measurement = new EnhancedRuuviMeasurement();
+        measurement.setTemperature(temperature);
+        return measurement;
+    }
+}
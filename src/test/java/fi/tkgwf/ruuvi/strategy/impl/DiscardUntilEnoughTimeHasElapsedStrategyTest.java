@@ -11,6 +11,11 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -60,6 +65,54 @@ class DiscardUntilEnoughTimeHasElapsedStrategyTest {
         assertTrue(strategy.apply(withRssi(v3.handle(hciData2).get(), 11)).isPresent());
     }
 
+    @Test
+    void testOnlyOneConcurrentMeasurementPassesPerMac() throws InterruptedException {
+        setClockToMilliseconds(0);
+        final DiscardUntilEnoughTimeHasElapsedStrategy strategy = new DiscardUntilEnoughTimeHasElapsedStrategy();
+        final AtomicInteger passed = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < 1000; j++) {
+                    final EnhancedRuuviMeasurement measurement = new EnhancedRuuviMeasurement();
+                    measurement.setMac("AABBCCDDEEFF");
+                    if (strategy.apply(measurement).isPresent()) {
+                        passed.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, passed.get());
+    }
+
+    @Test
+    void testTagSpecificUpdateIntervalOverridesUpdateLimit() {
+        final Properties properties = new Properties();
+        properties.put("tag.AABBCCDDEEFF.updateInterval", "PT1S");
+        Config.readConfigFromProperties(properties);
+
+        final EnhancedRuuviMeasurement measurement = new EnhancedRuuviMeasurement();
+        measurement.setMac("AABBCCDDEEFF");
+        final DiscardUntilEnoughTimeHasElapsedStrategy strategy = new DiscardUntilEnoughTimeHasElapsedStrategy();
+        setClockToMilliseconds(0);
+        assertTrue(strategy.apply(measurement).isPresent());
+        setClockToMilliseconds(900);
+        assertFalse(strategy.apply(measurement).isPresent());
+        setClockToMilliseconds(1001);
+        assertTrue(strategy.apply(measurement).isPresent());
+    }
+
     private static EnhancedRuuviMeasurement withRssi(final EnhancedRuuviMeasurement measurement, final int rssi) {
         measurement.setRssi(rssi);
         return measurement;
@@ -0,0 +1,167 @@
+package fi.tkgwf.ruuvi.strategy.impl;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigTest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WallClockAlignedStrategyTest {
+
+    @BeforeEach
+    void resetConfigBefore() {
+        Config.reload(ConfigTest.configTestFileFinder());
+        final Properties properties = new Properties();
+        properties.put("updateInterval", "PT10S");
+        Config.readConfigFromProperties(properties);
+    }
+
+    @AfterAll
+    static void resetConfigAfter() {
+        Config.reload(ConfigTest.configTestFileFinder());
+        TestFixture.setClockToMilliseconds(System::currentTimeMillis);
+    }
+
+    @Test
+    void testLatestMeasurementIsPublishedAtAlignedSlots() {
+        final List<EnhancedRuuviMeasurement> published = new ArrayList<>();
+        final WallClockAlignedStrategy strategy = new WallClockAlignedStrategy();
+        strategy.start(published::add, false);
+        assertFalse(strategy.isDiscarding());
+
+        setClockToMilliseconds(3200);
+        assertFalse(strategy.apply(measurement("AABBCCDDEEFF", 20.0)).isPresent());
+        setClockToMilliseconds(7000);
+        assertFalse(strategy.apply(measurement("AABBCCDDEEFF", 21.0)).isPresent());
+        strategy.advance(9999);
+        assertEquals(0, published.size());
+
+        strategy.advance(10000);
+        assertEquals(1, published.size());
+        assertEquals(10000L, published.get(0).getTime().longValue());
+        assertEquals(21.0, published.get(0).getTemperature(), 0.0001);
+        assertEquals(2, published.get(0).getSampleCount().intValue());
+
+        // Silent during the next slot: a no data marker is published
+        strategy.advance(20500);
+        assertEquals(2, published.size());
+        assertEquals("AABBCCDDEEFF", published.get(1).getMac());
+        assertEquals(20000L, published.get(1).getTime().longValue());
+        assertEquals(0, published.get(1).getSampleCount().intValue());
+        assertNull(published.get(1).getTemperature());
+    }
+
+    @Test
+    void testDefaultUpdateLimitIsAlignedToTicks() {
+        Config.reload(ConfigTest.configTestFileFinder());
+        assertEquals(9900, Config.getMeasurementUpdateLimit("AABBCCDDEEFF"));
+        final List<EnhancedRuuviMeasurement> published = new ArrayList<>();
+        final WallClockAlignedStrategy strategy = new WallClockAlignedStrategy();
+        strategy.start(published::add, false);
+        assertEquals(10000, strategy.interval(9900));
+        assertEquals(1000, strategy.interval(1));
+        assertEquals(2000, strategy.interval(1500));
+
+        setClockToMilliseconds(3200);
+        strategy.apply(measurement("AABBCCDDEEFF", 20.0));
+        // After a boundary at 9900 ms, but within the slot ending at :10
+        setClockToMilliseconds(9950);
+        strategy.apply(measurement("AABBCCDDEEFF", 21.0));
+        strategy.advance(9999);
+        assertEquals(0, published.size());
+
+        strategy.advance(10000);
+        assertEquals(1, published.size());
+        assertEquals(10000L, published.get(0).getTime().longValue());
+        assertEquals(21.0, published.get(0).getTemperature(), 0.0001);
+        assertEquals(2, published.get(0).getSampleCount().intValue());
+        strategy.advance(20000);
+        assertEquals(20000L, published.get(1).getTime().longValue());
+    }
+
+    @Test
+    void testAggregatedMeasurementsAndDifferentIntervals() {
+        final Properties properties = new Properties();
+        properties.put("limitingStrategy.aligned.mode", "aggregate");
+        properties.put("tag.112233445566.updateInterval", "PT30S");
+        Config.readConfigFromProperties(properties);
+        final List<EnhancedRuuviMeasurement> published = new ArrayList<>();
+        final WallClockAlignedStrategy strategy = new WallClockAlignedStrategy();
+        strategy.start(published::add, false);
+
+        setClockToMilliseconds(1000);
+        strategy.apply(measurement("AABBCCDDEEFF", 20.0));
+        strategy.apply(measurement("AABBCCDDEEFF", 22.0));
+        strategy.apply(measurement("112233445566", 5.0));
+        strategy.advance(10000);
+        assertEquals(1, published.size());
+        assertEquals(21.0, published.get(0).getTemperature(), 0.0001);
+
+        strategy.advance(30000);
+        assertEquals(4, published.size());
+        final EnhancedRuuviMeasurement slow = published.stream()
+            .filter(m -> "112233445566".equals(m.getMac()))
+            .findFirst().get();
+        assertEquals("112233445566", slow.getMac());
+        assertEquals(30000L, slow.getTime().longValue());
+        assertEquals(5.0, slow.getTemperature(), 0.0001);
+    }
+
+    @Test
+    void testNewTagsAreNotBlockedByPublishing() throws InterruptedException {
+        final CountDownLatch publishing = new CountDownLatch(1);
+        final CountDownLatch acknowledged = new CountDownLatch(1);
+        final WallClockAlignedStrategy strategy = new WallClockAlignedStrategy();
+        strategy.start(measurement -> {
+            // A slow broker
+            publishing.countDown();
+            try {
+                acknowledged.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, false);
+
+        setClockToMilliseconds(1000);
+        strategy.apply(measurement("AABBCCDDEEFF", 20.0));
+        final Thread timer = new Thread(() -> strategy.advance(10000));
+        timer.setDaemon(true);
+        timer.start();
+        assertTrue(publishing.await(5, TimeUnit.SECONDS));
+
+        // Scheduling the first slot of a new tag does not wait for the publishing to end
+        final Thread handler = new Thread(() -> strategy.apply(measurement("112233445566", 5.0)));
+        handler.setDaemon(true);
+        handler.start();
+        handler.join(5000);
+        assertFalse(handler.isAlive());
+
+        acknowledged.countDown();
+        timer.join(5000);
+        assertFalse(timer.isAlive());
+    }
+
+    private static EnhancedRuuviMeasurement measurement(final String mac, final double temperature) {
+        final EnhancedRuuviMeasurement measurement = new EnhancedRuuviMeasurement();
+        measurement.setMac(mac);
+        measurement.setTemperature(temperature);
+        return measurement;
+    }
+
+    private void setClockToMilliseconds(final long millis) {
+        TestFixture.setClockToMilliseconds(() -> millis);
+    }
+}
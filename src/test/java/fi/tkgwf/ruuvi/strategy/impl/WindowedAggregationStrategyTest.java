@@ -0,0 +1,98 @@
+package fi.tkgwf.ruuvi.strategy.impl;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.bean.FieldStatistics;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigTest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WindowedAggregationStrategyTest {
+
+    @BeforeEach
+    void resetConfigBefore() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @AfterAll
+    static void resetConfigAfter() {
+        Config.reload(ConfigTest.configTestFileFinder());
+        TestFixture.setClockToMilliseconds(System::currentTimeMillis);
+    }
+
+    @Test
+    void testOneAggregatedMeasurementPerWindow() {
+        final WindowedAggregationStrategy strategy = new WindowedAggregationStrategy();
+        assertFalse(strategy.isDiscarding());
+
+        setClockToMilliseconds(0);
+        assertFalse(strategy.apply(measurement("AABBCCDDEEFF", 20.0, 1)).isPresent());
+        setClockToMilliseconds(3000);
+        assertFalse(strategy.apply(measurement("AABBCCDDEEFF", 22.0, 2)).isPresent());
+        assertFalse(strategy.apply(measurement("112233445566", 10.0, 1)).isPresent());
+        setClockToMilliseconds(6000);
+        assertFalse(strategy.apply(measurement("AABBCCDDEEFF", 24.0, 3)).isPresent());
+
+        setClockToMilliseconds(9900);
+        final Optional<EnhancedRuuviMeasurement> result = strategy.apply(measurement("AABBCCDDEEFF", 30.0, 4));
+        assertTrue(result.isPresent());
+        final EnhancedRuuviMeasurement aggregate = result.get();
+        assertEquals("AABBCCDDEEFF", aggregate.getMac());
+        assertEquals(3, aggregate.getSampleCount().intValue());
+        assertEquals(22.0, aggregate.getTemperature(), 0.0001);
+        assertEquals(3, aggregate.getMeasurementSequenceNumber().intValue());
+        assertTrue(aggregate.getDewPoint() != null);
+
+        final FieldStatistics temperature = aggregate.getStatistics().get("temperature");
+        assertEquals(20.0, temperature.getMin(), 0.0001);
+        assertEquals(24.0, temperature.getMax(), 0.0001);
+        assertEquals(24.0, temperature.getLast(), 0.0001);
+        assertNull(temperature.getStdDev());
+
+        // The measurement that closed the previous window opened the next one
+        setClockToMilliseconds(19800);
+        final EnhancedRuuviMeasurement next = strategy.apply(measurement("AABBCCDDEEFF", 0.0, 5)).get();
+        assertEquals(1, next.getSampleCount().intValue());
+        assertEquals(30.0, next.getTemperature(), 0.0001);
+    }
+
+    @Test
+    void testStandardDeviation() {
+        final Properties properties = new Properties();
+        properties.put("limitingStrategy.aggregate.stdDev", "true");
+        Config.readConfigFromProperties(properties);
+        final WindowedAggregationStrategy strategy = new WindowedAggregationStrategy();
+
+        setClockToMilliseconds(0);
+        strategy.apply(measurement("AABBCCDDEEFF", 2.0, 1));
+        strategy.apply(measurement("AABBCCDDEEFF", 4.0, 2));
+        strategy.apply(measurement("AABBCCDDEEFF", 4.0, 3));
+        strategy.apply(measurement("AABBCCDDEEFF", 6.0, 4));
+        setClockToMilliseconds(10000);
+        final EnhancedRuuviMeasurement aggregate = strategy.apply(measurement("AABBCCDDEEFF", 0.0, 5)).get();
+        assertEquals(Math.sqrt(8.0 / 3), aggregate.getStatistics().get("temperature").getStdDev(), 0.0001);
+    }
+
+    private static EnhancedRuuviMeasurement measurement(final String mac, final double temperature, final int sequence) {
+        final EnhancedRuuviMeasurement measurement = new EnhancedRuuviMeasurement();
+        measurement.setMac(mac);
+        measurement.setTemperature(temperature);
+        measurement.setHumidity(50.0);
+        measurement.setMeasurementSequenceNumber(sequence);
+        return measurement;
+    }
+
+    private void setClockToMilliseconds(final long millis) {
+        TestFixture.setClockToMilliseconds(() -> millis);
+    }
+}
@@ -4,9 +4,11 @@ import fi.tkgwf.ruuvi.TestFixture;
 import fi.tkgwf.ruuvi.bean.HCIData;
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 class HCIParserTest {
 
@@ -38,4 +40,33 @@ class HCIParserTest {
             (byte) -8, (byte) 0, (byte) 5, (byte) -1, (byte) -22, (byte) 3, (byte) -31, (byte) 11, (byte) -65),
             hciData.reports.get(0).advertisements.get(1).data);
     }
+
+    @Test
+    void readLineFromBytesMatchesString() {
+        final byte[] line = ("xx" + TestFixture.getDataFormat3Message() + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        final HCIData fromBytes = new HCIParser().readLine(line, 2, line.length - 2);
+        final HCIData fromString = new HCIParser().readLine(TestFixture.getDataFormat3Message());
+        assertEquals(fromString.toString(), fromBytes.toString());
+    }
+
+    @Test
+    void readMultiLinePacket() {
+        final HCIParser parser = new HCIParser();
+        assertNull(parser.readLine("> 04 3E 21 02 01 03 01 FF EE DD CC BB AA 15 02 01 06 11 FF 99"));
+        final HCIData hciData = parser.readLine("  04 03 49 16 0E BE F8 00 05 FF EA 03 E1 0B BF B4");
+        assertEquals("AABBCCDDEEFF", hciData.mac);
+        assertEquals(-76, hciData.rssi.intValue());
+    }
+
+    @Test
+    void readDataFormat5Fixture() {
+        final HCIParser parser = new HCIParser();
+        final String[] lines = TestFixture.getDataFormat5Lines();
+        assertNull(parser.readLine(lines[0]));
+        assertNull(parser.readLine(lines[1]));
+        final HCIData hciData = parser.readLine(lines[2]);
+        assertEquals("CBB8334C884F", hciData.mac);
+        assertEquals(-76, hciData.rssi.intValue());
+        assertEquals(26, hciData.findAdvertisementDataByType(0xFF).data.size());
+    }
 }
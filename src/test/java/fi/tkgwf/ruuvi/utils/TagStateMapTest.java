@@ -0,0 +1,140 @@
+package fi.tkgwf.ruuvi.utils;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigTest;
+import fi.tkgwf.ruuvi.strategy.impl.DiscardUntilEnoughTimeHasElapsedStrategy;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TagStateMapTest {
+
+    @AfterAll
+    static void resetConfigAfter() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @Test
+    void testEntriesExpireAfterTimeToLive() {
+        final AtomicLong clock = new AtomicLong();
+        final List<String> evicted = new ArrayList<>();
+        final TagStateMap<String> map = new TagStateMap<>(100, 1000, clock::get, (k, v) -> evicted.add(k));
+
+        assertEquals("a", map.computeIfAbsent("A", k -> "a"));
+        map.computeIfAbsent("B", k -> "b");
+        clock.set(900);
+        assertEquals("a", map.get("A"));
+        clock.set(1500);
+        assertEquals("a", map.get("A")); // accessed at 900, still alive
+        assertNull(map.get("B"));
+        assertEquals(1, map.getTtlEvictions());
+
+        clock.set(5000);
+        map.purgeExpired();
+        assertEquals(0, map.size());
+        assertEquals(2, evicted.size());
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntriesAreEvictedWhenFull() {
+        final TagStateMap<Integer> map = new TagStateMap<>(1, 0, () -> 0, null);
+        map.computeIfAbsent("A", k -> 1);
+        map.computeIfAbsent("B", k -> 2);
+        assertNull(map.get("A"));
+        assertEquals(Integer.valueOf(2), map.get("B"));
+        assertEquals(1, map.getSizeEvictions());
+
+        final Integer value = map.computeIfAbsent(null, k -> 3);
+        assertSame(value, map.computeIfAbsent(null, k -> 4));
+    }
+
+    @Test
+    void testForEachSkipsExpiredEntries() {
+        final AtomicLong clock = new AtomicLong();
+        final TagStateMap<String> map = new TagStateMap<>(100, 1000, clock::get, null);
+        map.computeIfAbsent("A", k -> "a");
+        clock.set(800);
+        map.computeIfAbsent("B", k -> "b");
+        clock.set(1500);
+
+        final List<String> values = new ArrayList<>();
+        map.forEach((k, v) -> values.add(v));
+        assertEquals(1, values.size());
+        assertEquals("b", values.get(0));
+    }
+
+    @Test
+    void testEvictionListenerMayLockStateRemovedConcurrently() throws InterruptedException {
+        // As WallClockAlignedStrategy: the listener locks the evicted state, and the timer removes the state while
+        // holding its lock
+        final AtomicLong clock = new AtomicLong();
+        final CountDownLatch stateLocked = new CountDownLatch(1);
+        final CountDownLatch listenerCalled = new CountDownLatch(1);
+        final TagStateMap<Object> map = new TagStateMap<>(1, 1000, clock::get, (k, state) -> {
+            listenerCalled.countDown();
+            synchronized (state) {
+                assertEquals("A", k);
+            }
+        });
+        final Object state = map.computeIfAbsent("A", k -> new Object());
+        clock.set(2000);
+
+        final Thread timer = new Thread(() -> {
+            synchronized (state) {
+                stateLocked.countDown();
+                try {
+                    listenerCalled.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                map.remove("A", state);
+            }
+        });
+        timer.setDaemon(true);
+        timer.start();
+        assertTrue(stateLocked.await(5, TimeUnit.SECONDS));
+
+        // Evicts the expired state while the timer holds its lock
+        final Thread handler = new Thread(() -> map.computeIfAbsent("B", k -> new Object()));
+        handler.setDaemon(true);
+        handler.start();
+
+        timer.join(5000);
+        handler.join(5000);
+        assertFalse(timer.isAlive(), "Deadlocked");
+        assertFalse(handler.isAlive(), "Deadlocked");
+        assertEquals(1, map.getTtlEvictions());
+        assertNull(map.get("A"));
+    }
+
+    @Test
+    void testStateStaysBoundedWithRandomizedMacs() {
+        final Properties properties = new Properties();
+        properties.put("state.maxTags", "1000");
+        Config.readConfigFromProperties(properties);
+
+        final DiscardUntilEnoughTimeHasElapsedStrategy strategy = new DiscardUntilEnoughTimeHasElapsedStrategy();
+        final Random random = new Random(42);
+        final long sizeEvictionsBefore = TagStateMap.getTotalSizeEvictions();
+        for (int i = 0; i < 200_000; i++) {
+            final EnhancedRuuviMeasurement measurement = new EnhancedRuuviMeasurement();
+            measurement.setMac(String.format("%012X", random.nextLong() & 0xFFFFFFFFFFFFL));
+            assertTrue(strategy.apply(measurement).isPresent());
+        }
+        assertTrue(TagStateMap.getTotalSizeEvictions() - sizeEvictionsBefore >= 198_000);
+    }
+}
@@ -0,0 +1,55 @@
+package fi.tkgwf.ruuvi.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+
+    @Test
+    void testTasksExpireAtTheirTick() {
+        final TimingWheel<String> wheel = new TimingWheel<>(1000, 8, 500);
+        final List<String> expired = new ArrayList<>();
+
+        assertFalse(wheel.schedule(900, "past"));
+        assertTrue(wheel.schedule(2000, "a"));
+        assertTrue(wheel.schedule(5000, "b"));
+        assertTrue(wheel.schedule(5500, "c"));
+        assertEquals(3, wheel.size());
+
+        wheel.advanceTo(1999, expired::add);
+        assertEquals(Collections.emptyList(), expired);
+        wheel.advanceTo(2000, expired::add);
+        assertEquals(Collections.singletonList("a"), expired);
+        wheel.advanceTo(6000, expired::add);
+        assertEquals(Arrays.asList("a", "b", "c"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void testTasksBeyondTheSpanCascadeFromOverflowWheels() {
+        final TimingWheel<Long> wheel = new TimingWheel<>(10, 4, 0);
+        final List<Long> expired = new ArrayList<>();
+        final long[] deadlines = {30, 40, 170, 650, 655, 10000};
+        for (final long deadline : deadlines) {
+            assertTrue(wheel.schedule(deadline, deadline));
+        }
+
+        for (long time = 0; time <= 10000; time += 5) {
+            final long now = time;
+            wheel.advanceTo(time, deadline -> {
+                final long tick = deadline - deadline % 10;
+                assertTrue(tick <= now && tick > now - 10, deadline + " expired at " + now);
+                expired.add(deadline);
+            });
+        }
+        assertEquals(Arrays.asList(30L, 40L, 170L, 650L, 655L, 10000L), expired);
+    }
+}
@@ -2,6 +2,8 @@ package fi.tkgwf.ruuvi.utils;
 
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -36,4 +38,13 @@ class UtilsTest {
       // Check second line
       assertNull(Utils.getMacFromLine("04 3E 21 02 01 03 01 EF C0 45 EB B7 C9 15 02 01 06 11 FF 99"));
    }
+
+   @Test
+   void getMacFromLineBytes() {
+      final byte[] line = "  > 04 3E 21 02 01 03 01 EF C0 45 EB B7 C9 15 02 01 06 11 FF 99".getBytes(StandardCharsets.US_ASCII);
+      assertEquals("C9B7EB45C0EF", Utils.getMacFromLine(line, 2, line.length - 2));
+      assertTrue(Utils.hasMacAddress(line, 2, line.length - 2));
+      assertFalse(Utils.hasMacAddress(line, 0, line.length));
+      assertNull(Utils.getMacFromLine(line, 2, 38));
+   }
 }
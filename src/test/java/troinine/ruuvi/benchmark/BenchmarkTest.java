@@ -0,0 +1,114 @@
+package troinine.ruuvi.benchmark;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigTest;
+import fi.tkgwf.ruuvi.handler.BeaconHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import troinine.ruuvi.hci.AsciiLine;
+import troinine.ruuvi.hci.AsciiLineReader;
+import troinine.ruuvi.hci.HciStreamParser;
+import troinine.ruuvi.metrics.Metrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BenchmarkTest {
+
+    @BeforeEach
+    void resetConfigBefore() {
+        Config.reload(ConfigTest.configTestFileFinder());
+        final Properties properties = new Properties();
+        properties.put("filter.mode", "none");
+        Config.readConfigFromProperties(properties);
+    }
+
+    @AfterEach
+    void resetConfigAfter() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @Test
+    void testGeneratedPacketsAreDecoded() throws IOException {
+        final List<EnhancedRuuviMeasurement> measurements = decode(new SyntheticHcidump(10, 0.2, 0, 1), 30);
+
+        assertEquals(30, measurements.size());
+        for (int i = 0; i < measurements.size(); i++) {
+            final EnhancedRuuviMeasurement measurement = measurements.get(i);
+            assertEquals(SyntheticHcidump.tagMac(i % 10), measurement.getMac());
+            assertEquals(i % 10 < 2 ? 3 : 5, (int) measurement.getDataFormat());
+            assertTrue(measurement.getTemperature() > 10 && measurement.getTemperature() < 30);
+            assertEquals(3.0, measurement.getBatteryVoltage(), 0.001);
+        }
+        // Every packet of a data format 5 tag is a new measurement
+        assertEquals((measurements.get(5).getMeasurementSequenceNumber() + 1) % 65535,
+                (int) measurements.get(15).getMeasurementSequenceNumber());
+    }
+
+    @Test
+    void testNoise() throws IOException {
+        final List<EnhancedRuuviMeasurement> measurements = decode(new SyntheticHcidump(10, 0, 0.5, 1), 1000);
+
+        assertEquals(500, measurements.size(), 60);
+    }
+
+    @Test
+    void testAllGeneratedPacketsAreRead() throws InterruptedException {
+        final Benchmark benchmark = new Benchmark(new SyntheticHcidump(10, 0.1, 0.5, 1), 0, 0, TimeUnit.MILLISECONDS.toNanos(200));
+        final AtomicInteger packets = new AtomicInteger();
+        final double skippedBefore = Metrics.NON_RUUVI_CACHE_HITS.get();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            benchmark.start(executor, hciData -> packets.incrementAndGet());
+        }
+
+        assertFalse(benchmark.isRunning());
+        assertTrue(packets.get() > 0);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        benchmark.report(new PrintStream(out, true, StandardCharsets.UTF_8));
+        // The packets of the other devices are skipped before parsing once they have been learned by earlier tests
+        final long skipped = (long) (Metrics.NON_RUUVI_CACHE_HITS.get() - skippedBefore);
+        assertTrue(out.toString(StandardCharsets.UTF_8).contains(String.format("%,d generated", packets.get() + skipped)));
+    }
+
+    private static List<EnhancedRuuviMeasurement> decode(SyntheticHcidump hcidump, int packets) throws IOException {
+        final byte[] buffer = new byte[packets * SyntheticHcidump.MAX_PACKET_LENGTH];
+        System.arraycopy(SyntheticHcidump.HEADER, 0, buffer, 0, SyntheticHcidump.HEADER.length);
+        int length = SyntheticHcidump.HEADER.length;
+        for (int i = 0; i < packets; i++) {
+            length = hcidump.next(buffer, length);
+        }
+
+        final HciStreamParser parser = new HciStreamParser("test");
+        final BeaconHandler handler = new BeaconHandler();
+        final List<EnhancedRuuviMeasurement> measurements = new ArrayList<>();
+        final AsciiLine line = new AsciiLine();
+        try (AsciiLineReader reader = new AsciiLineReader(new ByteArrayInputStream(buffer, 0, length))) {
+            while (reader.readLine(line)) {
+                final HCIData hciData = parser.parse(line);
+                if (hciData != null) {
+                    final Optional<EnhancedRuuviMeasurement> measurement = handler.handle(hciData);
+                    measurement.ifPresent(measurements::add);
+                }
+            }
+        }
+        return measurements;
+    }
+}
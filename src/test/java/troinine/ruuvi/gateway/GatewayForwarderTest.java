@@ -0,0 +1,74 @@
+package troinine.ruuvi.gateway;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GatewayForwarderTest {
+
+    @BeforeEach
+    void resetConfigBefore() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @AfterEach
+    void resetConfigAfter() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @Test
+    void testDumpIsForwardedToServer() throws IOException, InterruptedException {
+        final Properties properties = new Properties();
+        properties.put("command.scan", "");
+        properties.put("command.dump", "echo " + TestFixture.getDataFormat3Message());
+        properties.put("command.dump.restartDelaySecs", "0");
+        properties.put("filter.mode", "none");
+        properties.put("gateway.server.bindAddress", "127.0.0.1");
+        properties.put("gateway.server.port", "0");
+        properties.put("gateway.id", "pi-kitchen");
+        Config.readConfigFromProperties(properties);
+
+        final LinkedBlockingQueue<HCIData> received = new LinkedBlockingQueue<>();
+        final GatewayServer server = new GatewayServer(received::add);
+        server.start();
+        properties.put("gateway.forward.host", "127.0.0.1");
+        properties.put("gateway.forward.port", String.valueOf(server.getPort()));
+        Config.readConfigFromProperties(properties);
+
+        final GatewayForwarder forwarder = new GatewayForwarder(null);
+        assertEquals("pi-kitchen", forwarder.getGatewayId());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            forwarder.start(executor);
+            try {
+                for (int i = 0; i < 3; i++) {
+                    final HCIData data = received.poll(10, TimeUnit.SECONDS);
+                    assertNotNull(data);
+                    assertEquals("AABBCCDDEEFF", data.mac);
+                    assertEquals("pi-kitchen", data.adapter);
+                }
+                assertTrue(forwarder.isRunning());
+                assertTrue(forwarder.getForwardedLines() >= 2);
+            } finally {
+                forwarder.stop();
+                server.stop();
+            }
+        }
+        assertFalse(forwarder.isRunning());
+    }
+}
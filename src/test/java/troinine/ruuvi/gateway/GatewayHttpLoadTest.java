@@ -0,0 +1,132 @@
+package troinine.ruuvi.gateway;
+
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigTest;
+import fi.tkgwf.ruuvi.handler.BeaconHandler;
+import fi.tkgwf.ruuvi.utils.MeasurementValueCalculator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Posts Ruuvi Gateway batches from many concurrent gateways to a local {@link GatewayHttpServer}, and fails if any
+ * post fails or is rejected, or if any measurement is lost. The packets go through the same {@link BeaconHandler} and
+ * {@link MeasurementValueCalculator} as the measurements of the local adapters. The gateways stay below
+ * {@link Config#getGatewayHttpMaxConcurrentRequests()}, so none of the posts should be turned away. The throughput and
+ * the response times are logged, but not asserted, as they depend on the build machine.
+ */
+class GatewayHttpLoadTest {
+    private static final Logger logger = LoggerFactory.getLogger(GatewayHttpLoadTest.class);
+    private static final int GATEWAYS = 100;
+    private static final int POSTS = 5;
+    private static final int TAGS = 20;
+
+    private final LongAdder measurements = new LongAdder();
+    private GatewayHttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        Config.reload(ConfigTest.configTestFileFinder());
+        final Properties properties = new Properties();
+        properties.put("gateway.http.bindAddress", "127.0.0.1");
+        properties.put("gateway.http.port", "0");
+        properties.put("filter.mode", "none");
+        Config.readConfigFromProperties(properties);
+
+        final ThreadLocal<BeaconHandler> handlers = ThreadLocal.withInitial(BeaconHandler::new);
+        server = new GatewayHttpServer(hciData -> handle(handlers.get(), hciData));
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @Test
+    void testConcurrentGatewaysAreAllHandled() {
+        final URI uri = URI.create("http://127.0.0.1:" + server.getPort() + "/");
+        final long[] latencies = new long[GATEWAYS * POSTS];
+        final AtomicInteger index = new AtomicInteger();
+        final LongAdder failed = new LongAdder();
+        final LongAdder serverErrors = new LongAdder();
+        final long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient client = HttpClient.newBuilder().executor(executor).build()) {
+            try (ExecutorService gateways = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int g = 0; g < GATEWAYS; g++) {
+                    final byte[] body = createPost(g);
+                    gateways.execute(() -> {
+                        for (int p = 0; p < POSTS; p++) {
+                            final long postStart = System.nanoTime();
+                            try {
+                                final HttpResponse<Void> response = client.send(HttpRequest.newBuilder(uri)
+                                        .POST(HttpRequest.BodyPublishers.ofByteArray(body)).build(), HttpResponse.BodyHandlers.discarding());
+                                if (response.statusCode() >= 500) {
+                                    serverErrors.increment();
+                                } else if (response.statusCode() != 200) {
+                                    failed.increment();
+                                }
+                            } catch (IOException | InterruptedException e) {
+                                failed.increment();
+                            }
+                            latencies[index.getAndIncrement()] = System.nanoTime() - postStart;
+                        }
+                    });
+                }
+            }
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        Arrays.sort(latencies);
+        logger.info("{} gateways x {} posts x {} tags in {} s: {} posts/s, response time p50 {} ms, p99 {} ms",
+                GATEWAYS, POSTS, TAGS, String.format("%.2f", seconds), String.format("%,.0f", latencies.length / seconds),
+                String.format("%.1f", percentile(latencies, 0.50)), String.format("%.1f", percentile(latencies, 0.99)));
+
+        assertEquals(0, serverErrors.sum());
+        assertEquals(0, failed.sum());
+        assertEquals(0, server.getRejectedRequests());
+        assertEquals((long) GATEWAYS * POSTS * TAGS, server.getPackets());
+        assertEquals((long) GATEWAYS * POSTS * TAGS, measurements.sum());
+    }
+
+    private void handle(BeaconHandler handler, HCIData hciData) {
+        handler.handle(hciData).map(MeasurementValueCalculator::calculateAllValues).ifPresent(m -> measurements.increment());
+    }
+
+    private static byte[] createPost(int gateway) {
+        final StringBuilder sb = new StringBuilder("{\"data\":{\"coordinates\":\"\",\"timestamp\":1600000000,\"nonce\":1,");
+        sb.append(String.format("\"gw_mac\":\"AA:BB:CC:%02X:%02X:%02X\",\"tags\":{", gateway >> 16 & 0xFF, gateway >> 8 & 0xFF, gateway & 0xFF));
+        for (int t = 0; t < TAGS; t++) {
+            if (t > 0) {
+                sb.append(',');
+            }
+            sb.append(String.format("\"CB:B8:33:4C:%02X:%02X\":{\"rssi\":-60,\"timestamp\":1600000000,\"data\":\"%s\"}",
+                    t >> 8 & 0xFF, t & 0xFF, GatewayHttpServerTest.FORMAT_5_ADVERTISEMENT));
+        }
+        return sb.append("}}}").toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, sorted.length * percentile)] / 1e6;
+    }
+}
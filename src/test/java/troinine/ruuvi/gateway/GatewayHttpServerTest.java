@@ -0,0 +1,136 @@
+package troinine.ruuvi.gateway;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigTest;
+import fi.tkgwf.ruuvi.handler.BeaconHandler;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GatewayHttpServerTest {
+    // Data format 5 test vector from the Ruuvi documentation, temperature 24.3 C
+    static final String FORMAT_5_ADVERTISEMENT = "0201061BFF99040512FC5394C37C0004FFFC040CAC364200CDCBB8334C884F";
+    private static final String POST = "{\"data\": {\"coordinates\": \"\", \"timestamp\": 1600000000, \"gw_mac\": \"AA:BB:CC:DD:EE:FF\","
+            + " \"tags\": {\"CB:B8:33:4C:88:4F\": {\"rssi\": -52, \"timestamp\": 1600000000, \"data\": \"" + FORMAT_5_ADVERTISEMENT + "\"},"
+            + " \"C0:00:00:00:00:01\": {\"rssi\": -80, \"timestamp\": 1600000000, \"data\": \"02011A020A0C0AFF4C001005031C8A3A52\"}}}}";
+
+    private final List<HCIData> received = new CopyOnWriteArrayList<>();
+    private final HttpClient client = HttpClient.newHttpClient();
+    private GatewayHttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        Config.reload(ConfigTest.configTestFileFinder());
+        final Properties properties = new Properties();
+        properties.put("gateway.http.bindAddress", "127.0.0.1");
+        properties.put("gateway.http.port", "0");
+        properties.put("gateway.http.maxBodyBytes", "1000");
+        properties.put("filter.mode", "none");
+        Config.readConfigFromProperties(properties);
+
+        server = new GatewayHttpServer(received::add);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @Test
+    void testPostIsHandledAsPackets() throws IOException, InterruptedException {
+        final double framesBefore = CollectorRegistry.defaultRegistry.getSampleValue("ruuvi_frames_parsed_total", new String[] { "source" }, new String[] { "http" });
+        assertEquals(200, post(POST).statusCode());
+        assertEquals(framesBefore + 2, (double) CollectorRegistry.defaultRegistry.getSampleValue("ruuvi_frames_parsed_total", new String[] { "source" }, new String[] { "http" }));
+        assertEquals(2, received.size());
+        assertEquals(2, server.getPackets());
+
+        final HCIData ruuvi = received.get(0);
+        assertEquals("CBB8334C884F", ruuvi.mac);
+        assertEquals(-52, ruuvi.rssi.intValue());
+        assertEquals("AA:BB:CC:DD:EE:FF", ruuvi.adapter);
+        final EnhancedRuuviMeasurement measurement = new BeaconHandler().handle(ruuvi).get();
+        assertEquals(24.3, measurement.getTemperature(), 0.001);
+        assertEquals("AA:BB:CC:DD:EE:FF", measurement.getAdapter());
+
+        assertEquals("C00000000001", received.get(1).mac);
+        assertTrue(new BeaconHandler().handle(received.get(1)).isEmpty());
+    }
+
+    @Test
+    void testInvalidRequestsAreRejected() throws IOException, InterruptedException {
+        assertEquals(400, post("{\"data\": [").statusCode());
+        assertEquals(400, post("{\"data\": {\"tags\": {\"C0:00:00:00:00:01\": {\"data\": \"XX\"}}}}").statusCode());
+        assertEquals(413, post("{\"data\": {\"coordinates\": \"" + "x".repeat(1000) + "\"}}").statusCode());
+        final HttpResponse<Void> get = client.send(HttpRequest.newBuilder(uri()).GET().build(), HttpResponse.BodyHandlers.discarding());
+        assertEquals(405, get.statusCode());
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    void testRejectedPostIsNotIngestedInPart() throws IOException, InterruptedException {
+        final String validTag = "\"CB:B8:33:4C:88:4F\": {\"rssi\": -52, \"data\": \"" + FORMAT_5_ADVERTISEMENT + "\"}";
+        assertEquals(400, post("{\"data\": {\"gw_mac\": \"AA:BB:CC:DD:EE:FF\", \"tags\": {" + validTag
+                + ", \"C0:00:00:00:00:01\": {\"data\": \"XX\"}}}}").statusCode());
+        assertEquals(413, post("{\"data\": {\"gw_mac\": \"AA:BB:CC:DD:EE:FF\", \"tags\": {" + validTag
+                + "}, \"coordinates\": \"" + "x".repeat(1000) + "\"}}").statusCode());
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    void testTagKeysMustBeMacAddresses() throws IOException, InterruptedException {
+        for (String key : List.of("../../tmp/evil", "foo", "CB:B8:33:4C:88", "CB-B8-33-4C-88-4F", "CBB8334C884G",
+                "CB:B8:33:4C:88:4F:00", "")) {
+            final String json = "{\"data\": {\"tags\": {\"" + key + "\": {\"data\": \"" + FORMAT_5_ADVERTISEMENT + "\"}}}}";
+            assertEquals(400, post(json).statusCode(), key);
+        }
+        assertTrue(received.isEmpty());
+
+        final String json = "{\"data\": {\"tags\": {\"cb:b8:33:4c:88:4f\": {\"data\": \"0201\"},"
+                + " \"cbb8334c8850\": {\"data\": \"0201\"}}}}";
+        final List<HCIData> parsed = GatewayHttpServer.parse(new JsonFactory().createParser(json), "127.0.0.1");
+        assertEquals("CBB8334C884F", parsed.get(0).mac);
+        assertEquals("CBB8334C8850", parsed.get(1).mac);
+    }
+
+    @Test
+    void testGatewayMacAfterTags() throws IOException {
+        final String json = "{\"data\": {\"tags\": {\"CB:B8:33:4C:88:4F\": {\"data\": \"" + FORMAT_5_ADVERTISEMENT + "\"}},"
+                + " \"gw_mac\": \"AA:BB:CC:DD:EE:FF\"}}";
+        List<HCIData> parsed = GatewayHttpServer.parse(new JsonFactory().createParser(json), "127.0.0.1");
+        assertEquals(1, parsed.size());
+        assertEquals("AA:BB:CC:DD:EE:FF", parsed.get(0).adapter);
+
+        parsed = GatewayHttpServer.parse(new JsonFactory().createParser("{\"data\": {\"tags\": {\"CB:B8:33:4C:88:4F\": {\"data\": \"0201\"}}}}"),
+                "127.0.0.1");
+        assertEquals("127.0.0.1", parsed.get(0).adapter);
+        assertEquals(null, parsed.get(0).rssi);
+    }
+
+    private HttpResponse<Void> post(String body) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(uri()).POST(HttpRequest.BodyPublishers.ofString(body)).build(),
+                HttpResponse.BodyHandlers.discarding());
+    }
+
+    private URI uri() {
+        return URI.create("http://127.0.0.1:" + server.getPort() + "/");
+    }
+}
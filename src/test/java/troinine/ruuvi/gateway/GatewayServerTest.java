@@ -0,0 +1,112 @@
+package troinine.ruuvi.gateway;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GatewayServerTest {
+    private final LinkedBlockingQueue<HCIData> received = new LinkedBlockingQueue<>();
+    private GatewayServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        Config.reload(ConfigTest.configTestFileFinder());
+        final Properties properties = new Properties();
+        properties.put("gateway.server", "true");
+        properties.put("gateway.server.bindAddress", "127.0.0.1");
+        properties.put("gateway.server.port", "0");
+        properties.put("filter.mode", "none");
+        Config.readConfigFromProperties(properties);
+
+        server = new GatewayServer(received::add);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @Test
+    void testPacketsAreTaggedWithGatewayId() throws IOException, InterruptedException {
+        try (Socket kitchen = connect(); Socket garage = connect()) {
+            send(kitchen, GatewayServer.HELLO + "kitchen\nHCI sniffer - Bluetooth packet analyzer ver 5.50\n" + TestFixture.getDataFormat3Message() + "\n");
+            send(garage, GatewayServer.HELLO + "garage\n" + TestFixture.getDataFormat3Message().replace("AA", "BB") + "\n");
+
+            final HCIData first = received.poll(10, TimeUnit.SECONDS);
+            final HCIData second = received.poll(10, TimeUnit.SECONDS);
+            assertNotNull(first);
+            assertNotNull(second);
+            final HCIData kitchenData = "kitchen".equals(first.adapter) ? first : second;
+            final HCIData garageData = kitchenData == first ? second : first;
+            assertEquals("kitchen", kitchenData.adapter);
+            assertEquals("AABBCCDDEEFF", kitchenData.mac);
+            assertEquals("garage", garageData.adapter);
+            assertEquals("BBBBCCDDEEFF", garageData.mac);
+            assertEquals(2, server.getConnectionCount());
+            assertEquals(2, server.getPackets());
+        }
+    }
+
+    @Test
+    void testPacketsSplitOverLinesAndWritesArePerConnection() throws IOException, InterruptedException {
+        final String packet = TestFixture.getDataFormat3Message();
+        try (Socket socket = connect()) {
+            // hcidump splits long packets over several lines, and TCP may split them anywhere
+            send(socket, packet.substring(0, 40));
+            send(socket, packet.substring(40, 62) + "\n  ");
+            send(socket, packet.substring(62).trim() + "\n");
+
+            final HCIData data = received.poll(10, TimeUnit.SECONDS);
+            assertNotNull(data);
+            assertEquals("AABBCCDDEEFF", data.mac);
+            assertEquals(InetAddress.getLoopbackAddress().getHostAddress(), data.adapter);
+        }
+    }
+
+    @Test
+    void testStopClosesConnections() throws IOException, InterruptedException {
+        try (Socket socket = connect()) {
+            send(socket, GatewayServer.HELLO + "kitchen\n");
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (server.getConnectionCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, server.getConnectionCount());
+
+            server.stop();
+            assertFalse(server.isRunning());
+            assertEquals(-1, socket.getInputStream().read());
+            assertTrue(received.isEmpty());
+        }
+    }
+
+    private Socket connect() throws IOException {
+        return new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+    }
+
+    private static void send(Socket socket, String data) throws IOException {
+        final OutputStream out = socket.getOutputStream();
+        out.write(data.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+}
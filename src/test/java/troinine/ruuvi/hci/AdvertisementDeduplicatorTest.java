@@ -0,0 +1,93 @@
+package troinine.ruuvi.hci;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.utils.HCIParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static fi.tkgwf.ruuvi.TestFixture.RSSI_BYTE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdvertisementDeduplicatorTest {
+
+    @Test
+    void testStrongestCopyIsEmittedAfterWindow() {
+        final AdvertisementDeduplicator deduplicator = new AdvertisementDeduplicator(100);
+        final List<HCIData> emitted = new ArrayList<>();
+
+        add(deduplicator, packet("C0", "hci0"), 0, emitted);
+        add(deduplicator, packet("C8", "hci1"), 10, emitted);
+        add(deduplicator, packet("B4", "hci2"), 20, emitted);
+        assertTrue(emitted.isEmpty());
+        assertEquals(1, deduplicator.size());
+        assertEquals(100, deduplicator.getNextDeadline());
+
+        deduplicator.flush(99, emitted::add);
+        assertTrue(emitted.isEmpty());
+        deduplicator.flush(100, emitted::add);
+        assertEquals(1, emitted.size());
+        assertEquals(-56, emitted.get(0).rssi.intValue());
+        assertEquals("hci1", emitted.get(0).adapter);
+        assertEquals(2, deduplicator.getDuplicates());
+        assertEquals(0, deduplicator.size());
+        assertEquals(Long.MAX_VALUE, deduplicator.getNextDeadline());
+    }
+
+    @Test
+    void testDifferentPayloadsAndTagsAreKeptApart() {
+        final AdvertisementDeduplicator deduplicator = new AdvertisementDeduplicator(100);
+        final List<HCIData> emitted = new ArrayList<>();
+
+        add(deduplicator, packet("C0", "hci0"), 0, emitted);
+        add(deduplicator, parse(TestFixture.getDataFormat3Message().replace("AA", "BB"), "hci0"), 0, emitted);
+        add(deduplicator, parse(TestFixture.getDataFormat3Message().replace("49 16", "49 17"), "hci1"), 0, emitted);
+        assertEquals(3, deduplicator.size());
+
+        deduplicator.flushAll(emitted::add);
+        assertEquals(3, emitted.size());
+        assertEquals(0, deduplicator.getDuplicates());
+    }
+
+    @Test
+    void testCopyAfterWindowIsNewAdvertisement() {
+        final AdvertisementDeduplicator deduplicator = new AdvertisementDeduplicator(100);
+        final List<HCIData> emitted = new ArrayList<>();
+
+        add(deduplicator, packet("C0", "hci0"), 0, emitted);
+        add(deduplicator, packet("C8", "hci1"), 150, emitted);
+        assertEquals(1, emitted.size());
+        assertEquals("hci0", emitted.get(0).adapter);
+        assertEquals(1, deduplicator.size());
+        assertEquals(250, deduplicator.getNextDeadline());
+    }
+
+    @Test
+    void testDisabledWindowPassesThrough() {
+        final AdvertisementDeduplicator deduplicator = new AdvertisementDeduplicator(0);
+        final List<HCIData> emitted = new ArrayList<>();
+
+        add(deduplicator, packet("C0", "hci0"), 0, emitted);
+        add(deduplicator, packet("C8", "hci1"), 0, emitted);
+        assertEquals(2, emitted.size());
+        assertEquals(0, deduplicator.size());
+    }
+
+    private static void add(AdvertisementDeduplicator deduplicator, HCIData data, long now, List<HCIData> emitted) {
+        deduplicator.flush(now, emitted::add);
+        deduplicator.add(data, now, emitted::add);
+    }
+
+    private static HCIData packet(String rssi, String adapter) {
+        return parse(TestFixture.getDataFormat3Message().replace(RSSI_BYTE, rssi), adapter);
+    }
+
+    private static HCIData parse(String line, String adapter) {
+        final HCIData data = new HCIParser().readLine(line);
+        data.adapter = adapter;
+        return data;
+    }
+}
@@ -0,0 +1,61 @@
+package troinine.ruuvi.hci;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsciiLineReaderTest {
+
+    @Test
+    void testLinesAreSplitAcrossBufferRefills() throws IOException {
+        final String input = "HCI sniffer - Bluetooth packet analyzer\r\n"
+            + "> 04 3E 21 02 01 03 01 FF EE DD CC BB AA 15 02 01 06 11 FF 99\n"
+            + "  04 03 49 16 0E BE F8 00 05 FF EA 03 E1 0B BF B4\n"
+            + "\n"
+            + "no terminator";
+
+        assertEquals(Arrays.asList("HCI sniffer - Bluetooth packet analyzer",
+            "> 04 3E 21 02 01 03 01 FF EE DD CC BB AA 15 02 01 06 11 FF 99",
+            "  04 03 49 16 0E BE F8 00 05 FF EA 03 E1 0B BF B4",
+            "",
+            "no terminator"), readAll(input, 8));
+    }
+
+    @Test
+    void testLineHelpers() throws IOException {
+        final AsciiLineReader reader = reader("> 04 3E\nhci0 device: disconnected\n", 1024);
+        final AsciiLine line = new AsciiLine();
+
+        assertTrue(reader.readLine(line));
+        assertTrue(line.startsWith("> "));
+        assertFalse(line.contains("device"));
+        assertTrue(reader.readLine(line));
+        assertFalse(line.startsWith("> "));
+        assertTrue(line.contains("device: disconnected"));
+        assertFalse(reader.readLine(line));
+    }
+
+    private static List<String> readAll(final String input, final int bufferSize) throws IOException {
+        final AsciiLineReader reader = reader(input, bufferSize);
+        final AsciiLine line = new AsciiLine();
+        final List<String> lines = new ArrayList<>();
+        while (reader.readLine(line)) {
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    private static AsciiLineReader reader(final String input, final int bufferSize) {
+        return new AsciiLineReader(Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII))), bufferSize);
+    }
+}
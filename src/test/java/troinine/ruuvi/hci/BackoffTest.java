@@ -0,0 +1,40 @@
+package troinine.ruuvi.hci;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BackoffTest {
+
+    @Test
+    void testDelayDoublesUpToMaximum() {
+        final Backoff backoff = new Backoff(1000, 5000, () -> 0.999999);
+        assertEquals(999, backoff.nextDelayMillis());
+        assertEquals(1999, backoff.nextDelayMillis());
+        assertEquals(3999, backoff.nextDelayMillis());
+        assertEquals(4999, backoff.nextDelayMillis());
+        assertEquals(4999, backoff.nextDelayMillis());
+        assertEquals(5, backoff.getAttempts());
+    }
+
+    @Test
+    void testJitterIsBetweenHalfAndFullDelay() {
+        final Backoff backoff = new Backoff(1000, 300_000);
+        for (int i = 0; i < 100; i++) {
+            final long expected = Math.min(300_000, 1000L << Math.min(i, 30));
+            final long delay = backoff.nextDelayMillis();
+            assertTrue(delay >= expected / 2 && delay <= expected, "Delay " + delay + " for attempt " + i);
+        }
+    }
+
+    @Test
+    void testResetStartsOver() {
+        final Backoff backoff = new Backoff(1000, 5000, () -> 0);
+        assertEquals(500, backoff.nextDelayMillis());
+        assertEquals(1000, backoff.nextDelayMillis());
+        assertEquals(2000, backoff.nextDelayMillis());
+        backoff.reset();
+        assertEquals(500, backoff.nextDelayMillis());
+    }
+}
@@ -0,0 +1,63 @@
+package troinine.ruuvi.hci;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HciAdapterReaderTest {
+
+    @BeforeEach
+    void resetConfigBefore() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @AfterEach
+    void resetConfigAfter() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @Test
+    void testDumpIsRestartedWhenItEnds() throws InterruptedException {
+        // A dump command that prints a single packet and exits, standing in for a crashing hcidump
+        final Properties properties = new Properties();
+        properties.put("command.scan", "");
+        properties.put("command.dump", "echo " + TestFixture.getDataFormat3Message());
+        properties.put("command.dump.restartDelaySecs", "0");
+        properties.put("filter.mode", "none");
+        Config.readConfigFromProperties(properties);
+
+        final LinkedBlockingQueue<HCIData> received = new LinkedBlockingQueue<>();
+        final HciAdapterReader reader = new HciAdapterReader(null, received::add);
+        reader.start();
+        try {
+            for (int i = 0; i < 3; i++) {
+                final HCIData data = received.poll(10, TimeUnit.SECONDS);
+                assertNotNull(data);
+                assertEquals("AABBCCDDEEFF", data.mac);
+            }
+            assertTrue(reader.isRunning());
+            assertTrue(reader.getProcessHandler().getDumpStatistics().getRestarts() >= 2);
+        } finally {
+            reader.stop();
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (reader.isRunning() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(reader.isRunning());
+    }
+}
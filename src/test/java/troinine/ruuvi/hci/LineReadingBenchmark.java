@@ -0,0 +1,92 @@
+package troinine.ruuvi.hci;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.utils.HCIParser;
+import fi.tkgwf.ruuvi.utils.Utils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares reading and parsing hcidump output line by line with a {@link BufferedReader} and strings against the
+ * {@link AsciiLineReader}. Run with:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) troinine.ruuvi.hci.LineReadingBenchmark
+ * </pre>
+ */
+public class LineReadingBenchmark {
+    private static final int PACKETS = 200_000;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        final byte[] input = createInput();
+        final int lines = PACKETS * 2;
+        for (int round = 1; round <= ROUNDS; round++) {
+            final long stringNanos = time(() -> readStrings(input));
+            final long bytesNanos = time(() -> readBytes(input));
+            System.out.printf("Round %2d: BufferedReader %,12.0f lines/s, AsciiLineReader %,12.0f lines/s%n", round,
+                lines / (stringNanos / 1e9), lines / (bytesNanos / 1e9));
+        }
+    }
+
+    private static byte[] createInput() {
+        final String packet = TestFixture.getDataFormat3Message();
+        // Split the packet in two lines like hcidump does with long packets
+        final String first = packet.substring(0, 62);
+        final String second = "  " + packet.substring(62).trim();
+        final StringBuilder sb = new StringBuilder("HCI sniffer - Bluetooth packet analyzer ver 5.50\n");
+        for (int i = 0; i < PACKETS; i++) {
+            sb.append(first).append('\n').append(second).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static int readStrings(final byte[] input) throws IOException {
+        final HCIParser parser = new HCIParser();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(input)));
+        int packets = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (Utils.hasMacAddress(line)) {
+                Utils.getMacFromLine(line);
+            }
+            if (parser.readLine(line) != null) {
+                packets++;
+            }
+        }
+        return packets;
+    }
+
+    private static int readBytes(final byte[] input) throws IOException {
+        final HCIParser parser = new HCIParser();
+        final AsciiLineReader reader = new AsciiLineReader(new ByteArrayInputStream(input));
+        final AsciiLine line = new AsciiLine();
+        int packets = 0;
+        while (reader.readLine(line)) {
+            if (Utils.hasMacAddress(line.buffer(), line.offset(), line.length())) {
+                Utils.getMacFromLine(line.buffer(), line.offset(), line.length());
+            }
+            if (parser.readLine(line.buffer(), line.offset(), line.length()) != null) {
+                packets++;
+            }
+        }
+        return packets;
+    }
+
+    private static long time(final Task task) throws IOException {
+        final long start = System.nanoTime();
+        final int packets = task.run();
+        if (packets != PACKETS) {
+            throw new IllegalStateException("Parsed " + packets + " packets, expected " + PACKETS);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private interface Task {
+        int run() throws IOException;
+    }
+}
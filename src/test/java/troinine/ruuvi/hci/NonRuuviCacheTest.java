@@ -0,0 +1,132 @@
+package troinine.ruuvi.hci;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.bean.HCIData;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigTest;
+import fi.tkgwf.ruuvi.utils.HCIParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import troinine.ruuvi.metrics.Metrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NonRuuviCacheTest {
+    private static final String MAC = "AABBCCDDEEFF";
+
+    private final AtomicLong clock = new AtomicLong();
+    private final NonRuuviCache cache = new NonRuuviCache(100, 1000, 3, clock::get);
+
+    @BeforeEach
+    void resetConfigBefore() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @AfterEach
+    void resetConfigAfter() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @Test
+    void testOtherManufacturerIsLearnedAtOnceAndProbedAgain() {
+        final double hitsBefore = Metrics.NON_RUUVI_CACHE_HITS.get();
+        assertFalse(cache.isSkipped(MAC));
+        cache.nonRuuvi(otherManufacturer());
+        assertTrue(cache.isSkipped(MAC));
+        assertEquals(1, cache.skippedDevices());
+        assertEquals(1, Metrics.NON_RUUVI_CACHE_HITS.get() - hitsBefore);
+
+        clock.set(999);
+        assertTrue(cache.isSkipped(MAC));
+        clock.set(1000);
+        assertFalse(cache.isSkipped(MAC));
+        assertFalse(cache.isSkipped(MAC));
+        assertEquals(0, cache.skippedDevices());
+        cache.nonRuuvi(otherManufacturer());
+        assertTrue(cache.isSkipped(MAC));
+    }
+
+    @Test
+    void testOtherPacketsAreLearnedAfterMisses() {
+        cache.nonRuuvi(nameOnly());
+        cache.nonRuuvi(nameOnly());
+        assertFalse(cache.isSkipped(MAC));
+        cache.nonRuuvi(nameOnly());
+        assertTrue(cache.isSkipped(MAC));
+    }
+
+    @Test
+    void testRuuviTagIsNeverLearned() {
+        // A RuuviTag answers active scans with its name
+        cache.nonRuuvi(nameOnly());
+        cache.ruuvi(MAC);
+        for (int i = 0; i < 10; i++) {
+            cache.nonRuuvi(nameOnly());
+        }
+        assertFalse(cache.isSkipped(MAC));
+    }
+
+    @Test
+    void testRuuviTagHeardFirstIsNeverLearned() {
+        cache.ruuvi(MAC);
+        for (int i = 0; i < 10; i++) {
+            cache.nonRuuvi(nameOnly());
+        }
+        assertFalse(cache.isSkipped(MAC));
+        assertEquals(0, cache.skippedDevices());
+    }
+
+    @Test
+    void testNothingIsLearnedWhenDisabled() {
+        final Properties properties = new Properties();
+        properties.put("hci.nonRuuviCache", "false");
+        Config.readConfigFromProperties(properties);
+        cache.nonRuuvi(otherManufacturer());
+        assertFalse(cache.isSkipped(MAC));
+    }
+
+    @Test
+    void testParserSkipsLearnedDevices() throws IOException {
+        final HciStreamParser parser = new HciStreamParser("test", cache);
+        cache.nonRuuvi(otherManufacturer());
+
+        final String input = TestFixture.getDataFormat3Message() + "\n"
+            + String.join("\n", TestFixture.getDataFormat5Lines()) + "\n";
+        final AsciiLineReader reader = new AsciiLineReader(new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII)));
+        final AsciiLine line = new AsciiLine();
+        final List<HCIData> parsed = new ArrayList<>();
+        while (reader.readLine(line)) {
+            final HCIData hciData = parser.parse(line);
+            if (hciData != null) {
+                parsed.add(hciData);
+            }
+        }
+        assertEquals(1, parsed.size());
+        assertEquals("CBB8334C884F", parsed.get(0).mac);
+    }
+
+    /**
+     * @return the data format 3 example with the manufacturer ID of Apple
+     */
+    private static HCIData otherManufacturer() {
+        return new HCIParser().readLine(TestFixture.getDataFormat3Message().replace("FF 99 04", "FF 4C 00"));
+    }
+
+    /**
+     * @return the data format 3 example with the manufacturer specific data turned into a name
+     */
+    private static HCIData nameOnly() {
+        return new HCIParser().readLine(TestFixture.getDataFormat3Message().replace("11 FF 99 04", "11 09 99 04"));
+    }
+}
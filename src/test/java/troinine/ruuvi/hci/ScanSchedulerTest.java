@@ -0,0 +1,111 @@
+package troinine.ruuvi.hci;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigTest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScanSchedulerTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @BeforeEach
+    void resetConfigBefore() {
+        Config.reload(ConfigTest.configTestFileFinder());
+        TestFixture.setClockToMilliseconds(clock::get);
+    }
+
+    @AfterAll
+    static void resetConfigAfter() {
+        Config.reload(ConfigTest.configTestFileFinder());
+        TestFixture.setClockToMilliseconds(System::currentTimeMillis);
+    }
+
+    @Test
+    void testScanningIsContinuousWhenDisabled() {
+        final ScanScheduler scheduler = new ScanScheduler();
+        scheduler.published("AABBCCDDEEFF");
+        clock.set(1000);
+        assertTrue(scheduler.isScanningNeeded());
+    }
+
+    @Test
+    void testScanningIsPausedUntilTagIsDue() {
+        configure("command.scan.dutyCycle", "true", "filter.mode", "none", "limitingStrategy", "default");
+        final ScanScheduler scheduler = new ScanScheduler();
+        assertTrue(scheduler.isScanningNeeded()); // nothing known yet
+
+        scheduler.published("AABBCCDDEEFF"); // due at 9900
+        clock.set(1000);
+        assertFalse(scheduler.isScanningNeeded());
+        clock.set(4899);
+        assertFalse(scheduler.isScanningNeeded());
+        clock.set(4900); // 5000 ms lead
+        assertTrue(scheduler.isScanningNeeded());
+        clock.set(9950);
+        assertTrue(scheduler.isScanningNeeded());
+
+        scheduler.published("AABBCCDDEEFF"); // due at 19850
+        assertFalse(scheduler.isScanningNeeded());
+        clock.set(14850);
+        assertTrue(scheduler.isScanningNeeded());
+    }
+
+    @Test
+    void testMissedTagIsExpectedAgainOnNextInterval() {
+        configure("command.scan.dutyCycle", "true", "filter.mode", "none", "limitingStrategy", "default",
+                "command.scan.dutyCycle.maxWindowSecs", "10");
+        final ScanScheduler scheduler = new ScanScheduler();
+        scheduler.published("AABBCCDDEEFF"); // due at 9900
+        clock.set(4900);
+        assertTrue(scheduler.isScanningNeeded());
+        clock.set(14900);
+        assertTrue(scheduler.isScanningNeeded());
+        clock.set(14901); // window open for more than 10 s, due again at 24801
+        assertFalse(scheduler.isScanningNeeded());
+        clock.set(19801);
+        assertTrue(scheduler.isScanningNeeded());
+    }
+
+    @Test
+    void testScanningIsContinuousForMotionSensitiveTags() {
+        configure("command.scan.dutyCycle", "true", "filter.mode", "none", "limitingStrategy", "default",
+                "tag.AABBCCDDEEFF.limitingStrategy", "onMovement");
+        final ScanScheduler scheduler = new ScanScheduler();
+        scheduler.published("AABBCCDDEEFF");
+        clock.set(1000);
+        assertTrue(scheduler.isScanningNeeded());
+    }
+
+    @Test
+    void testScanningIsContinuousUntilExpectedTagsHaveBeenSeen() {
+        configure("command.scan.dutyCycle", "true", "filter.mode", "whitelist", "filter.macs", "AABBCCDDEEFF,112233445566",
+                "limitingStrategy", "default");
+        final ScanScheduler scheduler = new ScanScheduler();
+        scheduler.published("AABBCCDDEEFF");
+        clock.set(1000);
+        assertTrue(scheduler.isScanningNeeded());
+        scheduler.published("112233445566");
+        clock.set(2000);
+        assertFalse(scheduler.isScanningNeeded());
+    }
+
+    private void configure(String... keysAndValues) {
+        // The test configuration has a per tag motion sensitive strategy, start from the defaults instead
+        Config.reload(f -> null);
+        final Properties properties = new Properties();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            properties.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        Config.readConfigFromProperties(properties);
+        TestFixture.setClockToMilliseconds(clock::get);
+    }
+}
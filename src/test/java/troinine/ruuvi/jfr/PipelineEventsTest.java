@@ -0,0 +1,114 @@
+package troinine.ruuvi.jfr;
+
+import fi.tkgwf.ruuvi.TestFixture;
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigTest;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import troinine.ruuvi.hci.AsciiLine;
+import troinine.ruuvi.hci.AsciiLineReader;
+import troinine.ruuvi.hci.HciStreamParser;
+import troinine.ruuvi.mqtt.MqttPublisher;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class PipelineEventsTest {
+    private static final Path PROFILE = Path.of("src/main/jfr/ruuvi.jfc");
+
+    @BeforeEach
+    void resetConfigBefore() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @AfterEach
+    void resetConfigAfter() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @Test
+    void testEventsAreDisabledByDefault() {
+        assertFalse(new ParseBatchEvent().isEnabled());
+        assertFalse(new DecodeEvent().isEnabled());
+        assertFalse(new PublishEvent().isEnabled());
+    }
+
+    @Test
+    void testParseBatchIsRecorded() throws IOException, ParseException {
+        final Properties properties = new Properties();
+        properties.put("filter.mode", "none");
+        Config.readConfigFromProperties(properties);
+
+        final String dump = "HCI sniffer - Bluetooth packet analyzer ver 5.50\n"
+                + TestFixture.getDataFormat3Message() + "\n"
+                + TestFixture.getDataFormat3Message() + "\n";
+        final List<RecordedEvent> events = record(() -> {
+            final HciStreamParser parser = new HciStreamParser("hci9");
+            final AsciiLine line = new AsciiLine();
+            try (AsciiLineReader reader = new AsciiLineReader(new ByteArrayInputStream(dump.getBytes(StandardCharsets.US_ASCII)))) {
+                while (reader.readLine(line)) {
+                    parser.parse(line);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            parser.flush();
+        });
+
+        final List<RecordedEvent> batches = events.stream().filter(e -> e.getEventType().getName().equals("ruuvi.ParseBatch")).toList();
+        assertEquals(1, batches.size());
+        assertEquals("hci9", batches.get(0).getString("source"));
+        assertEquals(3, batches.get(0).getInt("lines"));
+        assertEquals(2, batches.get(0).getInt("packets"));
+        assertEquals(0, batches.get(0).getInt("errors"));
+    }
+
+    @Test
+    void testFailedConnectIsRecorded() throws IOException, ParseException {
+        final Properties properties = new Properties();
+        properties.put("mqtt.brokerUrls", "tcp://127.0.0.1:1");
+        Config.readConfigFromProperties(properties);
+
+        final List<RecordedEvent> events = record(() -> {
+            final EnhancedRuuviMeasurement measurement = new EnhancedRuuviMeasurement();
+            measurement.setMac("AABBCCDDEEFF");
+            assertFalse(new MqttPublisher().publish(measurement));
+        });
+
+        final List<RecordedEvent> connects = events.stream().filter(e -> e.getEventType().getName().equals("ruuvi.Connect")).toList();
+        assertEquals(1, connects.size());
+        assertEquals(ConnectEvent.MQTT, connects.get(0).getString("target"));
+        assertEquals("tcp://127.0.0.1:1", connects.get(0).getString("address"));
+        assertFalse(connects.get(0).getBoolean("succeeded"));
+        assertFalse(connects.get(0).getBoolean("reconnect"));
+    }
+
+    private List<RecordedEvent> record(Runnable task) throws IOException, ParseException {
+        final Path file = Files.createTempFile("recording", ".jfr");
+        try (Recording recording = new Recording(Configuration.create(PROFILE))) {
+            recording.start();
+            task.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
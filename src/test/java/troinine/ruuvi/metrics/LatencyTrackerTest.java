@@ -0,0 +1,55 @@
+package troinine.ruuvi.metrics;
+
+import io.prometheus.client.Collector;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyTrackerTest {
+
+    @Test
+    void testPercentilesSincePreviousScrape() {
+        final LatencyTracker tracker = new LatencyTracker();
+        for (int i = 1; i <= 1000; i++) {
+            tracker.record(Metrics.Stage.DECODE, TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        tracker.record(Metrics.Stage.DECODE, TimeUnit.SECONDS.toNanos(2));
+        tracker.record(Metrics.Stage.DECODE, TimeUnit.SECONDS.toNanos(2));
+
+        final List<Collector.MetricFamilySamples> first = tracker.collect();
+        assertEquals(0.5, value(first, "ruuvi_latency_seconds", "decode", "0.5") * 1000, 0.01);
+        assertEquals(0.99, value(first, "ruuvi_latency_seconds", "decode", "0.99") * 1000, 0.01);
+        assertEquals(2, value(first, "ruuvi_latency_seconds", "decode", "0.999"), 0.02);
+        assertEquals(3, samples(first, "ruuvi_latency_seconds").size());
+
+        // Nothing recorded since the previous scrape
+        assertTrue(samples(tracker.collect(), "ruuvi_latency_seconds").isEmpty());
+    }
+
+    @Test
+    void testTagLatency() {
+        final LatencyTracker tracker = new LatencyTracker();
+        tracker.recordTag("AABBCCDDEEFF", TimeUnit.MILLISECONDS.toNanos(30));
+        tracker.recordTag("AABBCCDDEEFF", TimeUnit.MILLISECONDS.toNanos(30));
+        tracker.recordTag("112233445566", TimeUnit.MILLISECONDS.toNanos(3000));
+
+        final List<Collector.MetricFamilySamples> samples = tracker.collect();
+        assertEquals(0.03, value(samples, "ruuvi_tag_latency_seconds", "AABBCCDDEEFF", "0.5"), 0.001);
+        assertEquals(3, value(samples, "ruuvi_tag_latency_seconds", "112233445566", "0.99"), 0.03);
+    }
+
+    private static List<Collector.MetricFamilySamples.Sample> samples(List<Collector.MetricFamilySamples> families, String name) {
+        return families.stream().filter(f -> f.name.equals(name)).findFirst().orElseThrow().samples;
+    }
+
+    private static double value(List<Collector.MetricFamilySamples> families, String name, String label, String quantile) {
+        return samples(families, name).stream()
+                .filter(s -> s.labelValues.equals(Arrays.asList(label, quantile)))
+                .findFirst().orElseThrow().value;
+    }
+}
@@ -0,0 +1,83 @@
+package troinine.ruuvi.metrics;
+
+import fi.tkgwf.ruuvi.config.Config;
+import fi.tkgwf.ruuvi.config.ConfigTest;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.HTTPServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+
+    @BeforeEach
+    void resetConfigBefore() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @AfterEach
+    void resetConfigAfter() {
+        Config.reload(ConfigTest.configTestFileFinder());
+    }
+
+    @Test
+    void testGaugeIsReadWhenScraped() {
+        final int[] value = { 1 };
+        Metrics.gauge(Metrics.PROCESS_RESTARTS, () -> value[0], "hci9", "scan");
+        assertEquals(1, sample("ruuvi_process_restarts", new String[] { "adapter", "process" }, new String[] { "hci9", "scan" }));
+        value[0] = 3;
+        assertEquals(3, sample("ruuvi_process_restarts", new String[] { "adapter", "process" }, new String[] { "hci9", "scan" }));
+        Metrics.PROCESS_RESTARTS.remove("hci9", "scan");
+    }
+
+    @Test
+    void testStageDurationIsObserved() {
+        final String[] labels = { "stage" };
+        final String[] values = { "calculate" };
+        final double before = sample("ruuvi_stage_duration_seconds_count", labels, values);
+        final long start = System.nanoTime();
+        assertTrue(Metrics.observe(Metrics.Stage.CALCULATE, start) >= start);
+        assertEquals(before + 1, sample("ruuvi_stage_duration_seconds_count", labels, values));
+    }
+
+    @Test
+    void testServerIsStartedWhenEnabled() throws IOException, InterruptedException {
+        assertNull(Metrics.startServer());
+
+        final Properties properties = new Properties();
+        properties.put("metrics.enabled", "true");
+        properties.put("metrics.bindAddress", "127.0.0.1");
+        properties.put("metrics.port", "0");
+        Config.readConfigFromProperties(properties);
+        final HTTPServer server = Metrics.startServer();
+        assertNotNull(server);
+        try {
+            Metrics.HCI_LINES_READ.inc();
+            final HttpResponse<String> response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertTrue(response.body().contains("ruuvi_lines_read_total{source=\"hci\",}"));
+            assertTrue(response.body().contains("ruuvi_stage_duration_seconds_bucket{stage=\"publish\",le=\"0.001\",}"));
+        } finally {
+            server.close();
+        }
+    }
+
+    static double sample(String name, String[] labelNames, String[] labelValues) {
+        final Double value = CollectorRegistry.defaultRegistry.getSampleValue(name, labelNames, labelValues);
+        return value != null ? value : 0;
+    }
+}
@@ -0,0 +1,144 @@
+package troinine.ruuvi.metrics;
+
+import fi.tkgwf.ruuvi.bean.HCIData;
+import io.prometheus.client.Collector;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReceptionTrackerTest {
+    private static final String MAC = "CBB8334C884F";
+
+    @Test
+    void testLostSequencesAreCountedWhenTheyLeaveTheWindow() {
+        final ReceptionTracker.SequenceWindow window = new ReceptionTracker.SequenceWindow();
+        for (int sequence = 0; sequence < 100; sequence++) {
+            if (sequence % 10 != 5) {
+                window.record(sequence);
+            }
+        }
+        assertEquals(90, window.received);
+        // 5, 15, 25 and 35 have left the window, the rest may still arrive late
+        assertEquals(4, window.lost);
+        assertEquals(58.0 / 64, window.ratio(), 1e-9);
+
+        window.record(95);
+        assertEquals(91, window.received);
+        window.record(95);
+        window.record(99);
+        assertEquals(91, window.received);
+    }
+
+    @Test
+    void testWraparound() {
+        final ReceptionTracker.SequenceWindow window = new ReceptionTracker.SequenceWindow();
+        window.record(65533);
+        window.record(65534);
+        window.record(1);
+        assertEquals(3, window.received);
+        assertEquals(0, window.resets);
+        assertEquals(0.75, window.ratio(), 1e-9);
+    }
+
+    @Test
+    void testRebootAndLongGapStartOver() {
+        final ReceptionTracker.SequenceWindow window = new ReceptionTracker.SequenceWindow();
+        for (int sequence = 40000; sequence < 40100; sequence++) {
+            window.record(sequence);
+        }
+        window.record(0);
+        assertEquals(1, window.resets);
+        assertEquals(0, window.lost);
+        assertEquals(1, window.ratio(), 1e-9);
+
+        window.record(ReceptionTracker.SequenceWindow.MAX_GAP + 1);
+        assertEquals(2, window.resets);
+
+        // A gap within the limit is lost, apart from the part still in the window
+        window.record(2 * ReceptionTracker.SequenceWindow.MAX_GAP + 1);
+        assertEquals(2, window.resets);
+        assertEquals(ReceptionTracker.SequenceWindow.MAX_GAP - ReceptionTracker.SequenceWindow.SIZE, window.lost);
+        assertEquals(1.0 / 64, window.ratio(), 1e-9);
+    }
+
+    @Test
+    void testEarlyRebootStartsOver() {
+        final ReceptionTracker.SequenceWindow window = new ReceptionTracker.SequenceWindow();
+        for (int sequence = 0; sequence < 20; sequence++) {
+            window.record(sequence);
+        }
+        // A single number heard again is not a reboot
+        window.record(5);
+        assertEquals(0, window.resets);
+
+        // Rebooted, counting again from 0 with 2 lost
+        for (int sequence = 0; sequence < 30; sequence++) {
+            if (sequence != 3 && sequence != 4) {
+                window.record(sequence);
+            }
+        }
+        assertEquals(1, window.resets);
+        assertEquals(20 + 28, window.received);
+        assertEquals(0, window.lost);
+        assertEquals(28.0 / 30, window.ratio(), 1e-9);
+    }
+
+    @Test
+    void testSequenceNumberOfDataFormat5() {
+        assertEquals(205, ReceptionTracker.sequenceNumber(packet("hci0", 205)));
+        assertEquals(-1, ReceptionTracker.sequenceNumber(packet("hci0", 0xFFFF)));
+        assertEquals(-1, ReceptionTracker.sequenceNumber(new HCIData()));
+    }
+
+    @Test
+    void testReceptionPerTagAndAdapter() {
+        final ReceptionTracker tracker = new ReceptionTracker(10, 0, () -> 0);
+        for (int sequence = 0; sequence < 64; sequence++) {
+            tracker.heard(packet("hci0", sequence));
+            if (sequence % 2 == 0) {
+                tracker.heard(packet("hci1", sequence));
+            }
+            // The collector drops every fourth packet
+            if (sequence % 4 != 3) {
+                tracker.handled(MAC, sequence);
+            }
+        }
+
+        final List<Collector.MetricFamilySamples> samples = tracker.collect();
+        assertEquals(1, value(samples, "ruuvi_reception_ratio", MAC, "hci0"), 1e-9);
+        assertEquals(0.5, value(samples, "ruuvi_reception_ratio", MAC, "hci1"), 0.02);
+        assertEquals(0.5, value(samples, "ruuvi_adapter_reception_ratio", "hci1"), 0.02);
+        assertEquals(64, value(samples, "ruuvi_adapter_sequences_received_total", "hci0"));
+        assertEquals(0.75, value(samples, "ruuvi_tag_reception_ratio", MAC), 0.02);
+        assertEquals(48, value(samples, "ruuvi_tag_sequences_received_total", MAC));
+    }
+
+    private static HCIData packet(String adapter, int sequence) {
+        final List<Byte> data = new ArrayList<>();
+        for (byte b : new byte[] { (byte) 0x99, 0x04, 0x05, 0x12, (byte) 0xFC, 0x53, (byte) 0x94, (byte) 0xC3, 0x7C, 0x00, 0x04,
+                (byte) 0xFF, (byte) 0xFC, 0x04, 0x0C, (byte) 0xAC, 0x36, 0x42, (byte) (sequence >> 8), (byte) sequence,
+                (byte) 0xCB, (byte) 0xB8, 0x33, 0x4C, (byte) 0x88, 0x4F }) {
+            data.add(b);
+        }
+        final HCIData.Report.AdvertisementData advertisement = new HCIData.Report.AdvertisementData();
+        advertisement.type = 0xFF;
+        advertisement.data = data;
+        final HCIData.Report report = new HCIData.Report();
+        report.advertisements = List.of(advertisement);
+        final HCIData hciData = new HCIData();
+        hciData.mac = MAC;
+        hciData.adapter = adapter;
+        hciData.reports = List.of(report);
+        return hciData;
+    }
+
+    private static double value(List<Collector.MetricFamilySamples> families, String sampleName, String... labels) {
+        return families.stream().flatMap(f -> f.samples.stream())
+                .filter(s -> s.name.equals(sampleName) && s.labelValues.equals(Arrays.asList(labels)))
+                .findFirst().orElseThrow().value;
+    }
+}
@@ -0,0 +1,119 @@
+package troinine.ruuvi.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import io.prometheus.client.Collector;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TagStatisticsTest {
+    private static final String MAC = "AABBCCDDEEFF";
+
+    private long now = 1_000_000;
+
+    @Test
+    void testSummarySincePreviousSummary() throws Exception {
+        final TagStatistics statistics = new TagStatistics(10, 0, () -> now);
+        for (int i = 0; i < 20; i++) {
+            statistics.heard(measurement(MAC, i % 2 == 0 ? -60 : -80, 3.0));
+            if (i % 10 == 0) {
+                statistics.published(MAC);
+            } else {
+                statistics.dropped(MAC);
+            }
+            now += 500;
+        }
+
+        final TagStatistics.Summary first = statistics.summarize().get(0);
+        assertEquals(MAC, first.mac());
+        assertEquals(2, first.packetsPerSecond(), 0.01);
+        assertEquals(18, first.dropped());
+        assertEquals(2, first.published());
+        assertEquals(-70, first.rssi(), 5);
+        assertEquals(0.5, first.lastSeenSecs(), 0.001);
+        assertEquals(5, first.maxPublishGapSecs(), 0.001);
+        assertEquals(3.0, first.battery(), 0.001);
+        assertNull(first.batteryTrendPerDay());
+        assertFalse(new ObjectMapper().writeValueAsString(first).contains("batteryTrendPerDay"));
+
+        // Silent since the previous summary, the ongoing publish gap counts
+        now += 9500;
+        final TagStatistics.Summary second = statistics.summarize().get(0);
+        assertEquals(0, second.packetsPerSecond(), 0.001);
+        assertEquals(10, second.lastSeenSecs(), 0.001);
+        assertEquals(14.5, second.maxPublishGapSecs(), 0.001);
+    }
+
+    @Test
+    void testBatteryTrend() {
+        final TagStatistics statistics = new TagStatistics(10, 0, () -> now);
+        // Drains 10 mV per day, heard once a minute for three days
+        for (int minute = 0; minute <= 3 * 24 * 60; minute++) {
+            statistics.heard(measurement(MAC, -70, 3.0 - 0.01 * minute / (24 * 60)));
+            now += TimeUnit.MINUTES.toMillis(1);
+        }
+
+        final TagStatistics.Summary summary = statistics.summarize().get(0);
+        assertEquals(2.97, summary.battery(), 0.001);
+        assertEquals(-0.01, summary.batteryTrendPerDay(), 0.0005);
+        assertEquals(-0.01, value(statistics.collect(), "ruuvi_tag_battery_trend_volts_per_day", MAC), 0.0005);
+    }
+
+    @Test
+    void testCollect() {
+        final TagStatistics statistics = new TagStatistics(10, 0, () -> now);
+        statistics.heard(measurement(MAC, -70, null));
+        statistics.published(MAC);
+        now += 2000;
+        statistics.heard(measurement(MAC, -70, null));
+        statistics.published(MAC);
+        now += 1000;
+
+        final List<Collector.MetricFamilySamples> samples = statistics.collect();
+        assertEquals(2, value(samples, "ruuvi_tag_packets_total", MAC));
+        assertEquals(2, value(samples, "ruuvi_tag_published_total", MAC));
+        assertEquals(0, value(samples, "ruuvi_tag_dropped_total", MAC));
+        assertEquals(-70, value(samples, "ruuvi_tag_rssi_dbm", MAC));
+        assertEquals(1, value(samples, "ruuvi_tag_last_seen_seconds", MAC));
+        assertEquals(2, value(samples, "ruuvi_tag_publish_gap_seconds", MAC));
+        assertTrue(family(samples, "ruuvi_tag_battery_volts").samples.isEmpty());
+    }
+
+    @Test
+    void testMemoryIsBounded() {
+        final TagStatistics statistics = new TagStatistics(32, TimeUnit.MINUTES.toMillis(10), () -> now);
+        for (int i = 0; i < 1000; i++) {
+            statistics.heard(measurement(String.format("%012X", i), -70, 3.0));
+            now += 1000;
+        }
+        assertTrue(statistics.size() <= 32);
+
+        now += TimeUnit.MINUTES.toMillis(11);
+        assertTrue(statistics.summarize().isEmpty());
+    }
+
+    private static EnhancedRuuviMeasurement measurement(String mac, int rssi, Double battery) {
+        final EnhancedRuuviMeasurement measurement = new EnhancedRuuviMeasurement();
+        measurement.setMac(mac);
+        measurement.setRssi(rssi);
+        measurement.setBatteryVoltage(battery);
+        return measurement;
+    }
+
+    private static Collector.MetricFamilySamples family(List<Collector.MetricFamilySamples> families, String sampleName) {
+        return families.stream().filter(f -> sampleName.startsWith(f.name)).findFirst().orElseThrow();
+    }
+
+    private static double value(List<Collector.MetricFamilySamples> families, String sampleName, String mac) {
+        return family(families, sampleName).samples.stream()
+                .filter(s -> s.name.equals(sampleName) && s.labelValues.get(0).equals(mac))
+                .findFirst().orElseThrow().value;
+    }
+}
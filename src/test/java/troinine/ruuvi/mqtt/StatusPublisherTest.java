@@ -0,0 +1,22 @@
+package troinine.ruuvi.mqtt;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import troinine.ruuvi.metrics.TagStatistics;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StatusPublisherTest {
+
+    @Test
+    void testStatusIsCompactJson() throws Exception {
+        final TagStatistics.Summary summary = new TagStatistics.Summary("AABBCCDDEEFF", null, 0.98, 586, 6, -71.4,
+                0.4, 10.0, 2.951, null);
+        final String json = new ObjectMapper().writeValueAsString(new StatusPublisher.Status(1700000000000L, List.of(summary)));
+        assertEquals("{\"timestamp\":1700000000000,\"tags\":[{\"mac\":\"AABBCCDDEEFF\",\"packetsPerSecond\":0.98,"
+                + "\"dropped\":586,\"published\":6,\"rssi\":-71.4,\"lastSeenSecs\":0.4,\"maxPublishGapSecs\":10.0,"
+                + "\"battery\":2.951}]}", json);
+    }
+}
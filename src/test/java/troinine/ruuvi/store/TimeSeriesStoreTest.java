@@ -0,0 +1,302 @@
+package troinine.ruuvi.store;
+
+import fi.tkgwf.ruuvi.bean.EnhancedRuuviMeasurement;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimeSeriesStoreTest {
+    private static final String MAC = "AABBCCDDEEFF";
+    private static final long HOUR = 3_600_000;
+
+    private final AtomicLong clock = new AtomicLong(1_700_000_000_000L);
+    private Path directory;
+    private TimeSeriesStore store;
+
+    @BeforeEach
+    void createStore() throws IOException {
+        directory = Files.createTempDirectory("ruuvi-store");
+        store = new TimeSeriesStore(directory, HOUR, 24 * HOUR, clock::get);
+        assertTrue(store.open());
+    }
+
+    @AfterEach
+    void closeStore() {
+        store.close();
+    }
+
+    @Test
+    void testValuesAreReadBackExactly() {
+        final long start = clock.get();
+        final List<EnhancedRuuviMeasurement> measurements = new ArrayList<>();
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            final EnhancedRuuviMeasurement measurement = measurement(start + i * 1000L + random.nextInt(50), random);
+            if (i % 10 == 0) {
+                measurement.setHumidity(null);
+            }
+            measurements.add(measurement);
+        }
+        // The clock may be set back
+        measurements.get(500).setTime(start - 5000);
+        measurements.get(501).setTime(Long.MIN_VALUE / 2);
+        measurements.forEach(store::append);
+
+        for (Column column : Column.values()) {
+            final List<Long> expectedTimes = new ArrayList<>();
+            final List<Double> expectedValues = new ArrayList<>();
+            for (EnhancedRuuviMeasurement measurement : measurements) {
+                final double value = column.valueOf(measurement);
+                if (!Double.isNaN(value)) {
+                    expectedTimes.add(measurement.getTime());
+                    expectedValues.add(value);
+                }
+            }
+            final List<Long> times = new ArrayList<>();
+            final List<Double> values = new ArrayList<>();
+            store.query(MAC, column, Long.MIN_VALUE, Long.MAX_VALUE, (timestamp, value) -> {
+                times.add(timestamp);
+                values.add(value);
+            });
+            assertEquals(expectedTimes, times, column.name());
+            assertEquals(expectedValues, values, column.name());
+        }
+        assertEquals(900, count(Column.HUMIDITY, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    void testQueryIsLimitedToTimeRange() {
+        final long start = clock.get();
+        for (int i = 0; i < 3 * 3600; i++) {
+            store.append(measurement(start + i * 1000L, new Random(i)));
+        }
+        assertEquals(3 * 3600, store.getSamples());
+        assertEquals(3600, count(Column.TEMPERATURE, start + HOUR, start + 2 * HOUR - 1));
+        assertEquals(1, count(Column.TEMPERATURE, start, start));
+        assertEquals(0, count(Column.TEMPERATURE, start - HOUR, start - 1));
+        assertEquals(0, count(Column.TEMPERATURE, start + 3 * HOUR, Long.MAX_VALUE));
+        assertEquals(0, count(Column.TEMPERATURE, "BBBBBBBBBBBB"));
+    }
+
+    @Test
+    void testBlocksAreSealedAndReadAfterReopening() throws IOException, InterruptedException, ExecutionException {
+        final long start = clock.get();
+        for (int i = 0; i < 150; i++) {
+            store.append(measurement(start + i * 60_000L, new Random(i)));
+        }
+        // Sealed after 60 and 120 minutes, and readable while being written
+        assertEquals(150, count(Column.PRESSURE, Long.MIN_VALUE, Long.MAX_VALUE));
+        store.awaitWritten();
+        assertEquals(2, blockFiles().size());
+        assertTrue(store.getSealedBytes() > 0);
+        store.close();
+        assertEquals(3, blockFiles().size());
+
+        store = new TimeSeriesStore(directory, HOUR, 24 * HOUR, clock::get);
+        assertTrue(store.open());
+        assertEquals(150, store.getSamples());
+        assertEquals(150, count(Column.PRESSURE, Long.MIN_VALUE, Long.MAX_VALUE));
+        store.append(measurement(start + 150 * 60_000L, new Random(150)));
+        assertEquals(151, count(Column.PRESSURE, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    void testAppendingAfterClosingIsIgnored() throws IOException {
+        final long start = clock.get();
+        store.append(measurement(start, new Random(1)));
+        store.close();
+        store.append(measurement(start + 2 * HOUR, new Random(2)));
+        assertEquals(1, blockFiles().size());
+
+        store = new TimeSeriesStore(directory, HOUR, 24 * HOUR, clock::get);
+        assertTrue(store.open());
+        assertEquals(1, count(Column.TEMPERATURE, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    void testUnreadableBlocksAreSkipped() throws IOException {
+        store.append(measurement(clock.get(), new Random(1)));
+        store.close();
+        Files.write(directory.resolve(MAC).resolve("1.block"), new byte[]{1, 2, 3});
+
+        store = new TimeSeriesStore(directory, HOUR, 24 * HOUR, clock::get);
+        assertTrue(store.open());
+        assertEquals(1, count(Column.TEMPERATURE, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    void testExpiredBlocksAreDeleted() throws IOException, InterruptedException, ExecutionException {
+        final long start = clock.get();
+        for (int i = 0; i < 4; i++) {
+            store.append(measurement(start + i * HOUR, new Random(i)));
+        }
+        store.awaitWritten();
+        assertEquals(3, blockFiles().size());
+
+        // The blocks of the samples at 0 and 1 hours have expired, the one at 2 hours has not
+        clock.set(start + 26 * HOUR - 1);
+        assertEquals(2, store.purge());
+        assertEquals(1, blockFiles().size());
+        assertEquals(2, count(Column.TEMPERATURE, Long.MIN_VALUE, Long.MAX_VALUE));
+
+        clock.set(start + 100 * HOUR);
+        assertEquals(1, store.purge());
+        assertEquals(0, blockFiles().size());
+        assertEquals(1, count(Column.TEMPERATURE, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    void testMeasurementsWithoutValidMacAreDropped() throws IOException {
+        for (String mac : List.of("../../evil", "aabbccddeeff", "AA:BB:CC:DD:EE:FF", "AABBCCDDEEF", "")) {
+            final EnhancedRuuviMeasurement measurement = measurement(clock.get(), new Random(1));
+            measurement.setMac(mac);
+            store.append(measurement);
+            assertEquals(0, count(Column.TEMPERATURE, mac), mac);
+        }
+        store.close();
+        assertFalse(Files.exists(directory.resolve("../../evil").normalize()));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testMeasurementsWithoutTimeUseClock() {
+        final EnhancedRuuviMeasurement measurement = measurement(0, new Random(1));
+        measurement.setTime(null);
+        store.append(measurement);
+        final List<Long> times = new ArrayList<>();
+        store.query(MAC, Column.TEMPERATURE, Long.MIN_VALUE, Long.MAX_VALUE, (timestamp, value) -> times.add(timestamp));
+        assertEquals(List.of(clock.get()), times);
+    }
+
+    @Test
+    void testRealisticDataIsCompressed() {
+        final long start = clock.get();
+        final Random random = new Random(7);
+        final int samples = 3600;
+        double temperature = 21.5;
+        double humidity = 45.0;
+        double pressure = 101325;
+        int movements = 0;
+        for (int i = 0; i < samples; i++) {
+            // Drifting slowly in the resolution of data format 5
+            temperature += (random.nextInt(3) - 1) * 0.005;
+            humidity += (random.nextInt(3) - 1) * 0.0025;
+            pressure += random.nextInt(3) - 1;
+            if (random.nextInt(100) == 0) {
+                movements++;
+            }
+            final EnhancedRuuviMeasurement measurement = new EnhancedRuuviMeasurement();
+            measurement.setMac(MAC);
+            measurement.setTime(start + i * 1000L + random.nextInt(20));
+            measurement.setTemperature(Math.round(temperature * 200) / 200.0);
+            measurement.setHumidity(Math.round(humidity * 400) / 400.0);
+            measurement.setPressure(pressure);
+            measurement.setAccelerationX(0.004 + random.nextInt(3) * 0.004);
+            measurement.setAccelerationY(-0.032);
+            measurement.setAccelerationZ(1.036 - random.nextInt(2) * 0.004);
+            measurement.setBatteryVoltage(2.977);
+            measurement.setTxPower(4);
+            measurement.setMovementCounter(movements);
+            measurement.setMeasurementSequenceNumber(i);
+            measurement.setRssi(-70 - random.nextInt(8));
+            store.append(measurement);
+        }
+        store.close();
+        // About 20 bytes for the timestamp and the eleven values of a sample, where plain doubles would take 96
+        final double bytesPerValue = (double) store.getSealedBytes() / samples / Column.values().length;
+        assertTrue(bytesPerValue < 2, "Compressed to " + bytesPerValue + " bytes per value");
+    }
+
+    @Test
+    void testBitsAreReadAsWritten() {
+        final BitWriter writer = new BitWriter();
+        final long[] values = {1, 0, Long.MIN_VALUE, -1, 0x5A, 1L << 62, 12345, -1, 0};
+        final int[] counts = {1, 3, 64, 64, 7, 63, 14, 64, 61};
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < values.length; i++) {
+                writer.writeBits(values[i], counts[i]);
+            }
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(writer.byteLength() + 3);
+        buffer.put(new byte[]{9, 9, 9});
+        writer.writeTo(buffer);
+        final BitReader reader = new BitReader(buffer, 3);
+        for (int round = 0; round < 20; round++) {
+            final long[] read = new long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                read[i] = reader.readBits(counts[i]);
+            }
+            assertArrayEquals(values, read);
+        }
+    }
+
+    @Test
+    void testLargeTimestampJumpsAreEncoded() {
+        final BitWriter writer = new BitWriter();
+        final DeltaOfDeltaCodec.Encoder encoder = new DeltaOfDeltaCodec.Encoder(writer);
+        final long[] timestamps = {0, 1000, 2000, 2999, 4001, Long.MAX_VALUE, Long.MIN_VALUE, 0, 100_000, -7};
+        for (long timestamp : timestamps) {
+            encoder.add(timestamp);
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(writer.byteLength());
+        writer.writeTo(buffer);
+        final DeltaOfDeltaCodec.Decoder decoder = new DeltaOfDeltaCodec.Decoder(new BitReader(buffer, 0));
+        for (long timestamp : timestamps) {
+            assertEquals(timestamp, decoder.next());
+        }
+    }
+
+    private long count(Column column, long from, long to) {
+        final AtomicLong count = new AtomicLong();
+        store.query(MAC, column, from, to, (timestamp, value) -> count.incrementAndGet());
+        return count.get();
+    }
+
+    private long count(Column column, String mac) {
+        final AtomicLong count = new AtomicLong();
+        store.query(mac, column, Long.MIN_VALUE, Long.MAX_VALUE, (timestamp, value) -> count.incrementAndGet());
+        return count.get();
+    }
+
+    private List<Path> blockFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve(MAC))) {
+            return files.filter(f -> f.toString().endsWith(".block")).toList();
+        }
+    }
+
+    private static EnhancedRuuviMeasurement measurement(long time, Random random) {
+        final EnhancedRuuviMeasurement measurement = new EnhancedRuuviMeasurement();
+        measurement.setMac(MAC);
+        measurement.setTime(time);
+        measurement.setTemperature(random.nextGaussian() * 10);
+        measurement.setHumidity(random.nextDouble() * 100);
+        measurement.setPressure(100000 + random.nextInt(3000) * 1.0);
+        measurement.setAccelerationX(random.nextGaussian());
+        measurement.setAccelerationY(Double.longBitsToDouble(random.nextLong()));
+        measurement.setAccelerationZ(random.nextBoolean() ? Double.NaN : -0.0);
+        measurement.setBatteryVoltage(random.nextBoolean() ? null : 3.0);
+        measurement.setTxPower(random.nextInt(10) - 40);
+        measurement.setMovementCounter(random.nextInt(255));
+        measurement.setMeasurementSequenceNumber(random.nextInt(65536));
+        measurement.setRssi(-random.nextInt(100));
+        return measurement;
+    }
+}